@@ -66,6 +66,8 @@ android {
 
 dependencies {
 
+    implementation(project(":core"))
+
     implementation(libs.androidx.core.ktx)
     implementation(libs.appcompat)
     implementation(libs.material)
@@ -115,9 +117,6 @@ dependencies {
     implementation(libs.androidx.lifecycle.viewmodel.compose)
     implementation(libs.androidx.lifecycle.runtime.compose)
 
-    // JSoup
-    implementation(libs.jsoup)
-
     // Material Icons Extended
     implementation(  libs.androidx.compose.material.icons.extended)
 
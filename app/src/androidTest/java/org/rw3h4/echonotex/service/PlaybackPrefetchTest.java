@@ -0,0 +1,202 @@
+package org.rw3h4.echonotex.service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.session.MediaController;
+import androidx.media3.session.SessionCommand;
+import androidx.media3.session.SessionResult;
+import androidx.media3.session.SessionToken;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays notes through {@link PlaybackService} the way the app does, with and
+ * without prefetching them first. The tap-to-audio times go to logcat:
+ * <pre>
+ *   adb logcat -s PlaybackPrefetch
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackPrefetchTest {
+
+    private static final String TAG = "PlaybackPrefetch";
+    private static final int SAMPLE_RATE = 44_100;
+    private static final int CLIP_MILLIS = 2_000;
+    private static final long TIMEOUT_SECONDS = 10;
+    // About as long as the grid sits still between settling and a tap
+    private static final long SETTLE_MILLIS = 1_000;
+    private static final SessionCommand PREFETCH =
+            new SessionCommand(PlaybackService.ACTION_PREFETCH, Bundle.EMPTY);
+
+    private Context context;
+    private MediaController controller;
+    private final List<File> files = new ArrayList<>();
+
+    @Before
+    public void connect() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        SessionToken token = new SessionToken(context, new ComponentName(context, PlaybackService.class));
+        controller = new MediaController.Builder(context, token)
+                .setApplicationLooper(Looper.getMainLooper())
+                .buildAsync()
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void release() {
+        onMain(() -> {
+            controller.stop();
+            controller.clearMediaItems();
+            controller.release();
+            return null;
+        });
+        for (File file : files) file.delete();
+    }
+
+    @Test
+    public void tapToAudio_coldThenPrefetched() throws Exception {
+        long coldMillis = play(Arrays.asList(clip("cold")), false);
+
+        MediaItem warm = clip("warm");
+        prefetch(Arrays.asList(warm));
+        SystemClock.sleep(SETTLE_MILLIS);
+        long prefetchedMillis = play(Arrays.asList(warm), false);
+
+        Log.i(TAG, String.format(Locale.US, "Tap to audio: %d ms cold, %d ms prefetched",
+                coldMillis, prefetchedMillis));
+    }
+
+    @Test
+    public void prefetchedQueue_playsThroughToTheEnd() throws Exception {
+        // Past the preloaded range and on into the next note, both from handed-over sources
+        List<MediaItem> queue = Arrays.asList(clip("first"), clip("second"));
+        prefetch(queue);
+        SystemClock.sleep(SETTLE_MILLIS);
+        play(queue, true);
+
+        int index = onMain(controller::getCurrentMediaItemIndex);
+        assertEquals(1, index);
+    }
+
+    private void prefetch(List<MediaItem> items) throws Exception {
+        ArrayList<Bundle> bundles = new ArrayList<>();
+        for (MediaItem item : items) bundles.add(item.toBundleIncludeLocalConfiguration());
+        Bundle args = new Bundle();
+        args.putParcelableArrayList(PlaybackService.EXTRA_MEDIA_ITEMS, bundles);
+        SessionResult result = onMain(() -> {
+            assertTrue(controller.isSessionCommandAvailable(PREFETCH));
+            return controller.sendCustomCommand(PREFETCH, args);
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(SessionResult.RESULT_SUCCESS, result.resultCode);
+    }
+
+    /**
+     * Plays {@code items} from the first the way PlaybackRepository does and
+     * returns how long it took to be heard, optionally waiting for the end.
+     */
+    private long play(List<MediaItem> items, boolean toTheEnd) throws InterruptedException {
+        CountDownLatch playing = new CountDownLatch(1);
+        CountDownLatch ended = new CountDownLatch(1);
+        long[] heardAt = new long[1];
+        Player.Listener listener = new Player.Listener() {
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                if (isPlaying && heardAt[0] == 0) {
+                    heardAt[0] = SystemClock.elapsedRealtime();
+                    playing.countDown();
+                }
+            }
+
+            @Override
+            public void onPlaybackStateChanged(int playbackState) {
+                if (playbackState == Player.STATE_ENDED) ended.countDown();
+            }
+        };
+
+        long tappedAt = onMain(() -> {
+            controller.addListener(listener);
+            long now = SystemClock.elapsedRealtime();
+            controller.setMediaItems(items, 0, 0L);
+            controller.prepare();
+            controller.play();
+            return now;
+        });
+        try {
+            assertTrue("Never started playing", playing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            if (toTheEnd) {
+                assertTrue("Never reached the end", ended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+        } finally {
+            onMain(() -> {
+                controller.removeListener(listener);
+                return null;
+            });
+        }
+        return heardAt[0] - tappedAt;
+    }
+
+    // A controller only takes calls on its own looper
+    private static <T> T onMain(Callable<T> call) {
+        FutureTask<T> task = new FutureTask<>(call);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(task);
+        try {
+            return task.get();
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof AssertionError) throw (AssertionError) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Writes {@link #CLIP_MILLIS} of a 440 Hz tone as 16-bit mono WAV and returns its item. */
+    private MediaItem clip(String name) throws IOException {
+        int frames = SAMPLE_RATE * CLIP_MILLIS / 1000;
+        ByteBuffer wav = ByteBuffer.allocate(44 + frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes()).putInt(36 + frames * 2).put("WAVE".getBytes());
+        wav.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16);
+        wav.put("data".getBytes()).putInt(frames * 2);
+        for (int i = 0; i < frames; i++) {
+            wav.putShort((short) (3_000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)));
+        }
+
+        File file = new File(context.getCacheDir(), "prefetch-test-" + name + ".wav");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(wav.array());
+        }
+        files.add(file);
+        return new MediaItem.Builder()
+                .setMediaId("prefetch-test-" + name)
+                .setUri(Uri.fromFile(file))
+                .build();
+    }
+}
@@ -0,0 +1,187 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.rw3h4.echonotex.core.audio.RecordingProfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encodes the same minute of audio in every recording profile with the device's
+ * AAC encoder, set up the way {@link RecordingEngine} sets it up, and reports
+ * what the .m4a files come to and how long the encode took. The rows go to
+ * logcat in the layout of RecordingProfile's table, whose device columns they fill:
+ * <pre>
+ *   adb logcat -s RecordingProfileSize
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecordingProfileSizeTest {
+
+    private static final String TAG = "RecordingProfileSize";
+    private static final int CLIP_SECONDS = 60;
+    private static final int BLOCK_MILLIS = 20;
+    private static final long TIMEOUT_US = 10_000;
+    // The format every note was recorded in before profiles existed
+    private static final int OLD_SAMPLE_RATE = 44_100;
+    private static final int OLD_BIT_RATE = 96_000;
+
+    private static final class Encoded {
+        final long bytes;
+        final long wallMillis;
+
+        Encoded(long bytes, long wallMillis) {
+            this.bytes = bytes;
+            this.wallMillis = wallMillis;
+        }
+    }
+
+    @Test
+    public void encodedSizePerMinute() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File dir = new File(context.getCacheDir(), "profile-size-test");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+
+        Encoded old = encode(new File(dir, "old.m4a"), OLD_SAMPLE_RATE, OLD_BIT_RATE);
+        Log.i(TAG, "profile    nominal size   device size   device encode");
+        log("OLD", Math.round(60 * OLD_BIT_RATE / 8.0), old);
+
+        long previous = 0;
+        for (RecordingProfile profile : RecordingProfile.values()) {
+            Encoded encoded = encode(new File(dir, profile.getId() + ".m4a"),
+                    profile.getSampleRate(), profile.getBitRate());
+            long nominal = profile.estimatedBytesPerMinute();
+            log(profile.name(), nominal, encoded);
+
+            // AAC encoders here hold the bitrate they're given; a big miss means the
+            // nominal figures in RecordingProfile can't be trusted
+            assertEquals(profile + " size", nominal, encoded.bytes, nominal * 0.25);
+            assertTrue(profile + " should cost more than the profile before it", encoded.bytes > previous);
+            previous = encoded.bytes;
+
+            if (profile == RecordingProfile.DEFAULT) {
+                assertTrue("The default should take well under half the old format's space",
+                        encoded.bytes < old.bytes * 0.45);
+            }
+        }
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void log(String name, long nominalBytes, Encoded encoded) {
+        // Wall time: the encoder may run in a media process, out of reach of this one's CPU clock
+        Log.i(TAG, String.format(Locale.US, "%-10s %-14s %-13s %d ms", name,
+                nominalBytes / 1000 + " KB", encoded.bytes / 1000 + " KB", encoded.wallMillis));
+    }
+
+    /** Encodes {@link #CLIP_SECONDS} of the test clip in the recorder's 20 ms blocks. */
+    private static Encoded encode(File output, int sampleRate, int bitRate) throws IOException {
+        short[] clip = clip(sampleRate);
+        int blockFrames = sampleRate * BLOCK_MILLIS / 1000;
+        MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+        try {
+            encoder.configure(RecordingEngine.encoderFormat(sampleRate, 1, bitRate, blockFrames * 2),
+                    null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            encoder.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int offset = 0;
+            int track = -1;
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int index = encoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        long timeUs = offset * 1_000_000L / sampleRate;
+                        if (offset >= clip.length) {
+                            encoder.queueInputBuffer(index, 0, 0, timeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            ByteBuffer input = encoder.getInputBuffer(index);
+                            input.clear();
+                            int frames = Math.min(Math.min(blockFrames, clip.length - offset), input.remaining() / 2);
+                            input.order(ByteOrder.nativeOrder()).asShortBuffer().put(clip, offset, frames);
+                            encoder.queueInputBuffer(index, 0, frames * 2, timeUs, 0);
+                            offset += frames;
+                        }
+                    }
+                }
+
+                int index = encoder.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                    muxerStarted = true;
+                } else if (index >= 0) {
+                    ByteBuffer encoded = encoder.getOutputBuffer(index);
+                    boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                    if (encoded != null && info.size > 0 && !config && track >= 0) {
+                        encoded.position(info.offset).limit(info.offset + info.size);
+                        muxer.writeSampleData(track, encoded, info);
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                }
+            }
+
+            muxer.stop();
+            muxerStarted = false;
+            long wallMillis = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000;
+            return new Encoded(output.length(), wallMillis);
+        } finally {
+            encoder.release();
+            if (muxer != null) {
+                if (muxerStarted) {
+                    try {
+                        muxer.stop();
+                    } catch (IllegalStateException ignored) {
+                        // Failed part way, the file is thrown away anyway
+                    }
+                }
+                muxer.release();
+            }
+        }
+    }
+
+    // Syllable-length bursts of a voiced tone with harmonics up to ~3 kHz, over a noise floor
+    private static short[] clip(int sampleRate) {
+        short[] clip = new short[sampleRate * CLIP_SECONDS];
+        Random random = new Random(11L);
+        for (int i = 0; i < clip.length; i++) {
+            double t = (double) i / sampleRate;
+            double envelope = Math.max(0, Math.sin(2 * Math.PI * 3 * t));
+            double voice = 0;
+            for (int harmonic = 1; harmonic <= 16; harmonic++) {
+                voice += Math.sin(2 * Math.PI * 180 * harmonic * t) / harmonic;
+            }
+            clip[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                    envelope * voice * 8_000 + random.nextGaussian() * 300));
+        }
+        return clip;
+    }
+}
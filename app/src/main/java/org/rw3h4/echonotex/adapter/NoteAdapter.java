@@ -1,9 +1,11 @@
 package org.rw3h4.echonotex.adapter;
 
+import android.annotation.SuppressLint;
 import android.text.Html;
 import android.text.format.DateFormat;
 import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
@@ -16,12 +18,18 @@ import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.rw3h4.echonotex.R;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
 import org.rw3h4.echonotex.data.local.model.Note;
 import org.rw3h4.echonotex.data.local.model.NoteWithCategory;
+import org.rw3h4.echonotex.ui.custom.WaveformPeaksView;
+import org.rw3h4.echonotex.util.audio.WaveformExtractor;
+import org.rw3h4.echonotex.util.audio.WaveformSidecar;
 import org.rw3h4.echonotex.util.note.CoilImageGetter;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 // Moved to ListAdapter (from RecyclerView.Adapter) to simplify code when using DiffUtil
@@ -29,12 +37,28 @@ public class NoteAdapter extends ListAdapter<NoteWithCategory, RecyclerView.View
 
     private static final int VIEW_TYPE_TEXT = 1;
     private static final int VIEW_TYPE_VOICE = 2;
+    /** For {@link #setPlayingNote}: no note is playing. */
+    public static final int NO_NOTE = -1;
+
+    // Partial binds for the playing card. Shared instances, so a tick allocates nothing
+    private static final Object PAYLOAD_PROGRESS = new Object();
+    private static final Object PAYLOAD_PLAY_STATE = new Object();
+
     private final OnNoteClickListener listener;
 
+    // What the player is doing, shown on the card of the note it's on
+    private int playingNoteId = NO_NOTE;
+    private boolean playing;
+    private float playedFraction;
+    // Where that card is, so a tick doesn't search the list
+    private int playingPosition = RecyclerView.NO_POSITION;
+
     public interface OnNoteClickListener {
         void onNoteClick(Note note);
         void onNoteLongClick(Note note);
         void onPlayVoiceNoteClick(Note note, ImageButton playButton);
+        // A finger went down on a voice note, which is likely about to be played
+        void onVoiceNotePressed(Note note);
     }
 
     public NoteAdapter(OnNoteClickListener listener) {
@@ -79,6 +103,66 @@ public class NoteAdapter extends ListAdapter<NoteWithCategory, RecyclerView.View
         }
     }
 
+    /** Marks the card of the note the player is on, or none for {@link #NO_NOTE}. */
+    public void setPlayingNote(int noteId) {
+        if (noteId == playingNoteId) return;
+        int previous = playingPosition;
+        playingNoteId = noteId;
+        playedFraction = 0f;
+        playingPosition = positionOf(noteId);
+        if (previous != RecyclerView.NO_POSITION) notifyItemChanged(previous, PAYLOAD_PLAY_STATE);
+        if (playingPosition != RecyclerView.NO_POSITION) notifyItemChanged(playingPosition, PAYLOAD_PLAY_STATE);
+    }
+
+    public void setPlaying(boolean playing) {
+        if (this.playing == playing) return;
+        this.playing = playing;
+        if (playingPosition != RecyclerView.NO_POSITION) notifyItemChanged(playingPosition, PAYLOAD_PLAY_STATE);
+    }
+
+    /** Called every frame during playback; only the playing card's waveform is redrawn. */
+    public void setPlayedFraction(float fraction) {
+        if (playedFraction == fraction) return;
+        playedFraction = fraction;
+        if (playingPosition != RecyclerView.NO_POSITION) notifyItemChanged(playingPosition, PAYLOAD_PROGRESS);
+    }
+
+    @Override
+    public void onCurrentListChanged(@NonNull List<NoteWithCategory> previousList,
+                                     @NonNull List<NoteWithCategory> currentList) {
+        // Once per list rather than once per tick
+        playingPosition = positionOf(playingNoteId);
+    }
+
+    private int positionOf(int noteId) {
+        if (noteId == NO_NOTE) return RecyclerView.NO_POSITION;
+        List<NoteWithCategory> items = getCurrentList();
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getNote().getId() == noteId) return i;
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !(holder instanceof VoiceNoteViewHolder)) {
+            super.onBindViewHolder(holder, position, payloads);
+            return;
+        }
+        VoiceNoteViewHolder voiceHolder = (VoiceNoteViewHolder) holder;
+        // Indexed, as an iterator would be an allocation per frame
+        boolean playStateChanged = false;
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) == PAYLOAD_PLAY_STATE) playStateChanged = true;
+        }
+        if (playStateChanged) {
+            voiceHolder.bindPlayback();
+        } else {
+            voiceHolder.bindProgress();
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         NoteWithCategory currentItem = getItem(position);
@@ -141,6 +225,8 @@ public class NoteAdapter extends ListAdapter<NoteWithCategory, RecyclerView.View
         TextView titleTextView, categoryTextView, durationTextView, timestampTextView;
         ImageView pinIcon;
         ImageButton playPauseButton;
+        WaveformPeaksView waveformView;
+        int noteId = NO_NOTE;
 
         VoiceNoteViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -150,13 +236,19 @@ public class NoteAdapter extends ListAdapter<NoteWithCategory, RecyclerView.View
             pinIcon = itemView.findViewById(R.id.pin_icon_imageView);
             playPauseButton = itemView.findViewById(R.id.button_play_pause);
             timestampTextView = itemView.findViewById(R.id.voice_note_timestamp);
+            waveformView = itemView.findViewById(R.id.voice_waveform);
         }
 
+        // The touch listener never consumes, so clicks and their accessibility are unchanged
+        @SuppressLint("ClickableViewAccessibility")
         void bind(final NoteWithCategory  item, final OnNoteClickListener  listener) {
             Note note = item.getNote();
+            noteId = note.getId();
             titleTextView.setText(note.getTitle());
             categoryTextView.setText(item.getCategoryName());
             durationTextView.setText(formatDuration(note.getDuration()));
+            bindWaveform(note.getFilePath());
+            bindPlayback();
 
             pinIcon.setActivated(note.isPinned());
 
@@ -171,6 +263,49 @@ public class NoteAdapter extends ListAdapter<NoteWithCategory, RecyclerView.View
             });
 
             playPauseButton.setOnClickListener(v -> listener.onPlayVoiceNoteClick(note, playPauseButton));
+
+            // Only watches for the press; the click still goes through as usual
+            View.OnTouchListener pressListener = (v, event) -> {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) listener.onVoiceNotePressed(note);
+                return false;
+            };
+            itemView.setOnTouchListener(pressListener);
+            playPauseButton.setOnTouchListener(pressListener);
+        }
+
+        // The button and the played part of the waveform, from the adapter's playback state
+        void bindPlayback() {
+            boolean current = noteId == playingNoteId;
+            boolean showPause = current && playing;
+            playPauseButton.setImageResource(showPause ? R.drawable.ic_pause_circle : R.drawable.ic_play_circle);
+            playPauseButton.setContentDescription(itemView.getContext().getString(
+                    showPause ? R.string.pause_voice_note : R.string.play_voice_note));
+            waveformView.setProgress(current ? playedFraction : 0f);
+        }
+
+        void bindProgress() {
+            waveformView.setProgress(noteId == playingNoteId ? playedFraction : 0f);
+        }
+
+        private void bindWaveform(String audioPath) {
+            waveformView.setTag(audioPath);
+            waveformView.setPeaks(null);
+            waveformView.setVisibility(View.GONE);
+            WaveformSidecar.load(audioPath, peaks -> {
+                if (peaks != null) {
+                    showWaveform(audioPath, peaks);
+                } else {
+                    // Older notes were saved without one, decode the audio once to make it
+                    WaveformExtractor.extract(audioPath, extracted -> showWaveform(audioPath, extracted));
+                }
+            });
+        }
+
+        private void showWaveform(String audioPath, WaveformPeaks peaks) {
+            // The holder may have been rebound to another note by the time this loads
+            if (peaks == null || !Objects.equals(waveformView.getTag(), audioPath)) return;
+            waveformView.setPeaks(peaks);
+            waveformView.setVisibility(View.VISIBLE);
         }
     }
 }
@@ -10,6 +10,8 @@ import androidx.room.Update;
 
 import org.rw3h4.echonotex.data.local.model.Category;
 import org.rw3h4.echonotex.data.local.model.Note;
+import org.rw3h4.echonotex.data.local.model.NoteAudio;
+import org.rw3h4.echonotex.data.local.model.NoteBlock;
 
 import java.util.List;
 
@@ -53,4 +55,41 @@ public interface NoteDao {
 
     @Query("UPDATE notes SET last_edited = :lastEdited WHERE note_id = :noteId")
     void updateLastEdited(int noteId, long lastEdited);
+
+    @Query("SELECT * FROM note_blocks WHERE note_id = :noteId ORDER BY position ASC")
+    List<NoteBlock> getBlocks(int noteId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertBlocks(List<NoteBlock> blocks);
+
+    @Query("DELETE FROM note_blocks WHERE block_id IN (:blockIds)")
+    void deleteBlocks(List<String> blockIds);
+
+    @Query("DELETE FROM note_blocks WHERE note_id = :noteId")
+    void deleteBlocksForNote(int noteId);
+
+    @Query("SELECT * FROM notes WHERE note_id = :noteId")
+    Note getNoteById(int noteId);
+
+    @Query("SELECT note_id, user_id, file_path, duration, note_timestamp FROM notes WHERE file_path IS NOT NULL")
+    List<NoteAudio> getNoteAudio();
+
+    @Query("SELECT COUNT(*) FROM notes WHERE file_path = :filePath")
+    int countNotesWithFile(String filePath);
+
+    // Repoints every note sharing the file, so a stored file always has one path
+    @Query("UPDATE notes SET file_path = :newPath WHERE file_path = :oldPath")
+    int updateFilePath(String oldPath, String newPath);
+
+    @Query("SELECT DISTINCT file_path FROM notes WHERE file_path IS NOT NULL AND loudness_lufs IS NULL")
+    List<String> getUnmeasuredAudioPaths();
+
+    // Like the path, loudness belongs to the file: every note sharing it gets the figures
+    @Query("UPDATE notes SET loudness_lufs = :lufs, true_peak_dbtp = :truePeakDbtp WHERE file_path = :filePath")
+    int updateLoudness(String filePath, float lufs, float truePeakDbtp);
+
+    // Edited audio sounds different, so its loudness is measured again
+    @Query("UPDATE notes SET file_path = :filePath, duration = :duration, loudness_lufs = NULL, "
+            + "true_peak_dbtp = NULL, last_edited = :lastEdited WHERE note_id = :noteId")
+    int updateNoteAudio(int noteId, String filePath, long duration, long lastEdited);
 }
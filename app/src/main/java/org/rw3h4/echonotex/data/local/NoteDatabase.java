@@ -6,15 +6,17 @@ import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import org.rw3h4.echonotex.data.local.model.Category;
 import org.rw3h4.echonotex.data.local.model.Note;
+import org.rw3h4.echonotex.data.local.model.NoteBlock;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-@Database(entities = {Note.class, Category.class}, version = 4, exportSchema = false)
+@Database(entities = {Note.class, Category.class, NoteBlock.class}, version = 7, exportSchema = false)
 public abstract class NoteDatabase extends RoomDatabase {
 
     public abstract NoteDao noteDao();
@@ -32,6 +34,7 @@ public abstract class NoteDatabase extends RoomDatabase {
                             NoteDatabase.class,
                             "note_database"
                     ).addCallback(sRoomDatabaseCallback)
+                            .addMigrations(MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
                             // TODO: Implement a migration strategy for production.
                             .fallbackToDestructiveMigration().build();
                 }
@@ -41,6 +44,45 @@ public abstract class NoteDatabase extends RoomDatabase {
         return INSTANCE;
     }
 
+    /**
+     * Version 5 adds the note_blocks table. Existing notes keep their HTML body
+     * and are converted to blocks the first time they're opened, so nothing
+     * has to be rewritten here.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_blocks` (`block_id` TEXT NOT NULL, "
+                    + "`note_id` INTEGER NOT NULL, `position` INTEGER NOT NULL, "
+                    + "`block_data` BLOB NOT NULL, PRIMARY KEY(`block_id`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_blocks_note_id_position` "
+                    + "ON `note_blocks` (`note_id`, `position`)");
+        }
+    };
+
+    /**
+     * Version 6 records which quality profile a voice note was captured with.
+     * Notes from before then have none, which reads as "unknown".
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `audio_profile` TEXT");
+        }
+    };
+
+    /**
+     * Version 7 stores each voice note's measured loudness and true peak. Older
+     * notes start with neither and are measured in the background.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `loudness_lufs` REAL");
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `true_peak_dbtp` REAL");
+        }
+    };
+
     /**
      * Callback triggered when the database is first created.
      * I've used it pre-populate the database with default categories
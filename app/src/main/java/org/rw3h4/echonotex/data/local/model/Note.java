@@ -86,10 +86,27 @@ public class Note implements Parcelable {
     @ColumnInfo(name = "user_id")
     private final String userId;
 
+    // RecordingProfile id the audio was captured with; null for text notes and older recordings
+    @Nullable
+    @ColumnInfo(name = "audio_profile")
+    private final String audioProfile;
+
+    // Integrated loudness (LUFS) and true peak (dBTP) of the audio, for playback
+    // normalization; null until measured, and always for text notes
+    @Nullable
+    @ColumnInfo(name = "loudness_lufs")
+    private final Float loudnessLufs;
+
+    @Nullable
+    @ColumnInfo(name = "true_peak_dbtp")
+    private final Float truePeakDbtp;
+
     // Primary Room constructor
     public Note(int id, @NonNull String title, @NonNull String content, int categoryId,
                 long timestamp, long lastEdited, boolean isPinned, @NonNull String noteType,
-                @Nullable String filePath, long duration, @Nullable String userId
+                @Nullable String filePath, long duration, @Nullable String userId,
+                @Nullable String audioProfile, @Nullable Float loudnessLufs,
+                @Nullable Float truePeakDbtp
     ) {
         this.id = id;
         this.title = title;
@@ -102,6 +119,9 @@ public class Note implements Parcelable {
         this.filePath = filePath;
         this.duration = duration;
         this.userId = userId;
+        this.audioProfile = audioProfile;
+        this.loudnessLufs = loudnessLufs;
+        this.truePeakDbtp = truePeakDbtp;
     }
 
     // Convenience contructor for creating new TEXT Note
@@ -119,11 +139,15 @@ public class Note implements Parcelable {
         this.noteType = NOTE_TYPE_TEXT;
         this.filePath = null;
         this.duration = 0;
+        this.audioProfile = null;
+        this.loudnessLufs = null;
+        this.truePeakDbtp = null;
     }
 
     // Convenience constructor for creating a new VOICE Note
     @Ignore
-    public Note(@NonNull String title, int categoryId, @NonNull String filePath, long duration, @NonNull String userId) {
+    public Note(@NonNull String title, int categoryId, @NonNull String filePath, long duration,
+                @NonNull String userId, @Nullable String audioProfile) {
         this.id = 0;
         this.title = title;
         this.categoryId = categoryId;
@@ -136,6 +160,9 @@ public class Note implements Parcelable {
         this.isPinned = false;
         this.noteType = NOTE_TYPE_VOICE;
         this.content = null;
+        this.audioProfile = audioProfile;
+        this.loudnessLufs = null;
+        this.truePeakDbtp = null;
     }
 
     protected Note(Parcel in) {
@@ -150,6 +177,9 @@ public class Note implements Parcelable {
         filePath = in.readString();
         duration = in.readLong();
         userId = in.readString();
+        audioProfile = in.readString();
+        loudnessLufs = (Float) in.readValue(Float.class.getClassLoader());
+        truePeakDbtp = (Float) in.readValue(Float.class.getClassLoader());
     }
 
     @Override
@@ -165,6 +195,9 @@ public class Note implements Parcelable {
         dest.writeString(filePath);
         dest.writeLong(duration);
         dest.writeString(userId);
+        dest.writeString(audioProfile);
+        dest.writeValue(loudnessLufs);
+        dest.writeValue(truePeakDbtp);
     }
 
     @Override
@@ -210,6 +243,15 @@ public class Note implements Parcelable {
 
     public long getDuration() { return duration; }
 
+    @Nullable
+    public String getAudioProfile() { return audioProfile; }
+
+    @Nullable
+    public Float getLoudnessLufs() { return loudnessLufs; }
+
+    @Nullable
+    public Float getTruePeakDbtp() { return truePeakDbtp; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -228,14 +270,17 @@ public class Note implements Parcelable {
                 Objects.equals(content, note.content) &&
                 noteType.equals(note.noteType) &&
                 Objects.equals(filePath, note.filePath) &&
-                Objects.equals(userId, note.userId);
+                Objects.equals(userId, note.userId) &&
+                Objects.equals(audioProfile, note.audioProfile) &&
+                Objects.equals(loudnessLufs, note.loudnessLufs) &&
+                Objects.equals(truePeakDbtp, note.truePeakDbtp);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(
                 id, title, content, categoryId, timestamp, lastEdited, isPinned,
-                noteType, filePath, duration, userId
+                noteType, filePath, duration, userId, audioProfile, loudnessLufs, truePeakDbtp
         );
     }
 
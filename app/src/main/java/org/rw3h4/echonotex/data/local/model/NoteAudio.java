@@ -0,0 +1,46 @@
+package org.rw3h4.echonotex.data.local.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * The audio reference of one voice note, without the rest of the row. Used to
+ * keep the audio store in step with the notes that point into it.
+ */
+public class NoteAudio {
+
+    @ColumnInfo(name = "note_id")
+    private final int noteId;
+
+    @ColumnInfo(name = "user_id")
+    private final String userId;
+
+    @NonNull
+    @ColumnInfo(name = "file_path")
+    private final String filePath;
+
+    @ColumnInfo(name = "duration")
+    private final long duration;
+
+    @ColumnInfo(name = "note_timestamp")
+    private final long timestamp;
+
+    public NoteAudio(int noteId, String userId, @NonNull String filePath, long duration, long timestamp) {
+        this.noteId = noteId;
+        this.userId = userId;
+        this.filePath = filePath;
+        this.duration = duration;
+        this.timestamp = timestamp;
+    }
+
+    public int getNoteId() { return noteId; }
+
+    public String getUserId() { return userId; }
+
+    @NonNull
+    public String getFilePath() { return filePath; }
+
+    public long getDuration() { return duration; }
+
+    public long getTimestamp() { return timestamp; }
+}
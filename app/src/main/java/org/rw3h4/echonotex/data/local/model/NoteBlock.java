@@ -0,0 +1,78 @@
+package org.rw3h4.echonotex.data.local.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * One block of a text note's body (a paragraph, an image...), encoded with
+ * BlockCodec. A note is its blocks ordered by position.
+ * There's deliberately no foreign key to notes: insertNote uses REPLACE, which
+ * deletes and re-inserts the note row and would cascade-delete every block on each save.
+ * NoteRepository removes the blocks itself when a note is deleted.
+ */
+@Entity(
+        tableName = "note_blocks",
+        indices = {@Index(value = {"note_id", "position"})}
+)
+public class NoteBlock {
+
+    // The editor's part id (a UUID), so a block keeps its identity across edits
+    @NonNull
+    @PrimaryKey
+    @ColumnInfo(name = "block_id")
+    private final String blockId;
+
+    @ColumnInfo(name = "note_id")
+    private final int noteId;
+
+    @ColumnInfo(name = "position")
+    private final int position;
+
+    @NonNull
+    @ColumnInfo(name = "block_data", typeAffinity = ColumnInfo.BLOB)
+    private final byte[] data;
+
+    public NoteBlock(@NonNull String blockId, int noteId, int position, @NonNull byte[] data) {
+        this.blockId = blockId;
+        this.noteId = noteId;
+        this.position = position;
+        this.data = data;
+    }
+
+    @NonNull
+    public String getBlockId() { return blockId; }
+
+    public int getNoteId() { return noteId; }
+
+    public int getPosition() { return position; }
+
+    @NonNull
+    public byte[] getData() { return data; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NoteBlock block = (NoteBlock) o;
+        return noteId == block.noteId && position == block.position
+                && blockId.equals(block.blockId) && Arrays.equals(data, block.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(blockId, noteId, position) + Arrays.hashCode(data);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "NoteBlock{" + "blockId='" + blockId + '\'' + ", noteId=" + noteId
+                + ", position=" + position + ", bytes=" + data.length + '}';
+    }
+}
@@ -2,28 +2,44 @@ package org.rw3h4.echonotex.repository;
 
 import android.app.Application;
 
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 
+import org.rw3h4.echonotex.core.note.BlockCodec;
+import org.rw3h4.echonotex.core.note.ContentBlock;
+import org.rw3h4.echonotex.core.note.NoteHtmlParser;
 import org.rw3h4.echonotex.data.local.NoteDao;
 import org.rw3h4.echonotex.data.local.NoteDatabase;
 import org.rw3h4.echonotex.data.local.model.Category;
 import org.rw3h4.echonotex.data.local.model.Note;
+import org.rw3h4.echonotex.data.local.model.NoteAudio;
+import org.rw3h4.echonotex.data.local.model.NoteBlock;
+import org.rw3h4.echonotex.util.audio.AudioStore;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 
 public class NoteRepository {
 
+    private final NoteDatabase db;
     private final NoteDao noteDao;
     private final ExecutorService databaseWriteExecutor;
+    private final AudioStore audioStore;
 
     // private final LiveData<List<Note>> allNotes;
     private final LiveData<List<Category>> allCategories;
 
     public NoteRepository(Application application) {
-        NoteDatabase db = NoteDatabase.getDatabase(application);
+        db = NoteDatabase.getDatabase(application);
         noteDao = db.noteDao();
         databaseWriteExecutor = NoteDatabase.databaseWriteExecutor;
+        audioStore = new AudioStore(application);
         allCategories = noteDao.getAllCategories();
     }
 
@@ -47,8 +63,67 @@ public class NoteRepository {
         return allCategories;
     }
 
+    /**
+     * The stored blocks of a text note, in order. Must be called off the main thread.
+     * Notes written before blocks existed only have their HTML body, so that is
+     * converted once here and stored, and later opens read the blocks directly.
+     */
+    public List<NoteBlock> loadBlocks(Note note) {
+        List<NoteBlock> blocks = noteDao.getBlocks(note.getId());
+        if (!blocks.isEmpty()) {
+            return blocks;
+        }
+
+        List<ContentBlock> parsed = NoteHtmlParser.parseForEditing(note.getContent());
+        List<NoteBlock> converted = new ArrayList<>(parsed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            converted.add(new NoteBlock(UUID.randomUUID().toString(), note.getId(), i,
+                    BlockCodec.encode(parsed.get(i))));
+        }
+        if (note.getId() == 0) {
+            return converted;
+        }
+        // The reader and the editor can open the same note at once; whichever gets
+        // here second finds the other's blocks instead of storing a second set
+        return db.runInTransaction(() -> {
+            List<NoteBlock> stored = noteDao.getBlocks(note.getId());
+            if (!stored.isEmpty()) {
+                return stored;
+            }
+            noteDao.upsertBlocks(converted);
+            return converted;
+        });
+    }
+
     public void saveNoteWithCategory(final Note noteToSave, final String categoryName) {
+        saveNoteWithCategory(noteToSave, categoryName, null);
+    }
+
+    /**
+     * Saves the note and, for text notes, its blocks. The blocks' note id is
+     * ignored; only blocks that are new, changed or moved are written.
+     */
+    public void saveNoteWithCategory(final Note noteToSave, final String categoryName,
+                                     final List<NoteBlock> blocks) {
+        saveNoteWithCategory(noteToSave, categoryName, blocks, null);
+    }
+
+    /**
+     * Like {@link #saveNoteWithCategory(Note, String, List)}, then runs {@code onSaved}
+     * on the write thread once the note is committed, for work that needs its row.
+     */
+    public void saveNoteWithCategory(final Note noteToSave, final String categoryName,
+                                     final List<NoteBlock> blocks, @Nullable final Runnable onSaved) {
         databaseWriteExecutor.execute(() -> {
+            saveNow(noteToSave, categoryName, blocks);
+            if (onSaved != null) {
+                onSaved.run();
+            }
+        });
+    }
+
+    private void saveNow(Note noteToSave, String categoryName, List<NoteBlock> blocks) {
+        db.runInTransaction(() -> {
             Category category = noteDao.findCategoryByName(categoryName);
             int categoryId;
 
@@ -69,15 +144,117 @@ public class NoteRepository {
                     noteToSave.getNoteType(),
                     noteToSave.getFilePath(),
                     noteToSave.getDuration(),
-                    noteToSave.getUserId()
+                    noteToSave.getUserId(),
+                    noteToSave.getAudioProfile(),
+                    noteToSave.getLoudnessLufs(),
+                    noteToSave.getTruePeakDbtp()
             );
 
-            noteDao.insertNote(finalNote);
+            int noteId = (int) noteDao.insertNote(finalNote);
+            if (blocks != null) {
+                writeBlocks(noteId, blocks);
+            }
         });
     }
 
+    // Diffs against what's stored by block id, so editing one paragraph rewrites one row
+    private void writeBlocks(int noteId, List<NoteBlock> blocks) {
+        Map<String, NoteBlock> stored = new HashMap<>();
+        for (NoteBlock block : noteDao.getBlocks(noteId)) {
+            stored.put(block.getBlockId(), block);
+        }
+
+        List<NoteBlock> changed = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            NoteBlock block = blocks.get(i);
+            NoteBlock toWrite = new NoteBlock(block.getBlockId(), noteId, i, block.getData());
+            if (!toWrite.equals(stored.remove(toWrite.getBlockId()))) {
+                changed.add(toWrite);
+            }
+        }
+
+        if (!stored.isEmpty()) {
+            noteDao.deleteBlocks(new ArrayList<>(stored.keySet()));
+        }
+        if (!changed.isEmpty()) {
+            noteDao.upsertBlocks(changed);
+        }
+    }
+
     public void delete(Note note) {
-        databaseWriteExecutor.execute(() -> noteDao.deleteNote(note));
+        databaseWriteExecutor.execute(() -> {
+            String filePath = note.getFilePath();
+            boolean audioUnused = db.runInTransaction(() -> {
+                noteDao.deleteNote(note);
+                noteDao.deleteBlocksForNote(note.getId());
+                return filePath != null && noteDao.countNotesWithFile(filePath) == 0;
+            });
+            // Audio is stored once per content, another note may still be using it
+            if (audioUnused) {
+                audioStore.delete(filePath);
+            }
+        });
+    }
+
+    /** The note with this id, or null if there's none. Must be called off the main thread. */
+    public Note getNoteNow(int noteId) {
+        return noteDao.getNoteById(noteId);
+    }
+
+    /** Every note's audio reference. Must be called off the main thread. */
+    public List<NoteAudio> getNoteAudio() {
+        return noteDao.getNoteAudio();
+    }
+
+    /** Points every note using {@code oldPath} at {@code newPath}. Must be called off the main thread. */
+    public void replaceAudioFile(String oldPath, String newPath) {
+        noteDao.updateFilePath(oldPath, newPath);
+    }
+
+    /**
+     * Points one note at edited audio and, if no other note still uses its old
+     * file, deletes that. Must be called off the main thread.
+     */
+    public void replaceNoteAudio(Note note, String newPath, long durationMillis) {
+        String oldPath = note.getFilePath();
+        boolean oldUnused = db.runInTransaction(() -> {
+            noteDao.updateNoteAudio(note.getId(), newPath, durationMillis, System.currentTimeMillis());
+            return oldPath != null && !oldPath.equals(newPath) && noteDao.countNotesWithFile(oldPath) == 0;
+        });
+        if (oldUnused) {
+            audioStore.delete(oldPath);
+        }
+    }
+
+    /** Inserts a note as is and returns its id. Must be called off the main thread. */
+    public int insertNoteNow(Note note) {
+        return (int) noteDao.insertNote(note);
+    }
+
+    /** Audio files no note has loudness figures for yet. Must be called off the main thread. */
+    public List<String> getUnmeasuredAudioPaths() {
+        return noteDao.getUnmeasuredAudioPaths();
+    }
+
+    /** Stores the loudness of {@code filePath} on every note using it. Must be called off the main thread. */
+    public void setLoudness(String filePath, float lufs, float truePeakDbtp) {
+        noteDao.updateLoudness(filePath, lufs, truePeakDbtp);
+    }
+
+    /**
+     * Bytes of audio the user's notes take up; a file shared by several notes
+     * counts once. Must be called off the main thread.
+     */
+    public long getAudioBytesForUser(String userId) {
+        Set<String> paths = new HashSet<>();
+        for (NoteAudio audio : noteDao.getNoteAudio()) {
+            if (userId.equals(audio.getUserId())) paths.add(audio.getFilePath());
+        }
+        long total = 0;
+        for (String path : paths) {
+            total += audioStore.sizeOf(path);
+        }
+        return total;
     }
 
     public void updatePinStatus(int noteId, boolean isPinned) {
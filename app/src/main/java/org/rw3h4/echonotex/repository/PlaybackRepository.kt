@@ -0,0 +1,358 @@
+package org.rw3h4.echonotex.repository
+
+import android.app.Application
+import android.content.ComponentName
+import android.content.Context
+import android.net.Uri
+import android.os.Bundle
+import android.os.SystemClock
+import android.util.Log
+import android.view.Choreographer
+import androidx.annotation.OptIn
+import androidx.core.content.ContextCompat
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.session.MediaController
+import androidx.media3.session.SessionToken
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import org.rw3h4.echonotex.core.list.ListDiff
+import org.rw3h4.echonotex.data.local.model.Note
+import org.rw3h4.echonotex.service.PlaybackService
+import org.rw3h4.echonotex.util.audio.LoudnessAnalyzer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Playback for the whole process: the one controller connection to
+ * [PlaybackService], the queue handed to it, and the state every screen shows.
+ * Screens subscribe to [state] and [position] instead of connecting themselves,
+ * so opening one costs nothing and they all agree on what's playing.
+ *
+ * The playing note is always a stored note: the queue's copy, or one loaded by
+ * id when playback outlived the queue, like after the process was restarted.
+ * Main thread only, like the controller.
+ */
+@OptIn(UnstableApi::class)
+class PlaybackRepository private constructor(application: Application) {
+
+    data class State(val note: Note?, val isPlaying: Boolean, val durationMs: Long)
+
+    private val noteRepository = NoteRepository(application)
+    // Lives as long as the process, as does the connection
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main.immediate)
+    private var mediaController: MediaController? = null
+
+    private val _state = MutableStateFlow(State(null, false, 0L))
+    val state: StateFlow<State> = _state.asStateFlow()
+
+    // The notes handed to the player, in playlist order
+    private var queue: List<Note> = emptyList()
+
+    // The notes last sent to be preloaded, so an unchanged screen isn't sent again
+    private var prefetched: List<Note> = emptyList()
+    // Asked for before the controller connected
+    private var pendingPrefetch: List<Note>? = null
+
+    // When the last play was asked for, until it's heard; 0 when nothing is waiting
+    private var playRequestedAt = 0L
+
+    // The last position read from the controller, and when. Re-read on player
+    // events and now and then while ticking; every frame in between is worked
+    // out from it rather than asked for
+    private val anchor = MutableStateFlow(PositionAnchor(0L, 0L, 1f, false))
+
+    /**
+     * Playback position, once per display frame while playing and once per
+     * change while not. Only runs while something collects it: the frame clock
+     * is released when the last collector goes, so a stopped screen costs nothing.
+     */
+    @kotlin.OptIn(ExperimentalCoroutinesApi::class)
+    val position: StateFlow<Long> = anchor
+        .flatMapLatest { read ->
+            if (!read.playing) flowOf(read.positionMs)
+            else frameTimesNanos().map { now ->
+                if (now - read.readAtNanos > RESYNC_NANOS) resyncPosition()
+                val duration = _state.value.durationMs
+                val position = read.positionAt(now)
+                if (duration > 0) position.coerceAtMost(duration) else position
+            }
+        }
+        .distinctUntilChanged()
+        .stateIn(scope, SharingStarted.WhileSubscribed(), 0L)
+
+    init {
+        val sessionToken = SessionToken(application, ComponentName(application,
+            PlaybackService::class.java))
+        val controllerFuture = MediaController.Builder(application, sessionToken).buildAsync()
+        controllerFuture.addListener(
+            {
+                mediaController = controllerFuture.get()
+                mediaController?.addListener(playerListener)
+                // The service may still be playing from before this process
+                _state.update { it.copy(isPlaying = mediaController?.isPlaying == true) }
+                updateStateFromController()
+                resyncPosition()
+                pendingPrefetch?.let { prefetch(it) }
+                pendingPrefetch = null
+            },
+            ContextCompat.getMainExecutor(application)
+        )
+    }
+
+    private val playerListener = object : Player.Listener {
+        override fun onIsPlayingChanged(isPlaying: Boolean) {
+            _state.update { it.copy(isPlaying = isPlaying) }
+            resyncPosition()
+            if (isPlaying && playRequestedAt != 0L) {
+                Log.d(TAG, "Tap to audio: ${SystemClock.elapsedRealtime() - playRequestedAt} ms")
+                playRequestedAt = 0L
+            }
+        }
+
+        override fun onPlaybackStateChanged(playbackState: Int) {
+            if (playbackState == Player.STATE_READY) {
+                updateDuration()
+            }
+            resyncPosition()
+        }
+
+        override fun onPositionDiscontinuity(
+            oldPosition: Player.PositionInfo,
+            newPosition: Player.PositionInfo,
+            reason: Int
+        ) {
+            resyncPosition()
+        }
+
+        override fun onPlaybackParametersChanged(playbackParameters: PlaybackParameters) {
+            resyncPosition()
+        }
+
+        override fun onTimelineChanged(timeline: Timeline, reason: Int) {
+            // The next note's length is only known once the player has read ahead into it
+            updateDuration()
+        }
+
+        override fun onMediaItemTransition(mediaItem: MediaItem?, reason: Int) {
+            updateStateFromController()
+            resyncPosition()
+        }
+    }
+
+    private fun resyncPosition() {
+        val controller = mediaController ?: return
+        anchor.value = PositionAnchor(
+            controller.currentPosition,
+            System.nanoTime(),
+            controller.playbackParameters.speed,
+            controller.isPlaying
+        )
+    }
+
+    // Vsync times, in the System.nanoTime() base; Choreographer only delivers
+    // them to the main thread, which is where scope runs
+    private fun frameTimesNanos(): Flow<Long> = callbackFlow {
+        val choreographer = Choreographer.getInstance()
+        val callback = object : Choreographer.FrameCallback {
+            override fun doFrame(frameTimeNanos: Long) {
+                trySend(frameTimeNanos)
+                choreographer.postFrameCallback(this)
+            }
+        }
+        choreographer.postFrameCallback(callback)
+        awaitClose { choreographer.removeFrameCallback(callback) }
+    }
+
+    private fun updateStateFromController() {
+        val currentMediaItem = mediaController?.currentMediaItem
+        if (currentMediaItem == null) {
+            queue = emptyList()
+            _state.update { it.copy(note = null) }
+            return
+        }
+        updateDuration()
+
+        val noteId = currentMediaItem.mediaId.toIntOrNull() ?: return
+        val queued = queue.firstOrNull { it.id == noteId }
+        if (queued != null) {
+            _state.update { it.copy(note = queued) }
+            return
+        }
+        scope.launch {
+            val stored = withContext(Dispatchers.IO) { noteRepository.getNoteNow(noteId) }
+            // Unless the player has moved on while it loaded
+            if (mediaController?.currentMediaItem?.mediaId == currentMediaItem.mediaId) {
+                _state.update { it.copy(note = stored) }
+            }
+        }
+    }
+
+    private fun updateDuration() {
+        val duration = mediaController?.duration ?: 0L
+        _state.update { it.copy(durationMs = if (duration > 0) duration else 0L) }
+    }
+
+    fun play(note: Note) {
+        playQueue(listOf(note), 0)
+    }
+
+    /**
+     * Plays [notes] in order from [startIndex]. The player gets them all at once, so
+     * it reads ahead into the next note while this one plays and goes straight on
+     * without a gap.
+     */
+    fun playQueue(notes: List<Note>, startIndex: Int) {
+        val controller = mediaController ?: return
+        playRequestedAt = SystemClock.elapsedRealtime()
+        // The service hands over what it preloaded for these, so the next screenful goes again
+        prefetched = emptyList()
+        queue = notes.toList()
+        _state.update { it.copy(note = queue[startIndex]) }
+        controller.setMediaItems(queue.map(::toMediaItem), startIndex, 0L)
+        controller.prepare()
+        controller.play()
+    }
+
+    /**
+     * Brings the playing queue in line with the list it was started from, with
+     * the fewest changes to the player's playlist: the note playing carries on
+     * unless it's gone, and the one read ahead is only dropped if it moved.
+     */
+    fun updateQueue(notes: List<Note>) {
+        val controller = mediaController ?: return
+        // Nothing playing, or the player has already moved to another queue
+        if (queue.isEmpty() || controller.mediaItemCount != queue.size) return
+        val updated = notes.toList()
+        ListDiff.patch(queue, updated, { it.id.toLong() }, ::samePlayback, object : ListDiff.Patch {
+            override fun remove(position: Int) = controller.removeMediaItem(position)
+
+            override fun move(from: Int, to: Int) = controller.moveMediaItem(from, to)
+
+            override fun insert(position: Int, newPosition: Int) =
+                controller.addMediaItem(position, toMediaItem(updated[newPosition]))
+
+            override fun change(position: Int) =
+                controller.replaceMediaItem(position, toMediaItem(updated[position]))
+        })
+        queue = updated
+        // A rename shows straight away
+        updateStateFromController()
+    }
+
+    /**
+     * Has the service parse and buffer the start of [notes], most likely to be
+     * played first, so playing one of them starts straight away. Replaces the
+     * previous set; notes beyond [PlaybackService.MAX_PREFETCH] are left out.
+     */
+    fun prefetch(notes: List<Note>) {
+        val controller = mediaController
+        if (controller == null) {
+            pendingPrefetch = notes
+            return
+        }
+        if (!controller.isSessionCommandAvailable(PlaybackService.PREFETCH_COMMAND)) return
+        val wanted = notes.take(PlaybackService.MAX_PREFETCH)
+        // A note measured or renamed since goes again, or its old gain would be what plays
+        val unchanged = wanted.size == prefetched.size && wanted.indices.all { i ->
+            wanted[i].id == prefetched[i].id && samePlayback(prefetched[i], wanted[i])
+        }
+        if (unchanged) return
+        prefetched = wanted.toList()
+        val items = ArrayList(wanted.map { toMediaItem(it).toBundleIncludeLocalConfiguration() })
+        val args = Bundle().apply { putParcelableArrayList(PlaybackService.EXTRA_MEDIA_ITEMS, items) }
+        controller.sendCustomCommand(PlaybackService.PREFETCH_COMMAND, args)
+    }
+
+    // Whether a note's media item would come out the same
+    private fun samePlayback(old: Note, new: Note): Boolean {
+        return old.filePath == new.filePath && old.title == new.title
+                && old.loudnessLufs == new.loudnessLufs && old.truePeakDbtp == new.truePeakDbtp
+    }
+
+    private fun toMediaItem(note: Note): MediaItem {
+        // Evens out the level between notes; PlaybackService applies it
+        val gainDb = LoudnessAnalyzer.playbackGainDb(note.loudnessLufs, note.truePeakDbtp)
+        val extras = Bundle().apply { putFloat(PlaybackService.EXTRA_LOUDNESS_GAIN_DB, gainDb) }
+        val metadata = MediaMetadata.Builder().setTitle(note.title).setExtras(extras).build()
+        return MediaItem
+            .Builder()
+            .setUri(Uri.parse(note.filePath))
+            .setMediaId(note.id.toString()).setMediaMetadata(metadata)
+            .build()
+    }
+
+    fun resume() {
+        if (mediaController?.playbackState != Player.STATE_IDLE) {
+            mediaController?.play()
+        }
+    }
+
+    fun pause() {
+        if (mediaController?.playbackState != Player.STATE_IDLE) {
+            mediaController?.pause()
+        }
+    }
+
+    fun stop() {
+        mediaController?.stop()
+        mediaController?.clearMediaItems()
+        queue = emptyList()
+        _state.update { it.copy(note = null) }
+    }
+
+    fun seekTo(position: Long) {
+        mediaController?.seekTo(position)
+    }
+
+    private data class PositionAnchor(
+        val positionMs: Long,
+        val readAtNanos: Long,
+        val speed: Float,
+        val playing: Boolean
+    ) {
+        fun positionAt(nowNanos: Long): Long {
+            val elapsedMs = TimeUnit.NANOSECONDS.toMillis(nowNanos - readAtNanos).coerceAtLeast(0L)
+            return positionMs + (elapsedMs * speed).toLong()
+        }
+    }
+
+    companion object {
+        private const val TAG = "PlaybackRepository"
+
+        // The controller's clock and ours drift apart slowly; a correction this
+        // often is too small to see on the seek bar
+        private val RESYNC_NANOS = TimeUnit.SECONDS.toNanos(1)
+
+        @Volatile
+        private var INSTANCE: PlaybackRepository? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): PlaybackRepository {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: PlaybackRepository(context.applicationContext as Application)
+                    .also { INSTANCE = it }
+            }
+        }
+    }
+}
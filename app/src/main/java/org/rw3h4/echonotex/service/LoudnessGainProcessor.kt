@@ -0,0 +1,66 @@
+package org.rw3h4.echonotex.service
+
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.audio.AudioProcessor
+import androidx.media3.common.audio.BaseAudioProcessor
+import androidx.media3.common.util.UnstableApi
+import java.nio.ByteBuffer
+import kotlin.math.pow
+import kotlin.math.roundToInt
+
+/**
+ * Applies the current note's normalization gain to decoded audio, before it
+ * reaches the AudioTrack. Player volume can only turn a note down; this can also
+ * bring a quiet one up, clamping rather than wrapping if a sample would overflow.
+ * A new gain is ramped in across one buffer so it can't click.
+ */
+@OptIn(UnstableApi::class)
+class LoudnessGainProcessor : BaseAudioProcessor() {
+
+    /**
+     * Set by [NormalizingAudioRenderer] on the playback thread, between the last
+     * buffer of one item and the first of the next.
+     */
+    var gainDb = 0f
+
+    // Playback thread only
+    private var appliedGain = 1f
+    private var primed = false
+
+    override fun onConfigure(inputAudioFormat: AudioProcessor.AudioFormat): AudioProcessor.AudioFormat {
+        // Decoders hand out 16-bit unless float output is asked for, which it isn't
+        return if (inputAudioFormat.encoding == C.ENCODING_PCM_16BIT) inputAudioFormat
+        else AudioProcessor.AudioFormat.NOT_SET
+    }
+
+    override fun queueInput(inputBuffer: ByteBuffer) {
+        val size = inputBuffer.remaining()
+        if (size == 0) return
+        val target = 10f.pow(gainDb / 20)
+        // Straight in at the start of playback or after a seek; there's nothing to ramp from
+        if (!primed) {
+            appliedGain = target
+            primed = true
+        }
+        val output = replaceOutputBuffer(size)
+        val step = (target - appliedGain) / (size / 2)
+        var gain = appliedGain
+        while (inputBuffer.remaining() >= 2) {
+            val scaled = (inputBuffer.getShort() * gain).roundToInt()
+            output.putShort(scaled.coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt()).toShort())
+            gain += step
+        }
+        appliedGain = target
+        output.flip()
+    }
+
+    override fun onFlush() {
+        primed = false
+    }
+
+    override fun onReset() {
+        appliedGain = 1f
+        primed = false
+    }
+}
@@ -0,0 +1,72 @@
+package org.rw3h4.echonotex.service
+
+import android.content.Context
+import android.os.Handler
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.Timeline
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.audio.AudioRendererEventListener
+import androidx.media3.exoplayer.audio.AudioSink
+import androidx.media3.exoplayer.audio.MediaCodecAudioRenderer
+import androidx.media3.exoplayer.mediacodec.MediaCodecAdapter
+import androidx.media3.exoplayer.mediacodec.MediaCodecSelector
+import androidx.media3.exoplayer.source.MediaSource
+
+/**
+ * Sets [gain], the processor in this renderer's own sink, to each item's
+ * normalization gain. It switches as the renderer's output moves from one item's
+ * stream to the next, on the playback thread: after the last of the previous
+ * item's audio has gone to the sink and before the first of the next. That holds
+ * when the codec is kept across items and the next one is read well ahead.
+ */
+@OptIn(UnstableApi::class)
+class NormalizingAudioRenderer(
+    context: Context,
+    codecAdapterFactory: MediaCodecAdapter.Factory,
+    mediaCodecSelector: MediaCodecSelector,
+    enableDecoderFallback: Boolean,
+    eventHandler: Handler?,
+    eventListener: AudioRendererEventListener?,
+    audioSink: AudioSink,
+    private val gain: LoudnessGainProcessor
+) : MediaCodecAudioRenderer(
+    context, codecAdapterFactory, mediaCodecSelector, enableDecoderFallback,
+    eventHandler, eventListener, audioSink
+) {
+    // Gains of streams handed to the renderer whose output hasn't been reached
+    // yet, by stream offset, which is unique to each stream
+    private val pendingGainsDb = HashMap<Long, Float>()
+    private val period = Timeline.Period()
+    private val window = Timeline.Window()
+
+    override fun onStreamChanged(
+        formats: Array<Format>,
+        startPositionUs: Long,
+        offsetUs: Long,
+        mediaPeriodId: MediaSource.MediaPeriodId
+    ) {
+        // Before super, which switches straight away when nothing is still playing out
+        pendingGainsDb[offsetUs] = gainDbOf(mediaPeriodId)
+        super.onStreamChanged(formats, startPositionUs, offsetUs, mediaPeriodId)
+    }
+
+    override fun onOutputStreamOffsetUsChanged(outputStreamOffsetUs: Long) {
+        super.onOutputStreamOffsetUsChanged(outputStreamOffsetUs)
+        pendingGainsDb.remove(outputStreamOffsetUs)?.let { gain.gainDb = it }
+    }
+
+    override fun onDisabled() {
+        pendingGainsDb.clear()
+        super.onDisabled()
+    }
+
+    private fun gainDbOf(mediaPeriodId: MediaSource.MediaPeriodId): Float {
+        val timeline = timeline
+        val periodIndex = timeline.getIndexOfPeriod(mediaPeriodId.periodUid)
+        if (periodIndex == C.INDEX_UNSET) return 0f
+        val windowIndex = timeline.getPeriod(periodIndex, period).windowIndex
+        return PlaybackService.gainDbOf(timeline.getWindow(windowIndex, window).mediaItem)
+    }
+}
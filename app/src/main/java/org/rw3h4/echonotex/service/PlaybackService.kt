@@ -1,17 +1,214 @@
 package org.rw3h4.echonotex.service
 
+import android.content.Context
 import android.content.Intent
+import android.os.Bundle
+import android.os.Handler
+import android.util.Log
+import androidx.annotation.OptIn
+import androidx.core.os.BundleCompat
+import androidx.media3.common.ForwardingPlayer
+import androidx.media3.common.MediaItem
+import androidx.media3.common.Player
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.DefaultRenderersFactory
 import androidx.media3.exoplayer.ExoPlayer
+import androidx.media3.exoplayer.Renderer
+import androidx.media3.exoplayer.audio.AudioRendererEventListener
+import androidx.media3.exoplayer.audio.AudioSink
+import androidx.media3.exoplayer.audio.DefaultAudioSink
+import androidx.media3.exoplayer.mediacodec.MediaCodecSelector
+import androidx.media3.exoplayer.source.DefaultMediaSourceFactory
+import androidx.media3.exoplayer.source.MediaSource
+import androidx.media3.exoplayer.source.preload.DefaultPreloadManager
+import androidx.media3.exoplayer.source.preload.TargetPreloadStatusControl
 import androidx.media3.session.MediaSession
 import androidx.media3.session.MediaSessionService
+import androidx.media3.session.SessionCommand
+import androidx.media3.session.SessionResult
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
 
+@OptIn(UnstableApi::class)
 class PlaybackService : MediaSessionService() {
     private var mediaSession: MediaSession? = null
+    private lateinit var preloadManager: DefaultPreloadManager
+    private lateinit var mediaSourceFactory: MediaSource.Factory
+    // What's preloaded, by media id, in the order it was asked for
+    private val prefetched = LinkedHashMap<String, MediaItem>()
+    // Preloaded items handed to the player, by media id. They stay with the
+    // manager until the player is past them, as it releases their sources
+    private val handedOver = HashMap<String, MediaItem>()
 
     override fun onCreate() {
         super.onCreate()
-        val player = ExoPlayer.Builder(this).build()
-        mediaSession = MediaSession.Builder(this, player).build()
+        // Every sink gets its own gain processor, set by the renderer feeding it; the
+        // preload manager builds renderers from this too, and they mustn't share one
+        val renderersFactory = object : DefaultRenderersFactory(this) {
+            // Each sink's processor, from building the sink until its renderer takes it
+            private val sinkGains = HashMap<AudioSink, LoudnessGainProcessor>()
+
+            override fun buildAudioSink(
+                context: Context,
+                enableFloatOutput: Boolean,
+                enableAudioTrackPlaybackParams: Boolean
+            ): AudioSink {
+                val gain = LoudnessGainProcessor()
+                val sink = DefaultAudioSink.Builder(context)
+                    .setEnableFloatOutput(enableFloatOutput)
+                    .setEnableAudioTrackPlaybackParams(enableAudioTrackPlaybackParams)
+                    .setAudioProcessors(arrayOf(gain))
+                    .build()
+                synchronized(sinkGains) { sinkGains[sink] = gain }
+                return sink
+            }
+
+            override fun buildAudioRenderers(
+                context: Context,
+                extensionRendererMode: Int,
+                mediaCodecSelector: MediaCodecSelector,
+                enableDecoderFallback: Boolean,
+                audioSink: AudioSink,
+                eventHandler: Handler,
+                eventListener: AudioRendererEventListener,
+                out: ArrayList<Renderer>
+            ) {
+                val gain = checkNotNull(synchronized(sinkGains) { sinkGains.remove(audioSink) })
+                out.add(NormalizingAudioRenderer(context, codecAdapterFactory, mediaCodecSelector,
+                    enableDecoderFallback, eventHandler, eventListener, audioSink, gain))
+            }
+        }
+        mediaSourceFactory = DefaultMediaSourceFactory(this)
+        // Built together so preloaded sources share the player's renderers and threads
+        val preloadBuilder = DefaultPreloadManager.Builder(this, preloadTarget)
+            .setRenderersFactory(renderersFactory)
+            .setMediaSourceFactory(mediaSourceFactory)
+        val player = preloadBuilder.buildExoPlayer()
+        preloadManager = preloadBuilder.build()
+        player.addListener(handOverListener)
+        mediaSession = MediaSession.Builder(this, PreloadedSourcePlayer(player))
+            .setCallback(sessionCallback)
+            .build()
+    }
+
+    // Enough to start without waiting on the disk, little enough that a screenful
+    // of notes costs next to nothing
+    private val preloadTarget = TargetPreloadStatusControl<Int, DefaultPreloadManager.PreloadStatus> {
+        DefaultPreloadManager.PreloadStatus.specifiedRangeLoaded(PREBUFFER_MS)
+    }
+
+    /**
+     * Replaces what's preloaded with [items], most likely to be played first. Items
+     * no longer asked for are released; ones already preloaded are kept.
+     */
+    private fun prefetch(items: List<MediaItem>) {
+        val wanted = items.take(MAX_PREFETCH).associateBy { it.mediaId }
+        val iterator = prefetched.entries.iterator()
+        while (iterator.hasNext()) {
+            val (mediaId, item) = iterator.next()
+            if (wanted[mediaId]?.let { samePlayback(it, item) } != true) {
+                preloadManager.remove(item)
+                iterator.remove()
+            }
+        }
+        wanted.values.forEachIndexed { rank, item ->
+            // One the player already has needs nothing more
+            if (item.mediaId !in handedOver && prefetched.putIfAbsent(item.mediaId, item) == null) {
+                preloadManager.add(item, rank)
+            }
+        }
+        preloadManager.invalidate()
+    }
+
+    // The player's own source for an item, or the preloaded one if it would play the same
+    private fun takeSource(item: MediaItem): MediaSource {
+        val preloaded = prefetched.remove(item.mediaId)
+        if (preloaded != null) {
+            val source = if (samePlayback(preloaded, item)) preloadManager.getMediaSource(preloaded) else null
+            if (source != null) {
+                Log.d(TAG, "Playing ${item.mediaId} from a preloaded source")
+                handedOver[item.mediaId] = preloaded
+                return source
+            }
+            // Preloaded before the note changed, say before its loudness was measured
+            preloadManager.remove(preloaded)
+        }
+        return mediaSourceFactory.createMediaSource(item)
+    }
+
+    // The source carries its item into the timeline, so a preloaded one only stands in
+    // for an item equal in every respect. MediaItem equality leaves out the metadata
+    // extras, which is where the gain is.
+    private fun samePlayback(preloaded: MediaItem, item: MediaItem): Boolean {
+        return preloaded == item && gainDbOf(preloaded) == gainDbOf(item)
+    }
+
+    // Releases the handed-over items the player is done with: those behind the
+    // one playing, or no longer in the playlist at all
+    private fun releasePlayed(player: Player) {
+        if (handedOver.isEmpty()) return
+        val ahead = HashSet<String>()
+        for (index in player.currentMediaItemIndex until player.mediaItemCount) {
+            ahead.add(player.getMediaItemAt(index).mediaId)
+        }
+        val iterator = handedOver.entries.iterator()
+        while (iterator.hasNext()) {
+            val (mediaId, item) = iterator.next()
+            if (mediaId !in ahead) {
+                preloadManager.remove(item)
+                iterator.remove()
+            }
+        }
+    }
+
+    private val handOverListener = object : Player.Listener {
+        override fun onEvents(player: Player, events: Player.Events) {
+            if (events.containsAny(Player.EVENT_MEDIA_ITEM_TRANSITION, Player.EVENT_TIMELINE_CHANGED)) {
+                releasePlayed(player)
+            }
+        }
+    }
+
+    // The session hands the player media items; this gives it the preloaded
+    // sources instead where there are any
+    private inner class PreloadedSourcePlayer(private val exoPlayer: ExoPlayer) : ForwardingPlayer(exoPlayer) {
+        override fun setMediaItems(mediaItems: List<MediaItem>, startIndex: Int, startPositionMs: Long) {
+            exoPlayer.setMediaSources(mediaItems.map(::takeSource), startIndex, startPositionMs)
+        }
+
+        override fun setMediaItems(mediaItems: List<MediaItem>, resetPosition: Boolean) {
+            exoPlayer.setMediaSources(mediaItems.map(::takeSource), resetPosition)
+        }
+    }
+
+    private val sessionCallback = object : MediaSession.Callback {
+        override fun onConnect(
+            session: MediaSession,
+            controller: MediaSession.ControllerInfo
+        ): MediaSession.ConnectionResult {
+            // Prefetching is for the app's own screens, not the notification or system UI
+            if (controller.packageName != packageName) return super.onConnect(session, controller)
+            val commands = MediaSession.ConnectionResult.DEFAULT_SESSION_COMMANDS.buildUpon()
+                .add(PREFETCH_COMMAND)
+                .build()
+            return MediaSession.ConnectionResult.AcceptedResultBuilder(session)
+                .setAvailableSessionCommands(commands)
+                .build()
+        }
+
+        override fun onCustomCommand(
+            session: MediaSession,
+            controller: MediaSession.ControllerInfo,
+            customCommand: SessionCommand,
+            args: Bundle
+        ): ListenableFuture<SessionResult> {
+            if (customCommand.customAction != ACTION_PREFETCH) {
+                return super.onCustomCommand(session, controller, customCommand, args)
+            }
+            val bundles = BundleCompat.getParcelableArrayList(args, EXTRA_MEDIA_ITEMS, Bundle::class.java)
+            prefetch(bundles.orEmpty().map(MediaItem::fromBundle))
+            return Futures.immediateFuture(SessionResult(SessionResult.RESULT_SUCCESS))
+        }
     }
 
     override fun onGetSession(controllerInfo: MediaSession.ControllerInfo): MediaSession? {
@@ -27,10 +224,36 @@ class PlaybackService : MediaSessionService() {
 
     override fun onDestroy() {
         mediaSession?.run {
+            preloadManager.release()
             player.release()
             release()
             mediaSession = null
         }
         super.onDestroy()
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val TAG = "PlaybackService"
+        private const val PREBUFFER_MS = 500L
+
+        /** Most items preloaded at once; any more in a prefetch are ignored. */
+        const val MAX_PREFETCH = 4
+
+        /** MediaMetadata extra: the item's normalization gain in dB, as a float. */
+        const val EXTRA_LOUDNESS_GAIN_DB = "org.rw3h4.echonotex.LOUDNESS_GAIN_DB"
+
+        /**
+         * Custom command: preload the items in [EXTRA_MEDIA_ITEMS], most likely first,
+         * in place of whatever was preloaded before.
+         */
+        const val ACTION_PREFETCH = "org.rw3h4.echonotex.PREFETCH"
+        /** ArrayList of MediaItem bundles, with their local configuration. */
+        const val EXTRA_MEDIA_ITEMS = "org.rw3h4.echonotex.MEDIA_ITEMS"
+        val PREFETCH_COMMAND = SessionCommand(ACTION_PREFETCH, Bundle.EMPTY)
+
+        /** The normalization gain carried in [item]'s metadata, 0 if it has none. */
+        fun gainDbOf(item: MediaItem): Float {
+            return item.mediaMetadata.extras?.getFloat(EXTRA_LOUDNESS_GAIN_DB, 0f) ?: 0f
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.rw3h4.echonotex.ui.custom;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import org.rw3h4.echonotex.R;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+/**
+ * Static waveform of a whole voice note, drawn from its stored peaks. The part
+ * before the playback position is drawn in the played colour.
+ */
+public class WaveformPeaksView extends View {
+
+    private final Paint barPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint playedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float barWidth;
+    private final float barGap;
+
+    @Nullable
+    private WaveformPeaks peaks;
+    private float progress;
+    private float[] columnPeaks = new float[0];
+    private int columnCount;
+
+    public WaveformPeaksView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+
+        TypedArray typedArray = context.getTheme().obtainStyledAttributes(
+                attrs,
+                R.styleable.WaveformPeaksView,
+                0, 0);
+
+        try {
+            barPaint.setColor(typedArray.getColor(R.styleable.WaveformPeaksView_waveBarColor,
+                    ContextCompat.getColor(context, R.color.light_blue)));
+            playedPaint.setColor(typedArray.getColor(R.styleable.WaveformPeaksView_wavePlayedColor,
+                    ContextCompat.getColor(context, R.color.dark_blue)));
+            barWidth = typedArray.getDimension(R.styleable.WaveformPeaksView_waveBarWidth, 6f);
+            barGap = typedArray.getDimension(R.styleable.WaveformPeaksView_waveBarGap, 4f);
+        } finally {
+            typedArray.recycle();
+        }
+    }
+
+    public void setPeaks(@Nullable WaveformPeaks peaks) {
+        if (this.peaks == peaks) return;
+        this.peaks = peaks;
+        updateColumns();
+        invalidate();
+    }
+
+    /** @param progress played fraction, 0..1 */
+    public void setProgress(float progress) {
+        progress = Math.max(0f, Math.min(1f, progress));
+        if (this.progress == progress) return;
+        this.progress = progress;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateColumns();
+    }
+
+    // Reduces the peaks to one value per bar; only redone when the peaks or the width change
+    private void updateColumns() {
+        int bars = (int) (getWidth() / (barWidth + barGap));
+        if (peaks == null || bars <= 0) {
+            columnCount = 0;
+            return;
+        }
+        if (columnPeaks.length < bars) {
+            columnPeaks = new float[bars];
+        }
+        columnCount = peaks.render(null, columnPeaks, bars, 0f, 1f);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float viewHeight = getHeight();
+        float cornerRadius = barWidth / 2;
+        float playedX = progress * getWidth();
+
+        float left = 0f;
+        for (int i = 0; i < columnCount; i++) {
+            float barHeight = Math.max(barWidth, columnPeaks[i] * viewHeight);
+            float top = (viewHeight - barHeight) / 2;
+            Paint paint = left + barWidth / 2 <= playedX ? playedPaint : barPaint;
+            canvas.drawRoundRect(left, top, left + barWidth, top + barHeight, cornerRadius, cornerRadius, paint);
+            left += barWidth + barGap;
+        }
+    }
+}
@@ -4,21 +4,23 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import org.rw3h4.echonotex.R;
-import java.util.ArrayList;
-import java.util.List;
+import org.rw3h4.echonotex.core.waveform.AmplitudeRingBuffer;
+import org.rw3h4.echonotex.core.waveform.Amplitudes;
+import org.rw3h4.echonotex.core.waveform.WaveformBars;
 
 public class WaveformView extends View {
 
+    // Only the newest bars that fit are drawn, and no screen fits this many
+    private static final int MAX_BARS = 512;
+
     private final Paint barPaint = new Paint();
-    private final List<Float> amplitudes = new ArrayList<>();
-    private final float barWidth;
-    private final float barGap;
+    private final AmplitudeRingBuffer amplitudes = new AmplitudeRingBuffer(MAX_BARS);
+    private final WaveformBars bars;
 
     public WaveformView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
@@ -32,22 +34,16 @@ public class WaveformView extends View {
         try {
             int defaultColor = ContextCompat.getColor(context, R.color.dark_blue);
             barPaint.setColor(typedArray.getColor(R.styleable.WaveformView_waveBarColor, defaultColor));
-            barWidth = typedArray.getDimension(R.styleable.WaveformView_waveBarWidth, 9f);
-            barGap = typedArray.getDimension(R.styleable.WaveformView_waveBarGap, 6f);
+            bars = new WaveformBars(
+                    typedArray.getDimension(R.styleable.WaveformView_waveBarWidth, 9f),
+                    typedArray.getDimension(R.styleable.WaveformView_waveBarGap, 6f));
         } finally {
             typedArray.recycle();
         }
     }
 
     public void addAmplitude(float amplitude) {
-        float normalizedHeight = Math.min(amplitude / 32767f, 1.0f); // Use standard max amplitude
-        amplitudes.add(normalizedHeight);
-
-        int maxBars = (int) (getWidth() / (barWidth + barGap));
-        if (amplitudes.size() > maxBars && maxBars > 0) {
-            amplitudes.subList(0, amplitudes.size() - maxBars).clear();
-        }
-
+        amplitudes.add(Amplitudes.normalize(amplitude));
         invalidate();
     }
 
@@ -59,28 +55,12 @@ public class WaveformView extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (amplitudes.isEmpty()) {
-            return;
-        }
-
-        float viewHeight = getHeight();
-        float viewWidth = getWidth();
-        float currentX = viewWidth;
-        float cornerRadius = barWidth / 2; // Make the corners perfectly round
-
-        for (int i = amplitudes.size() - 1; i >= 0; i--) {
-            float amplitude = amplitudes.get(i);
-            float barHeight = Math.max(barWidth, amplitude * viewHeight); // Min height is bar width
-            float top = (viewHeight - barHeight) / 2;
-            float bottom = top + barHeight;
-
-            RectF barRect = new RectF(currentX - barWidth, top, currentX, bottom);
-            canvas.drawRoundRect(barRect, cornerRadius, cornerRadius, barPaint);
+        int count = bars.layout(amplitudes, getWidth(), getHeight());
+        float cornerRadius = bars.getCornerRadius(); // Make the corners perfectly round
 
-            currentX -= (barWidth + barGap);
-            if (currentX < 0) {
-                break;
-            }
+        for (int i = 0; i < count; i++) {
+            canvas.drawRoundRect(bars.getLeft(i), bars.getTop(i), bars.getRight(i), bars.getBottom(i),
+                    cornerRadius, cornerRadius, barPaint);
         }
     }
-}
\ No newline at end of file
+}
@@ -68,10 +68,10 @@ class AddEditNoteActivity : AppCompatActivity() {
                 viewModel = addEditNoteViewModel,
                 existingNote = existingNote,
                 initialContent = transcribedText,
-                onSave = { title, content, category ->
+                onSave = { title, contentParts, category ->
                     val user = FirebaseAuth.getInstance().currentUser
                     if (user != null) {
-                        addEditNoteViewModel.saveNote(existingNote, title, content, category, user.uid)
+                        addEditNoteViewModel.saveNote(existingNote, title, contentParts, category, user.uid)
                     } else {
                         Toast.makeText(this, "Error: No user logged in.", Toast.LENGTH_SHORT).show()
                     }
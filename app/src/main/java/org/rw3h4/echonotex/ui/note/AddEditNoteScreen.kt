@@ -17,6 +17,8 @@ import androidx.compose.foundation.text.BasicTextField
 import androidx.compose.foundation.text.KeyboardActions
 import androidx.compose.foundation.text.KeyboardOptions
 import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.automirrored.filled.Redo
+import androidx.compose.material.icons.automirrored.filled.Undo
 import androidx.compose.material.icons.filled.*
 import androidx.compose.material3.*
 import androidx.compose.runtime.*
@@ -70,7 +72,7 @@ fun AddEditNoteScreen(
     viewModel: AddEditNoteViewModel,
     existingNote: Note?,
     initialContent: String?,
-    onSave: (title: String, content: String, category: String) -> Unit,
+    onSave: (title: String, contentParts: List<EditContentPart>, category: String) -> Unit,
     onNavigateUp: () -> Unit,
     onLaunchGallery: () -> Unit,
     onLaunchCamera: () -> Unit
@@ -78,7 +80,7 @@ fun AddEditNoteScreen(
     var title by remember { mutableStateOf("") }
     var selectedCategory by remember { mutableStateOf<CategoryItem?>(null) }
     val categories by viewModel.allCategories.observeAsState(listOf())
-    var contentParts by remember { mutableStateOf<List<EditContentPart>>(emptyList()) }
+    val editor = remember { NoteEditorState() }
     var focusedPartId by remember { mutableStateOf<UUID?>(null) }
     val focusRequesters = remember { mutableStateMapOf<UUID, FocusRequester>() }
 
@@ -105,42 +107,25 @@ fun AddEditNoteScreen(
     }
 
     fun handleDeleteAction(partId: UUID) {
-        val indexToDelete = contentParts.indexOfFirst { it.id == partId }
+        val indexToDelete = editor.indexOf(partId)
         if (indexToDelete == -1) return
-        val newParts = contentParts.toMutableList()
-        val partToDelete = newParts[indexToDelete]
-        val previousPart = newParts.getOrNull(indexToDelete - 1)
-        val nextPart = newParts.getOrNull(indexToDelete + 1)
-        when {
-            partToDelete is EditContentPart.Image && previousPart is EditContentPart.Text && nextPart is EditContentPart.Text -> {
-                val mergedText = previousPart.value.text + nextPart.value.text
+        editor.transaction {
+            editor.removeAt(indexToDelete)
+            // Removing a block can leave two text blocks next to each other, fold them into one
+            val previousPart = editor.partAtOrNull(indexToDelete - 1)
+            val nextPart = editor.partAtOrNull(indexToDelete)
+            if (previousPart is EditContentPart.Text && nextPart is EditContentPart.Text) {
+                val mergedText = previousPart.value.annotatedString + nextPart.value.annotatedString
                 val cursorPosition = previousPart.value.text.length
                 val mergedTextFieldValue = TextFieldValue(mergedText, selection = TextRange(cursorPosition))
-                newParts[indexToDelete - 1] = previousPart.copy(value = mergedTextFieldValue)
-                newParts.removeAt(indexToDelete + 1)
-                newParts.removeAt(indexToDelete)
-                focusedPartId = previousPart.id
+                editor.update(previousPart.copy(value = mergedTextFieldValue))
+                editor.removeAt(indexToDelete)
             }
-            else -> {
-                newParts.removeAt(indexToDelete)
-                val newPreviousPart = newParts.getOrNull(indexToDelete - 1)
-                val currentPart = newParts.getOrNull(indexToDelete)
-                if (newPreviousPart is EditContentPart.Text && currentPart is EditContentPart.Text) {
-                    val mergedText = newPreviousPart.value.text + currentPart.value.text
-                    val cursorPosition = newPreviousPart.value.text.length
-                    val mergedTextFieldValue = TextFieldValue(mergedText, selection = TextRange(cursorPosition))
-                    newParts[indexToDelete - 1] = newPreviousPart.copy(value = mergedTextFieldValue)
-                    newParts.removeAt(indexToDelete)
-                    focusedPartId = newPreviousPart.id
-                } else {
-                    focusedPartId = newParts.getOrNull(indexToDelete - 1)?.id
-                }
+            focusedPartId = previousPart?.id
+            if (editor.isEmpty || editor.partAt(editor.size - 1) is EditContentPart.Image) {
+                editor.insert(editor.size, EditContentPart.Text(value = TextFieldValue("")))
             }
         }
-        if (newParts.isEmpty() || newParts.last() is EditContentPart.Image) {
-            newParts.add(EditContentPart.Text(value = TextFieldValue("")))
-        }
-        contentParts = newParts
     }
 
     LaunchedEffect(existingNote, categories, initialContent) {
@@ -149,41 +134,41 @@ fun AddEditNoteScreen(
             val categoryName = categories.find { it.id == existingNote.categoryId }?.name ?: "None"
             selectedCategory = predefinedCategories.find { it.name.equals(categoryName, ignoreCase = true) }
                 ?: CategoryItem("custom", categoryName, Icons.Default.Label, DarkBlue)
-            if (contentParts.isEmpty()) {
-                contentParts = parseHtmlToContentPart(existingNote.content)
+            if (editor.isEmpty) {
+                editor.setAll(viewModel.loadContentParts(existingNote))
             }
         } else {
-            if (contentParts.isEmpty()) {
+            if (editor.isEmpty) {
                 val initialText = initialContent ?: ""
-                contentParts = listOf(EditContentPart.Text(value = TextFieldValue(initialText)))
+                editor.setAll(listOf(EditContentPart.Text(value = TextFieldValue(initialText))))
             }
         }
     }
 
     LaunchedEffect(viewModel) {
         viewModel.imageToInsert.collect { uri ->
-            val newParts = contentParts.toMutableList()
-            val index = contentParts.indexOfFirst { it.id == focusedPartId }.coerceIn(0, newParts.size - 1)
-            val focusedPart = newParts.getOrNull(index)
-            if (focusedPart is EditContentPart.Text) {
-                val cursorPosition = focusedPart.value.selection.start
-                val textBefore = focusedPart.value.text.substring(0, cursorPosition)
-                val textAfter = focusedPart.value.text.substring(cursorPosition)
-                newParts[index] = focusedPart.copy(value = TextFieldValue(textBefore))
-                val imagePart = EditContentPart.Image(uri = uri)
-                val textAfterPart = EditContentPart.Text(value = TextFieldValue(textAfter, selection = TextRange(0)))
-                newParts.add(index + 1, imagePart)
-                newParts.add(index + 2, textAfterPart)
-                focusedPartId = textAfterPart.id
-            } else {
-                val insertPos = if (index != -1) index + 1 else newParts.size
-                val imagePart = EditContentPart.Image(uri = uri)
-                val textAfterPart = EditContentPart.Text(value = TextFieldValue(""))
-                newParts.add(insertPos, imagePart)
-                newParts.add(insertPos + 1, textAfterPart)
-                focusedPartId = textAfterPart.id
+            editor.transaction {
+                val index = editor.indexOf(focusedPartId).coerceIn(0, editor.size - 1)
+                val focusedPart = editor.partAtOrNull(index)
+                if (focusedPart is EditContentPart.Text) {
+                    val cursorPosition = focusedPart.value.selection.start
+                    val textBefore = focusedPart.value.annotatedString.subSequence(0, cursorPosition)
+                    val textAfter = focusedPart.value.annotatedString.subSequence(cursorPosition, focusedPart.value.text.length)
+                    editor.update(focusedPart.copy(value = TextFieldValue(textBefore)))
+                    val imagePart = EditContentPart.Image(uri = uri)
+                    val textAfterPart = EditContentPart.Text(value = TextFieldValue(textAfter, selection = TextRange(0)))
+                    editor.insert(index + 1, imagePart)
+                    editor.insert(index + 2, textAfterPart)
+                    focusedPartId = textAfterPart.id
+                } else {
+                    val insertPos = if (index != -1) index + 1 else editor.size
+                    val imagePart = EditContentPart.Image(uri = uri)
+                    val textAfterPart = EditContentPart.Text(value = TextFieldValue(""))
+                    editor.insert(insertPos, imagePart)
+                    editor.insert(insertPos + 1, textAfterPart)
+                    focusedPartId = textAfterPart.id
+                }
             }
-            contentParts = newParts
         }
     }
 
@@ -223,6 +208,22 @@ fun AddEditNoteScreen(
                             )
                         }
                     },
+                    actions = {
+                        IconButton(onClick = { editor.undo() }, enabled = editor.canUndo) {
+                            Icon(
+                                Icons.AutoMirrored.Filled.Undo,
+                                contentDescription = "Undo",
+                                tint = if (editor.canUndo) DarkBlue else DarkBlue.copy(alpha = 0.3f)
+                            )
+                        }
+                        IconButton(onClick = { editor.redo() }, enabled = editor.canRedo) {
+                            Icon(
+                                Icons.AutoMirrored.Filled.Redo,
+                                contentDescription = "Redo",
+                                tint = if (editor.canRedo) DarkBlue else DarkBlue.copy(alpha = 0.3f)
+                            )
+                        }
+                    },
                     colors = TopAppBarDefaults.centerAlignedTopAppBarColors(
                         containerColor = Color.Transparent
                     )
@@ -253,26 +254,19 @@ fun AddEditNoteScreen(
                     )
                 }
 
-                items(contentParts, key = { it.id }) { part ->
-                    when (part) {
+                items(editor.size, key = { editor.idAt(it) }) { index ->
+                    when (val part = editor.partAt(index)) {
                         is EditContentPart.Text -> {
                             ModernTextEditor(
                                 part = part,
                                 onTextChange = { newValue ->
-                                    contentParts = contentParts.map {
-                                        if (it.id == part.id) {
-                                            (it as EditContentPart.Text).copy(value = newValue)
-                                        } else {
-                                            it
-                                        }
-                                    }
+                                    editor.update(part.copy(value = newValue))
                                 },
                                 onFocusChanged = { isFocused ->
                                     if (isFocused) focusedPartId = part.id
                                 },
                                 onBackspaceAtStart = {
-                                    val index = contentParts.indexOf(part)
-                                    val previousPart = contentParts.getOrNull(index - 1)
+                                    val previousPart = editor.partAtOrNull(editor.indexOf(part.id) - 1)
                                     if (previousPart != null) {
                                         handleDeleteAction(previousPart.id)
                                     }
@@ -285,13 +279,7 @@ fun AddEditNoteScreen(
                                 part = part,
                                 onDelete = { handleDeleteAction(part.id) },
                                 onResize = { newSizeFraction ->
-                                    contentParts = contentParts.map { p ->
-                                        if (p.id == part.id) {
-                                            (p as EditContentPart.Image).copy(sizeFraction = newSizeFraction)
-                                        } else {
-                                            p
-                                        }
-                                    }
+                                    editor.update(part.copy(sizeFraction = newSizeFraction))
                                 }
                             )
                         }
@@ -304,8 +292,7 @@ fun AddEditNoteScreen(
         StyledBottomActionBar(
             modifier = Modifier.align(Alignment.BottomCenter),
             onSaveClick = {
-                val finalHtml = convertCContentPartsToHtml(contentParts)
-                onSave(title, finalHtml, selectedCategory?.name ?: "None")
+                onSave(title, editor.toList(), selectedCategory?.name ?: "None")
             },
             onAttachImageClick = onLaunchGallery,
             onTakePhotoClick = onLaunchCamera,
@@ -1,64 +1,114 @@
 package org.rw3h4.echonotex.ui.note
 
+import android.util.Log
+import androidx.compose.ui.text.AnnotatedString
+import androidx.compose.ui.text.SpanStyle
+import androidx.compose.ui.text.buildAnnotatedString
+import androidx.compose.ui.text.font.FontStyle
+import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.input.TextFieldValue
-import org.jsoup.Jsoup
-import java.util.regex.Pattern
+import androidx.compose.ui.text.style.TextDecoration
+import org.rw3h4.echonotex.core.note.BlockCodec
+import org.rw3h4.echonotex.core.note.ContentBlock
+import org.rw3h4.echonotex.core.note.NoteHtmlParser
+import org.rw3h4.echonotex.core.note.NoteHtmlSerializer
+import org.rw3h4.echonotex.data.local.model.NoteBlock
+import java.util.UUID
 
-fun parseHtmlToContentPart(html: String?): List<EditContentPart> {
-    if (html.isNullOrBlank()) {
-        return listOf(EditContentPart.Text(value = TextFieldValue("")))
-    }
+// The parsing and encoding live in :core so they can be benchmarked off-device,
+// these just map between core blocks, stored rows and the editor's parts.
+// HTML is only produced for note_content, which previews, search and sync still read.
 
-    val parts = mutableListOf<EditContentPart>()
-    val doc = Jsoup.parse(html)
+private const val TAG = "ContentParsers"
 
-    doc.body().children().forEach { element ->
-        when (element.tagName()) {
-            "p" -> {
-                val text = element.html().replace("<br>", "\n")
-                parts.add(EditContentPart.Text(value = TextFieldValue(text)))
-            }
-            "img" -> {
-                val src = element.attr("src")
-                val style = element.attr("style")
-                val pattern = Pattern.compile("width: \\s*(\\d*\\.?\\d+)%")
-                val matcher = pattern.matcher(style)
-                val sizeFraction = if (matcher.find()) {
-                    matcher.group(1)?.toFloatOrNull()?.div(100f) ?: 1.0f
-                } else {
-                    1.0f
-                }
-                if (src.isNotEmpty()) {
-                    parts.add(EditContentPart.Image(uri = src, sizeFraction = sizeFraction))
-                }
-            }
-        }
+fun convertCContentPartsToHtml(parts: List<EditContentPart>): String {
+    return NoteHtmlSerializer.serialize(parts.map { it.toContentBlock() })
+}
+
+/**
+ * Decodes stored blocks, each with its id. If any of them can't be read (corrupt,
+ * or written by a newer version) the note's HTML body, which always holds the
+ * whole note, is parsed instead and given new ids.
+ */
+fun List<NoteBlock>.decodeOr(fallbackHtml: String): List<Pair<UUID, ContentBlock>> {
+    return try {
+        map { block -> UUID.fromString(block.blockId) to BlockCodec.decode(block.data) }
+    } catch (e: IllegalArgumentException) {
+        Log.w(TAG, "Unreadable note blocks, falling back to the HTML body", e)
+        NoteHtmlParser.parseForEditing(fallbackHtml).map { UUID.randomUUID() to it }
     }
+}
 
-    if (parts.isEmpty() || parts.last() is EditContentPart.Image) {
-        parts.add(EditContentPart.Text(value = TextFieldValue("")))
+/**
+ * Decodes stored blocks into editor parts; the block id becomes the part id.
+ * Unreadable blocks give way to [fallbackHtml], and saving then replaces them.
+ */
+fun List<NoteBlock>.toEditContentParts(fallbackHtml: String): List<EditContentPart> {
+    val parts = decodeOr(fallbackHtml).map { (id, block) -> block.toEditContentPart(id) }
+    // The editor always expects a text part to type into at the end
+    if (parts.lastOrNull() !is EditContentPart.Text) {
+        return parts + EditContentPart.Text(value = TextFieldValue(""))
     }
     return parts
 }
 
-fun convertCContentPartsToHtml(parts: List<EditContentPart>): String {
-    val body = StringBuilder()
-    for (part in parts) {
-        when (part) {
-            is EditContentPart.Text -> {
-                val text = part.value.text
+/** Encodes editor parts for storage. The note id is filled in by the repository. */
+fun List<EditContentPart>.toNoteBlocks(): List<NoteBlock> {
+    return mapIndexed { position, part ->
+        NoteBlock(part.id.toString(), 0, position, BlockCodec.encode(part.toContentBlock()))
+    }
+}
 
-                if (text.isNotBlank()) {
-                    val htmlText = text.replace("\n", "<br>")
-                    body.append("<p>").append(htmlText).append("</p>")
-                }
-            }
-            is EditContentPart.Image -> {
-                val widthPercent = (part.sizeFraction * 100).toInt()
-                body.append("<img src=\"${part.uri}\" style=\"width:${widthPercent}%; height:auto;\" />")
-            }
+fun ContentBlock.Text.toAnnotatedString(): AnnotatedString {
+    if (spanCount == 0) return AnnotatedString(text)
+    return buildAnnotatedString {
+        append(text)
+        for (i in 0 until spanCount) {
+            addStyle(spanStyleOf(getSpanStyle(i)), getSpanStart(i), getSpanEnd(i))
         }
     }
+}
 
-    return body.toString()
+private fun ContentBlock.toEditContentPart(id: UUID): EditContentPart = when (this) {
+    is ContentBlock.Image -> EditContentPart.Image(id = id, uri = uri, sizeFraction = sizeFraction)
+    is ContentBlock.Text -> EditContentPart.Text(id = id, value = TextFieldValue(toAnnotatedString()))
+    else -> throw IllegalStateException("Unknown content block $this")
+}
+
+private fun EditContentPart.toContentBlock(): ContentBlock = when (this) {
+    is EditContentPart.Text -> value.annotatedString.toContentBlock()
+    is EditContentPart.Image -> ContentBlock.Image(uri, sizeFraction)
+}
+
+// The text field drops span styles on the blocks the user types into, so only
+// untouched blocks carry them back here.
+private fun AnnotatedString.toContentBlock(): ContentBlock.Text {
+    if (spanStyles.isEmpty()) return ContentBlock.Text(text)
+    val spans = IntArray(spanStyles.size * 3)
+    var count = 0
+    for (range in spanStyles) {
+        val style = styleMaskOf(range.item)
+        if (style == 0 || range.start >= range.end) continue
+        spans[count++] = range.start
+        spans[count++] = range.end
+        spans[count++] = style
+    }
+    return ContentBlock.Text(text, spans.copyOf(count))
+}
+
+private fun spanStyleOf(style: Int): SpanStyle = SpanStyle(
+    fontWeight = if (style and ContentBlock.Text.STYLE_BOLD != 0) FontWeight.Bold else null,
+    fontStyle = if (style and ContentBlock.Text.STYLE_ITALIC != 0) FontStyle.Italic else null,
+    textDecoration = if (style and ContentBlock.Text.STYLE_UNDERLINE != 0) TextDecoration.Underline else null
+)
+
+private fun styleMaskOf(spanStyle: SpanStyle): Int {
+    var style = 0
+    val weight = spanStyle.fontWeight
+    if (weight != null && weight >= FontWeight.SemiBold) style = style or ContentBlock.Text.STYLE_BOLD
+    if (spanStyle.fontStyle == FontStyle.Italic) style = style or ContentBlock.Text.STYLE_ITALIC
+    if (spanStyle.textDecoration?.contains(TextDecoration.Underline) == true) {
+        style = style or ContentBlock.Text.STYLE_UNDERLINE
+    }
+    return style
 }
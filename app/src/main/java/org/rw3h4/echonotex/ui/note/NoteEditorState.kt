@@ -0,0 +1,240 @@
+package org.rw3h4.echonotex.ui.note
+
+import android.os.SystemClock
+import androidx.compose.runtime.MutableState
+import androidx.compose.runtime.Stable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableIntStateOf
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.text.AnnotatedString
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.TextFieldValue
+import org.rw3h4.echonotex.core.editor.BlockRope
+import org.rw3h4.echonotex.core.editor.EditHistory
+import org.rw3h4.echonotex.core.editor.TextDelta
+import java.util.UUID
+
+// Undo keeps at most this many chars of deltas and removed blocks, or this many steps
+private const val HISTORY_MAX_CHARS = 256 * 1024
+private const val HISTORY_MAX_STEPS = 500
+// Keystrokes closer together than this undo as one step
+private const val TYPING_COALESCE_MILLIS = 1000L
+
+/**
+ * The editor's document. Blocks live in a BlockRope, so inserts, deletes and
+ * lookups are O(log n) instead of copying the whole parts list, and each block
+ * has its own state, so typing in one only recomposes that LazyColumn item.
+ * Every change is recorded as a small delta for undo/redo; snapshots of the
+ * document are never taken.
+ */
+@Stable
+class NoteEditorState {
+    private val rope = BlockRope<MutableState<EditContentPart>>()
+    private val nodes = HashMap<UUID, BlockRope.Node<MutableState<EditContentPart>>>()
+
+    // Only bumped when blocks are added or removed, edits go through the block's own state
+    private var structureVersion by mutableIntStateOf(0)
+
+    private val history = EditHistory(HISTORY_MAX_CHARS, HISTORY_MAX_STEPS, TYPING_COALESCE_MILLIS)
+    private var historyVersion by mutableIntStateOf(0)
+
+    init {
+        rope.setListener(object : BlockRope.Listener<MutableState<EditContentPart>> {
+            override fun onInserted(index: Int, value: MutableState<EditContentPart>) {
+                structureVersion++
+            }
+
+            override fun onRemoved(index: Int, value: MutableState<EditContentPart>) {
+                structureVersion++
+            }
+        })
+    }
+
+    val size: Int
+        get() {
+            structureVersion
+            return rope.size()
+        }
+
+    val isEmpty: Boolean
+        get() = size == 0
+
+    fun partAt(index: Int): EditContentPart = rope.get(index).value.value
+
+    fun partAtOrNull(index: Int): EditContentPart? = if (index in 0 until size) partAt(index) else null
+
+    fun idAt(index: Int): UUID = rope.get(index).value.value.id
+
+    fun indexOf(id: UUID?): Int = if (id == null) -1 else rope.indexOf(nodes[id])
+
+    val canUndo: Boolean
+        get() {
+            historyVersion
+            return history.canUndo()
+        }
+
+    val canRedo: Boolean
+        get() {
+            historyVersion
+            return history.canRedo()
+        }
+
+    fun insert(index: Int, part: EditContentPart) {
+        insertBlock(index, part)
+        record(BlockInserted(index, part))
+    }
+
+    fun removeAt(index: Int) {
+        record(BlockRemoved(index, removeBlock(index)))
+    }
+
+    /** Replaces the block with the same id; only readers of that block recompose. */
+    fun update(part: EditContentPart) {
+        val state = nodes[part.id] ?: return
+        val before = state.value
+        state.value = part
+        if (before is EditContentPart.Text && part is EditContentPart.Text) {
+            // Cursor moves change the value too, but there's nothing to undo
+            val delta = TextDelta.between(before.value.text, part.value.text) ?: return
+            record(TextEdited(
+                part.id,
+                delta,
+                before.value.annotatedString.subSequence(delta.offset, delta.offset + delta.removed.length),
+                part.value.annotatedString.subSequence(delta.offset, delta.offset + delta.inserted.length)
+            ))
+        } else if (before != part) {
+            record(BlockReplaced(before, part))
+        }
+    }
+
+    /** Runs [block] so that all of its changes undo as a single step. */
+    fun transaction(block: () -> Unit) {
+        history.beginTransaction()
+        try {
+            block()
+        } finally {
+            history.endTransaction()
+            historyVersion++
+        }
+    }
+
+    fun undo() {
+        if (history.undo()) historyVersion++
+    }
+
+    fun redo() {
+        if (history.redo()) historyVersion++
+    }
+
+    /** Loads a document; this isn't undoable and starts a fresh history. */
+    fun setAll(parts: List<EditContentPart>) {
+        rope.clear()
+        nodes.clear()
+        structureVersion++
+        parts.forEach { insertBlock(rope.size(), it) }
+        history.clear()
+        historyVersion++
+    }
+
+    fun toList(): List<EditContentPart> = rope.toList().map { it.value }
+
+    private fun insertBlock(index: Int, part: EditContentPart) {
+        nodes[part.id] = rope.insert(index, mutableStateOf(part))
+    }
+
+    private fun removeBlock(index: Int): EditContentPart {
+        val part = rope.remove(index).value
+        nodes.remove(part.id)
+        return part
+    }
+
+    /** Puts [replacement] over [length] chars at [offset], keeping the spans on either side. */
+    private fun replaceText(id: UUID, offset: Int, length: Int, replacement: AnnotatedString) {
+        val state = nodes[id] ?: return
+        val part = state.value as? EditContentPart.Text ?: return
+        val text = part.value.annotatedString
+        val edited = text.subSequence(0, offset) + replacement + text.subSequence(offset + length, text.length)
+        state.value = part.copy(value = TextFieldValue(edited, selection = TextRange(offset + replacement.length)))
+    }
+
+    private fun record(edit: EditHistory.Edit) {
+        if (history.isApplying) return
+        val couldUndo = history.canUndo()
+        val couldRedo = history.canRedo()
+        history.record(edit, SystemClock.uptimeMillis())
+        if (couldUndo != history.canUndo() || couldRedo != history.canRedo()) historyVersion++
+    }
+
+    private inner class BlockInserted(val index: Int, val part: EditContentPart) : EditHistory.Edit {
+        override fun undo() {
+            removeBlock(index)
+        }
+
+        override fun redo() = insertBlock(index, part)
+
+        override fun weight() = part.weight()
+    }
+
+    private inner class BlockRemoved(val index: Int, val part: EditContentPart) : EditHistory.Edit {
+        override fun undo() = insertBlock(index, part)
+
+        override fun redo() {
+            removeBlock(index)
+        }
+
+        override fun weight() = part.weight()
+    }
+
+    private inner class BlockReplaced(val before: EditContentPart, val after: EditContentPart) : EditHistory.Edit {
+        override fun undo() {
+            nodes[before.id]?.value?.value = before
+        }
+
+        override fun redo() {
+            nodes[after.id]?.value?.value = after
+        }
+
+        override fun weight() = before.weight() + after.weight()
+    }
+
+    /**
+     * [removed] and [inserted] are the delta's text with its spans, so undoing
+     * and redoing put the styling back along with the characters.
+     */
+    private inner class TextEdited(
+        val id: UUID,
+        var delta: TextDelta,
+        var removed: AnnotatedString,
+        var inserted: AnnotatedString
+    ) : EditHistory.Edit {
+        override fun undo() = replaceText(id, delta.offset, delta.inserted.length, removed)
+
+        override fun redo() = replaceText(id, delta.offset, delta.removed.length, inserted)
+
+        override fun weight() = delta.weight()
+
+        override fun absorb(next: EditHistory.Edit): Boolean {
+            if (next !is TextEdited || next.id != id) return false
+            val merged = delta.then(next.delta) ?: return false
+            // The same three cases as TextDelta.then, told apart by what it produced
+            removed = when {
+                merged.removed.length == delta.removed.length -> removed
+                merged.offset == delta.offset -> removed + next.removed
+                else -> next.removed.subSequence(0, delta.offset - next.delta.offset) + removed
+            }
+            inserted = if (merged.inserted.length > delta.inserted.length) {
+                inserted + next.inserted
+            } else {
+                inserted.subSequence(0, merged.inserted.length)
+            }
+            delta = merged
+            return true
+        }
+    }
+}
+
+private fun EditContentPart.weight(): Int = when (this) {
+    is EditContentPart.Text -> value.text.length
+    is EditContentPart.Image -> uri.length
+}
@@ -5,15 +5,20 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.text.format.Formatter;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.ImageView;
+import android.widget.PopupMenu;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
 import androidx.activity.result.ActivityResultLauncher;
@@ -24,6 +29,7 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.GravityCompat;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
@@ -34,12 +40,15 @@ import androidx.recyclerview.widget.StaggeredGridLayoutManager;
 import coil3.ImageLoader;
 import coil3.request.ImageRequest;
 import coil3.target.ImageViewTarget;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.tabs.TabLayout;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
 import org.rw3h4.echonotex.R;
 import org.rw3h4.echonotex.adapter.NoteAdapter;
+import org.rw3h4.echonotex.core.category.CategoryIndex;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
 import org.rw3h4.echonotex.data.local.model.Category;
 import org.rw3h4.echonotex.data.local.model.Note;
 import org.rw3h4.echonotex.data.local.model.NoteWithCategory;
@@ -52,17 +61,22 @@ import org.rw3h4.echonotex.ui.voice.speech2text.DictateNoteActivity;
 import org.rw3h4.echonotex.viewmodel.MediaPlayerViewModel;
 import org.rw3h4.echonotex.viewmodel.NotesViewModel;
 import org.rw3h4.echonotex.ui.voice.VoiceOptionsBottomSheetFragment;
+import org.rw3h4.echonotex.util.audio.AudioStore;
+import org.rw3h4.echonotex.util.audio.AudioStoreMaintenance;
+import org.rw3h4.echonotex.util.audio.WaveformExtractor;
+import org.rw3h4.echonotex.util.audio.WaveformSidecar;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 public class NotesActivity extends AppCompatActivity implements VoiceOptionsBottomSheetFragment.VoiceOptionsListener {
 
+    // Nearest a cut may be to either end of a voice note
+    private static final long MIN_EDIT_MILLIS = 500;
+
     private ActivityNotesBinding binding;
     private MiniPlayerBinding miniPlayerBinding;
 
@@ -72,6 +86,10 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
 
     private LiveData<List<Note>> searchResultsLiveData;
     private Observer<List<Note>> searchObserver;
+    // A whole category was asked for, to be played once its notes have loaded
+    private boolean playQueueWhenLoaded;
+    // Voice notes on screen when the grid last settled
+    private List<Note> visibleVoiceNotes = new ArrayList<>();
 
     private final ActivityResultLauncher<Intent> dictateNoteLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
@@ -112,6 +130,8 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         setupSearchBar();
         observeViewModel();
         observeMediaPlayer();
+        observeVoiceEdits();
+        observeVoiceQueue();
 
         binding.addNoteBtn.setOnClickListener(v -> {
             Intent intent = new Intent(NotesActivity.this, AddEditNoteActivity.class);
@@ -126,8 +146,10 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
 
     private void observeMediaPlayer() {
         mediaPlayerViewModel.getCurrentNote().observe(this, note -> {
+            adapter.setPlayingNote(note != null ? note.getId() : NoteAdapter.NO_NOTE);
             if (note != null) {
                 miniPlayerBinding.miniPlayerTitle.setText(note.getTitle());
+                bindMiniPlayerWaveform(note.getFilePath());
                 if (miniPlayerBinding.miniPlayerContainer.getVisibility() == View.GONE) {
                     Animation slideUp = AnimationUtils.loadAnimation(this, R.anim.slide_up);
                     miniPlayerBinding.miniPlayerContainer.startAnimation(slideUp);
@@ -154,6 +176,7 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         });
 
         mediaPlayerViewModel.isPlaying().observe(this, isPlaying -> {
+            adapter.setPlaying(isPlaying);
             if (isPlaying) {
                 miniPlayerBinding.miniPlayerPlayPauseButton.setImageResource(R.drawable.ic_pause_circle);
             } else {
@@ -174,11 +197,14 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
 
             Long totalDuration = mediaPlayerViewModel.getTotalDuration().getValue();
             if (totalDuration != null && totalDuration > 0) {
-                miniPlayerBinding.miniPlayerElapsedTime.setText(formatTime(position));
-                miniPlayerBinding.miniPlayerRemainingTime.setText("-" + formatTime(totalDuration - position));
+                float played = position / (float) totalDuration;
+                miniPlayerBinding.miniPlayerWaveform.setProgress(played);
+                adapter.setPlayedFraction(played);
+                setTextIfChanged(miniPlayerBinding.miniPlayerElapsedTime, formatTime(position));
+                setTextIfChanged(miniPlayerBinding.miniPlayerRemainingTime, "-" + formatTime(totalDuration - position));
             } else {
-                miniPlayerBinding.miniPlayerElapsedTime.setText("0:00");
-                miniPlayerBinding.miniPlayerRemainingTime.setText("-0:00");
+                setTextIfChanged(miniPlayerBinding.miniPlayerElapsedTime, "0:00");
+                setTextIfChanged(miniPlayerBinding.miniPlayerRemainingTime, "-0:00");
             }
         });
 
@@ -209,9 +235,113 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         miniPlayerBinding.miniPlayerCloseButton.setOnClickListener(v -> {
             mediaPlayerViewModel.stop();
         });
-        
+
+        miniPlayerBinding.miniPlayerEditButton.setOnClickListener(this::showVoiceEditMenu);
+    }
+
+    private void observeVoiceEdits() {
+        notesViewModel.getEditProgress().observe(this, percent -> {
+            binding.voiceEditProgress.setVisibility(percent != null ? View.VISIBLE : View.GONE);
+            if (percent != null) binding.voiceEditProgress.setProgressCompat(percent, true);
+        });
+        notesViewModel.getEditOutcome().observe(this, succeeded -> {
+            if (succeeded == null) return;
+            Toast.makeText(this, succeeded ? R.string.voice_note_edited : R.string.voice_note_edit_failed,
+                    Toast.LENGTH_LONG).show();
+            notesViewModel.onEditOutcomeShown();
+        });
+    }
+
+    // Cuts at the player's position, so the user finds the spot by listening
+    private void showVoiceEditMenu(View anchor) {
+        Note playing = mediaPlayerViewModel.getCurrentNote().getValue();
+        if (playing == null) return;
+        // The player only knows the note's id; the list has the note as stored
+        NoteWithCategory item = findNoteWithCategoryById(playing.getId());
+        if (item == null) return;
+        Note note = item.getNote();
+
+        PopupMenu menu = new PopupMenu(this, anchor);
+        menu.inflate(R.menu.voice_edit_menu);
+        menu.setOnMenuItemClickListener(menuItem -> {
+            int id = menuItem.getItemId();
+            if (id == R.id.action_merge) {
+                pickNotesToMerge(note);
+                return true;
+            }
+            Long position = mediaPlayerViewModel.getCurrentPosition().getValue();
+            long at = position != null ? position : 0;
+            if (at < MIN_EDIT_MILLIS || at > note.getDuration() - MIN_EDIT_MILLIS) {
+                Toast.makeText(this, R.string.move_to_cut_point, Toast.LENGTH_SHORT).show();
+                return true;
+            }
+            // The note's file is about to be swapped out from under the player
+            mediaPlayerViewModel.stop();
+            if (id == R.id.action_trim_start) {
+                notesViewModel.trimVoiceNote(note, at, note.getDuration());
+            } else if (id == R.id.action_trim_end) {
+                notesViewModel.trimVoiceNote(note, 0, at);
+            } else if (id == R.id.action_split) {
+                notesViewModel.splitVoiceNote(note, at);
+            }
+            return true;
+        });
+        menu.show();
+    }
+
+    private void pickNotesToMerge(Note note) {
+        List<Note> others = new ArrayList<>();
+        for (NoteWithCategory item : adapter.getCurrentList()) {
+            Note other = item.getNote();
+            if (other.getId() != note.getId() && Note.NOTE_TYPE_VOICE.equals(other.getNoteType())) {
+                others.add(other);
+            }
+        }
+        if (others.isEmpty()) {
+            Toast.makeText(this, R.string.no_other_voice_notes, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String[] titles = new String[others.size()];
+        for (int i = 0; i < titles.length; i++) titles[i] = others.get(i).getTitle();
+        boolean[] picked = new boolean[others.size()];
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.merge_pick_notes)
+                .setMultiChoiceItems(titles, picked, (dialog, which, isChecked) -> picked[which] = isChecked)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(R.string.merge, (dialog, which) -> {
+                    List<Note> notes = new ArrayList<>();
+                    notes.add(note);
+                    for (int i = 0; i < picked.length; i++) {
+                        if (picked[i]) notes.add(others.get(i));
+                    }
+                    notesViewModel.mergeVoiceNotes(notes);
+                })
+                .show();
+    }
+
+
+    private void bindMiniPlayerWaveform(String audioPath) {
+        miniPlayerBinding.miniPlayerWaveform.setTag(audioPath);
+        WaveformSidecar.load(audioPath, peaks -> {
+            showMiniPlayerWaveform(audioPath, peaks);
+            if (peaks == null) {
+                WaveformExtractor.extract(audioPath, extracted -> showMiniPlayerWaveform(audioPath, extracted));
+            }
+        });
+    }
+
+    private void showMiniPlayerWaveform(String audioPath, WaveformPeaks peaks) {
+        if (!Objects.equals(miniPlayerBinding.miniPlayerWaveform.getTag(), audioPath)) return;
+        miniPlayerBinding.miniPlayerWaveform.setPeaks(peaks);
+        miniPlayerBinding.miniPlayerWaveform.setVisibility(peaks != null ? View.VISIBLE : View.GONE);
     }
 
+    // The position arrives every frame but the labels only change once a second,
+    // and setting the same text still costs a layout pass
+    private static void setTextIfChanged(TextView view, String text) {
+        if (!TextUtils.equals(view.getText(), text)) view.setText(text);
+    }
 
     private String formatTime(Long millis) {
         if (millis == null || millis < 0) return "0:00";
@@ -231,8 +361,16 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         // Use the binding object to access views
         binding.menuButton.setOnClickListener(v -> binding.drawerLayout.openDrawer(GravityCompat.START));
         updateNavHeader();
+        setupStorageItems();
         binding.navigationView.setNavigationItemSelectedListener(menuItem -> {
             int id = menuItem.getItemId();
+            if (id == R.id.nav_compress_audio) {
+                // A toggle, so leave the drawer open to show the new state
+                boolean enabled = !menuItem.isChecked();
+                menuItem.setChecked(enabled);
+                AudioStoreMaintenance.setCompressionEnabled(this, enabled);
+                return true;
+            }
             if (id == R.id.nav_logout) {
                 FirebaseAuth.getInstance().signOut();
                 Intent intent = new Intent(NotesActivity.this, LoginActivity.class);
@@ -244,6 +382,24 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         });
     }
 
+    private void setupStorageItems() {
+        Menu navMenu = binding.navigationView.getMenu();
+        navMenu.findItem(R.id.nav_compress_audio).setChecked(AudioStoreMaintenance.isCompressionEnabled(this));
+
+        MenuItem storageItem = navMenu.findItem(R.id.nav_storage);
+        notesViewModel.getAudioUsage().observe(this, bytes -> storageItem.setTitle(getString(
+                R.string.audio_storage_usage,
+                Formatter.formatShortFileSize(this, bytes),
+                Formatter.formatShortFileSize(this, AudioStore.USER_QUOTA_BYTES))));
+        // Only worth working out when someone's about to look at it
+        binding.drawerLayout.addDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+            @Override
+            public void onDrawerOpened(@NonNull View drawerView) {
+                notesViewModel.refreshAudioUsage();
+            }
+        });
+    }
+
     private void updateNavHeader() {
         // Use the binding object to access views
         View headerView = binding.navigationView.getHeaderView(0);
@@ -290,7 +446,7 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
             @Override
             public void onNoteClick(Note note) {
                 if (note.getNoteType().equals(Note.NOTE_TYPE_VOICE)) {
-                    mediaPlayerViewModel.play(note);
+                    playFromHere(note);
                 } else {
                     NoteWithCategory item = findNoteWithCategoryById(note.getId());
                     if (item == null) return;
@@ -307,13 +463,39 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
 
             @Override
             public void onPlayVoiceNoteClick(Note note, ImageButton playButton) {
-                mediaPlayerViewModel.play(note);
+                // On the playing card the button pauses and resumes, as its icon says
+                Note current = mediaPlayerViewModel.getCurrentNote().getValue();
+                if (current == null || current.getId() != note.getId()) {
+                    playFromHere(note);
+                } else if (Boolean.TRUE.equals(mediaPlayerViewModel.isPlaying().getValue())) {
+                    mediaPlayerViewModel.pause();
+                } else {
+                    mediaPlayerViewModel.resume();
+                }
+            }
+
+            @Override
+            public void onVoiceNotePressed(Note note) {
+                // The pressed note goes first, the rest of the screen stays preloaded behind it
+                List<Note> notes = new ArrayList<>();
+                notes.add(note);
+                for (Note visible : visibleVoiceNotes) {
+                    if (visible.getId() != note.getId()) notes.add(visible);
+                }
+                mediaPlayerViewModel.prefetch(notes);
             }
         });
 
         // Use the binding object to access the RecyclerView
         binding.noteRecyclerView.setLayoutManager(new StaggeredGridLayoutManager(2, StaggeredGridLayoutManager.VERTICAL));
         binding.noteRecyclerView.setAdapter(adapter);
+        // Preloads what's on screen once it settles, which also lets go of what scrolled off
+        binding.noteRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) prefetchVisibleVoiceNotes();
+            }
+        });
 
         new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.LEFT | ItemTouchHelper.RIGHT) {
             @Override
@@ -332,6 +514,83 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
         }).attachToRecyclerView(binding.noteRecyclerView);
     }
 
+    // Queues every voice note shown and starts at this one. Unless the list is a
+    // search, the queue then follows its category as notes come and go
+    private void playFromHere(Note note) {
+        List<Note> voiceNotes = new ArrayList<>();
+        int start = -1;
+        for (NoteWithCategory item : adapter.getCurrentList()) {
+            Note listed = item.getNote();
+            if (!Note.NOTE_TYPE_VOICE.equals(listed.getNoteType())) continue;
+            if (listed.getId() == note.getId()) start = voiceNotes.size();
+            voiceNotes.add(listed);
+        }
+        playQueueWhenLoaded = false;
+        if (start < 0) {
+            notesViewModel.followInQueue(null);
+            mediaPlayerViewModel.play(note);
+            return;
+        }
+        boolean searching = binding.searchBarEditText.getText().length() > 0;
+        notesViewModel.followInQueue(searching ? null : selectedCategoryId());
+        mediaPlayerViewModel.playQueue(voiceNotes, start);
+    }
+
+    // The tab needn't be showing, so the notes come from the database
+    private void playAllInCategory(int categoryId) {
+        playQueueWhenLoaded = true;
+        notesViewModel.followInQueue(categoryId);
+    }
+
+    private void observeVoiceQueue() {
+        notesViewModel.getVoiceQueue().observe(this, voiceNotes -> {
+            if (playQueueWhenLoaded) {
+                playQueueWhenLoaded = false;
+                if (voiceNotes.isEmpty()) {
+                    Toast.makeText(this, R.string.no_voice_notes_to_play, Toast.LENGTH_SHORT).show();
+                } else {
+                    mediaPlayerViewModel.playQueue(voiceNotes, 0);
+                }
+            } else {
+                mediaPlayerViewModel.updateQueue(voiceNotes);
+            }
+        });
+    }
+
+    private int selectedCategoryId() {
+        TabLayout.Tab tab = binding.categoryTabs.getTabAt(binding.categoryTabs.getSelectedTabPosition());
+        return tab != null && tab.getTag() != null ? (int) tab.getTag() : -1;
+    }
+
+    // A new list has been diffed in but not laid out yet
+    private void prefetchAfterLayout() {
+        binding.noteRecyclerView.post(this::prefetchVisibleVoiceNotes);
+    }
+
+    private void prefetchVisibleVoiceNotes() {
+        StaggeredGridLayoutManager layoutManager =
+                (StaggeredGridLayoutManager) binding.noteRecyclerView.getLayoutManager();
+        if (layoutManager == null) return;
+        // One position per column, NO_POSITION for a column with nothing in it
+        int first = Integer.MAX_VALUE;
+        int last = RecyclerView.NO_POSITION;
+        for (int position : layoutManager.findFirstVisibleItemPositions(null)) {
+            if (position != RecyclerView.NO_POSITION) first = Math.min(first, position);
+        }
+        for (int position : layoutManager.findLastVisibleItemPositions(null)) {
+            last = Math.max(last, position);
+        }
+
+        List<NoteWithCategory> items = adapter.getCurrentList();
+        List<Note> voiceNotes = new ArrayList<>();
+        for (int i = first; i <= last && i < items.size(); i++) {
+            Note note = items.get(i).getNote();
+            if (Note.NOTE_TYPE_VOICE.equals(note.getNoteType())) voiceNotes.add(note);
+        }
+        visibleVoiceNotes = voiceNotes;
+        mediaPlayerViewModel.prefetch(voiceNotes);
+    }
+
     private NoteWithCategory findNoteWithCategoryById(int noteId) {
         for (NoteWithCategory item : adapter.getCurrentList()) {
             if (item.getNote().getId() == noteId) {
@@ -363,7 +622,7 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
             List<Category> allCategories = notesViewModel.allCategories.getValue();
             if (notes != null && allCategories != null) {
                 List<NoteWithCategory> displayList = convertToNoteWithCategory(notes, allCategories);
-                adapter.submitList(displayList);
+                adapter.submitList(displayList, this::prefetchAfterLayout);
                 binding.emptyPlaceholder.setVisibility(displayList.isEmpty() ? View.VISIBLE : View.GONE);
             }
         };
@@ -393,7 +652,7 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
 
     private void observeViewModel() {
         notesViewModel.getNotesWithCategories().observe(this, notesWithCategories -> {
-            adapter.submitList(notesWithCategories);
+            adapter.submitList(notesWithCategories, this::prefetchAfterLayout);
             binding.emptyPlaceholder.setVisibility(notesWithCategories.isEmpty() ? View.VISIBLE : View.GONE);
         });
         notesViewModel.allCategories.observe(this, this::updateCategoryTabs);
@@ -424,6 +683,17 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
             }
         }
 
+        for (int i = 0; i < binding.categoryTabs.getTabCount(); i++) {
+            TabLayout.Tab tabAtIndex = binding.categoryTabs.getTabAt(i);
+            if (tabAtIndex == null) continue;
+            // Long press plays the whole category
+            int categoryId = (int) tabAtIndex.getTag();
+            tabAtIndex.view.setOnLongClickListener(v -> {
+                playAllInCategory(categoryId);
+                return true;
+            });
+        }
+
         for (int i = 0; i < binding.categoryTabs.getTabCount(); i++) {
             TabLayout.Tab tabAtIndex = binding.categoryTabs.getTabAt(i);
             if (tabAtIndex != null && Objects.equals(tabAtIndex.getTag(), selectedTag)) {
@@ -434,16 +704,8 @@ public class NotesActivity extends AppCompatActivity implements VoiceOptionsBott
     }
 
     private List<NoteWithCategory> convertToNoteWithCategory(List<Note> notes, List<Category> categories) {
-        Map<Integer, String> categoryMap = new HashMap<>();
-        for (Category category : categories) {
-            categoryMap.put(category.getId(), category.getName());
-        }
-        List<NoteWithCategory> result = new ArrayList<>();
-        for (Note note : notes) {
-            String categoryName = categoryMap.getOrDefault(note.getCategoryId(), "None");
-            result.add(new NoteWithCategory(note, Objects.requireNonNull(categoryName)));
-        }
-        return result;
+        return CategoryIndex.of(categories, Category::getId, Category::getName)
+                .join(notes, Note::getCategoryId, NoteWithCategory::new);
     }
 
     @Override
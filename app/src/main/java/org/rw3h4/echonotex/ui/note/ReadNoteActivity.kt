@@ -8,11 +8,13 @@ import androidx.activity.result.contract.ActivityResultContracts
 import androidx.appcompat.app.AppCompatActivity
 import org.rw3h4.echonotex.data.local.model.Note
 import org.rw3h4.echonotex.data.local.model.NoteWithCategory
+import org.rw3h4.echonotex.repository.NoteRepository
 
 class ReadNoteActivity : AppCompatActivity() {
 
     private lateinit var currentNote: Note
     private lateinit var currentCategoryName: String
+    private val repository by lazy { NoteRepository(application) }
 
     private val editNoteLauncher: ActivityResultLauncher<Intent> =
         registerForActivityResult(ActivityResultContracts.StartActivityForResult()) { result ->
@@ -39,6 +41,7 @@ class ReadNoteActivity : AppCompatActivity() {
                 ReadNoteScreen(
                     note = currentNote,
                     categoryName = currentCategoryName,
+                    loadBlocks = repository::loadBlocks,
                     onNavigateUp = { finish() },
                     onEditClick = {
                         val intent = Intent(this, AddEditNoteActivity::class.java)
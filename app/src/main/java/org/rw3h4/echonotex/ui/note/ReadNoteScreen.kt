@@ -1,5 +1,6 @@
 package org.rw3h4.echonotex.ui.note
 
+import android.util.LruCache
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
@@ -29,16 +30,24 @@ import androidx.compose.material3.Text
 import androidx.compose.material3.TopAppBar
 import androidx.compose.material3.TopAppBarDefaults
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.key
+import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.text.AnnotatedString
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import coil3.compose.AsyncImage
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.rw3h4.echonotex.core.note.ContentBlock
+import org.rw3h4.echonotex.core.note.TextChunker
 import org.rw3h4.echonotex.data.local.model.Note
+import org.rw3h4.echonotex.data.local.model.NoteBlock
 import org.rw3h4.echonotex.ui.theme.DarkBlue
 import org.rw3h4.echonotex.ui.theme.LightBlue
 import org.rw3h4.echonotex.ui.theme.LightPurple
@@ -48,33 +57,46 @@ import java.util.Date
 import java.util.Locale
 
 sealed class NoteContentPart {
-    data class Text(val text: String) : NoteContentPart()
+    data class Text(val text: AnnotatedString) : NoteContentPart()
     data class Image(val uri: String) : NoteContentPart()
 }
 
-fun parseNoteContent(html: String?): List<NoteContentPart> {
-    if (html.isNullOrEmpty()) return emptyList()
-    val parts = mutableListOf<NoteContentPart>()
-    val regex = "<img src=\"(.*?)\".*?>".toRegex()
-    var lastIndex = 0
+// Long paragraphs are split so each LazyColumn item stays cheap to lay out
+private const val READ_CHUNK_CHARS = 1500
 
-    regex.findAll(html).forEach { matchResult ->
-        val textSegment = html.substring(lastIndex, matchResult.range.first)
-        if (textSegment.isNotBlank()) {
-            parts.add(NoteContentPart.Text(android.text.Html.fromHtml(textSegment, android.text.Html.FROM_HTML_MODE_LEGACY).toString()))
+fun toNoteContent(blocks: List<NoteBlock>, fallbackHtml: String): List<NoteContentPart> {
+    val decoded = blocks.decodeOr(fallbackHtml).map { it.second }
+    return TextChunker.chunk(decoded, READ_CHUNK_CHARS).mapNotNull { block ->
+        when (block) {
+            is ContentBlock.Text -> NoteContentPart.Text(block.toAnnotatedString())
+            is ContentBlock.Image -> NoteContentPart.Image(block.uri)
+            else -> null
         }
-
-        parts.add(NoteContentPart.Image(matchResult.groupValues[1]))
-        lastIndex = matchResult.range.last + 1
     }
+}
 
-    if (lastIndex < html.length) {
-        val remainingText = html.substring(lastIndex)
-        if (remainingText.isNotBlank()) {
-            parts.add(NoteContentPart.Text(android.text.Html.fromHtml(remainingText, android.text.Html.FROM_HTML_MODE_LEGACY).toString()))
-        }
+// Parsed bodies of recently opened notes, keyed by id and last edit so an edit invalidates them
+private val parsedNoteCache = LruCache<String, List<NoteContentPart>>(8)
+
+/**
+ * Loads and decodes the note's blocks off the main thread, once per note version.
+ * Returns null until the first load has finished.
+ */
+@Composable
+private fun rememberNoteContent(note: Note, loadBlocks: (Note) -> List<NoteBlock>): List<NoteContentPart>? {
+    val cacheKey = "${note.id}:${note.lastEdited}"
+    // A new version starts from fresh state: produceState on its own keeps the
+    // old value across a key change, and the null check would keep the old body
+    return key(cacheKey) {
+        produceState(initialValue = parsedNoteCache.get(cacheKey)) {
+            if (value == null) {
+                val blocks = withContext(Dispatchers.IO) { loadBlocks(note) }
+                val parsed = withContext(Dispatchers.Default) { toNoteContent(blocks, note.content) }
+                parsedNoteCache.put(cacheKey, parsed)
+                value = parsed
+            }
+        }.value
     }
-    return parts
 }
 
 
@@ -83,10 +105,11 @@ fun parseNoteContent(html: String?): List<NoteContentPart> {
 fun ReadNoteScreen(
     note: Note,
     categoryName: String,
+    loadBlocks: (Note) -> List<NoteBlock>,
     onNavigateUp: () -> Unit,
     onEditClick: () -> Unit
 ) {
-    val contentParts = parseNoteContent(note.content)
+    val contentParts = rememberNoteContent(note, loadBlocks)
     val dateFormatter = remember { SimpleDateFormat("MMM dd, yyyy", Locale.getDefault()) }
 
     Scaffold(
@@ -187,28 +210,28 @@ fun ReadNoteScreen(
             }
 
 
-            items(contentParts) { part ->
-                when (part) {
-                    is NoteContentPart.Text -> {
-                        if (part.text.isNotBlank()) {
+            if (contentParts != null) {
+                items(contentParts, contentType = { it::class }) { part ->
+                    when (part) {
+                        is NoteContentPart.Text -> {
                             Text(
-                                text = part.text.trim(),
+                                text = part.text,
                                 style = MaterialTheme.typography.bodyLarge,
                                 lineHeight = 28.sp,
                                 color = DarkBlue.copy(alpha = 0.9f),
                                 modifier = Modifier.padding(horizontal = 4.dp) // Add slight horizontal padding
                             )
                         }
-                    }
-                    is NoteContentPart.Image -> {
-                        AsyncImage(
-                            model = part.uri,
-                            contentDescription = "Note Image",
-                            modifier = Modifier
-                                .fillMaxWidth()
-                                .clip(RoundedCornerShape(16.dp)),
-                            contentScale = ContentScale.FillWidth
-                        )
+                        is NoteContentPart.Image -> {
+                            AsyncImage(
+                                model = part.uri,
+                                contentDescription = "Note Image",
+                                modifier = Modifier
+                                    .fillMaxWidth()
+                                    .clip(RoundedCornerShape(16.dp)),
+                                contentScale = ContentScale.FillWidth
+                            )
+                        }
                     }
                 }
             }
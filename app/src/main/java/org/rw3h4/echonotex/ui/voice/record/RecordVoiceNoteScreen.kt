@@ -28,8 +28,11 @@ import androidx.compose.material.icons.filled.Check
 import androidx.compose.material.icons.filled.Close
 import androidx.compose.material.icons.filled.Delete
 import androidx.compose.material.icons.filled.Mic
+import androidx.compose.material.icons.filled.Pause
 import androidx.compose.material.icons.filled.Stop
 import androidx.compose.material3.ExperimentalMaterial3Api
+import androidx.compose.material3.FilterChip
+import androidx.compose.material3.FilterChipDefaults
 import androidx.compose.material3.FloatingActionButton
 import androidx.compose.material3.Icon
 import androidx.compose.material3.IconButton
@@ -59,6 +62,9 @@ import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.lifecycle.viewmodel.compose.viewModel
 import com.google.android.material.floatingactionbutton.FloatingActionButton
+import org.rw3h4.echonotex.core.audio.RecordingProfile
+import org.rw3h4.echonotex.core.waveform.AmplitudeRingBuffer
+import org.rw3h4.echonotex.core.waveform.WaveformBars
 import org.rw3h4.echonotex.ui.note.AddEditNoteScreen
 import org.rw3h4.echonotex.ui.note.CategorySelectionBottomSheet
 import org.rw3h4.echonotex.ui.theme.DarkBlue
@@ -113,16 +119,42 @@ fun RecordVoiceNoteScreen(
                 Spacer(modifier = Modifier.height(32.dp))
 
                 VoiceWaveform(
-                    amplitudes = uiState.amplitudes,
+                    amplitudes = viewModel.amplitudes,
+                    version = uiState.waveformVersion,
                     modifier = Modifier.fillMaxWidth().height(100.dp),
                     barColor = MaterialTheme.colorScheme.secondary
                 )
 
+                if (uiState.recordingState == RecordingState.READY_TO_RECORD) {
+                    Spacer(modifier = Modifier.height(16.dp))
+                    ProfileSelector(selected = uiState.profile, onSelect = viewModel::selectProfile)
+                }
+
+                if (uiState.recordingState != RecordingState.STOPPED) {
+                    Spacer(modifier = Modifier.height(8.dp))
+                    ProcessingSelector(
+                        uiState = uiState,
+                        onHighPassChange = viewModel::setHighPass,
+                        onAutoGainChange = viewModel::setAutoGain,
+                        onNoiseGateChange = viewModel::setNoiseGate
+                    )
+                }
+
+                if (uiState.storageFull) {
+                    Spacer(modifier = Modifier.height(16.dp))
+                    Text(
+                        text = "Your voice notes are using all of your storage. Delete some to record more.",
+                        color = MaterialTheme.colorScheme.error,
+                        fontSize = 14.sp
+                    )
+                }
+
                 if (uiState.recordingState == RecordingState.STOPPED) {
                     AfterRecordingControls(
                         uiState = uiState,
                         onTitleChange = viewModel::updateTitle,
-                        onCategoryClick = { showCategoryBottomSheet = true }
+                        onCategoryClick = { showCategoryBottomSheet = true },
+                        onTrimSilenceChange = viewModel::setTrimSilence
                     )
                 } else {
                     Spacer(modifier = Modifier.weight(1f))
@@ -131,6 +163,8 @@ fun RecordVoiceNoteScreen(
                 RecordingControls(
                     state = uiState.recordingState,
                     onRecord = { viewModel.startRecording() },
+                    onPause = { viewModel.pauseRecording() },
+                    onResume = { viewModel.resumeRecording() },
                     onStop = { viewModel.stopRecording() },
                     onSave = { viewModel.saveVoiceNote() },
                     onDiscard = { viewModel.discardRecording() }
@@ -154,27 +188,26 @@ fun TopBar(onClose: ()  -> Unit) {
 }
 
 @Composable
-fun VoiceWaveform(amplitudes: List<Float>, modifier: Modifier = Modifier, barColor: Color) {
-    val barWidth = 9f
-    val barGap = 6f
+fun VoiceWaveform(
+    amplitudes: AmplitudeRingBuffer,
+    version: Long,
+    modifier: Modifier = Modifier,
+    barColor: Color
+) {
+    // Same geometry as WaveformView; its arrays are reused from frame to frame
+    val bars = remember { WaveformBars(9f, 6f) }
 
     Canvas(modifier = modifier) {
-        val viewWidth = size.width
-        val viewHeight = size.height
-        val maxBars = (viewWidth /  (barWidth + barGap)).toInt()
-        val cornerRadius = CornerRadius(barWidth / 2, barWidth / 2)
-
-        val visibleAmplitudes = amplitudes.takeLast(maxBars)
-
-        for ((i, amplitude) in visibleAmplitudes.withIndex()) {
-            val barHeight = (amplitude * viewHeight).coerceAtLeast(barWidth)
-            val top = (viewHeight - barHeight) / 2
-            val left = viewWidth - (i * (barWidth + barGap)) - barWidth
+        // Reading the version here redraws the canvas whenever a sample is added
+        if (version == 0L) return@Canvas
+        val count = bars.layout(amplitudes, size.width, size.height)
+        val cornerRadius = CornerRadius(bars.cornerRadius, bars.cornerRadius)
 
+        for (i in 0 until count) {
             drawRoundRect(
                 color = barColor,
-                topLeft = Offset(left, top),
-                size = Size(barWidth, barHeight),
+                topLeft = Offset(bars.getLeft(i), bars.getTop(i)),
+                size = Size(bars.barWidth, bars.getBottom(i) - bars.getTop(i)),
                 cornerRadius = cornerRadius
             )
         }
@@ -185,7 +218,8 @@ fun VoiceWaveform(amplitudes: List<Float>, modifier: Modifier = Modifier, barCol
 fun ColumnScope.AfterRecordingControls(
     uiState: RecordUiState,
     onTitleChange: (String) -> Unit,
-    onCategoryClick: () -> Unit
+    onCategoryClick: () -> Unit,
+    onTrimSilenceChange: (Boolean) -> Unit
 ) {
     Column(
         modifier = Modifier.fillMaxWidth().weight(1f).padding(top = 24.dp),
@@ -223,6 +257,21 @@ fun ColumnScope.AfterRecordingControls(
                 color = if (uiState.selectedCategoryName.isEmpty()) LightPurple else OffWhite
             )
         }
+        Spacer(Modifier.height(16.dp))
+        FilterChip(
+            selected = uiState.trimSilence,
+            onClick = { onTrimSilenceChange(!uiState.trimSilence) },
+            label = { Text("Trim long silences") },
+            leadingIcon = if (uiState.trimSilence) {
+                { Icon(Icons.Default.Check, contentDescription = null) }
+            } else null,
+            colors = FilterChipDefaults.filterChipColors(
+                labelColor = OffWhite,
+                selectedContainerColor = LightPurple,
+                selectedLabelColor = DarkBlue,
+                selectedLeadingIconColor = DarkBlue
+            )
+        )
     }
 }
 
@@ -230,10 +279,14 @@ fun ColumnScope.AfterRecordingControls(
 fun RecordingControls(
     state: RecordingState,
     onRecord: () -> Unit,
+    onPause: () -> Unit,
+    onResume: () -> Unit,
     onStop: () -> Unit,
     onSave: () -> Unit,
     onDiscard: () -> Unit
 ) {
+    val inProgress = state == RecordingState.RECORDING || state == RecordingState.PAUSED
+
     Row(
         modifier = Modifier.fillMaxWidth().padding(vertical = 24.dp),
         horizontalArrangement = Arrangement.SpaceEvenly,
@@ -249,8 +302,22 @@ fun RecordingControls(
             }
         }
 
-        RecordStopButton(isRecording = state == RecordingState.RECORDING) {
-            if (state == RecordingState.RECORDING) onStop() else onRecord()
+        RecordStopButton(isRecording = inProgress) {
+            if (inProgress) onStop() else onRecord()
+        }
+
+        AnimatedVisibility(visible = inProgress) {
+            FloatingActionButton(
+                onClick = if (state == RecordingState.PAUSED) onResume else onPause,
+                containerColor = LightPurple,
+                contentColor = DarkBlue
+            ) {
+                if (state == RecordingState.PAUSED) {
+                    Icon(Icons.Default.Mic, contentDescription = "Resume")
+                } else {
+                    Icon(Icons.Default.Pause, contentDescription = "Pause")
+                }
+            }
         }
 
         AnimatedVisibility(visible = state == RecordingState.STOPPED) {
@@ -265,6 +332,60 @@ fun RecordingControls(
     }
 }
 
+@Composable
+fun ProfileSelector(selected: RecordingProfile, onSelect: (RecordingProfile) -> Unit) {
+    Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+        RecordingProfile.entries.forEach { profile ->
+            FilterChip(
+                selected = profile == selected,
+                onClick = { onSelect(profile) },
+                label = {
+                    Text(
+                        when (profile) {
+                            RecordingProfile.SPEECH -> "Speech"
+                            RecordingProfile.STANDARD -> "Standard"
+                            RecordingProfile.HIGH -> "High quality"
+                        }
+                    )
+                },
+                colors = FilterChipDefaults.filterChipColors(
+                    labelColor = OffWhite,
+                    selectedContainerColor = LightPurple,
+                    selectedLabelColor = DarkBlue
+                )
+            )
+        }
+    }
+}
+
+@Composable
+fun ProcessingSelector(
+    uiState: RecordUiState,
+    onHighPassChange: (Boolean) -> Unit,
+    onAutoGainChange: (Boolean) -> Unit,
+    onNoiseGateChange: (Boolean) -> Unit
+) {
+    Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+        ToggleChip("Low cut", uiState.highPass, onHighPassChange)
+        ToggleChip("Auto level", uiState.autoGain, onAutoGainChange)
+        ToggleChip("Noise gate", uiState.noiseGate, onNoiseGateChange)
+    }
+}
+
+@Composable
+private fun ToggleChip(label: String, checked: Boolean, onCheckedChange: (Boolean) -> Unit) {
+    FilterChip(
+        selected = checked,
+        onClick = { onCheckedChange(!checked) },
+        label = { Text(label) },
+        colors = FilterChipDefaults.filterChipColors(
+            labelColor = OffWhite,
+            selectedContainerColor = LightPurple,
+            selectedLabelColor = DarkBlue
+        )
+    )
+}
+
 @Composable
 fun RecordStopButton(isRecording: Boolean, onClick: () -> Unit) {
     FloatingActionButton(
@@ -15,8 +15,6 @@ import androidx.compose.animation.core.animateFloat
 import androidx.compose.animation.core.infiniteRepeatable
 import androidx.compose.animation.core.rememberInfiniteTransition
 import androidx.compose.animation.core.tween
-import androidx.compose.animation.fadeIn
-import androidx.compose.animation.fadeOut
 import androidx.compose.animation.slideInHorizontally
 import androidx.compose.animation.slideOutHorizontally
 import androidx.compose.animation.togetherWith
@@ -33,6 +31,8 @@ import androidx.compose.foundation.layout.height
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.layout.size
 import androidx.compose.foundation.layout.width
+import androidx.compose.foundation.lazy.LazyColumn
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
@@ -98,10 +98,11 @@ class DictateNoteActivity : ComponentActivity() {
 
                 DictateScreen(
                     state = state,
+                    segment = viewModel::segment,
                     onRecordTapped = viewModel::startListening,
                     onDoneTapped = {
                         viewModel.stopListening()
-                        val text = state.transcribedText.trim()
+                        val text = viewModel.transcriptText()
                         if (text.isNotEmpty()) {
                             val resultIntent = Intent().apply {
                                 putExtra("transcribed_text", text)
@@ -120,6 +121,7 @@ class DictateNoteActivity : ComponentActivity() {
 @Composable
 fun DictateScreen(
     state: DictationState,
+    segment: (Int) -> String,
     onRecordTapped: () -> Unit,
     onDoneTapped: () -> Unit,
     onBackTapped: () -> Unit
@@ -155,18 +157,23 @@ fun DictateScreen(
             if (isListeningScreen) {
                 ListeningUI(
                     state = state,
+                    segment = segment,
                     onDone = onDoneTapped,
                     onBack = { showListeningScreen = false }
                 )
             } else {
-                InitialRecordUI(onRecordTapped = onRecordTapped, onBackTapped = onBackTapped)
+                InitialRecordUI(
+                    resuming = state.hasText,
+                    onRecordTapped = onRecordTapped,
+                    onBackTapped = onBackTapped
+                )
             }
         }
     }
 }
 
 @Composable
-fun InitialRecordUI(onRecordTapped: () -> Unit, onBackTapped: () -> Unit) {
+fun InitialRecordUI(resuming: Boolean, onRecordTapped: () -> Unit, onBackTapped: () -> Unit) {
     Box(modifier = Modifier.fillMaxSize()) {
         IconButton(
             onClick = onBackTapped,
@@ -188,7 +195,8 @@ fun InitialRecordUI(onRecordTapped: () -> Unit, onBackTapped: () -> Unit) {
             AnimatedRecordButton(onClick = onRecordTapped)
             Spacer(modifier = Modifier.height(32.dp))
             Text(
-                text = "Tap to start dictating",
+                // Text here before a start is a session the app was closed in the middle of
+                text = if (resuming) "Tap to carry on dictating" else "Tap to start dictating",
                 style = MaterialTheme.typography.headlineSmall,
                 color = DarkBlue,
                 fontWeight = FontWeight.Medium,
@@ -206,11 +214,11 @@ fun InitialRecordUI(onRecordTapped: () -> Unit, onBackTapped: () -> Unit) {
 }
 
 @Composable
-fun ListeningUI(state: DictationState, onDone: () -> Unit, onBack: () -> Unit) {
+fun ListeningUI(state: DictationState, segment: (Int) -> String, onDone: () -> Unit, onBack: () -> Unit) {
     val statusText = when {
         state.isSpeaking -> "Hearing you..."
         state.isListening -> "Listening..."
-        state.transcribedText.isNotEmpty() -> "Finished"
+        state.hasText -> "Finished"
         else -> "Tap to Start"
     }
 
@@ -254,19 +262,30 @@ fun ListeningUI(state: DictationState, onDone: () -> Unit, onBack: () -> Unit) {
                 )
                 Spacer(modifier = Modifier.height(16.dp))
 
-                AnimatedContent(
-                    targetState = state.transcribedText,
-                    transitionSpec = {
-                        fadeIn(animationSpec = tween(300)) togetherWith fadeOut(animationSpec = tween(300))
-                    },
-                    label = "text_animation"
-                ) { text ->
-                    Text(
-                        text = text.ifEmpty { "Waiting for you to speak..." },
-                        style = MaterialTheme.typography.bodyLarge,
-                        color = if (text.isEmpty()) DarkBlue.copy(alpha = 0.5f) else DarkBlue,
-                        lineHeight = 24.sp
-                    )
+                // One item per settled segment: a new one composes just itself, and
+                // a partial update recomposes only the last item
+                val listState = rememberLazyListState()
+                LaunchedEffect(state.segmentCount) {
+                    if (state.segmentCount > 0) listState.animateScrollToItem(state.segmentCount)
+                }
+                LazyColumn(state = listState) {
+                    items(count = state.segmentCount, key = { it }) { index ->
+                        Text(
+                            text = segment(index),
+                            style = MaterialTheme.typography.bodyLarge,
+                            color = DarkBlue,
+                            lineHeight = 24.sp
+                        )
+                    }
+                    item(key = "partial") {
+                        val waiting = !state.hasText
+                        Text(
+                            text = if (waiting) "Waiting for you to speak..." else state.partialText,
+                            style = MaterialTheme.typography.bodyLarge,
+                            color = if (waiting) DarkBlue.copy(alpha = 0.5f) else DarkBlue.copy(alpha = 0.7f),
+                            lineHeight = 24.sp
+                        )
+                    }
                 }
             }
         }
@@ -286,7 +305,7 @@ fun ListeningUI(state: DictationState, onDone: () -> Unit, onBack: () -> Unit) {
             modifier = Modifier.fillMaxWidth().height(56.dp),
             colors = ButtonDefaults.buttonColors(containerColor = DarkBlue),
             shape = RoundedCornerShape(16.dp),
-            enabled = state.transcribedText.isNotEmpty()
+            enabled = state.hasText
         ) {
             Text(
                 text = "Done",
@@ -0,0 +1,126 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.audio.TimeMap;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trims, splits and merges saved voice notes. All three are remuxes with
+ * {@link AudioRemuxer}: frames are copied, never decoded, so an edit costs about
+ * as long as reading the audio it keeps. Cuts land on frame boundaries. Results
+ * go into the {@link AudioStore} with a waveform taken from the originals', so a
+ * card shows the right shape straight away. The originals are left alone; the
+ * caller decides what happens to them once notes point at the results.
+ * <p>
+ * Every method is blocking, worker thread only, and stops early if that thread
+ * is interrupted.
+ */
+public final class AudioEditor {
+
+    private static final String TAG = "AudioEditor";
+
+    /** A stored edit result. */
+    public static final class Edited {
+        private final String path;
+        private final long durationUs;
+
+        Edited(String path, long durationUs) {
+            this.path = path;
+            this.durationUs = durationUs;
+        }
+
+        public String getPath() { return path; }
+
+        public long getDurationUs() { return durationUs; }
+    }
+
+    private AudioEditor() {
+    }
+
+    /** Keeps {@code startUs..endUs} of a recording {@code durationUs} long. */
+    public static Edited trim(AudioStore store, String audioPath, long startUs, long endUs, long durationUs,
+                              @Nullable AudioRemuxer.Progress progress) throws IOException {
+        TimeMap span = new TimeMap.Builder().add(startUs, endUs).build(durationUs);
+        return cut(store, audioPath, span, progress);
+    }
+
+    /** Cuts a recording {@code durationUs} long in two at {@code atUs}; progress covers both halves. */
+    public static Edited[] split(AudioStore store, String audioPath, long atUs, long durationUs,
+                                 @Nullable AudioRemuxer.Progress progress) throws IOException {
+        float share = (float) atUs / durationUs;
+        Edited first = cut(store, audioPath, new TimeMap.Builder().add(0, atUs).build(durationUs),
+                progress == null ? null : fraction -> progress.onProgress(fraction * share));
+        // If the second half fails the first is left to AudioStoreMaintenance: being
+        // stored by content, it may be a file another note already uses
+        Edited second = cut(store, audioPath, new TimeMap.Builder().add(atUs, durationUs).build(durationUs),
+                progress == null ? null : fraction -> progress.onProgress(share + fraction * (1 - share)));
+        return new Edited[]{first, second};
+    }
+
+    /**
+     * Joins recordings end to end, in order. They have to have been recorded with
+     * the same settings (see {@link AudioRemuxer#concatenate(List, File, AudioRemuxer.Progress)}).
+     */
+    public static Edited merge(AudioStore store, List<String> audioPaths,
+                               @Nullable AudioRemuxer.Progress progress) throws IOException {
+        List<File> inputs = new ArrayList<>(audioPaths.size());
+        for (String path : audioPaths) inputs.add(new File(path));
+        File temp = store.newTempFile();
+        long[] durationsUs;
+        try {
+            durationsUs = AudioRemuxer.concatenate(inputs, temp, progress);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        File stored = store.adopt(temp);
+        long totalUs = 0;
+        for (long durationUs : durationsUs) totalUs += durationUs;
+
+        List<WaveformPeaks> parts = new ArrayList<>(audioPaths.size());
+        for (String path : audioPaths) {
+            WaveformPeaks peaks = WaveformSidecar.read(path);
+            // Without every part's summary, leave it to be extracted when it's first shown
+            if (peaks == null) {
+                parts = null;
+                break;
+            }
+            parts.add(peaks);
+        }
+        if (parts != null) writeWaveform(stored.getPath(), WaveformPeaks.concat(parts, durationsUs));
+        return new Edited(stored.getPath(), totalUs);
+    }
+
+    private static Edited cut(AudioStore store, String audioPath, TimeMap span,
+                              @Nullable AudioRemuxer.Progress progress) throws IOException {
+        File temp = store.newTempFile();
+        TimeMap kept;
+        try {
+            kept = AudioRemuxer.keep(new File(audioPath), span, temp, progress);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        File stored = store.adopt(temp);
+        WaveformPeaks peaks = WaveformSidecar.read(audioPath);
+        if (peaks != null) writeWaveform(stored.getPath(), kept.trim(peaks));
+        return new Edited(stored.getPath(), kept.getTrimmedDurationUs());
+    }
+
+    // The waveform is a convenience; the edit stands without it
+    private static void writeWaveform(String audioPath, WaveformPeaks peaks) {
+        try {
+            WaveformSidecar.write(audioPath, peaks);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the waveform for " + audioPath, e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.audio.TimeMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Rewrites audio files by copying their encoded frames with MediaExtractor and
+ * MediaMuxer. Nothing is decoded or re-encoded, so the cost is the file I/O and
+ * the audio comes out bit for bit the same.
+ */
+public final class AudioRemuxer {
+
+    private static final String TAG = "AudioRemuxer";
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final String CSD_0 = "csd-0";
+
+    /** Told how far a remux has got, on the thread doing it, about once a frame; keep it cheap. */
+    public interface Progress {
+        void onProgress(float fraction);
+    }
+
+    private AudioRemuxer() {
+    }
+
+    /**
+     * Joins the audio track of each input end to end into {@code output}. The
+     * inputs must come from the same encoder settings, like the segments of a
+     * paused and resumed recording; empty inputs (a segment that failed to start)
+     * are skipped. Worker thread only.
+     *
+     * @return the joined duration in microseconds, measured from the frames written
+     */
+    public static long concatenate(List<File> inputs, File output) throws IOException {
+        long total = 0;
+        for (long durationUs : concatenate(inputs, output, null)) total += durationUs;
+        return total;
+    }
+
+    /**
+     * Like {@link #concatenate(List, File)}, for joining separate recordings: the
+     * inputs must also agree on sample rate and channel count, and progress is
+     * reported by bytes copied. Stops early if the thread is interrupted.
+     *
+     * @return how long each input turned out in the joined audio, in microseconds;
+     * 0 for one that was skipped
+     */
+    public static long[] concatenate(List<File> inputs, File output, @Nullable Progress progress)
+            throws IOException {
+        long totalBytes = 0;
+        for (File input : inputs) totalBytes += input.length();
+        long copiedBytes = 0;
+        long[] durationsUs = new long[inputs.size()];
+
+        MediaMuxer muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        boolean finished = false;
+        try {
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            ByteBuffer buffer = null;
+            MediaFormat first = null;
+            int track = -1;
+            long offsetUs = 0;
+
+            for (int i = 0; i < inputs.size(); i++) {
+                File input = inputs.get(i);
+                if (!input.isFile() || input.length() == 0) continue;
+                MediaExtractor extractor = new MediaExtractor();
+                try {
+                    extractor.setDataSource(input.getPath());
+                    MediaFormat format = AudioTracks.selectFirstAudioTrack(extractor);
+                    if (format == null) {
+                        Log.w(TAG, "Skipping " + input + ", it has no audio");
+                        continue;
+                    }
+                    if (track < 0) {
+                        first = format;
+                        track = muxer.addTrack(format);
+                        muxer.start();
+                    } else {
+                        checkJoinable(first, format, input);
+                    }
+                    buffer = ensureCapacity(buffer, format);
+
+                    long firstUs = -1;
+                    long lastUs = 0;
+                    long frameUs = 0;
+                    int size;
+                    while ((size = extractor.readSampleData(buffer, 0)) >= 0) {
+                        long timeUs = extractor.getSampleTime();
+                        if (firstUs < 0) firstUs = timeUs;
+                        else frameUs = timeUs - lastUs;
+                        lastUs = timeUs;
+
+                        int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                                ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                        info.set(0, size, offsetUs + timeUs - firstUs, flags);
+                        muxer.writeSampleData(track, buffer, info);
+                        extractor.advance();
+                        if (progress != null) {
+                            if (Thread.currentThread().isInterrupted()) throw new IOException("Join cancelled");
+                            copiedBytes += size;
+                            progress.onProgress(Math.min(1f, (float) copiedBytes / totalBytes));
+                        }
+                    }
+                    // The last frame lasts as long as the one before it
+                    if (firstUs >= 0) {
+                        durationsUs[i] = lastUs - firstUs + frameUs;
+                        offsetUs += durationsUs[i];
+                    }
+                } finally {
+                    extractor.release();
+                }
+            }
+
+            if (track < 0) throw new IOException("Nothing to join");
+            muxer.stop();
+            finished = true;
+            return durationsUs;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Couldn't join audio into " + output, e);
+        } finally {
+            try {
+                muxer.release();
+            } catch (IllegalStateException ignored) {
+                // Never started
+            }
+            if (!finished) output.delete();
+        }
+    }
+
+    /**
+     * Copies only the frames of {@code input} that start inside one of {@code keep}'s
+     * segments, closing the gaps. Cuts land on frame boundaries (a few tens of
+     * milliseconds apart), so the returned map says exactly what was kept, which
+     * may differ from what was asked for by up to a frame at each cut. Worker
+     * thread only.
+     */
+    public static TimeMap keep(File input, TimeMap keep, File output) throws IOException {
+        return keep(input, keep, output, null);
+    }
+
+    /**
+     * Like {@link #keep(File, TimeMap, File)}, reporting progress through the kept
+     * span. Reading starts at the first segment and stops after the last, so
+     * keeping a short stretch of a long file costs only that stretch. Stops early
+     * if the thread is interrupted.
+     */
+    public static TimeMap keep(File input, TimeMap keep, File output, @Nullable Progress progress)
+            throws IOException {
+        if (keep.getSegmentCount() == 0) throw new IOException("Nothing to keep in " + input);
+        long spanStartUs = keep.getOriginalStartUs(0);
+        long spanEndUs = keep.getOriginalEndUs(keep.getSegmentCount() - 1);
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        boolean finished = false;
+        try {
+            extractor.setDataSource(input.getPath());
+            MediaFormat format = AudioTracks.selectFirstAudioTrack(extractor);
+            if (format == null) throw new IOException("No audio track in " + input);
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int track = muxer.addTrack(format);
+            muxer.start();
+            // Every AAC frame is a sync frame, so this lands on or just before the start
+            if (spanStartUs > 0) extractor.seekTo(spanStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            ByteBuffer buffer = ensureCapacity(null, format);
+            TimeMap.Builder kept = new TimeMap.Builder();
+            int segment = 0;
+            long runStartUs = -1;
+            long trimmedUs = 0;
+            long lastUs = -1;
+            long frameUs = 0;
+            int size;
+            while ((size = extractor.readSampleData(buffer, 0)) >= 0) {
+                long timeUs = extractor.getSampleTime();
+                if (lastUs >= 0) {
+                    frameUs = timeUs - lastUs;
+                    // The frame before this one ended here
+                    if (runStartUs >= 0) trimmedUs += frameUs;
+                }
+                while (segment < keep.getSegmentCount() && timeUs >= keep.getOriginalEndUs(segment)) {
+                    segment++;
+                }
+                if (segment == keep.getSegmentCount() && runStartUs < 0) {
+                    // Past the last segment: the rest of the file is never needed
+                    lastUs = timeUs;
+                    break;
+                }
+                boolean inside = segment < keep.getSegmentCount() && timeUs >= keep.getOriginalStartUs(segment);
+                if (inside) {
+                    if (runStartUs < 0) runStartUs = timeUs;
+                    int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    info.set(0, size, trimmedUs, flags);
+                    muxer.writeSampleData(track, buffer, info);
+                } else if (runStartUs >= 0) {
+                    kept.add(runStartUs, timeUs);
+                    runStartUs = -1;
+                }
+                lastUs = timeUs;
+                extractor.advance();
+                if (progress != null) {
+                    if (Thread.currentThread().isInterrupted()) throw new IOException("Cut cancelled");
+                    progress.onProgress(Math.max(0f, Math.min(1f,
+                            (float) (timeUs - spanStartUs) / Math.max(1, spanEndUs - spanStartUs))));
+                }
+            }
+            if (lastUs < 0) throw new IOException("Nothing to keep in " + input);
+            long endUs = lastUs + frameUs;
+            if (runStartUs >= 0) kept.add(runStartUs, endUs);
+
+            muxer.stop();
+            finished = true;
+            // Stopping early means the end wasn't seen; the caller's figure stands in for it
+            return kept.build(Math.max(endUs, keep.getOriginalDurationUs()));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Couldn't cut " + input, e);
+        } finally {
+            extractor.release();
+            if (muxer != null) {
+                try {
+                    muxer.release();
+                } catch (IllegalStateException ignored) {
+                    // Never started
+                }
+            }
+            if (!finished) output.delete();
+        }
+    }
+
+    // One AAC track can't change rate, channels or profile partway, so only like recordings
+    // can be joined. The muxer keeps the first input's codec config (csd-0, the AAC
+    // AudioSpecificConfig) for the whole track, so an HE-AAC note re-encoded by the
+    // transcoder can't follow an AAC-LC one even at the same rate.
+    private static void checkJoinable(MediaFormat first, MediaFormat format, File input) throws IOException {
+        String mime = first.getString(MediaFormat.KEY_MIME);
+        if (!format.getString(MediaFormat.KEY_MIME).equals(mime)) {
+            throw new IOException("Can't join " + input + ", it isn't " + mime);
+        }
+        if (format.getInteger(MediaFormat.KEY_SAMPLE_RATE) != first.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                || format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) != first.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                || !sameCodecConfig(first, format)) {
+            throw new IOException("Can't join " + input + ", it was recorded with different settings");
+        }
+    }
+
+    private static boolean sameCodecConfig(MediaFormat first, MediaFormat format) {
+        ByteBuffer expected = first.containsKey(CSD_0) ? first.getByteBuffer(CSD_0) : null;
+        ByteBuffer actual = format.containsKey(CSD_0) ? format.getByteBuffer(CSD_0) : null;
+        if (expected == null || actual == null) return expected == actual;
+        // equals compares what's left of each; duplicates leave the formats' own positions be
+        expected = expected.duplicate();
+        actual = actual.duplicate();
+        expected.rewind();
+        actual.rewind();
+        return expected.equals(actual);
+    }
+
+    private static ByteBuffer ensureCapacity(@Nullable ByteBuffer buffer, MediaFormat format) {
+        int needed = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_BUFFER_SIZE;
+        if (buffer != null && buffer.capacity() >= needed) return buffer;
+        return ByteBuffer.allocateDirect(Math.max(needed, DEFAULT_BUFFER_SIZE));
+    }
+}
@@ -0,0 +1,153 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Where voice note audio lives: app-private storage (so the system never clears
+ * it like it can the cache), under names taken from a hash of the content. The
+ * same audio is only ever stored once, and a name never changes meaning, so
+ * notes can point at files by path and a file is only deleted once no note
+ * refers to it. The notes table's file_path column is the reference list.
+ * <p>
+ * Everything here touches the disk, so call it from a worker thread.
+ */
+public final class AudioStore {
+
+    private static final String STORE_DIR = "audio";
+    private static final String TEMP_DIR = "tmp";
+    private static final String EXTENSION = ".m4a";
+    // 128 bits of SHA-256 is plenty to tell recordings apart
+    private static final int NAME_HEX_CHARS = 32;
+
+    /** How much voice note audio each user may keep. */
+    public static final long USER_QUOTA_BYTES = 1024L * 1024 * 1024;
+
+    private final File root;
+    private final File tempDir;
+    private final File cacheDir;
+
+    public AudioStore(Context context) {
+        root = new File(context.getFilesDir(), STORE_DIR);
+        tempDir = new File(root, TEMP_DIR);
+        cacheDir = context.getCacheDir();
+    }
+
+    /** A fresh file in the store's volume to write into before {@link #adopt}ing it. */
+    public File newTempFile() throws IOException {
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) throw new IOException("Couldn't create " + tempDir);
+        return new File(tempDir, UUID.randomUUID() + EXTENSION);
+    }
+
+    /**
+     * Moves {@code source} into the store under its content name, along with the
+     * files kept beside it. If the store already has the same audio the source is
+     * simply deleted.
+     *
+     * @return the stored file, whose path is what notes should keep
+     */
+    public File adopt(File source) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) throw new IOException("Couldn't create " + root);
+        File target = new File(root, contentName(source));
+
+        if (target.exists()) {
+            source.delete();
+            for (File sidecar : sidecarsOf(source.getPath())) sidecar.delete();
+            return target;
+        }
+        if (!source.renameTo(target)) {
+            throw new IOException("Couldn't move " + source + " into the audio store");
+        }
+        moveSidecars(source.getPath(), target.getPath());
+        return target;
+    }
+
+    /**
+     * Moves the waveform and time map kept beside one audio file over to another,
+     * for a rewrite that keeps the timeline (like a re-encode).
+     */
+    public static void moveSidecars(String fromAudioPath, String toAudioPath) {
+        File[] from = sidecarsOf(fromAudioPath);
+        File[] to = sidecarsOf(toAudioPath);
+        for (int i = 0; i < from.length; i++) {
+            if (from[i].isFile()) from[i].renameTo(to[i]);
+        }
+    }
+
+    /** Whether {@code path} is one of the store's audio files. */
+    public boolean contains(@Nullable String path) {
+        if (path == null) return false;
+        File file = new File(path);
+        return root.equals(file.getParentFile()) && file.getName().endsWith(EXTENSION);
+    }
+
+    /** Whether {@code path} is app-owned audio outside the store, from before it existed. */
+    public boolean isLegacy(@Nullable String path) {
+        return path != null && cacheDir.equals(new File(path).getParentFile());
+    }
+
+    /**
+     * Deletes an audio file and everything kept beside it, as long as the app owns
+     * it. Callers make sure no note refers to it any more.
+     */
+    public void delete(@Nullable String path) {
+        if (!contains(path) && !isLegacy(path)) return;
+        new File(path).delete();
+        for (File sidecar : sidecarsOf(path)) sidecar.delete();
+        WaveformExtractor.partialFileFor(path).delete();
+    }
+
+    /** Size on disk of an audio file, or 0 if it's gone. */
+    public long sizeOf(@Nullable String path) {
+        return path == null ? 0 : new File(path).length();
+    }
+
+    /** The store's audio files, for finding ones no note refers to. */
+    public File[] listFiles() {
+        File[] files = root.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return files != null ? files : new File[0];
+    }
+
+    /** Temp files left by a save or transcode that never finished. */
+    public File[] listTempFiles() {
+        File[] files = tempDir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static File[] sidecarsOf(String audioPath) {
+        return new File[]{WaveformSidecar.fileFor(audioPath), SilenceTrimmer.mapFileFor(audioPath)};
+    }
+
+    static String contentName(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        byte[] hash = digest.digest();
+        StringBuilder name = new StringBuilder(NAME_HEX_CHARS + EXTENSION.length());
+        for (int i = 0; i < NAME_HEX_CHARS / 2; i++) {
+            name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            name.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return name.append(EXTENSION).toString();
+    }
+}
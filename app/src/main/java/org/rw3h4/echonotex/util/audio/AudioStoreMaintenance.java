@@ -0,0 +1,146 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import org.rw3h4.echonotex.data.local.model.NoteAudio;
+import org.rw3h4.echonotex.repository.NoteRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Housekeeping for the {@link AudioStore}, run in the background once per
+ * process:
+ * <ul>
+ *     <li>audio still in the cache dir from before the store existed is moved in;</li>
+ *     <li>store files no note refers to any more are deleted;</li>
+ *     <li>if the user turned it on, recordings older than a month are re-encoded
+ *     as low-bitrate speech with {@link AudioTranscoder}.</li>
+ * </ul>
+ */
+public final class AudioStoreMaintenance {
+
+    private static final String TAG = "AudioStoreMaintenance";
+
+    private static final String PREFS_NAME = "audio_store";
+    private static final String KEY_COMPRESS_OLD = "compress_old_recordings";
+
+    private static final long COMPRESS_AFTER_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final int COMPRESSED_BIT_RATE = 24_000;
+    // Anything at or below this is already compact, or was compressed before
+    private static final long COMPACT_BITS_PER_SECOND = 40_000;
+    // A file this new may belong to a save that hasn't reached the database yet
+    private static final long ORPHAN_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, TAG));
+
+    private AudioStoreMaintenance() {
+    }
+
+    public static boolean isCompressionEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_COMPRESS_OLD, false);
+    }
+
+    public static void setCompressionEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_COMPRESS_OLD, enabled).apply();
+    }
+
+    public static void runOnce(Application application, NoteRepository repository) {
+        if (!started.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            AudioStore store = new AudioStore(application);
+            adoptLegacyFiles(store, repository);
+            deleteOrphans(store, repository);
+            if (isCompressionEnabled(application)) {
+                compressOldRecordings(store, repository);
+            }
+        });
+    }
+
+    private static void adoptLegacyFiles(AudioStore store, NoteRepository repository) {
+        Set<String> done = new HashSet<>();
+        for (NoteAudio audio : repository.getNoteAudio()) {
+            String path = audio.getFilePath();
+            if (!store.isLegacy(path) || !done.add(path)) continue;
+            File file = new File(path);
+            if (!file.isFile()) continue;
+            try {
+                File stored = store.adopt(file);
+                repository.replaceAudioFile(path, stored.getPath());
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't move " + path + " into the audio store", e);
+            }
+        }
+    }
+
+    private static void deleteOrphans(AudioStore store, NoteRepository repository) {
+        Set<String> referenced = new HashSet<>();
+        for (NoteAudio audio : repository.getNoteAudio()) {
+            referenced.add(audio.getFilePath());
+        }
+        long cutoff = System.currentTimeMillis() - ORPHAN_GRACE_MILLIS;
+        for (File file : store.listFiles()) {
+            if (!referenced.contains(file.getPath()) && file.lastModified() < cutoff) {
+                store.delete(file.getPath());
+            }
+        }
+        for (File temp : store.listTempFiles()) {
+            if (temp.lastModified() < cutoff) temp.delete();
+        }
+    }
+
+    private static void compressOldRecordings(AudioStore store, NoteRepository repository) {
+        // A file is only as old as the newest note using it
+        Map<String, NoteAudio> newestByPath = new HashMap<>();
+        for (NoteAudio audio : repository.getNoteAudio()) {
+            NoteAudio newest = newestByPath.get(audio.getFilePath());
+            if (newest == null || audio.getTimestamp() > newest.getTimestamp()) {
+                newestByPath.put(audio.getFilePath(), audio);
+            }
+        }
+
+        long cutoff = System.currentTimeMillis() - COMPRESS_AFTER_MILLIS;
+        for (NoteAudio audio : newestByPath.values()) {
+            String path = audio.getFilePath();
+            long size = store.sizeOf(path);
+            if (!store.contains(path) || audio.getTimestamp() > cutoff || audio.getDuration() <= 0 || size == 0) {
+                continue;
+            }
+            if (size * 8 * 1000 / audio.getDuration() <= COMPACT_BITS_PER_SECOND) continue;
+
+            try {
+                File temp = store.newTempFile();
+                AudioTranscoder.transcode(new File(path), temp, COMPRESSED_BIT_RATE);
+                File stored = store.adopt(temp);
+                // Same timeline, so the waveform summary and time map still fit
+                AudioStore.moveSidecars(path, stored.getPath());
+                repository.replaceAudioFile(path, stored.getPath());
+                store.delete(path);
+                Log.i(TAG, "Compressed " + path + ": " + size + " -> " + stored.length() + " bytes");
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't compress " + path, e);
+            }
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,44 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+/** MediaExtractor helpers shared by the audio tools in this package. */
+final class AudioTracks {
+
+    private AudioTracks() {
+    }
+
+    /** Selects the first audio track and returns its format, or null if there isn't one. */
+    @Nullable
+    static MediaFormat selectFirstAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /** Whether the file opens and has at least one audio frame; an unfinished MPEG-4 file doesn't. */
+    static boolean hasPlayableAudio(File file) {
+        if (!file.isFile() || file.length() == 0) return false;
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            return selectFirstAudioTrack(extractor) != null && extractor.getSampleTime() >= 0;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        } finally {
+            extractor.release();
+        }
+    }
+}
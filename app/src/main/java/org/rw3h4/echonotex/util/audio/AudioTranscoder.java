@@ -0,0 +1,238 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Re-encodes a recording as low-bitrate mono AAC for long-term storage. Speech
+ * survives HE-AAC at a fraction of the bitrate the recorder uses, and the result
+ * is still an .m4a, so playback, waveforms and remux editing work on it as is.
+ * Decoding, downmixing and encoding all stream, so memory use doesn't grow
+ * with the length of the recording.
+ */
+public final class AudioTranscoder {
+
+    private static final String TAG = "AudioTranscoder";
+    private static final long TIMEOUT_US = 10_000;
+
+    private final MediaCodec.BufferInfo encodedInfo = new MediaCodec.BufferInfo();
+    private final int bitRate;
+    private MediaCodec encoder;
+    private MediaMuxer muxer;
+    private int track = -1;
+    private int sampleRate;
+    private long framesEncoded;
+    private boolean encodeDone;
+
+    private AudioTranscoder(int bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    /**
+     * Transcodes {@code input} into {@code output}. Slow (real codec work), so
+     * only call it from a background thread; stops early if that thread is
+     * interrupted.
+     *
+     * @return the duration written, in microseconds
+     */
+    public static long transcode(File input, File output, int bitRate) throws IOException {
+        AudioTranscoder transcoder = new AudioTranscoder(bitRate);
+        boolean finished = false;
+        try {
+            long durationUs = transcoder.run(input, output);
+            finished = true;
+            return durationUs;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // What MediaCodec and MediaMuxer throw for most failures
+            throw new IOException("Couldn't transcode " + input, e);
+        } finally {
+            transcoder.release();
+            if (!finished) output.delete();
+        }
+    }
+
+    private long run(File input, File output) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        try {
+            extractor.setDataSource(input.getPath());
+            MediaFormat format = AudioTracks.selectFirstAudioTrack(extractor);
+            if (format == null) throw new IOException("No audio track in " + input);
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean decodeDone = false;
+
+            while (!encodeDone) {
+                if (Thread.currentThread().isInterrupted()) throw new IOException("Transcode cancelled");
+
+                if (!inputDone) {
+                    int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        ByteBuffer buffer = decoder.getInputBuffer(index);
+                        int size = buffer == null ? -1 : extractor.readSampleData(buffer, 0);
+                        if (size < 0) {
+                            decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                if (!decodeDone) {
+                    int index = decoder.dequeueOutputBuffer(info, TIMEOUT_US);
+                    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        MediaFormat decoded = decoder.getOutputFormat();
+                        sampleRate = decoded.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                        channelCount = decoded.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    } else if (index >= 0) {
+                        if (encoder == null) startEncoder();
+                        ByteBuffer buffer = decoder.getOutputBuffer(index);
+                        if (buffer != null && info.size > 0) {
+                            buffer.position(info.offset).limit(info.offset + info.size);
+                            encodeMono(buffer.order(ByteOrder.nativeOrder()).asShortBuffer(), channelCount);
+                        }
+                        decoder.releaseOutputBuffer(index, false);
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            queueEncoderInput(null, 0);
+                            decodeDone = true;
+                        }
+                    }
+                }
+
+                drainEncoder();
+            }
+
+            muxer.stop();
+            return framesEncoded * 1_000_000L / sampleRate;
+        } finally {
+            if (decoder != null) {
+                try {
+                    decoder.stop();
+                } catch (IllegalStateException ignored) {
+                    // Never started
+                }
+                decoder.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private void startEncoder() throws IOException {
+        encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        try {
+            encoder.configure(encoderFormat(MediaCodecInfo.CodecProfileLevel.AACObjectHE, bitRate),
+                    null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Not every encoder does HE-AAC at every rate, plain AAC needs a little more bitrate
+            Log.w(TAG, "HE-AAC unavailable, falling back to AAC-LC", e);
+            encoder.release();
+            encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            encoder.configure(encoderFormat(MediaCodecInfo.CodecProfileLevel.AACObjectLC, bitRate * 4 / 3),
+                    null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+        encoder.start();
+    }
+
+    private MediaFormat encoderFormat(int profile, int rate) {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, profile);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, rate);
+        return format;
+    }
+
+    // Averages the channels of each frame and feeds the result to the encoder
+    private void encodeMono(ShortBuffer pcm, int channelCount) throws IOException {
+        while (pcm.remaining() >= channelCount) {
+            queueEncoderInput(pcm, channelCount);
+        }
+    }
+
+    // Fills one encoder input buffer from pcm, or queues end of stream when pcm is null
+    private void queueEncoderInput(ShortBuffer pcm, int channelCount) throws IOException {
+        int index;
+        while ((index = encoder.dequeueInputBuffer(TIMEOUT_US)) < 0) {
+            // The encoder only frees input once its output is taken
+            drainEncoder();
+            if (Thread.currentThread().isInterrupted()) throw new IOException("Transcode cancelled");
+        }
+        long timeUs = framesEncoded * 1_000_000L / sampleRate;
+        if (pcm == null) {
+            encoder.queueInputBuffer(index, 0, 0, timeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return;
+        }
+
+        ByteBuffer input = encoder.getInputBuffer(index);
+        input.clear();
+        input.order(ByteOrder.nativeOrder());
+        int frames = Math.min(input.remaining() / 2, pcm.remaining() / channelCount);
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < channelCount; c++) {
+                sum += pcm.get();
+            }
+            input.putShort((short) (sum / channelCount));
+        }
+        encoder.queueInputBuffer(index, 0, frames * 2, timeUs, 0);
+        framesEncoded += frames;
+    }
+
+    private void drainEncoder() {
+        if (encoder == null) return;
+        int index;
+        while ((index = encoder.dequeueOutputBuffer(encodedInfo, 0)) != MediaCodec.INFO_TRY_AGAIN_LATER) {
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                track = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+            } else if (index >= 0) {
+                ByteBuffer output = encoder.getOutputBuffer(index);
+                boolean config = (encodedInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (output != null && encodedInfo.size > 0 && !config && track >= 0) {
+                    output.position(encodedInfo.offset).limit(encodedInfo.offset + encodedInfo.size);
+                    muxer.writeSampleData(track, output, encodedInfo);
+                }
+                encoder.releaseOutputBuffer(index, false);
+                if ((encodedInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    encodeDone = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void release() {
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException ignored) {
+                // Never started
+            }
+            encoder.release();
+        }
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (IllegalStateException ignored) {
+                // Never started
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.audio.LoudnessMeter;
+import org.rw3h4.echonotex.repository.NoteRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the loudness and true peak of voice notes that don't have them yet,
+ * so playback can even out the level between notes. Each file is decoded once
+ * with a {@link LoudnessMeter}, on a background thread, and the figures are
+ * stored on every note that uses it. Requests while a pass is queued fold into
+ * it; one made during a pass queues another, which picks up whatever was saved
+ * in the meantime.
+ */
+public final class LoudnessAnalyzer {
+
+    private static final String TAG = "LoudnessAnalyzer";
+
+    // Speech on a phone speaker: a little under music streaming levels
+    private static final double TARGET_LUFS = -18;
+    private static final double MAX_CUT_DB = 12;
+    private static final double MAX_BOOST_DB = 12;
+    // Room for the decoder and resampler to overshoot without clipping
+    private static final double CEILING_DBTP = -1;
+
+    private static final AtomicBoolean queued = new AtomicBoolean();
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, TAG));
+
+    private LoudnessAnalyzer() {
+    }
+
+    /** Measures every unmeasured voice note in the background. Safe to call often. */
+    public static void measureMissing(NoteRepository repository) {
+        if (!queued.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            queued.set(false);
+            for (String path : repository.getUnmeasuredAudioPaths()) {
+                File file = new File(path);
+                // Deleted, or not moved into the store yet; the next pass gets it
+                if (file.isFile()) measureAndStore(repository, file);
+            }
+        });
+    }
+
+    /**
+     * Measures one file in the background, for a note that's just been saved.
+     * Call it once the note's row is committed: figures for a path no note has
+     * yet update nothing, and wait for the next {@link #measureMissing} pass.
+     */
+    public static void measure(NoteRepository repository, String audioPath) {
+        worker.execute(() -> measureAndStore(repository, new File(audioPath)));
+    }
+
+    /**
+     * Playback gain in dB for a note: toward a common loudness, within limits, and
+     * never so much that its peaks would clip. 0 if it hasn't been measured.
+     */
+    public static float playbackGainDb(@Nullable Float loudnessLufs, @Nullable Float truePeakDbtp) {
+        if (loudnessLufs == null || truePeakDbtp == null) return 0f;
+        return LoudnessMeter.normalizationGainDb(loudnessLufs, truePeakDbtp,
+                TARGET_LUFS, MAX_CUT_DB, MAX_BOOST_DB, CEILING_DBTP);
+    }
+
+    private static void measureAndStore(NoteRepository repository, File file) {
+        try {
+            LoudnessMeter meter = decode(file);
+            // Digital silence has a true peak of minus infinity, which SQLite can't store
+            repository.setLoudness(file.getPath(), (float) meter.getIntegratedLufs(),
+                    (float) Math.max(meter.getTruePeakDbtp(), LoudnessMeter.SILENCE_LUFS));
+        } catch (IOException e) {
+            // Left unmeasured: it plays at its own level and is tried again next launch
+            Log.w(TAG, "Couldn't measure " + file, e);
+        }
+    }
+
+    private static LoudnessMeter decode(File file) throws IOException {
+        LoudnessMeter[] meter = new LoudnessMeter[1];
+        PcmDecoder.decode(file, (pcm, sampleRate, channelCount) -> {
+            if (meter[0] == null) meter[0] = new LoudnessMeter(sampleRate, channelCount);
+            meter[0].accept(pcm);
+        });
+        meter[0].finish();
+        return meter[0];
+    }
+}
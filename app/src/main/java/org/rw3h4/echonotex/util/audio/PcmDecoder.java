@@ -0,0 +1,109 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/** Decodes a file's first audio track to 16-bit PCM for the analysis passes. */
+final class PcmDecoder {
+
+    private static final long TIMEOUT_US = 10_000;
+
+    interface Sink {
+        /** Called for each decoded block, with the format the decoder reports for it. */
+        void accept(ShortBuffer pcm, int sampleRate, int channelCount);
+    }
+
+    private PcmDecoder() {
+    }
+
+    /**
+     * Decodes all of {@code input} into {@code sink}. Worker thread only; stops
+     * early if that thread is interrupted.
+     */
+    static void decode(File input, Sink sink) throws IOException {
+        try {
+            run(input, sink);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // What MediaCodec throws for most failures
+            throw new IOException("Couldn't decode " + input, e);
+        }
+    }
+
+    private static void run(File input, Sink sink) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(input.getPath());
+            MediaFormat format = AudioTracks.selectFirstAudioTrack(extractor);
+            if (format == null) throw new IOException("No audio track in " + input);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            boolean decodedAny = false;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) throw new IOException("Decode cancelled");
+
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer buffer = codec.getInputBuffer(inputIndex);
+                        int size = buffer == null ? -1 : extractor.readSampleData(buffer, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    if (outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                        throw new IOException("Unsupported PCM encoding in " + input);
+                    }
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                } else if (outputIndex >= 0) {
+                    ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                    if (output != null && info.size > 0) {
+                        output.position(info.offset).limit(info.offset + info.size);
+                        sink.accept(output.order(ByteOrder.nativeOrder()).asShortBuffer(), sampleRate, channelCount);
+                        decodedAny = true;
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                }
+            }
+
+            if (!decodedAny) throw new IOException("No audio decoded from " + input);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException ignored) {
+                    // Never started
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
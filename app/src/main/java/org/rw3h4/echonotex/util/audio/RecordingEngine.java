@@ -0,0 +1,471 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import org.rw3h4.echonotex.core.audio.CaptureDsp;
+import org.rw3h4.echonotex.core.audio.CaptureStats;
+import org.rw3h4.echonotex.core.audio.LevelMeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the mic to AAC .m4a files with AudioRecord, MediaCodec and MediaMuxer.
+ * <p>
+ * A capture thread reads fixed-size blocks of PCM into a small pool of direct
+ * buffers, cleans each one up with the {@link CaptureDsp} chain and meters it; an encoder thread feeds them to the codec and
+ * muxes what comes out. The buffers are allocated once, so a recording of any
+ * length produces no garbage on the capture path. If the encoder falls far
+ * enough behind that no buffer is free, the block is dropped and counted as an
+ * overrun rather than stalling the mic.
+ * <p>
+ * Output is split into chunks of {@link #CHUNK_DURATION_US} that are each
+ * finished and synced to disk before the next one starts. An MPEG-4 file can't
+ * be played until its index is written at the end, so this way a crash or kill
+ * costs at most the chunk in progress rather than the whole recording.
+ * <p>
+ * Levels and errors are delivered to the {@link Listener} on the main thread.
+ */
+public final class RecordingEngine {
+
+    private static final String TAG = "RecordingEngine";
+
+    private static final int BLOCK_MILLIS = 20;
+    // ~320 ms of slack between the mic and the encoder
+    private static final int POOL_SIZE = 16;
+    private static final long CODEC_TIMEOUT_US = 10_000;
+    private static final long QUEUE_TIMEOUT_MS = 10;
+    private static final long CHUNK_DURATION_US = 10_000_000;
+
+    private static final int MSG_LEVEL = 1;
+    private static final int MSG_ERROR = 2;
+
+    public interface Listener {
+        /** Peak and RMS (0..1) of the last interval of captured audio. */
+        void onLevel(float peak, float rms);
+
+        /** Recording failed and has stopped; the output file is probably unusable. */
+        void onError(Exception e);
+    }
+
+    /** Hands out the file for each chunk in turn; called on the encoder thread. */
+    public interface ChunkFiles {
+        File nextChunk();
+    }
+
+    // One block of captured PCM; the short view is made once so metering doesn't allocate
+    private static final class PcmBlock {
+        final ByteBuffer bytes;
+        final ShortBuffer shorts;
+        int size;
+        long startFrame;
+        long presentationTimeUs;
+        long captureNanos;
+
+        PcmBlock(int capacity) {
+            bytes = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            shorts = bytes.asShortBuffer();
+        }
+    }
+
+    private final ChunkFiles chunkFiles;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitRate;
+    private final int frameBytes;
+    private final int blockBytes;
+
+    private final BlockingQueue<PcmBlock> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<PcmBlock> filled = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+    // Read into when the pool is empty, so the mic keeps draining; its audio is
+    // dropped, and the encoder fills the gap it leaves with silence
+    private final PcmBlock spare;
+    private final PcmBlock endOfStream = new PcmBlock(0);
+
+    private final CaptureStats stats = new CaptureStats();
+    private final CaptureDsp dsp;
+    private final LevelMeter meter;
+    private final Handler mainHandler;
+
+    private AudioRecord audioRecord;
+    private MediaCodec encoder;
+    private Thread captureThread;
+    private Thread encoderThread;
+    private volatile boolean capturing;
+    private volatile Exception failure;
+    private long startNanos;
+
+    // Encoder thread only: the chunk being written
+    private MediaFormat outputFormat;
+    private MediaMuxer muxer;
+    private RandomAccessFile chunkFile;
+    private int track = -1;
+    private long chunkStartUs = -1;
+
+    // Encoder thread only: when each queued block was captured, to time the codec
+    private final long[] pendingTimesUs = new long[POOL_SIZE * 2];
+    private final long[] pendingNanos = new long[POOL_SIZE * 2];
+    private int pendingHead;
+    private int pendingCount;
+    // Encoder thread only: frames given to the codec so far, audio and silence
+    private long queuedFrames;
+
+    public RecordingEngine(ChunkFiles chunkFiles, int sampleRate, int channelCount, int bitRate,
+                           int levelIntervalMillis, Listener listener) {
+        this.chunkFiles = chunkFiles;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitRate = bitRate;
+        this.frameBytes = channelCount * 2;
+        this.blockBytes = sampleRate * BLOCK_MILLIS / 1000 * frameBytes;
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            free.add(new PcmBlock(blockBytes));
+        }
+        spare = new PcmBlock(blockBytes);
+        dsp = new CaptureDsp(sampleRate, channelCount, stats);
+
+        mainHandler = new Handler(Looper.getMainLooper(), msg -> {
+            if (msg.what == MSG_LEVEL) {
+                listener.onLevel(Float.intBitsToFloat(msg.arg1), Float.intBitsToFloat(msg.arg2));
+            } else if (msg.what == MSG_ERROR) {
+                listener.onError((Exception) msg.obj);
+            }
+            return true;
+        });
+        // Messages come from a pool, so reporting levels doesn't allocate either
+        meter = new LevelMeter(sampleRate, channelCount, levelIntervalMillis, (peak, rms) ->
+                mainHandler.obtainMessage(MSG_LEVEL, Float.floatToRawIntBits(peak), Float.floatToRawIntBits(rms))
+                        .sendToTarget());
+    }
+
+    public CaptureStats getStats() { return stats; }
+
+    /** The processing chain; every stage starts off, and each can be switched from any thread. */
+    public CaptureDsp getDsp() { return dsp; }
+
+    /** Opens the mic and encoder and starts recording. The caller must hold RECORD_AUDIO. */
+    @SuppressLint("MissingPermission")
+    public void start() throws IOException {
+        if (captureThread != null) throw new IllegalStateException("Already started");
+        int channelMask = channelCount == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+        int minBuffer = AudioRecord.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) throw new IOException("Unsupported capture format: " + sampleRate + " Hz");
+
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelMask,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer * 2, blockBytes * 4));
+            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                throw new IOException("Couldn't open the microphone");
+            }
+
+            encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            encoder.configure(encoderFormat(sampleRate, channelCount, bitRate, blockBytes),
+                    null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+        } catch (IOException | RuntimeException e) {
+            releaseResources();
+            throw e instanceof IOException ? (IOException) e : new IOException("Couldn't start recording", e);
+        }
+
+        startNanos = System.nanoTime();
+        audioRecord.startRecording();
+        capturing = true;
+        captureThread = new Thread(this::captureLoop, TAG + "-capture");
+        encoderThread = new Thread(this::encodeLoop, TAG + "-encoder");
+        encoderThread.start();
+        captureThread.start();
+    }
+
+    /** What the encoder is asked for; RecordingProfileSizeTest encodes with the same. */
+    static MediaFormat encoderFormat(int sampleRate, int channelCount, int bitRate, int maxInputSize) {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+        return format;
+    }
+
+    /** Asks the threads to finish the file and returns at once; safe from the main thread. */
+    public void release() {
+        capturing = false;
+    }
+
+    /**
+     * Stops capturing and waits for the encoder to finish the last chunk. Blocks
+     * for a few tens of milliseconds, so call it off the main thread.
+     *
+     * @throws IOException if recording failed; chunks finished before then are still good
+     */
+    public void stop() throws IOException {
+        capturing = false;
+        if (encoderThread != null) {
+            try {
+                encoderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while finishing the recording", e);
+            }
+        }
+        Log.i(TAG, "Recording finished: " + stats);
+        if (failure != null) throw new IOException("Recording failed", failure);
+    }
+
+    private void captureLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        long frames = 0;
+        try {
+            while (capturing) {
+                PcmBlock block = free.poll();
+                if (block == null) {
+                    stats.recordOverrun();
+                    block = spare;
+                }
+                int read = audioRecord.read(block.bytes, blockBytes, AudioRecord.READ_BLOCKING);
+                if (read < 0) {
+                    stats.recordReadError();
+                    if (block != spare) free.offer(block);
+                    if (read == AudioRecord.ERROR_DEAD_OBJECT) throw new IOException("Microphone was disconnected");
+                    continue;
+                }
+                read -= read % frameBytes;
+                if (block == spare) {
+                    // Dropped, but its time still passed: the next block starts after it
+                    frames += read / frameBytes;
+                    stats.recordDroppedFrames(read / frameBytes);
+                    continue;
+                }
+                if (read == 0) {
+                    free.offer(block);
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                stats.recordBlock(now - startNanos);
+                block.size = read;
+                block.captureNanos = now;
+                block.startFrame = frames;
+                block.presentationTimeUs = frames * 1_000_000L / sampleRate;
+                frames += read / frameBytes;
+
+                block.shorts.limit(read / 2).position(0);
+                // Levels and the waveform should show what's actually recorded
+                dsp.process(block.shorts);
+                meter.accept(block.shorts);
+                filled.offer(block);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException ignored) {
+                // Already stopped
+            }
+            // Always leaves room: the queue holds every pooled block plus this one
+            filled.offer(endOfStream);
+        }
+    }
+
+    private void encodeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        try {
+            while (true) {
+                if (!inputDone) {
+                    PcmBlock block = filled.poll(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (block == endOfStream) {
+                        queueInput(null, info);
+                        inputDone = true;
+                    } else if (block != null) {
+                        queueInput(block, info);
+                        free.offer(block);
+                    }
+                }
+
+                int index = encoder.dequeueOutputBuffer(info, inputDone ? CODEC_TIMEOUT_US : 0);
+                while (index != MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        outputFormat = encoder.getOutputFormat();
+                        openChunk();
+                    } else if (index >= 0) {
+                        writeOutput(index, info);
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            closeChunk();
+                            return;
+                        }
+                    }
+                    index = encoder.dequeueOutputBuffer(info, 0);
+                }
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // MediaCodec and MediaMuxer report nearly everything as IllegalStateException
+            fail(e);
+        } finally {
+            capturing = false;
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            releaseResources();
+        }
+    }
+
+    // Copies a block into the codec, or queues end of stream when block is null
+    private void queueInput(PcmBlock block, MediaCodec.BufferInfo info) throws InterruptedException {
+        int index;
+        while ((index = encoder.dequeueInputBuffer(CODEC_TIMEOUT_US)) < 0) {
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        if (block == null) {
+            encoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return;
+        }
+        if (block.startFrame > queuedFrames) {
+            // Blocks were dropped before this one; silence keeps what follows at its real time
+            index = queueSilence(index, block.startFrame - queuedFrames);
+        }
+        queuedFrames = block.startFrame + block.size / frameBytes;
+        ByteBuffer input = encoder.getInputBuffer(index);
+        block.bytes.limit(block.size).position(0);
+        input.clear();
+        input.put(block.bytes);
+        encoder.queueInputBuffer(index, 0, block.size, block.presentationTimeUs, 0);
+
+        if (pendingCount < pendingTimesUs.length) {
+            int slot = (pendingHead + pendingCount) % pendingTimesUs.length;
+            pendingTimesUs[slot] = block.presentationTimeUs;
+            pendingNanos[slot] = block.captureNanos;
+            pendingCount++;
+        }
+    }
+
+    // Queues frames of silence starting in the free input buffer at index, and
+    // returns another free one for what comes next
+    private int queueSilence(int index, long frames) throws InterruptedException {
+        while (frames > 0) {
+            ByteBuffer input = encoder.getInputBuffer(index);
+            input.clear();
+            int count = (int) Math.min(frames, Math.min(input.remaining(), blockBytes) / frameBytes);
+            for (int i = 0; i < count * frameBytes; i++) input.put((byte) 0);
+            encoder.queueInputBuffer(index, 0, count * frameBytes, queuedFrames * 1_000_000L / sampleRate, 0);
+            queuedFrames += count;
+            frames -= count;
+            while ((index = encoder.dequeueInputBuffer(CODEC_TIMEOUT_US)) < 0) {
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        }
+        return index;
+    }
+
+    private void writeOutput(int index, MediaCodec.BufferInfo info) throws IOException {
+        ByteBuffer output = encoder.getOutputBuffer(index);
+        boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+        if (output != null && info.size > 0 && !config && muxer != null) {
+            // Every AAC frame is a sync frame, so any one can start a chunk
+            long timeUs = info.presentationTimeUs;
+            if (chunkStartUs < 0) {
+                chunkStartUs = timeUs;
+            } else if (timeUs - chunkStartUs >= CHUNK_DURATION_US) {
+                closeChunk();
+                openChunk();
+                chunkStartUs = timeUs;
+            }
+            output.position(info.offset).limit(info.offset + info.size);
+            info.presentationTimeUs = timeUs - chunkStartUs;
+            muxer.writeSampleData(track, output, info);
+            info.presentationTimeUs = timeUs;
+
+            // Latency of the newest captured block that this frame includes
+            long capturedAt = -1;
+            while (pendingCount > 0 && pendingTimesUs[pendingHead] <= info.presentationTimeUs) {
+                capturedAt = pendingNanos[pendingHead];
+                pendingHead = (pendingHead + 1) % pendingTimesUs.length;
+                pendingCount--;
+            }
+            if (capturedAt >= 0) stats.recordEncoderLatency(System.nanoTime() - capturedAt);
+        }
+        encoder.releaseOutputBuffer(index, false);
+    }
+
+    private void openChunk() throws IOException {
+        File file = chunkFiles.nextChunk();
+        chunkFile = new RandomAccessFile(file, "rw");
+        chunkFile.setLength(0);
+        // Owning the descriptor lets the chunk be synced once the muxer is done with it
+        muxer = new MediaMuxer(chunkFile.getFD(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        track = muxer.addTrack(outputFormat);
+        muxer.start();
+        chunkStartUs = -1;
+    }
+
+    private void closeChunk() throws IOException {
+        muxer.stop();
+        muxer.release();
+        muxer = null;
+        chunkFile.getFD().sync();
+        chunkFile.close();
+        chunkFile = null;
+    }
+
+    private void fail(Exception e) {
+        if (failure != null) return;
+        failure = e;
+        capturing = false;
+        Log.e(TAG, "Recording failed", e);
+        mainHandler.obtainMessage(MSG_ERROR, e).sendToTarget();
+    }
+
+    private void releaseResources() {
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException ignored) {
+                // Never started, or already failed
+            }
+            encoder.release();
+            encoder = null;
+        }
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (IllegalStateException e) {
+                // A chunk that failed mid-write is left unfinished and skipped by recovery
+                Log.w(TAG, "Couldn't release the muxer", e);
+            }
+            muxer = null;
+        }
+        if (chunkFile != null) {
+            try {
+                chunkFile.close();
+            } catch (IOException ignored) {
+                // Only a half-written chunk is lost
+            }
+            chunkFile = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.app.Application;
+import android.util.Log;
+
+import org.rw3h4.echonotex.core.audio.RecordingProfile;
+import org.rw3h4.echonotex.data.local.NoteDatabase;
+import org.rw3h4.echonotex.data.local.model.Note;
+import org.rw3h4.echonotex.repository.NoteRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns recordings that were cut short (the app crashed or was killed before
+ * the note was saved) into voice notes. Every chunk that was finished is joined
+ * as usual; only the one being written when the process died is lost.
+ */
+public final class RecordingRecovery {
+
+    private static final String TAG = "RecordingRecovery";
+    private static final String CATEGORY_NONE = "None";
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private RecordingRecovery() {
+    }
+
+    /** Recovers interrupted recordings in the background, once per process. */
+    public static void recoverOnce(Application application, NoteRepository repository) {
+        if (!started.compareAndSet(false, true)) return;
+        NoteDatabase.databaseWriteExecutor.execute(() -> {
+            for (RecordingSession session : RecordingSession.findInterrupted(application)) {
+                recover(application, repository, session);
+            }
+        });
+    }
+
+    private static void recover(Application application, NoteRepository repository, RecordingSession session) {
+        List<File> chunks = new ArrayList<>();
+        for (File chunk : session.getChunks()) {
+            if (AudioTracks.hasPlayableAudio(chunk)) chunks.add(chunk);
+        }
+        String userId = session.getUserId();
+        if (chunks.isEmpty() || userId == null) {
+            // Nothing usable, or nobody to give it to
+            session.delete();
+            return;
+        }
+
+        AudioStore store = new AudioStore(application);
+        File output;
+        long durationUs;
+        try {
+            File joined = store.newTempFile();
+            durationUs = AudioRemuxer.concatenate(chunks, joined);
+            output = store.adopt(joined);
+        } catch (IOException e) {
+            // Left in place, the next launch tries again
+            Log.w(TAG, "Couldn't recover recording from " + chunks.get(0).getParent(), e);
+            return;
+        }
+
+        String title = "Recovered Voice Note " + new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault())
+                .format(new Date(session.getStartedAt()));
+        RecordingProfile profile = session.getProfile();
+        Note note = new Note(title, 0, output.getAbsolutePath(), TimeUnit.MICROSECONDS.toMillis(durationUs), userId,
+                profile != null ? profile.getId() : null);
+        repository.saveNoteWithCategory(note, CATEGORY_NONE);
+        session.delete();
+        Log.i(TAG, "Recovered " + chunks.size() + " chunks into " + output.getName());
+    }
+}
@@ -0,0 +1,162 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.audio.RecordingProfile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The working directory of one recording while it's in progress. Audio is
+ * written as a run of short, individually finished .m4a chunks, so if the app
+ * dies mid-recording everything but the chunk being written is still playable.
+ * Saving joins the chunks into the note's file and deletes the directory; a
+ * directory that's still around when nothing is recording belongs to an
+ * interrupted recording, which {@link RecordingRecovery} turns into a note.
+ */
+public final class RecordingSession {
+
+    private static final String SESSIONS_DIR = "recordings";
+    private static final String INFO_FILE = "session.properties";
+    private static final String KEY_USER_ID = "userId";
+    private static final String KEY_STARTED_AT = "startedAt";
+    private static final String KEY_PROFILE = "profile";
+    private static final String CHUNK_EXTENSION = ".m4a";
+
+    // Sessions recording in this process; anything else on disk was interrupted
+    private static final Set<String> active = ConcurrentHashMap.newKeySet();
+
+    private final File directory;
+    private final String userId;
+    private final long startedAt;
+    private RecordingProfile profile;
+    private int nextChunk;
+
+    private RecordingSession(File directory, @Nullable String userId, long startedAt,
+                             @Nullable RecordingProfile profile) {
+        this.directory = directory;
+        this.userId = userId;
+        this.startedAt = startedAt;
+        this.profile = profile;
+    }
+
+    /** Starts a new session. Writes a small info file, so call it off the main thread if you can. */
+    public static RecordingSession create(Context context, @Nullable String userId, RecordingProfile profile)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        File directory = new File(sessionsRoot(context), "VoiceNote_" + now);
+        if (!directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+
+        RecordingSession session = new RecordingSession(directory, userId, now, profile);
+        session.writeInfo();
+        active.add(directory.getPath());
+        return session;
+    }
+
+    /** Sessions left behind by a recording that never got saved or discarded. Worker thread only. */
+    public static List<RecordingSession> findInterrupted(Context context) {
+        List<File> directories = new ArrayList<>();
+        // Sessions lived in the cache before, and one interrupted then is still there
+        for (File root : new File[]{sessionsRoot(context), new File(context.getCacheDir(), SESSIONS_DIR)}) {
+            File[] found = root.listFiles(File::isDirectory);
+            if (found != null) directories.addAll(Arrays.asList(found));
+        }
+
+        List<RecordingSession> sessions = new ArrayList<>();
+        for (File directory : directories) {
+            if (active.contains(directory.getPath())) continue;
+            Properties info = new Properties();
+            try (FileInputStream in = new FileInputStream(new File(directory, INFO_FILE))) {
+                info.load(in);
+            } catch (IOException e) {
+                // Died before the info file was written, there's no audio either
+            }
+            long startedAt;
+            try {
+                startedAt = Long.parseLong(info.getProperty(KEY_STARTED_AT, "0"));
+            } catch (NumberFormatException e) {
+                startedAt = directory.lastModified();
+            }
+            RecordingSession session = new RecordingSession(directory, info.getProperty(KEY_USER_ID), startedAt,
+                    RecordingProfile.fromId(info.getProperty(KEY_PROFILE)));
+            session.nextChunk = session.getChunks().size();
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    @Nullable
+    public String getUserId() { return userId; }
+
+    public long getStartedAt() { return startedAt; }
+
+    /** The format every chunk is recorded in; null for a recovered session that never recorded it. */
+    @Nullable
+    public RecordingProfile getProfile() { return profile; }
+
+    /**
+     * Switches format before the first chunk, for when the device can't capture
+     * in the one asked for. Chunks are joined without re-encoding, so once one
+     * exists the format is fixed.
+     */
+    public void setProfile(RecordingProfile profile) throws IOException {
+        if (profile == this.profile) return;
+        if (!getChunks().isEmpty()) throw new IllegalStateException("Already recording as " + this.profile);
+        this.profile = profile;
+        writeInfo();
+    }
+
+    /** The file for the next chunk. Called by the encoder thread. */
+    public synchronized File nextChunk() {
+        return new File(directory, String.format(Locale.US, "chunk_%05d%s", nextChunk++, CHUNK_EXTENSION));
+    }
+
+    /** Every chunk written so far, oldest first. */
+    public List<File> getChunks() {
+        File[] chunks = directory.listFiles((dir, name) -> name.startsWith("chunk_") && name.endsWith(CHUNK_EXTENSION));
+        if (chunks == null) return Collections.emptyList();
+        // Zero padded, so name order is recording order
+        Arrays.sort(chunks);
+        return Arrays.asList(chunks);
+    }
+
+    /** Deletes the working directory once the recording is saved or discarded. Worker thread only. */
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+        active.remove(directory.getPath());
+    }
+
+    private void writeInfo() throws IOException {
+        Properties info = new Properties();
+        if (userId != null) info.setProperty(KEY_USER_ID, userId);
+        info.setProperty(KEY_STARTED_AT, Long.toString(startedAt));
+        if (profile != null) info.setProperty(KEY_PROFILE, profile.getId());
+        try (FileOutputStream out = new FileOutputStream(new File(directory, INFO_FILE))) {
+            info.store(out, null);
+            out.getFD().sync();
+        }
+    }
+
+    // Not the cache: the system clears that under storage pressure, just when a
+    // recording is likeliest to have been killed and most needs recovering
+    private static File sessionsRoot(Context context) {
+        return new File(context.getNoBackupFilesDir(), SESSIONS_DIR);
+    }
+}
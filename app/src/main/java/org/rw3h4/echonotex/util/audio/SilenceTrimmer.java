@@ -0,0 +1,87 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.audio.TimeMap;
+import org.rw3h4.echonotex.core.audio.VoiceActivityDetector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Cuts the long silences out of a finished recording. The audio is decoded
+ * once to find them with a {@link VoiceActivityDetector}; the cut itself is a
+ * remux, so the speech that's kept is never re-encoded. The map from trimmed
+ * back to original time is stored next to the audio (".timemap"), for anything
+ * that needs to line up with the recording as it was made.
+ */
+public final class SilenceTrimmer {
+
+    private static final String TAG = "SilenceTrimmer";
+    private static final String MAP_EXTENSION = ".timemap";
+    // Not worth a second copy of the file for less than this
+    private static final long MIN_SAVING_US = 1_000_000;
+
+    private SilenceTrimmer() {
+    }
+
+    /**
+     * Writes {@code input} without its long silences to {@code output}. Decodes the
+     * whole file, so worker thread only; stops early if that thread is interrupted.
+     *
+     * @return what was kept, or null if there was too little silence to bother, in
+     * which case nothing is written
+     */
+    @Nullable
+    public static TimeMap trim(File input, File output) throws IOException {
+        TimeMap speech = detect(input);
+        if (speech.getRemovedUs() < MIN_SAVING_US) return null;
+        TimeMap kept = AudioRemuxer.keep(input, speech, output);
+        Log.i(TAG, "Cut " + kept.getRemovedUs() / 1000 + " ms of silence from " + input.getName());
+        return kept;
+    }
+
+    public static File mapFileFor(String audioPath) {
+        return new File(audioPath + MAP_EXTENSION);
+    }
+
+    /** Writes atomically, like the waveform sidecar. Worker thread only. */
+    public static void writeMap(String audioPath, TimeMap map) throws IOException {
+        File target = mapFileFor(audioPath);
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(map.toBytes());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Couldn't move time map into place for " + audioPath);
+        }
+    }
+
+    /** The stored map, or null if the audio was never trimmed. Worker thread only. */
+    @Nullable
+    public static TimeMap readMap(String audioPath) {
+        File file = mapFileFor(audioPath);
+        if (!file.isFile()) return null;
+        try {
+            return TimeMap.fromBytes(Files.readAllBytes(file.toPath()));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Unreadable time map for " + audioPath, e);
+            return null;
+        }
+    }
+
+    private static TimeMap detect(File input) throws IOException {
+        VoiceActivityDetector[] detector = new VoiceActivityDetector[1];
+        PcmDecoder.decode(input, (pcm, sampleRate, channelCount) -> {
+            if (detector[0] == null) detector[0] = new VoiceActivityDetector(sampleRate, channelCount);
+            detector[0].accept(pcm);
+        });
+        return detector[0].finish();
+    }
+}
@@ -0,0 +1,241 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.waveform.PcmPeakReducer;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Builds waveform summaries for audio that doesn't have one yet (voice notes
+ * recorded before summaries were saved, or audio from elsewhere) by decoding it
+ * in the background. Results go through {@link WaveformSidecar}, so each file is
+ * only ever decoded once.
+ * <p>
+ * Files are decoded in parallel, one per worker, and memory per file stays
+ * constant: the PCM is reduced to peaks as it streams out of the codec. Progress
+ * is checkpointed to a ".partial" file, so an extraction cut short by the process
+ * dying picks up where it left off next time.
+ */
+public final class WaveformExtractor {
+
+    private static final String TAG = "WaveformExtractor";
+    // Same resolution the recorder saves at
+    private static final int INTERVAL_MILLIS = 100;
+    // Write a checkpoint every minute of decoded audio
+    private static final int CHECKPOINT_SAMPLES = 600;
+    private static final long TIMEOUT_US = 10_000;
+    private static final String PARTIAL_EXTENSION = ".partial";
+
+    // Leave a core for the UI; decoding is CPU bound when the codec is a software one
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Main thread only. Callers waiting on each queued file, and files that couldn't be decoded
+    private static final Map<String, List<Consumer<WaveformPeaks>>> pending = new HashMap<>();
+    private static final Set<String> failed = new HashSet<>();
+
+    private WaveformExtractor() {
+    }
+
+    /**
+     * Queues {@code audioPath} for extraction unless it's already queued, and calls
+     * {@code onDone} on the main thread with the summary, or null if the file
+     * couldn't be decoded. Main thread only.
+     */
+    public static void extract(@Nullable String audioPath, Consumer<WaveformPeaks> onDone) {
+        if (audioPath == null || audioPath.isEmpty() || failed.contains(audioPath)) {
+            onDone.accept(null);
+            return;
+        }
+        List<Consumer<WaveformPeaks>> waiting = pending.get(audioPath);
+        if (waiting != null) {
+            waiting.add(onDone);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(onDone);
+        pending.put(audioPath, waiting);
+
+        workers.execute(() -> {
+            WaveformPeaks peaks = WaveformSidecar.read(audioPath);
+            if (peaks == null) {
+                try {
+                    peaks = decode(audioPath);
+                    WaveformSidecar.write(audioPath, peaks);
+                    partialFileFor(audioPath).delete();
+                } catch (IOException | RuntimeException e) {
+                    // MediaCodec reports most failures as IllegalStateException
+                    Log.w(TAG, "Couldn't extract a waveform from " + audioPath, e);
+                    peaks = null;
+                }
+            }
+            WaveformPeaks result = peaks;
+            mainHandler.post(() -> {
+                if (result == null) failed.add(audioPath);
+                List<Consumer<WaveformPeaks>> callbacks = pending.remove(audioPath);
+                if (callbacks == null) return;
+                for (Consumer<WaveformPeaks> callback : callbacks) {
+                    callback.accept(result);
+                }
+            });
+        });
+    }
+
+    static File partialFileFor(String audioPath) {
+        return new File(WaveformSidecar.fileFor(audioPath).getPath() + PARTIAL_EXTENSION);
+    }
+
+    private static WaveformPeaks decode(String audioPath) throws IOException {
+        File partialFile = partialFileFor(audioPath);
+        WaveformPeaks.Builder builder = null;
+        if (partialFile.isFile()) {
+            try {
+                builder = WaveformPeaks.Builder.resume(
+                        WaveformPeaks.fromBytes(Files.readAllBytes(partialFile.toPath())));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring unreadable checkpoint for " + audioPath, e);
+            }
+        }
+        if (builder == null) {
+            builder = new WaveformPeaks.Builder(INTERVAL_MILLIS);
+        }
+        long resumeUs = builder.getSampleCount() * (long) INTERVAL_MILLIS * 1000L;
+
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(audioPath);
+            MediaFormat format = AudioTracks.selectFirstAudioTrack(extractor);
+            if (format == null) throw new IOException("No audio track in " + audioPath);
+            if (resumeUs > 0) {
+                extractor.seekTo(resumeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            PcmPeakReducer reducer = null;
+            int lastCheckpoint = builder.getSampleCount();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Interrupted, will resume from the last checkpoint");
+                }
+
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        int size = input == null ? -1 : extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    if (outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT) {
+                        throw new IOException("Unsupported PCM encoding in " + audioPath);
+                    }
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                } else if (outputIndex >= 0) {
+                    if (info.size > 0) {
+                        if (reducer == null) {
+                            reducer = new PcmPeakReducer(builder, sampleRate, channelCount);
+                        }
+                        ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                        if (output != null) {
+                            output.position(info.offset).limit(info.offset + info.size);
+                            ShortBuffer pcm = output.order(ByteOrder.nativeOrder()).asShortBuffer();
+                            // After a resume, the seek lands on a sync frame at or before the checkpoint
+                            if (info.presentationTimeUs < resumeUs) {
+                                long skipFrames = PcmPeakReducer.framesBefore(resumeUs - info.presentationTimeUs, sampleRate);
+                                pcm.position((int) Math.min(pcm.limit(), skipFrames * channelCount));
+                            }
+                            reducer.accept(pcm);
+                        }
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+
+                    if (builder.getSampleCount() - lastCheckpoint >= CHECKPOINT_SAMPLES) {
+                        writeCheckpoint(partialFile, builder.build());
+                        lastCheckpoint = builder.getSampleCount();
+                    }
+                }
+            }
+
+            if (reducer != null) reducer.finish();
+            return builder.build();
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException ignored) {
+                    // Never started
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static void writeCheckpoint(File partialFile, WaveformPeaks progress) {
+        File temp = new File(partialFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(progress.toBytes());
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write checkpoint " + partialFile, e);
+            return;
+        }
+        if (!temp.renameTo(partialFile)) temp.delete();
+    }
+}
@@ -0,0 +1,91 @@
+package org.rw3h4.echonotex.util.audio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Stores a voice note's waveform summary in a small file next to its audio
+ * ("VoiceNote_123.m4a.peaks"), so cards and the mini player can draw a waveform
+ * without ever decoding the audio.
+ */
+public final class WaveformSidecar {
+
+    private static final String TAG = "WaveformSidecar";
+    private static final String EXTENSION = ".peaks";
+
+    // Summaries are small (a few KB for typical notes), keep the ones on screen around
+    private static final LruCache<String, WaveformPeaks> cache = new LruCache<>(64);
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private WaveformSidecar() {
+    }
+
+    public static File fileFor(String audioPath) {
+        return new File(audioPath + EXTENSION);
+    }
+
+    /** Writes atomically so a crash never leaves a half-written file behind. Worker thread only. */
+    public static void write(String audioPath, WaveformPeaks peaks) throws IOException {
+        File target = fileFor(audioPath);
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(peaks.toBytes());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Couldn't move waveform peaks into place for " + audioPath);
+        }
+        cache.put(audioPath, peaks);
+    }
+
+    /** The stored summary, or null if there is none or it can't be read. Worker thread only. */
+    @Nullable
+    public static WaveformPeaks read(String audioPath) {
+        WaveformPeaks cached = cache.get(audioPath);
+        if (cached != null) return cached;
+
+        File file = fileFor(audioPath);
+        if (!file.isFile()) return null;
+        try {
+            WaveformPeaks peaks = WaveformPeaks.fromBytes(Files.readAllBytes(file.toPath()));
+            cache.put(audioPath, peaks);
+            return peaks;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Unreadable waveform peaks for " + audioPath, e);
+            return null;
+        }
+    }
+
+    /** Loads off the main thread and delivers the result (possibly null) on it. */
+    public static void load(@Nullable String audioPath, Consumer<WaveformPeaks> onLoaded) {
+        if (audioPath == null || audioPath.isEmpty()) {
+            onLoaded.accept(null);
+            return;
+        }
+        WaveformPeaks cached = cache.get(audioPath);
+        if (cached != null) {
+            onLoaded.accept(cached);
+            return;
+        }
+        ioExecutor.execute(() -> {
+            WaveformPeaks peaks = read(audioPath);
+            mainHandler.post(() -> onLoaded.accept(peaks));
+        });
+    }
+}
@@ -0,0 +1,110 @@
+package org.rw3h4.echonotex.util.note;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Journals a dictation session's settled segments to a file as they come, so the
+ * transcript survives the process being killed partway through. Each segment is
+ * appended on its own, so a checkpoint costs that segment, however long the
+ * session. What the recognizer hadn't settled yet isn't kept; at worst the last
+ * few seconds are lost.
+ * <p>
+ * Records are a length and that many bytes of UTF-8. A record cut short by a
+ * crash is dropped when the journal is loaded.
+ */
+public final class DictationCheckpoint {
+
+    private static final String TAG = "DictationCheckpoint";
+    private static final String FILE_NAME = "dictation.journal";
+    // Nothing settles into one segment anywhere near this; more means the file is damaged
+    private static final int MAX_SEGMENT_BYTES = 1 << 20;
+
+    // One thread, so the load, appends and discards happen in the order asked for
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final File file;
+
+    public DictationCheckpoint(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /** Reads back what an interrupted session left and delivers it on the main thread; empty if nothing. */
+    public void load(Consumer<List<String>> onLoaded) {
+        ioExecutor.execute(() -> {
+            List<String> segments = read();
+            mainHandler.post(() -> onLoaded.accept(segments));
+        });
+    }
+
+    public void append(String segment) {
+        ioExecutor.execute(() -> {
+            byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+                data.flush();
+                out.getFD().sync();
+            } catch (IOException e) {
+                // The session carries on; only its recovery after a crash is affected
+                Log.w(TAG, "Couldn't checkpoint the dictation", e);
+            }
+        });
+    }
+
+    /** Forgets the session, once its text has been used or thrown away. */
+    public void discard() {
+        ioExecutor.execute(() -> {
+            if (file.exists() && !file.delete()) Log.w(TAG, "Couldn't delete " + file);
+        });
+    }
+
+    private List<String> read() {
+        List<String> segments = new ArrayList<>();
+        if (!file.isFile()) return segments;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_SEGMENT_BYTES) break;
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                segments.add(new String(bytes, StandardCharsets.UTF_8));
+                valid += 4 + length;
+            }
+        } catch (EOFException e) {
+            // The end of the journal, or a record the crash cut short
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the dictation checkpoint", e);
+        }
+        // Later appends must follow the last whole record, not the torn one
+        if (valid < file.length()) {
+            try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+                journal.setLength(valid);
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't trim the dictation checkpoint", e);
+            }
+        }
+        return segments;
+    }
+}
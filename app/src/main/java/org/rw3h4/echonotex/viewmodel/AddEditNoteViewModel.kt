@@ -5,12 +5,18 @@ import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.rw3h4.echonotex.data.local.model.Category
 import org.rw3h4.echonotex.data.local.model.Note
 import org.rw3h4.echonotex.repository.NoteRepository
+import org.rw3h4.echonotex.ui.note.EditContentPart
+import org.rw3h4.echonotex.ui.note.convertCContentPartsToHtml
+import org.rw3h4.echonotex.ui.note.toEditContentParts
+import org.rw3h4.echonotex.ui.note.toNoteBlocks
 
 class AddEditNoteViewModel(application: Application) : AndroidViewModel(application) {
     private val repository: NoteRepository = NoteRepository(application)
@@ -23,10 +29,14 @@ class AddEditNoteViewModel(application: Application) : AndroidViewModel(applicat
     private val _imageToInsert = MutableSharedFlow<String>()
     val imageToInsert = _imageToInsert.asSharedFlow()
 
+    suspend fun loadContentParts(note: Note): List<EditContentPart> {
+        return withContext(Dispatchers.IO) { repository.loadBlocks(note).toEditContentParts(note.content) }
+    }
+
     fun saveNote(
         existingNote: Note?,
         title: String,
-        content: String,
+        contentParts: List<EditContentPart>,
         categoryName: String,
         userId: String
     ) {
@@ -36,7 +46,18 @@ class AddEditNoteViewModel(application: Application) : AndroidViewModel(applicat
 
         val finalCategoryName = if (categoryName.isBlank()) "None" else categoryName
 
-        val noteToSave = if (existingNote == null) {
+        viewModelScope.launch {
+            // The HTML copy is still kept in note_content for previews, search and sync
+            val (content, blocks) = withContext(Dispatchers.Default) {
+                convertCContentPartsToHtml(contentParts) to contentParts.toNoteBlocks()
+            }
+            repository.saveNoteWithCategory(buildNote(existingNote, title, content, userId), finalCategoryName, blocks)
+            _saveFinished.postValue(true)
+        }
+    }
+
+    private fun buildNote(existingNote: Note?, title: String, content: String, userId: String): Note {
+        return if (existingNote == null) {
             Note(title, content, 0, userId)
         } else {
             Note(
@@ -50,14 +71,12 @@ class AddEditNoteViewModel(application: Application) : AndroidViewModel(applicat
                 Note.NOTE_TYPE_TEXT,
                 null,
                 0,
-                userId
+                userId,
+                null,
+                null,
+                null
             )
         }
-
-        viewModelScope.launch {
-            repository.saveNoteWithCategory(noteToSave, finalCategoryName)
-            _saveFinished.postValue(true)
-        }
     }
 
     fun onSaveComplete() {
@@ -1,6 +1,7 @@
 package org.rw3h4.echonotex.viewmodel;
 
 import android.app.Application;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
@@ -11,18 +12,31 @@ import androidx.lifecycle.Transformations;
 
 import com.google.firebase.auth.FirebaseAuth;
 
+import org.rw3h4.echonotex.R;
+import org.rw3h4.echonotex.core.category.CategoryIndex;
+import org.rw3h4.echonotex.core.list.ListDiff;
+import org.rw3h4.echonotex.data.local.NoteDatabase;
 import org.rw3h4.echonotex.data.local.model.Category;
 import org.rw3h4.echonotex.data.local.model.Note;
 import org.rw3h4.echonotex.data.local.model.NoteWithCategory;
 import org.rw3h4.echonotex.repository.NoteRepository;
+import org.rw3h4.echonotex.util.audio.AudioEditor;
+import org.rw3h4.echonotex.util.audio.AudioRemuxer;
+import org.rw3h4.echonotex.util.audio.AudioStore;
+import org.rw3h4.echonotex.util.audio.AudioStoreMaintenance;
+import org.rw3h4.echonotex.util.audio.LoudnessAnalyzer;
+import org.rw3h4.echonotex.util.audio.RecordingRecovery;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class NotesViewModel extends AndroidViewModel {
+    private static final String TAG = "NotesViewModel";
+
     private final NoteRepository repository;
     public final LiveData<List<Category>> allCategories;
 
@@ -37,11 +51,33 @@ public class NotesViewModel extends AndroidViewModel {
     // We have to use MediatorLiveData to observe both sources.
     private final MediatorLiveData<List<NoteWithCategory>> notesWithCategories = new MediatorLiveData<>();
 
+    // Bytes of voice note audio the current user keeps, for the drawer
+    private final MutableLiveData<Long> audioUsage = new MutableLiveData<>();
+
+    // The category a playing queue was started from, -1 for all notes. Null when
+    // the queue follows no list, like one started from search results
+    private final MutableLiveData<Integer> queueCategoryId = new MutableLiveData<>();
+    private final LiveData<List<Note>> voiceQueue;
+
+    // Voice note edits run one at a time, and carry on if the screen goes away
+    private static final ExecutorService editExecutor = Executors.newSingleThreadExecutor();
+    private final AudioStore audioStore;
+    // Percent done of the running edit, null when there's none
+    private final MutableLiveData<Integer> editProgress = new MutableLiveData<>();
+    // Whether the last edit worked, until the screen has said so
+    private final MutableLiveData<Boolean> editOutcome = new MutableLiveData<>();
 
     public NotesViewModel(@NonNull Application application) {
         super(application);
         repository = new NoteRepository(application);
+        audioStore = new AudioStore(application);
         allCategories = repository.getAllCategories();
+        // Recordings cut short by a crash become notes, before the list first loads if possible
+        RecordingRecovery.recoverOnce(application, repository);
+        // Tidies and, if asked to, compresses stored audio in the background
+        AudioStoreMaintenance.runOnce(application, repository);
+        // Voice notes from before loudness was measured, or whose measurement failed
+        LoudnessAnalyzer.measureMissing(repository);
 
         LiveData<List<Note>> notesSource = Transformations.switchMap(userId, id ->
                 Transformations.switchMap(filterCategoryId, categoryId -> {
@@ -61,6 +97,15 @@ public class NotesViewModel extends AndroidViewModel {
         notesWithCategories.addSource(notesSource, notes -> combineData(notes, allCategories.getValue()));
         notesWithCategories.addSource(allCategories, categories ->
                 combineData(notesSource.getValue(), categories));
+
+        // Independent of the filter, so switching tabs doesn't swap out what's playing
+        voiceQueue = Transformations.switchMap(queueCategoryId, categoryId -> {
+            String id = userId.getValue();
+            if (categoryId == null || id == null) return null;
+            LiveData<List<Note>> notes = categoryId == -1
+                    ? repository.getAllNotes(id) : repository.getNotesByCategoryId(id, categoryId);
+            return Transformations.map(notes, NotesViewModel::voiceNotesOnly);
+        });
     }
 
     public void loadNotesForCurrentUser() {
@@ -76,15 +121,15 @@ public class NotesViewModel extends AndroidViewModel {
             return;
         }
 
-        Map<Integer, String> categoryMap = new HashMap<>();
-        for (Category category : categories) {
-            categoryMap.put(category.getId(), category.getName());
-        }
+        List<NoteWithCategory> result = CategoryIndex.of(categories, Category::getId, Category::getName)
+                .join(notes, Note::getCategoryId, NoteWithCategory::new);
 
-        List<NoteWithCategory> result = new ArrayList<>();
-        for (Note note : notes) {
-            String categoryName = categoryMap.getOrDefault(note.getCategoryId(), "None");
-            result.add(new NoteWithCategory(note, Objects.requireNonNull(categoryName)));
+        // Both sources fire on every write, so skip publishing a list the adapter already has
+        List<NoteWithCategory> previous = notesWithCategories.getValue();
+        if (previous != null && ListDiff.diff(previous, result, item -> item.getNote().getId(),
+                (oldItem, newItem) -> oldItem.getNote().equals(newItem.getNote())
+                        && oldItem.getCategoryName().equals(newItem.getCategoryName())).isEmpty()) {
+            return;
         }
         notesWithCategories.setValue(result);
     }
@@ -93,10 +138,39 @@ public class NotesViewModel extends AndroidViewModel {
         return notesWithCategories;
     }
 
+    public LiveData<Long> getAudioUsage() {
+        return audioUsage;
+    }
+
+    public void refreshAudioUsage() {
+        String currentUserId = userId.getValue();
+        if (currentUserId == null) return;
+        NoteDatabase.databaseWriteExecutor.execute(() ->
+                audioUsage.postValue(repository.getAudioBytesForUser(currentUserId)));
+    }
+
     public void setCategoryFilter(int categoryId) {
         filterCategoryId.setValue(categoryId);
     }
 
+    /** The voice notes of the list the playing queue follows, in list order, on every change. */
+    public LiveData<List<Note>> getVoiceQueue() {
+        return voiceQueue;
+    }
+
+    /** Has the queue follow a category, -1 for all notes, or null for none. */
+    public void followInQueue(Integer categoryId) {
+        queueCategoryId.setValue(categoryId);
+    }
+
+    private static List<Note> voiceNotesOnly(List<Note> notes) {
+        List<Note> voiceNotes = new ArrayList<>();
+        for (Note note : notes) {
+            if (Note.NOTE_TYPE_VOICE.equals(note.getNoteType())) voiceNotes.add(note);
+        }
+        return voiceNotes;
+    }
+
     public LiveData<List<Note>> searchNotes(String query) {
         String currentUserId = userId.getValue();
         if (currentUserId == null) {
@@ -113,4 +187,97 @@ public class NotesViewModel extends AndroidViewModel {
     public void updatePinStatus(int noteId, boolean isPinned) {
         repository.updatePinStatus(noteId, isPinned);
     }
+
+    public LiveData<Integer> getEditProgress() {
+        return editProgress;
+    }
+
+    public LiveData<Boolean> getEditOutcome() {
+        return editOutcome;
+    }
+
+    public void onEditOutcomeShown() {
+        editOutcome.setValue(null);
+    }
+
+    /** Keeps only {@code startMillis..endMillis} of a voice note. */
+    public void trimVoiceNote(Note note, long startMillis, long endMillis) {
+        runEdit(progress -> {
+            AudioEditor.Edited trimmed = AudioEditor.trim(audioStore, note.getFilePath(),
+                    TimeUnit.MILLISECONDS.toMicros(startMillis), TimeUnit.MILLISECONDS.toMicros(endMillis),
+                    TimeUnit.MILLISECONDS.toMicros(note.getDuration()), progress);
+            repository.replaceNoteAudio(note, trimmed.getPath(), TimeUnit.MICROSECONDS.toMillis(trimmed.getDurationUs()));
+            LoudnessAnalyzer.measure(repository, trimmed.getPath());
+        });
+    }
+
+    /** Cuts a voice note in two: it keeps the first part, and the rest becomes a new note after it. */
+    public void splitVoiceNote(Note note, long atMillis) {
+        runEdit(progress -> {
+            AudioEditor.Edited[] parts = AudioEditor.split(audioStore, note.getFilePath(),
+                    TimeUnit.MILLISECONDS.toMicros(atMillis), TimeUnit.MILLISECONDS.toMicros(note.getDuration()),
+                    progress);
+            String title = getApplication().getString(R.string.split_note_title, note.getTitle());
+            repository.insertNoteNow(voiceNoteLike(note, title, parts[1]));
+            repository.replaceNoteAudio(note, parts[0].getPath(),
+                    TimeUnit.MICROSECONDS.toMillis(parts[0].getDurationUs()));
+            LoudnessAnalyzer.measure(repository, parts[0].getPath());
+            LoudnessAnalyzer.measure(repository, parts[1].getPath());
+        });
+    }
+
+    /**
+     * Joins voice notes, oldest first, into a new note; the originals stay. They
+     * have to share a quality profile, or the edit fails.
+     */
+    public void mergeVoiceNotes(List<Note> notes) {
+        if (notes.size() < 2) return;
+        List<Note> ordered = new ArrayList<>(notes);
+        ordered.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+        runEdit(progress -> {
+            List<String> paths = new ArrayList<>(ordered.size());
+            for (Note note : ordered) paths.add(note.getFilePath());
+            AudioEditor.Edited merged = AudioEditor.merge(audioStore, paths, progress);
+            Note first = ordered.get(0);
+            String title = getApplication().getString(R.string.merged_note_title, first.getTitle());
+            repository.insertNoteNow(voiceNoteLike(first, title, merged));
+            LoudnessAnalyzer.measure(repository, merged.getPath());
+        });
+    }
+
+    private interface Edit {
+        void run(AudioRemuxer.Progress progress) throws IOException;
+    }
+
+    private void runEdit(Edit edit) {
+        editProgress.setValue(0);
+        editExecutor.execute(() -> {
+            int[] lastPercent = {0};
+            try {
+                edit.run(fraction -> {
+                    // Called per frame; only bother the main thread when the figure moves
+                    int percent = (int) (fraction * 100);
+                    if (percent != lastPercent[0]) {
+                        lastPercent[0] = percent;
+                        editProgress.postValue(percent);
+                    }
+                });
+                editOutcome.postValue(true);
+            } catch (IOException | RuntimeException e) {
+                // Anything escaping would take the executor's thread and the app down with it
+                Log.w(TAG, "Voice note edit failed", e);
+                editOutcome.postValue(false);
+            } finally {
+                editProgress.postValue(null);
+            }
+        });
+    }
+
+    // A new voice note in the same category and format as another, at the other's place in time
+    private static Note voiceNoteLike(Note source, String title, AudioEditor.Edited audio) {
+        long now = System.currentTimeMillis();
+        return new Note(0, title, "", source.getCategoryId(), source.getTimestamp(), now, false,
+                Note.NOTE_TYPE_VOICE, audio.getPath(), TimeUnit.MICROSECONDS.toMillis(audio.getDurationUs()),
+                source.getUserId(), source.getAudioProfile(), null, null);
+    }
 }
@@ -1,53 +1,117 @@
 package org.rw3h4.echonotex.viewmodel
 
 import android.app.Application
-import android.media.MediaRecorder
-import android.os.Build
+import android.content.Context
+import android.util.Log
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.viewModelScope
 import com.google.firebase.auth.FirebaseAuth
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
-import okhttp3.internal.concurrent.formatDuration
+import kotlinx.coroutines.withContext
+import org.rw3h4.echonotex.core.audio.RecordingProfile
+import org.rw3h4.echonotex.core.audio.TimeMap
+import org.rw3h4.echonotex.core.waveform.AmplitudeRingBuffer
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks
 import org.rw3h4.echonotex.data.local.model.Category
 import org.rw3h4.echonotex.data.local.model.Note
 import org.rw3h4.echonotex.repository.NoteRepository
+import org.rw3h4.echonotex.util.audio.AudioRemuxer
+import org.rw3h4.echonotex.util.audio.AudioStore
+import org.rw3h4.echonotex.util.audio.LoudnessAnalyzer
+import org.rw3h4.echonotex.util.audio.RecordingEngine
+import org.rw3h4.echonotex.util.audio.RecordingSession
+import org.rw3h4.echonotex.util.audio.SilenceTrimmer
+import org.rw3h4.echonotex.util.audio.WaveformSidecar
 import java.io.File
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+private const val TAG = "RecordVoiceNoteVM"
+private const val AMPLITUDE_INTERVAL_MILLIS = 100
+private const val PREFS_NAME = "recording"
+private const val KEY_PROFILE = "profile"
+private const val KEY_TRIM_SILENCE = "trim_silence"
+private const val KEY_HIGH_PASS = "dsp_high_pass"
+private const val KEY_AUTO_GAIN = "dsp_auto_gain"
+private const val KEY_NOISE_GATE = "dsp_noise_gate"
+// At one amplitude per interval this keeps the last ~100 s; more than any screen shows
+private const val WAVEFORM_HISTORY_SIZE = 1024
 
 enum class RecordingState {
     READY_TO_RECORD,
     RECORDING,
+    PAUSED,
     STOPPED
 }
 
 data class RecordUiState(
     val recordingState: RecordingState = RecordingState.READY_TO_RECORD,
     val formattedTime: String = "00:00",
-    val amplitudes: List<Float> = emptyList(),
+    // Bumped with each new amplitude; the samples themselves live in the ViewModel's buffer
+    val waveformVersion: Long = 0,
     val noteTitle: String = "",
     val selectedCategoryName: String = "",
+    // Chosen before recording starts; every chunk of a recording shares it
+    val profile: RecordingProfile = RecordingProfile.DEFAULT,
+    // Cut long pauses out when saving
+    val trimSilence: Boolean = true,
+    // Capture processing; can be switched while recording
+    val highPass: Boolean = true,
+    val autoGain: Boolean = true,
+    val noiseGate: Boolean = false,
+    // The user's voice notes already fill their share of the audio store
+    val storageFull: Boolean = false,
     val saveFinished: Boolean = false
 )
 
 class RecordVoiceNoteViewModel(application: Application) : AndroidViewModel(application) {
     private val repository:  NoteRepository = NoteRepository(application)
+    private val audioStore = AudioStore(application)
     val allCategories: LiveData<List<Category>> = repository.allCategories
 
-    private val _uiState = MutableStateFlow(RecordUiState())
+    private val prefs = application.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    private val _uiState = MutableStateFlow(initialState())
     val uiState = _uiState.asStateFlow()
 
-    private var mediaRecorder: MediaRecorder? = null
-    private var audioFilePath: String = ""
-    private var recordingStartTime: Long = 0
-    private var timerJob: Job? = null
+    // Written and read on the main thread only
+    val amplitudes = AmplitudeRingBuffer(WAVEFORM_HISTORY_SIZE)
+    // Every amplitude of the recording, saved as the note's waveform summary
+    private val peaks = WaveformPeaks.Builder(AMPLITUDE_INTERVAL_MILLIS)
+
+    private var engine: RecordingEngine? = null
+    // Chunked audio on disk; pausing just ends a chunk early, and saving joins them all
+    private var session: RecordingSession? = null
+    // Checking the quota and setting up the session before the mic opens
+    private var startJob: Job? = null
+    // Finishing the last chunk; saving and discarding wait for it
+    private var stopJob: Job? = null
+
+    // Levels arrive on the main thread once per interval of captured audio, which also drives the clock
+    private val levelListener = object : RecordingEngine.Listener {
+        override fun onLevel(peak: Float, rms: Float) {
+            if (_uiState.value.recordingState != RecordingState.RECORDING) return
+            amplitudes.add(peak)
+            peaks.add(peak)
+            _uiState.value = _uiState.value.copy(
+                formattedTime = formatDuration(peaks.sampleCount.toLong() * AMPLITUDE_INTERVAL_MILLIS),
+                waveformVersion = amplitudes.writtenCount
+            )
+        }
+
+        override fun onError(e: Exception) {
+            Log.e(TAG, "Recording stopped", e)
+            stopRecording()
+        }
+    }
 
     fun updateTitle(newTitle: String) {
         _uiState.value = _uiState.value.copy(noteTitle = newTitle)
@@ -57,63 +121,136 @@ class RecordVoiceNoteViewModel(application: Application) : AndroidViewModel(appl
         _uiState.value = _uiState.value.copy(selectedCategoryName = newCategory)
     }
 
+    fun selectProfile(profile: RecordingProfile) {
+        if (_uiState.value.recordingState != RecordingState.READY_TO_RECORD) return
+        prefs.edit().putString(KEY_PROFILE, profile.id).apply()
+        _uiState.value = _uiState.value.copy(profile = profile)
+    }
+
+    fun setTrimSilence(trim: Boolean) {
+        prefs.edit().putBoolean(KEY_TRIM_SILENCE, trim).apply()
+        _uiState.value = _uiState.value.copy(trimSilence = trim)
+    }
+
+    fun setHighPass(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_HIGH_PASS, enabled).apply()
+        _uiState.value = _uiState.value.copy(highPass = enabled)
+        engine?.dsp?.setHighPassEnabled(enabled)
+    }
+
+    fun setAutoGain(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_AUTO_GAIN, enabled).apply()
+        _uiState.value = _uiState.value.copy(autoGain = enabled)
+        engine?.dsp?.setGainEnabled(enabled)
+    }
+
+    fun setNoiseGate(enabled: Boolean) {
+        prefs.edit().putBoolean(KEY_NOISE_GATE, enabled).apply()
+        _uiState.value = _uiState.value.copy(noiseGate = enabled)
+        engine?.dsp?.setGateEnabled(enabled)
+    }
+
+    private fun initialState() = RecordUiState(
+        profile = RecordingProfile.fromId(prefs.getString(KEY_PROFILE, null)) ?: RecordingProfile.DEFAULT,
+        trimSilence = prefs.getBoolean(KEY_TRIM_SILENCE, true),
+        highPass = prefs.getBoolean(KEY_HIGH_PASS, true),
+        autoGain = prefs.getBoolean(KEY_AUTO_GAIN, true),
+        noiseGate = prefs.getBoolean(KEY_NOISE_GATE, false)
+    )
+
     fun startRecording() {
-        try {
-            val file = File(getApplication<Application>().cacheDir, "VoiceNote_${System.currentTimeMillis()}.m4a")
-            audioFilePath = file.absolutePath
-
-            mediaRecorder = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                MediaRecorder(getApplication())
-            } else {
-                @Suppress("DEPRECATION")
-                MediaRecorder()
-            }.apply {
-                setAudioSource(MediaRecorder.AudioSource.MIC)
-                setOutputFormat(MediaRecorder.OutputFormat.MPEG_4)
-                setAudioEncoder(MediaRecorder.AudioEncoder.AAC)
-                setOutputFile(audioFilePath)
-                prepare()
-                start()
+        if (startJob?.isActive == true) return
+        val userId = FirebaseAuth.getInstance().currentUser?.uid
+        val profile = _uiState.value.profile
+        startJob = viewModelScope.launch {
+            val started = withContext(Dispatchers.IO) {
+                if (userId != null && repository.getAudioBytesForUser(userId) >= AudioStore.USER_QUOTA_BYTES) {
+                    return@withContext null
+                }
+                try {
+                    RecordingSession.create(getApplication(), userId, profile)
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    null
+                }
+            }
+            if (started == null) {
+                _uiState.value = _uiState.value.copy(storageFull = userId != null)
+                return@launch
+            }
+            session = started
+            amplitudes.clear()
+            peaks.clear()
+            if (startEngine()) {
+                _uiState.value = _uiState.value.copy(recordingState = RecordingState.RECORDING, waveformVersion = 0)
             }
-
-            recordingStartTime = System.currentTimeMillis()
-            _uiState.value = _uiState.value.copy(recordingState = RecordingState.RECORDING, amplitudes = emptyList())
-            startTimeAndWaveformUpdates()
-        } catch (e: Exception) {
-            e.printStackTrace()
         }
     }
 
-    private fun startTimeAndWaveformUpdates() {
-        timerJob?.cancel()
-        timerJob = viewModelScope.launch {
-            while (_uiState.value.recordingState == RecordingState.RECORDING) {
-                val elapsedTime = System.currentTimeMillis() - recordingStartTime
-                val currentAmplitudes = _uiState.value.amplitudes.toMutableList()
-                val maxAmplitude = mediaRecorder?.maxAmplitude?.toFloat() ?: 0f
-                val normalized = (maxAmplitude / 32767).coerceIn(0f, 1f)
-                currentAmplitudes.add(normalized)
-
-                _uiState.value = _uiState.value.copy(
-                    formattedTime = formatDuration(elapsedTime),
-                    amplitudes = currentAmplitudes
-                )
-                delay(100)
-            }
+    fun pauseRecording() {
+        if (_uiState.value.recordingState != RecordingState.RECORDING) return
+        finishEngine()
+        _uiState.value = _uiState.value.copy(recordingState = RecordingState.PAUSED)
+    }
+
+    fun resumeRecording() {
+        if (_uiState.value.recordingState != RecordingState.PAUSED) return
+        if (startEngine()) {
+            _uiState.value = _uiState.value.copy(recordingState = RecordingState.RECORDING)
         }
     }
 
     fun stopRecording() {
-        if (_uiState.value.recordingState != RecordingState.RECORDING) return
-        timerJob?.cancel()
-        try {
-            mediaRecorder?.stop()
-            mediaRecorder?.release()
-        } catch (e: Exception) {
+        val state = _uiState.value.recordingState
+        if (state != RecordingState.RECORDING && state != RecordingState.PAUSED) return
+        finishEngine()
+        _uiState.value = _uiState.value.copy(recordingState = RecordingState.STOPPED)
+    }
+
+    private fun startEngine(): Boolean {
+        val chunks = session ?: return false
+        val profile = chunks.profile ?: RecordingProfile.DEFAULT
+        return try {
+            val state = _uiState.value
+            engine = RecordingEngine(chunks::nextChunk, profile.sampleRate, profile.channelCount, profile.bitRate,
+                AMPLITUDE_INTERVAL_MILLIS, levelListener).also {
+                it.dsp.setHighPassEnabled(state.highPass)
+                it.dsp.setGainEnabled(state.autoGain)
+                it.dsp.setGateEnabled(state.noiseGate)
+                it.start()
+            }
+            true
+        } catch (e: IOException) {
+            engine = null
+            // Only 44.1 kHz capture is guaranteed; fall back to it if nothing's been recorded yet
+            if (profile != RecordingProfile.STANDARD && chunks.chunks.isEmpty()) {
+                Log.w(TAG, "Can't record as $profile, falling back to ${RecordingProfile.STANDARD}", e)
+                try {
+                    chunks.setProfile(RecordingProfile.STANDARD)
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    return false
+                }
+                _uiState.value = _uiState.value.copy(profile = RecordingProfile.STANDARD)
+                return startEngine()
+            }
             e.printStackTrace()
+            false
+        }
+    }
+
+    private fun finishEngine() {
+        val stopping = engine ?: return
+        engine = null
+        val previous = stopJob
+        stopJob = viewModelScope.launch(Dispatchers.IO) {
+            previous?.join()
+            try {
+                stopping.stop()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
         }
-        mediaRecorder = null
-        _uiState.value = _uiState.value.copy(recordingState = RecordingState.STOPPED)
     }
 
     fun saveVoiceNote() {
@@ -124,13 +261,73 @@ class RecordVoiceNoteViewModel(application: Application) : AndroidViewModel(appl
         }
 
         val categoryName =  _uiState.value.selectedCategoryName.ifEmpty { "None" }
-        val duration = System.currentTimeMillis() - recordingStartTime
         val userId = FirebaseAuth.getInstance().currentUser?.uid ?: return
 
-        val voiceNote = Note(title, 0, audioFilePath, duration, userId)
+        val waveform = peaks.build()
+        val recording = session ?: return
+        val trimSilence = _uiState.value.trimSilence
 
-        repository.saveNoteWithCategory(voiceNote, categoryName)
-        _uiState.value = _uiState.value.copy(saveFinished = true)
+        viewModelScope.launch {
+            stopJob?.join()
+            val saved = withContext(Dispatchers.IO) {
+                // Copies the encoded frames, so this is quick even for long recordings
+                val (joined, joinedUs) = try {
+                    val file = audioStore.newTempFile()
+                    file to AudioRemuxer.concatenate(recording.chunks, file)
+                } catch (e: IOException) {
+                    Log.e(TAG, "Couldn't join the recording's chunks", e)
+                    return@withContext null
+                }
+                val (audio, timeMap) = if (trimSilence) cutSilences(joined) else joined to null
+                val stored = try {
+                    audioStore.adopt(audio)
+                } catch (e: IOException) {
+                    Log.e(TAG, "Couldn't store the recording", e)
+                    audio.delete()
+                    return@withContext null
+                }
+                val durationUs = timeMap?.trimmedDurationUs ?: joinedUs
+                recording.delete()
+                try {
+                    WaveformSidecar.write(stored.absolutePath, timeMap?.trim(waveform) ?: waveform)
+                    if (timeMap != null) SilenceTrimmer.writeMap(stored.absolutePath, timeMap)
+                } catch (e: IOException) {
+                    // The note is still playable, its card just won't show a waveform
+                    e.printStackTrace()
+                }
+                stored.absolutePath to durationUs
+            }
+            // The chunks are kept, so saving can be tried again
+            if (saved == null) return@launch
+            session = null
+
+            val (audioPath, durationUs) = saved
+            val voiceNote = Note(title, 0, audioPath, TimeUnit.MICROSECONDS.toMillis(durationUs), userId,
+                recording.profile?.id)
+            // Measured once the row is there to take the figures
+            repository.saveNoteWithCategory(voiceNote, categoryName, null) {
+                LoudnessAnalyzer.measure(repository, audioPath)
+            }
+            _uiState.value = _uiState.value.copy(saveFinished = true)
+        }
+    }
+
+    // Decodes the whole recording; on any failure the untrimmed audio is kept
+    private fun cutSilences(joined: File): Pair<File, TimeMap?> {
+        val trimmed = try {
+            audioStore.newTempFile()
+        } catch (e: IOException) {
+            return joined to null
+        }
+        val timeMap = try {
+            SilenceTrimmer.trim(joined, trimmed)
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't trim silence, keeping the recording as is", e)
+            null
+        }
+        if (timeMap == null) return joined to null
+        joined.delete()
+        return trimmed to timeMap
     }
 
     fun onSaveComplete() {
@@ -139,10 +336,18 @@ class RecordVoiceNoteViewModel(application: Application) : AndroidViewModel(appl
 
     fun discardRecording() {
         stopRecording()
-        if (audioFilePath.isNotEmpty()) {
-            File(audioFilePath).delete()
+        val recording = session
+        session = null
+        if (recording != null) {
+            val finishing = stopJob
+            viewModelScope.launch(Dispatchers.IO) {
+                finishing?.join()
+                recording.delete()
+            }
         }
-        _uiState.value = RecordUiState()
+        amplitudes.clear()
+        peaks.clear()
+        _uiState.value = initialState()
     }
 
     private fun formatDuration(millis: Long): String {
@@ -153,8 +358,23 @@ class RecordVoiceNoteViewModel(application: Application) : AndroidViewModel(appl
 
     override fun onCleared() {
         super.onCleared()
-        mediaRecorder?.release()
-        mediaRecorder = null
-        timerJob?.cancel()
+        // Leaving the screen without saving throws the recording away, like discarding it.
+        // Only a crash or kill leaves the session on disk for recovery.
+        val stopping = engine
+        val recording = session
+        engine = null
+        session = null
+        if (recording == null) {
+            stopping?.release()
+            return
+        }
+        thread(name = "RecordingCleanup") {
+            try {
+                stopping?.stop()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            recording.delete()
+        }
     }
 }
\ No newline at end of file
@@ -11,17 +11,44 @@ import android.speech.SpeechRecognizer
 import androidx.lifecycle.AndroidViewModel
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
-
+import org.rw3h4.echonotex.core.note.TranscriptBuffer
+import org.rw3h4.echonotex.util.note.DictationCheckpoint
+
+/**
+ * Continuous dictation. The transcript is kept as settled segments plus the
+ * partial still being revised, so neither an update nor the state that carries
+ * it grows with the session; the screen reads segments it hasn't shown through
+ * [segment]. Settled segments are checkpointed as they come, and a session the
+ * process was killed in the middle of is picked up again by the next start.
+ */
 class Speech2TextViewModel(application: Application) : AndroidViewModel(application) {
     private val _state = MutableStateFlow(DictationState())
     val state = _state.asStateFlow()
 
     private var recognizer: SpeechRecognizer? = null
-    private var confirmedText = ""
-    private var lastPartialText = ""
+    private val transcript = TranscriptBuffer()
+    private val checkpoint = DictationCheckpoint(application)
+    // Set while a restored session is waiting to be carried on rather than replaced
+    private var resuming = false
+    private var started = false
     private var shouldRestart = false
     private val handler = Handler(Looper.getMainLooper())
 
+    init {
+        checkpoint.load { saved ->
+            // Too late if a new session has already begun; it discarded this one
+            if (started || saved.isEmpty()) return@load
+            transcript.restore(saved)
+            resuming = true
+            publishTranscript()
+        }
+    }
+
+    fun segment(index: Int): String = transcript.getSegment(index)
+
+    /** The whole transcript as one string, for when dictation is done. */
+    fun transcriptText(): String = transcript.toText()
+
     private fun createRecognizerIntent(): Intent {
         return Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH).apply {
             putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM)
@@ -39,17 +66,25 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
         }
     }
 
+    private fun publishTranscript() {
+        _state.value = _state.value.copy(
+            segmentCount = transcript.segmentCount,
+            partialText = transcript.partial
+        )
+    }
+
+    private fun commit(text: String) {
+        onSettled(transcript.commit(text))
+    }
+
+    // Only where no final result is coming; the final would settle it a second time
     private fun commitLastPartialIfAny() {
-        val text = lastPartialText.trim()
-        if (text.isNotEmpty()) {
-            if (!confirmedText.endsWith(text)) {
-                val sep = if (confirmedText.isNotEmpty()) " " else ""
-                confirmedText += sep + text
-                _state.value = _state.value.copy(transcribedText = confirmedText)
-            }
-        }
+        onSettled(transcript.commitPartial())
+    }
 
-        lastPartialText = ""
+    private fun onSettled(added: Boolean) {
+        if (added) checkpoint.append(transcript.getSegment(transcript.segmentCount - 1))
+        publishTranscript()
     }
 
     private val recognitionListener = object : RecognitionListener {
@@ -65,11 +100,14 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
         override fun onBufferReceived(buffer: ByteArray?) {}
 
         override fun onEndOfSpeech() {
+            // The partial stays as it is; onResults or onError settles it
             _state.value = _state.value.copy(isSpeaking = false)
-            commitLastPartialIfAny()
         }
 
         override fun onError(error: Int) {
+            // No final result follows an error, so what was heard is kept as it stands
+            commitLastPartialIfAny()
+
             // Recoverable errors — restart the recognizer silently
             if (shouldRestart && error in listOf(
                     SpeechRecognizer.ERROR_NO_MATCH,
@@ -77,8 +115,6 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
                     SpeechRecognizer.ERROR_RECOGNIZER_BUSY
                 )
             ) {
-                commitLastPartialIfAny()
-
                 val delay = if (error == SpeechRecognizer.ERROR_RECOGNIZER_BUSY) 300L else 100L
                 handler.postDelayed({ restartListening() }, delay)
                 return
@@ -92,14 +128,7 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
         }
 
         override fun onResults(results: Bundle?) {
-            lastPartialText = ""
-
-            results?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
-                ?.firstOrNull()?.takeIf { it.isNotBlank() }?.let { text ->
-                    val separator = if (confirmedText.isNotEmpty()) " " else ""
-                    confirmedText += separator + text
-                    _state.value = _state.value.copy(transcribedText = confirmedText)
-                }
+            commit(results?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)?.firstOrNull().orEmpty())
 
             // Auto-restart for continuous dictation
             if (shouldRestart) {
@@ -110,11 +139,8 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
         override fun onPartialResults(partialResults: Bundle?) {
             partialResults?.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION)
                 ?.firstOrNull()?.let { text ->
-                    lastPartialText = text
-                    val separator = if (confirmedText.isNotEmpty()) " " else ""
-                    _state.value = _state.value.copy(
-                        transcribedText = confirmedText + separator + text
-                    )
+                    transcript.setPartial(text)
+                    publishTranscript()
                 }
         }
 
@@ -122,9 +148,15 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
     }
 
     fun startListening() {
-        confirmedText = ""
-        lastPartialText = ""
-        _state.value = DictationState()
+        started = true
+        if (resuming) {
+            resuming = false
+            _state.value = DictationState(segmentCount = transcript.segmentCount)
+        } else {
+            transcript.clear()
+            checkpoint.discard()
+            _state.value = DictationState()
+        }
 
         if (!SpeechRecognizer.isRecognitionAvailable(getApplication())) {
             _state.value = _state.value.copy(error = "Speech recognition is not available on this device.")
@@ -173,12 +205,17 @@ class Speech2TextViewModel(application: Application) : AndroidViewModel(applicat
         handler.removeCallbacksAndMessages(null)
         recognizer?.destroy()
         recognizer = null
+        // The text was used or given up on; only a killed process leaves the journal behind
+        checkpoint.discard()
     }
 }
 
 data class DictationState(
-    val transcribedText: String = "",
+    val segmentCount: Int = 0,
+    val partialText: String = "",
     val isListening: Boolean = false,
     val isSpeaking: Boolean = false,
     val error: String? = null
-)
\ No newline at end of file
+) {
+    val hasText get() = segmentCount > 0 || partialText.isNotEmpty()
+}
\ No newline at end of file
@@ -0,0 +1,27 @@
+// Pure JVM module for the note/audio logic that doesn't need Android classes.
+// Keeping it free of android.* means it can be benchmarked with JMH on any box:
+//   ./gradlew :core:jmh
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+
+    // Only the benchmarks use Jsoup, as the baseline for the note HTML parser
+    jmhImplementation(libs.jsoup)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,72 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.note.BlockCodec;
+import org.rw3h4.echonotex.core.note.ContentBlock;
+import org.rw3h4.echonotex.core.note.NoteHtmlParser;
+import org.rw3h4.echonotex.core.note.NoteHtmlSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening and saving a note stored as per-block rows, against doing the same
+ * through the HTML body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockCodecBenchmark {
+
+    @Param({"2000", "64000", "1000000"})
+    public int noteChars;
+
+    private String html;
+    private List<ContentBlock> blocks;
+    private List<byte[]> rows;
+    private ContentBlock editedBlock;
+
+    @Setup
+    public void setUp() {
+        html = SyntheticNotes.html(noteChars, 8, 42L);
+        blocks = NoteHtmlParser.parseForEditing(html);
+        rows = new ArrayList<>(blocks.size());
+        for (ContentBlock block : blocks) {
+            rows.add(BlockCodec.encode(block));
+        }
+        editedBlock = blocks.get(blocks.size() / 2);
+    }
+
+    @Benchmark
+    public List<ContentBlock> openFromBlocks() {
+        List<ContentBlock> opened = new ArrayList<>(rows.size());
+        for (byte[] row : rows) {
+            opened.add(BlockCodec.decode(row));
+        }
+        return opened;
+    }
+
+    @Benchmark
+    public List<ContentBlock> openFromHtml() {
+        return NoteHtmlParser.parseForEditing(html);
+    }
+
+    // Saving after typing into one block: one encode, whatever the note size
+    @Benchmark
+    public byte[] saveOneBlock() {
+        return BlockCodec.encode(editedBlock);
+    }
+
+    @Benchmark
+    public String saveAsHtml() {
+        return NoteHtmlSerializer.serialize(blocks);
+    }
+}
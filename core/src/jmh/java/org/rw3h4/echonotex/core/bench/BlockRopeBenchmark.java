@@ -0,0 +1,81 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.editor.BlockRope;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The editor's per-keystroke and per-insert work on a long note: the old
+ * copy-the-whole-list updates against the block rope.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockRopeBenchmark {
+
+    @Param({"100", "10000"})
+    public int blockCount;
+
+    private List<UUID> list;
+    private BlockRope<UUID> rope;
+    private BlockRope.Node<UUID> middleNode;
+    private UUID middleId;
+    private UUID inserted;
+
+    @Setup
+    public void setUp() {
+        list = new ArrayList<>(blockCount);
+        rope = new BlockRope<>();
+        for (int i = 0; i < blockCount; i++) {
+            UUID id = new UUID(0L, i);
+            list.add(id);
+            BlockRope.Node<UUID> node = rope.add(id);
+            if (i == blockCount / 2) middleNode = node;
+        }
+        middleId = middleNode.getValue();
+        inserted = new UUID(1L, 0L);
+    }
+
+    // contentParts.map { if (it.id == part.id) ... } on every keystroke
+    @Benchmark
+    public List<UUID> listReplaceOnKeystroke() {
+        List<UUID> copy = new ArrayList<>(list.size());
+        for (UUID id : list) {
+            copy.add(id.equals(middleId) ? middleId : id);
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public int ropeIndexOfFocused() {
+        return rope.indexOf(middleNode);
+    }
+
+    // toMutableList(), add and remove, as image insert and delete did
+    @Benchmark
+    public List<UUID> listInsertThenRemove() {
+        List<UUID> copy = new ArrayList<>(list);
+        int index = copy.indexOf(middleId);
+        copy.add(index + 1, inserted);
+        copy = new ArrayList<>(copy);
+        copy.remove(index + 1);
+        return copy;
+    }
+
+    @Benchmark
+    public boolean ropeInsertThenRemove() {
+        BlockRope.Node<UUID> node = rope.insert(rope.indexOf(middleNode) + 1, inserted);
+        return rope.remove(node);
+    }
+}
@@ -0,0 +1,61 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.category.CategoryIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The notes + categories merge that NotesViewModel runs whenever either list changes.
+ * {@code hashMapBaseline} is the code it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CategoryJoinBenchmark {
+
+    @Param({"100", "10000"})
+    public int noteCount;
+
+    @Param({"6", "200"})
+    public int categoryCount;
+
+    private List<SyntheticNotes.NoteRow> notes;
+    private List<SyntheticNotes.CategoryRow> categories;
+
+    @Setup
+    public void setUp() {
+        notes = SyntheticNotes.notes(noteCount, categoryCount, 7L);
+        categories = SyntheticNotes.categories(categoryCount);
+    }
+
+    @Benchmark
+    public List<String> categoryIndex() {
+        return CategoryIndex.of(categories, c -> c.id, c -> c.name)
+                .join(notes, n -> n.categoryId, (n, name) -> name);
+    }
+
+    @Benchmark
+    public List<String> hashMapBaseline() {
+        Map<Integer, String> categoryMap = new HashMap<>();
+        for (SyntheticNotes.CategoryRow category : categories) {
+            categoryMap.put(category.id, category.name);
+        }
+        List<String> result = new ArrayList<>();
+        for (SyntheticNotes.NoteRow note : notes) {
+            result.add(categoryMap.getOrDefault(note.categoryId, "None"));
+        }
+        return result;
+    }
+}
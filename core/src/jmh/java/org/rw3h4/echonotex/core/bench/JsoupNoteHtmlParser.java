@@ -0,0 +1,131 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.rw3h4.echonotex.core.note.ContentBlock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The Jsoup/regex implementation NoteHtmlParser replaced, kept as the baseline
+ * for NoteHtmlBenchmark. Don't use it in the app.
+ */
+final class JsoupNoteHtmlParser {
+
+    private static final Pattern READER_IMG = Pattern.compile("<img src=\"(.*?)\".*?>");
+
+    private JsoupNoteHtmlParser() {
+    }
+
+    /**
+     * Parses a note body for the editor. Always returns at least one block and
+     * always ends with a text block so there's somewhere to put the cursor.
+     */
+    static List<ContentBlock> parseForEditing(String html) {
+        if (html == null || html.isBlank()) {
+            List<ContentBlock> empty = new ArrayList<>(1);
+            empty.add(new ContentBlock.Text(""));
+            return empty;
+        }
+
+        List<ContentBlock> blocks = new ArrayList<>();
+        Document doc = Jsoup.parse(html);
+
+        for (Element element : doc.body().children()) {
+            switch (element.tagName()) {
+                case "p":
+                    String text = element.html().replace("<br>", "\n");
+                    blocks.add(new ContentBlock.Text(text));
+                    break;
+                case "img":
+                    String src = element.attr("src");
+                    String style = element.attr("style");
+                    Pattern pattern = Pattern.compile("width: \\s*(\\d*\\.?\\d+)%");
+                    Matcher matcher = pattern.matcher(style);
+                    float sizeFraction = 1.0f;
+                    if (matcher.find()) {
+                        try {
+                            sizeFraction = Float.parseFloat(matcher.group(1)) / 100f;
+                        } catch (NumberFormatException ignored) {
+                            // keep full width
+                        }
+                    }
+                    if (!src.isEmpty()) {
+                        blocks.add(new ContentBlock.Image(src, sizeFraction));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (blocks.isEmpty() || blocks.get(blocks.size() - 1) instanceof ContentBlock.Image) {
+            blocks.add(new ContentBlock.Text(""));
+        }
+        return blocks;
+    }
+
+    /**
+     * Parses a note body for read-only display. Text blocks hold plain text
+     * (entities decoded, paragraphs and line breaks turned into newlines).
+     */
+    static List<ContentBlock> parseForReading(String html) {
+        if (html == null || html.isEmpty()) return Collections.emptyList();
+
+        List<ContentBlock> blocks = new ArrayList<>();
+        Matcher matcher = READER_IMG.matcher(html);
+        int lastIndex = 0;
+
+        while (matcher.find()) {
+            String textSegment = html.substring(lastIndex, matcher.start());
+            if (!textSegment.isBlank()) {
+                blocks.add(new ContentBlock.Text(toPlainText(textSegment)));
+            }
+            blocks.add(new ContentBlock.Image(matcher.group(1), 1.0f));
+            lastIndex = matcher.end();
+        }
+
+        if (lastIndex < html.length()) {
+            String remainingText = html.substring(lastIndex);
+            if (!remainingText.isBlank()) {
+                blocks.add(new ContentBlock.Text(toPlainText(remainingText)));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Rough equivalent of Html.fromHtml(..., FROM_HTML_MODE_LEGACY).toString():
+     * a paragraph ends with a blank line and br is a newline.
+     */
+    static String toPlainText(String htmlFragment) {
+        StringBuilder out = new StringBuilder(htmlFragment.length());
+        appendPlainText(Jsoup.parseBodyFragment(htmlFragment).body(), out);
+        return out.toString();
+    }
+
+    private static void appendPlainText(Node node, StringBuilder out) {
+        for (Node child : node.childNodes()) {
+            if (child instanceof TextNode) {
+                out.append(((TextNode) child).text());
+            } else if (child instanceof Element) {
+                String tag = ((Element) child).tagName();
+                if (tag.equals("br")) {
+                    out.append('\n');
+                } else {
+                    appendPlainText(child, out);
+                    if (tag.equals("p") || tag.equals("div")) {
+                        out.append("\n\n");
+                    }
+                }
+            }
+        }
+    }
+}
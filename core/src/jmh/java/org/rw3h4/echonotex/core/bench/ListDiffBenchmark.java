@@ -0,0 +1,98 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.list.ListDiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing a freshly merged note list against the previous one, for the shapes of
+ * update the notes grid actually sees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListDiffBenchmark {
+
+    @Param({"100", "10000"})
+    public int noteCount;
+
+    private List<SyntheticNotes.NoteRow> current;
+    private List<SyntheticNotes.NoteRow> unchanged;
+    private List<SyntheticNotes.NoteRow> oneEdited;
+    private List<SyntheticNotes.NoteRow> editedMovedToTop;
+    private List<SyntheticNotes.NoteRow> shuffled;
+
+    @Setup
+    public void setUp() {
+        current = SyntheticNotes.notes(noteCount, 6, 11L);
+        unchanged = new ArrayList<>(current);
+
+        int middle = noteCount / 2;
+        oneEdited = new ArrayList<>(current);
+        oneEdited.set(middle, current.get(middle).edited(1L));
+
+        // Editing a note bumps last_edited, which moves it to the top of the grid
+        editedMovedToTop = new ArrayList<>(current);
+        SyntheticNotes.NoteRow edited = editedMovedToTop.remove(middle).edited(1L);
+        editedMovedToTop.add(0, edited);
+
+        shuffled = new ArrayList<>(current);
+        Collections.shuffle(shuffled, new Random(3L));
+    }
+
+    @Benchmark
+    public ListDiff.Result unchanged() {
+        return diff(unchanged);
+    }
+
+    @Benchmark
+    public ListDiff.Result oneEdited() {
+        return diff(oneEdited);
+    }
+
+    @Benchmark
+    public ListDiff.Result editedMovedToTop() {
+        return diff(editedMovedToTop);
+    }
+
+    @Benchmark
+    public ListDiff.Result shuffled() {
+        return diff(shuffled);
+    }
+
+    /** The player queue's case: one note edited, so it jumps to the top of its category. */
+    @Benchmark
+    public int patchEditedMovedToTop() {
+        int[] steps = new int[1];
+        ListDiff.patch(current, editedMovedToTop, n -> n.id, SyntheticNotes.NoteRow::equals, new ListDiff.Patch() {
+            @Override
+            public void remove(int position) { steps[0]++; }
+
+            @Override
+            public void move(int from, int to) { steps[0]++; }
+
+            @Override
+            public void insert(int position, int newPosition) { steps[0]++; }
+
+            @Override
+            public void change(int position) { steps[0]++; }
+        });
+        return steps[0];
+    }
+
+    private ListDiff.Result diff(List<SyntheticNotes.NoteRow> next) {
+        return ListDiff.diff(current, next, n -> n.id, SyntheticNotes.NoteRow::equals);
+    }
+}
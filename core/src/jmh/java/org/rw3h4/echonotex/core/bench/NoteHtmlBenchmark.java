@@ -0,0 +1,63 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.note.ContentBlock;
+import org.rw3h4.echonotex.core.note.NoteHtmlParser;
+import org.rw3h4.echonotex.core.note.NoteHtmlSerializer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The streaming parser and serializer against the Jsoup/regex code they replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteHtmlBenchmark {
+
+    // Typical note, a long note and a pathological 1 MB one
+    @Param({"2000", "64000", "1000000"})
+    public int noteChars;
+
+    private String html;
+    private List<ContentBlock> blocks;
+
+    @Setup
+    public void setUp() {
+        html = SyntheticNotes.html(noteChars, 8, 42L);
+        blocks = NoteHtmlParser.parseForEditing(html);
+    }
+
+    @Benchmark
+    public List<ContentBlock> parseForEditing() {
+        return NoteHtmlParser.parseForEditing(html);
+    }
+
+    @Benchmark
+    public List<ContentBlock> parseForReading() {
+        return NoteHtmlParser.parseForReading(html);
+    }
+
+    @Benchmark
+    public List<ContentBlock> jsoupParseForEditing() {
+        return JsoupNoteHtmlParser.parseForEditing(html);
+    }
+
+    @Benchmark
+    public List<ContentBlock> jsoupParseForReading() {
+        return JsoupNoteHtmlParser.parseForReading(html);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return NoteHtmlSerializer.serialize(blocks);
+    }
+}
@@ -0,0 +1,78 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rw3h4.echonotex.core.audio.LevelMeter;
+import org.rw3h4.echonotex.core.audio.RecordingProfile;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What each recording profile costs the capture thread per minute of audio:
+ * its metering of a minute of PCM in the recorder's 20 ms blocks. The encoder
+ * runs in MediaCodec and isn't measured here. Neither are file sizes; the
+ * nominal size is printed at the end of each run for reference, and the
+ * instrumented RecordingProfileSizeTest measures real ones on a device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordingProfileBenchmark {
+
+    private static final int BLOCK_MILLIS = 20;
+    private static final int LEVEL_INTERVAL_MILLIS = 100;
+
+    @Param({"SPEECH", "STANDARD", "HIGH"})
+    public RecordingProfile profile;
+
+    private short[] minute;
+    private ShortBuffer block;
+    private int blockFrames;
+    private LevelMeter meter;
+    private float lastPeak;
+
+    @Setup
+    public void setUp() {
+        int rate = profile.getSampleRate();
+        minute = new short[rate * 60];
+        // Syllable-length bursts of a voiced tone over a noise floor
+        Random random = new Random(11L);
+        for (int i = 0; i < minute.length; i++) {
+            double t = (double) i / rate;
+            double envelope = Math.max(0, Math.sin(2 * Math.PI * 3 * t));
+            double voice = Math.sin(2 * Math.PI * 180 * t) + 0.5 * Math.sin(2 * Math.PI * 360 * t);
+            minute[i] = (short) (envelope * voice * 12_000 + random.nextGaussian() * 300);
+        }
+        blockFrames = rate * BLOCK_MILLIS / 1000;
+        block = ShortBuffer.allocate(blockFrames);
+        meter = new LevelMeter(rate, profile.getChannelCount(), LEVEL_INTERVAL_MILLIS,
+                (peak, rms) -> lastPeak = peak);
+    }
+
+    @Benchmark
+    public float captureOneMinute() {
+        meter.reset();
+        for (int offset = 0; offset + blockFrames <= minute.length; offset += blockFrames) {
+            // Same copy the capture thread makes out of AudioRecord
+            block.clear();
+            block.put(minute, offset, blockFrames).flip();
+            meter.accept(block);
+        }
+        return lastPeak;
+    }
+
+    @TearDown
+    public void reportNominalSize() {
+        // Printed in the fork's output, next to the timing; from the bitrate, not measured
+        System.out.printf("%s: %d bytes per minute (nominal)%n", profile, profile.estimatedBytesPerMinute());
+    }
+}
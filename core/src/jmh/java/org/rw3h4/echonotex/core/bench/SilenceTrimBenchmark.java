@@ -0,0 +1,94 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.rw3h4.echonotex.core.audio.TimeMap;
+import org.rw3h4.echonotex.core.audio.VoiceActivityDetector;
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU side of trimming silence from an hour-long recording: voice activity
+ * detection over an hour of decoded PCM (fed in the 1024-frame blocks an AAC
+ * decoder hands out), and carrying the hour's waveform over to the trimmed
+ * timeline. Decoding and the remux run in MediaCodec and MediaMuxer and aren't
+ * measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SilenceTrimBenchmark {
+
+    private static final int DECODER_BLOCK_FRAMES = 1024;
+    private static final int MINUTES = 60;
+    private static final int WAVEFORM_INTERVAL_MILLIS = 100;
+
+    @Param({"16000", "44100"})
+    public int sampleRate;
+
+    // One minute, played sixty times over; an hour of PCM at once would need hundreds of MB
+    private short[] minute;
+    private WaveformPeaks hourPeaks;
+    private TimeMap hourMap;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(13L);
+        minute = new short[sampleRate * 60];
+        // Speech in bursts of a few seconds with pauses of up to three, over a faint hiss
+        int i = 0;
+        boolean talking = true;
+        while (i < minute.length) {
+            int length = sampleRate * (talking ? 2 + random.nextInt(6) : 1 + random.nextInt(3));
+            for (int end = Math.min(minute.length, i + length); i < end; i++) {
+                double t = (double) i / sampleRate;
+                double voice = talking
+                        ? Math.max(0, Math.sin(2 * Math.PI * 4 * t)) * Math.sin(2 * Math.PI * 170 * t) * 10_000
+                        : 0;
+                minute[i] = (short) (voice + random.nextGaussian() * 150);
+            }
+            talking = !talking;
+        }
+
+        VoiceActivityDetector detector = new VoiceActivityDetector(sampleRate, 1);
+        feedHour(detector);
+        hourMap = detector.finish();
+
+        WaveformPeaks.Builder peaks = new WaveformPeaks.Builder(WAVEFORM_INTERVAL_MILLIS);
+        for (int s = 0; s < MINUTES * 60_000 / WAVEFORM_INTERVAL_MILLIS; s++) {
+            peaks.add(random.nextFloat());
+        }
+        hourPeaks = peaks.build();
+    }
+
+    @Benchmark
+    public TimeMap detectHour() {
+        VoiceActivityDetector detector = new VoiceActivityDetector(sampleRate, 1);
+        feedHour(detector);
+        return detector.finish();
+    }
+
+    @Benchmark
+    public WaveformPeaks trimHourWaveform() {
+        return hourMap.trim(hourPeaks);
+    }
+
+    private void feedHour(VoiceActivityDetector detector) {
+        ShortBuffer pcm = ShortBuffer.wrap(minute);
+        for (int m = 0; m < MINUTES; m++) {
+            for (int offset = 0; offset < minute.length; offset += DECODER_BLOCK_FRAMES) {
+                pcm.limit(Math.min(minute.length, offset + DECODER_BLOCK_FRAMES)).position(offset);
+                detector.accept(pcm);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.rw3h4.echonotex.core.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic corpora for the benchmarks. Everything is seeded so runs on
+ * different machines measure the same input.
+ */
+final class SyntheticNotes {
+
+    private static final String[] WORDS = {
+            "echo", "note", "voice", "meeting", "idea", "groceries", "call", "tomorrow",
+            "project", "deadline", "remember", "draft", "review", "coffee", "&", "<b>bold</b>",
+            "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "café", "naïve"
+    };
+
+    private SyntheticNotes() {
+    }
+
+    /**
+     * Builds a note body in the format the editor saves: paragraphs with br line
+     * breaks and an inline image every {@code imageEvery} paragraphs.
+     */
+    static String html(int targetChars, int imageEvery, long seed) {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder(targetChars + 256);
+        int paragraph = 0;
+        while (html.length() < targetChars) {
+            html.append("<p>");
+            int lines = 1 + random.nextInt(3);
+            for (int line = 0; line < lines; line++) {
+                if (line > 0) html.append("<br>");
+                int words = 5 + random.nextInt(20);
+                for (int w = 0; w < words; w++) {
+                    if (w > 0) html.append(' ');
+                    html.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+            }
+            html.append("</p>");
+            paragraph++;
+            if (imageEvery > 0 && paragraph % imageEvery == 0) {
+                html.append("<img src=\"content://media/external/images/media/")
+                        .append(random.nextInt(100_000))
+                        .append("\" style=\"width:").append(30 + random.nextInt(71))
+                        .append("%; height:auto;\" />");
+            }
+        }
+        return html.toString();
+    }
+
+    /** Minimal stand-in for the Room Note entity. */
+    static final class NoteRow {
+        final long id;
+        final int categoryId;
+        final long lastEdited;
+        final String title;
+
+        NoteRow(long id, int categoryId, long lastEdited, String title) {
+            this.id = id;
+            this.categoryId = categoryId;
+            this.lastEdited = lastEdited;
+            this.title = title;
+        }
+
+        NoteRow edited(long when) {
+            return new NoteRow(id, categoryId, when, title);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NoteRow)) return false;
+            NoteRow other = (NoteRow) o;
+            return id == other.id && categoryId == other.categoryId
+                    && lastEdited == other.lastEdited && title.equals(other.title);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+    }
+
+    static final class CategoryRow {
+        final int id;
+        final String name;
+
+        CategoryRow(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static List<NoteRow> notes(int count, int categoryCount, long seed) {
+        Random random = new Random(seed);
+        List<NoteRow> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // A few notes point at a category that no longer exists
+            int categoryId = 1 + random.nextInt(categoryCount + 2);
+            notes.add(new NoteRow(i + 1, categoryId, 1_700_000_000_000L + i, "Note " + i));
+        }
+        return notes;
+    }
+
+    static List<CategoryRow> categories(int count) {
+        List<CategoryRow> categories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            categories.add(new CategoryRow(i + 1, "Category " + i));
+        }
+        return categories;
+    }
+}
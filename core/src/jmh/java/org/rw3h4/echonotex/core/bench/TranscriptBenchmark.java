@@ -0,0 +1,82 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rw3h4.echonotex.core.note.TranscriptBuffer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dictation session replayed as the recognizer delivers it: each utterance
+ * arrives as a run of growing partials and then its final result. The whole
+ * transcript as one string, rebuilt for every partial, against the segment
+ * buffer. Sessions are given in minutes, at about one utterance every 4 s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TranscriptBenchmark {
+
+    private static final int UTTERANCES_PER_MINUTE = 15;
+    private static final String[] WORDS = {
+            "the", "meeting", "moved", "to", "thursday", "so", "we", "need", "budget", "numbers",
+            "before", "then", "and", "a", "draft", "of", "slides", "from", "marketing", "please"
+    };
+
+    @Param({"10", "60"})
+    public int minutes;
+
+    // utterances[u][p]: the p-th partial of utterance u; the last one is the final result
+    private String[][] utterances;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(5L);
+        utterances = new String[minutes * UTTERANCES_PER_MINUTE][];
+        for (int u = 0; u < utterances.length; u++) {
+            int words = 6 + random.nextInt(10);
+            utterances[u] = new String[words];
+            StringBuilder said = new StringBuilder();
+            for (int w = 0; w < words; w++) {
+                if (w > 0) said.append(' ');
+                said.append(WORDS[random.nextInt(WORDS.length)]);
+                utterances[u][w] = said.toString();
+            }
+        }
+    }
+
+    @Benchmark
+    public void concatenated(Blackhole blackhole) {
+        String confirmed = "";
+        for (String[] partials : utterances) {
+            for (String partial : partials) {
+                String separator = confirmed.isEmpty() ? "" : " ";
+                blackhole.consume(confirmed + separator + partial);
+            }
+            String separator = confirmed.isEmpty() ? "" : " ";
+            confirmed += separator + partials[partials.length - 1];
+            blackhole.consume(confirmed);
+        }
+    }
+
+    @Benchmark
+    public void segmented(Blackhole blackhole) {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        for (String[] partials : utterances) {
+            for (String partial : partials) {
+                transcript.setPartial(partial);
+                blackhole.consume(transcript.getPartial());
+            }
+            blackhole.consume(transcript.commit(partials[partials.length - 1]));
+        }
+        blackhole.consume(transcript.toText());
+    }
+}
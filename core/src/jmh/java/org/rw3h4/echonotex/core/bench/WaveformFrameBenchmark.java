@@ -0,0 +1,78 @@
+package org.rw3h4.echonotex.core.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rw3h4.echonotex.core.waveform.AmplitudeRingBuffer;
+import org.rw3h4.echonotex.core.waveform.WaveformBars;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU side of one waveform frame on a 1080px wide view: working out every bar's
+ * rectangle. The old Compose path took takeLast() of the whole boxed history and
+ * the old View allocated a rect per bar; WaveformBars reuses its arrays.
+ * Run with -prof gc to see the allocation rate per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveformFrameBenchmark {
+
+    private static final float WIDTH = 1080f;
+    private static final float HEIGHT = 300f;
+    private static final float BAR_WIDTH = 9f;
+    private static final float BAR_GAP = 6f;
+
+    // One sample per 100 ms: a minute and an hour of recording
+    @Param({"600", "36000"})
+    public int sampleCount;
+
+    private List<Float> boxedHistory;
+    private AmplitudeRingBuffer ring;
+    private WaveformBars bars;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(5L);
+        boxedHistory = new ArrayList<>(sampleCount);
+        ring = new AmplitudeRingBuffer(1024);
+        for (int i = 0; i < sampleCount; i++) {
+            float amplitude = random.nextFloat();
+            boxedHistory.add(amplitude);
+            ring.add(amplitude);
+        }
+        bars = new WaveformBars(BAR_WIDTH, BAR_GAP);
+    }
+
+    @Benchmark
+    public void boxedTakeLastWithRectPerBar(Blackhole blackhole) {
+        int maxBars = (int) (WIDTH / (BAR_WIDTH + BAR_GAP));
+        int from = Math.max(0, boxedHistory.size() - maxBars);
+        List<Float> visible = new ArrayList<>(boxedHistory.subList(from, boxedHistory.size()));
+        float right = WIDTH;
+        for (int i = visible.size() - 1; i >= 0; i--) {
+            float barHeight = Math.max(BAR_WIDTH, visible.get(i) * HEIGHT);
+            float top = (HEIGHT - barHeight) / 2;
+            blackhole.consume(new float[]{right - BAR_WIDTH, top, right, top + barHeight});
+            right -= BAR_WIDTH + BAR_GAP;
+        }
+    }
+
+    @Benchmark
+    public void waveformBars(Blackhole blackhole) {
+        int count = bars.layout(ring, WIDTH, HEIGHT);
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(bars.getTop(i));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Evens out recording levels, so a quiet speaker or a phone held at arm's length
+ * comes out about as loud as someone talking right into it. The gain follows
+ * each block's RMS toward a target level. It comes down at once if a block
+ * would clip, and goes up slowly so pauses don't pump. Blocks too quiet to be
+ * speech leave the gain where it is, so room noise is never boosted to the
+ * target. Gain changes are ramped across the block to avoid clicks.
+ */
+public final class AutomaticGainControl {
+
+    private static final float TARGET_RMS = Pcm.dbToLinear(-20f);
+    private static final float ACTIVITY_RMS = Pcm.dbToLinear(-50f);
+    private static final float MAX_GAIN = Pcm.dbToLinear(24f);
+    private static final float MIN_GAIN = Pcm.dbToLinear(-12f);
+    // Leave a little headroom below full scale for the encoder
+    private static final float PEAK_CEILING = 0.95f;
+    private static final float RISE_DB_PER_SECOND = 6f;
+    // Share of the way to a lower target covered per block
+    private static final float FALL_PER_BLOCK = 0.5f;
+
+    private final int channelCount;
+    private final int sampleRate;
+    private float gain = 1f;
+
+    public AutomaticGainControl(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad PCM format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /** The gain applied at the end of the last block, as a factor. */
+    public float getGain() { return gain; }
+
+    /** Applies gain to the samples between the buffer's position and limit, in place. */
+    public void process(ShortBuffer pcm) {
+        int start = pcm.position();
+        int end = pcm.limit();
+        if (end <= start) return;
+
+        float rms = Pcm.rms(pcm);
+        int peak = 0;
+        for (int i = start; i < end; i++) {
+            int sample = pcm.get(i);
+            int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > peak) peak = magnitude;
+        }
+
+        float previous = gain;
+        float next = gain;
+        if (rms >= ACTIVITY_RMS) {
+            float wanted = Math.max(MIN_GAIN, Math.min(MAX_GAIN, TARGET_RMS / rms));
+            if (wanted > gain) {
+                float seconds = (float) ((end - start) / channelCount) / sampleRate;
+                next = Math.min(wanted, gain * Pcm.dbToLinear(RISE_DB_PER_SECOND * seconds));
+            } else {
+                next = gain + (wanted - gain) * FALL_PER_BLOCK;
+            }
+        }
+        float ceiling = peak == 0 ? MAX_GAIN : PEAK_CEILING * Pcm.FULL_SCALE / peak;
+        if (next > ceiling) {
+            // Would clip: drop straight to a safe gain for the whole block
+            next = Math.max(MIN_GAIN, ceiling);
+            previous = next;
+        }
+        gain = next;
+        Pcm.applyRamp(pcm, channelCount, previous, next);
+    }
+
+    public void reset() {
+        gain = 1f;
+    }
+}
@@ -0,0 +1,124 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+import java.util.function.LongSupplier;
+
+/**
+ * The processing captured audio goes through before it's metered and encoded:
+ * high-pass, then automatic gain, then noise gate. Each stage works on the
+ * block in place and allocates nothing, so the chain can run on the capture
+ * thread.
+ * <p>
+ * Stages can be switched on and off from any thread while recording; a stage
+ * that comes back on starts from fresh state. Each block is timed against a
+ * budget, a share of the block's own duration. If the chain stays over budget
+ * for a run of blocks (about 200 ms of audio) it switches itself off, so on a
+ * device too slow for it the audio comes through unprocessed instead of being
+ * dropped. While off it tries the chain again on one block every second or so,
+ * and switches back on once that block comes in under budget, so a stall from
+ * another app doesn't cost the rest of the recording. Timings go to
+ * {@link CaptureStats}.
+ */
+public final class CaptureDsp {
+
+    private static final float HIGH_PASS_HZ = 80f;
+    // The capture thread also meters and queues each block; leave it most of the time
+    private static final double BUDGET_SHARE = 0.25;
+    private static final int MAX_BLOCKS_OVER_BUDGET = 10;
+    private static final int BLOCKS_BETWEEN_RETRIES = 50;
+
+    private final HighPassFilter highPass;
+    private final AutomaticGainControl gain;
+    private final NoiseGate gate;
+    private final CaptureStats stats;
+    private final long sampleRate;
+    private final int channelCount;
+    private final LongSupplier nanoClock;
+
+    private volatile boolean highPassEnabled;
+    private volatile boolean gainEnabled;
+    private volatile boolean gateEnabled;
+
+    // Capture thread only: what the last block ran with
+    private boolean highPassActive;
+    private boolean gainActive;
+    private boolean gateActive;
+    private int blocksOverBudget;
+    private boolean bypassed;
+    private int blocksBypassed;
+
+    public CaptureDsp(int sampleRate, int channelCount, CaptureStats stats) {
+        this(sampleRate, channelCount, stats, System::nanoTime);
+    }
+
+    // Tests time the chain with their own clock
+    CaptureDsp(int sampleRate, int channelCount, CaptureStats stats, LongSupplier nanoClock) {
+        highPass = new HighPassFilter(sampleRate, channelCount, HIGH_PASS_HZ);
+        gain = new AutomaticGainControl(sampleRate, channelCount);
+        gate = new NoiseGate(sampleRate, channelCount);
+        this.stats = stats;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.nanoClock = nanoClock;
+    }
+
+    public void setHighPassEnabled(boolean enabled) { highPassEnabled = enabled; }
+
+    public void setGainEnabled(boolean enabled) { gainEnabled = enabled; }
+
+    public void setGateEnabled(boolean enabled) { gateEnabled = enabled; }
+
+    public boolean isAnyEnabled() { return highPassEnabled || gainEnabled || gateEnabled; }
+
+    /** Capture thread: processes the samples between the buffer's position and limit, in place. */
+    public void process(ShortBuffer pcm) {
+        if (bypassed && ++blocksBypassed < BLOCKS_BETWEEN_RETRIES) return;
+        boolean highPassOn = highPassEnabled;
+        boolean gainOn = gainEnabled;
+        boolean gateOn = gateEnabled;
+        if (!highPassOn && !gainOn && !gateOn) {
+            highPassActive = gainActive = gateActive = false;
+            return;
+        }
+
+        long start = nanoClock.getAsLong();
+        if (highPassOn) {
+            if (!highPassActive) highPass.reset();
+            highPass.process(pcm);
+        }
+        if (gainOn) {
+            if (!gainActive) gain.reset();
+            gain.process(pcm);
+        }
+        if (gateOn) {
+            if (!gateActive) gate.reset();
+            gate.process(pcm);
+        }
+        highPassActive = highPassOn;
+        gainActive = gainOn;
+        gateActive = gateOn;
+        long elapsed = nanoClock.getAsLong() - start;
+
+        long frames = (pcm.limit() - pcm.position()) / channelCount;
+        long budgetNanos = (long) (frames * 1_000_000_000L / sampleRate * BUDGET_SHARE);
+        boolean overBudget = elapsed > budgetNanos;
+        stats.recordDsp(elapsed, overBudget);
+        if (bypassed) {
+            blocksBypassed = 0;
+            if (!overBudget) {
+                bypassed = false;
+                blocksOverBudget = 0;
+                stats.recordDspResumed();
+            }
+            return;
+        }
+        blocksOverBudget = overBudget ? blocksOverBudget + 1 : 0;
+        if (blocksOverBudget >= MAX_BLOCKS_OVER_BUDGET) {
+            bypassed = true;
+            blocksBypassed = 0;
+            // Stages pick up from fresh state on the next try, not from seconds ago
+            highPassActive = gainActive = gateActive = false;
+            stats.recordDspBypassed();
+        }
+    }
+}
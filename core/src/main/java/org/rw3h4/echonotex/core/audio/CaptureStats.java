@@ -0,0 +1,128 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.util.Locale;
+
+/**
+ * Health counters for one recording: blocks dropped because the encoder fell
+ * behind and the audio they held, failed reads, how long the mic took to deliver its first sample, how
+ * long captured audio waited to come out of the encoder, and what the capture
+ * DSP cost per block.
+ * <p>
+ * The DSP figures are the evidence that processing never costs audio. While
+ * the slowest block took less than a block's length of audio, the capture
+ * thread kept pace with the mic, so any overrun was down to the encoder.
+ * <p>
+ * Each counter has a single writer (the capture or the encoder thread), and the
+ * fields are volatile so the UI can read them while recording.
+ */
+public final class CaptureStats {
+
+    private volatile long overruns;
+    private volatile long droppedFrames;
+    private volatile long readErrors;
+    private volatile long blocksCaptured;
+    private volatile long firstSampleNanos = -1;
+
+    private volatile long encodedBlocks;
+    private volatile long totalEncoderLatencyNanos;
+    private volatile long maxEncoderLatencyNanos;
+
+    private volatile long dspBlocks;
+    private volatile long totalDspNanos;
+    private volatile long maxDspNanos;
+    private volatile long dspOverBudget;
+    private volatile long dspBypasses;
+    private volatile boolean dspBypassed;
+
+    /** Capture thread: a block was dropped because no buffer was free. */
+    public void recordOverrun() {
+        overruns++;
+    }
+
+    /** Capture thread: the audio of a dropped block; the recording has silence in its place. */
+    public void recordDroppedFrames(long frames) {
+        droppedFrames += frames;
+    }
+
+    /** Capture thread: the recorder returned an error instead of audio. */
+    public void recordReadError() {
+        readErrors++;
+    }
+
+    /** Capture thread: a block was read; the first one also sets the time to first sample. */
+    public void recordBlock(long nanosSinceStart) {
+        if (blocksCaptured++ == 0) firstSampleNanos = nanosSinceStart;
+    }
+
+    /** Encoder thread: an encoded frame came out this long after its audio was captured. */
+    public void recordEncoderLatency(long nanos) {
+        encodedBlocks++;
+        totalEncoderLatencyNanos += nanos;
+        if (nanos > maxEncoderLatencyNanos) maxEncoderLatencyNanos = nanos;
+    }
+
+    /** Capture thread: the DSP chain took this long on a block, and whether that was over its budget. */
+    public void recordDsp(long nanos, boolean overBudget) {
+        dspBlocks++;
+        totalDspNanos += nanos;
+        if (nanos > maxDspNanos) maxDspNanos = nanos;
+        if (overBudget) dspOverBudget++;
+    }
+
+    /** Capture thread: the DSP chain ran over budget too long and switched itself off. */
+    public void recordDspBypassed() {
+        dspBypasses++;
+        dspBypassed = true;
+    }
+
+    /** Capture thread: a retry of the bypassed DSP chain came in under budget, so it's back on. */
+    public void recordDspResumed() {
+        dspBypassed = false;
+    }
+
+    public long getOverruns() { return overruns; }
+
+    /** Frames of captured audio lost to overruns, replaced by silence. */
+    public long getDroppedFrames() { return droppedFrames; }
+
+    public long getReadErrors() { return readErrors; }
+
+    public long getBlocksCaptured() { return blocksCaptured; }
+
+    /** -1 until the first block arrives. */
+    public long getFirstSampleNanos() { return firstSampleNanos; }
+
+    public long getMaxEncoderLatencyNanos() { return maxEncoderLatencyNanos; }
+
+    public long getAverageEncoderLatencyNanos() {
+        long blocks = encodedBlocks;
+        return blocks == 0 ? 0 : totalEncoderLatencyNanos / blocks;
+    }
+
+    public long getDspBlocks() { return dspBlocks; }
+
+    public long getMaxDspNanos() { return maxDspNanos; }
+
+    public long getDspOverBudget() { return dspOverBudget; }
+
+    /** How many times the DSP chain switched itself off. */
+    public long getDspBypasses() { return dspBypasses; }
+
+    /** Whether the DSP chain is switched off right now. */
+    public boolean isDspBypassed() { return dspBypassed; }
+
+    public long getAverageDspNanos() {
+        long blocks = dspBlocks;
+        return blocks == 0 ? 0 : totalDspNanos / blocks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "blocks=%d overruns=%d droppedFrames=%d readErrors=%d firstSample=%.1fms encoderLatency avg=%.1fms max=%.1fms"
+                        + " dsp avg=%.3fms max=%.3fms overBudget=%d bypasses=%d bypassed=%b",
+                blocksCaptured, overruns, droppedFrames, readErrors, firstSampleNanos / 1e6,
+                getAverageEncoderLatencyNanos() / 1e6, maxEncoderLatencyNanos / 1e6,
+                getAverageDspNanos() / 1e6, maxDspNanos / 1e6, dspOverBudget, dspBypasses, dspBypassed);
+    }
+}
@@ -0,0 +1,65 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Second-order Butterworth high-pass, for taking out rumble, handling noise and
+ * wind below the voice. One biquad per channel, run in place on 16-bit PCM.
+ */
+public final class HighPassFilter {
+
+    private final int channelCount;
+    private final float b0;
+    private final float b1;
+    private final float b2;
+    private final float a1;
+    private final float a2;
+    // Last two inputs and outputs of each channel
+    private final float[] x1;
+    private final float[] x2;
+    private final float[] y1;
+    private final float[] y2;
+
+    public HighPassFilter(int sampleRate, int channelCount, float cutoffHz) {
+        if (sampleRate <= 0 || channelCount <= 0 || cutoffHz <= 0 || cutoffHz >= sampleRate / 2f) {
+            throw new IllegalArgumentException("Bad filter: " + cutoffHz + " Hz at " + sampleRate + " Hz");
+        }
+        this.channelCount = channelCount;
+        // Bilinear transform with Q = 1/sqrt(2), from the Audio EQ Cookbook
+        double w0 = 2 * Math.PI * cutoffHz / sampleRate;
+        double alpha = Math.sin(w0) / Math.sqrt(2);
+        double cos = Math.cos(w0);
+        double a0 = 1 + alpha;
+        b0 = (float) ((1 + cos) / 2 / a0);
+        b1 = (float) (-(1 + cos) / a0);
+        b2 = b0;
+        a1 = (float) (-2 * cos / a0);
+        a2 = (float) ((1 - alpha) / a0);
+        x1 = new float[channelCount];
+        x2 = new float[channelCount];
+        y1 = new float[channelCount];
+        y2 = new float[channelCount];
+    }
+
+    /** Filters the samples between the buffer's position and limit, in place. */
+    public void process(ShortBuffer pcm) {
+        int end = pcm.limit();
+        int channel = 0;
+        for (int i = pcm.position(); i < end; i++) {
+            float x = pcm.get(i);
+            float y = b0 * x + b1 * x1[channel] + b2 * x2[channel] - a1 * y1[channel] - a2 * y2[channel];
+            x2[channel] = x1[channel];
+            x1[channel] = x;
+            y2[channel] = y1[channel];
+            y1[channel] = y;
+            pcm.put(i, Pcm.clamp(y));
+            if (++channel == channelCount) channel = 0;
+        }
+    }
+
+    public void reset() {
+        for (int c = 0; c < channelCount; c++) {
+            x1[c] = x2[c] = y1[c] = y2[c] = 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * True peak and RMS metering for 16-bit PCM as it's captured. Every block gets
+ * its own reading, and readings are also rolled up over fixed intervals (exact
+ * frame counts, so they don't drift) for the waveform. Levels are 0..1 of full
+ * scale. Keeps a handful of counters and allocates nothing. Not thread safe; use
+ * it from the capture thread.
+ */
+public final class LevelMeter {
+
+    private static final float FULL_SCALE = 32767f;
+
+    /** Called from {@link #accept} each time an interval completes. */
+    public interface Listener {
+        void onLevel(float peak, float rms);
+    }
+
+    private final int channelCount;
+    private final long sampleRate;
+    private final long intervalMillis;
+    private final Listener listener;
+
+    private float blockPeak;
+    private float blockRms;
+
+    private long frames;
+    private long interval;
+    private long intervalEnd;
+    private long intervalStart;
+    private int intervalPeak;
+    private double intervalSquares;
+
+    public LevelMeter(int sampleRate, int channelCount, int intervalMillis, Listener listener) {
+        if (sampleRate <= 0 || channelCount <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Bad meter format: " + sampleRate + " Hz, "
+                    + channelCount + " channels, " + intervalMillis + " ms");
+        }
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.intervalMillis = intervalMillis;
+        this.listener = listener;
+        reset();
+    }
+
+    /** Peak of the last block passed to {@link #accept}, across all channels. */
+    public float getBlockPeak() { return blockPeak; }
+
+    /** RMS of the last block passed to {@link #accept}, across all channels. */
+    public float getBlockRms() { return blockRms; }
+
+    /**
+     * Measures the samples between the buffer's position and limit. The position
+     * isn't moved, so the same buffer can go on to the encoder.
+     */
+    public void accept(ShortBuffer pcm) {
+        int end = pcm.limit();
+        int channel = 0;
+        int peak = 0;
+        double squares = 0;
+        int framePeak = intervalPeak;
+        double frameSquares = intervalSquares;
+
+        for (int i = pcm.position(); i < end; i++) {
+            int sample = pcm.get(i);
+            int magnitude = sample < 0 ? -sample : sample;
+            double square = (double) sample * sample;
+            if (magnitude > peak) peak = magnitude;
+            squares += square;
+            if (magnitude > framePeak) framePeak = magnitude;
+            frameSquares += square;
+
+            if (++channel == channelCount) {
+                channel = 0;
+                if (++frames == intervalEnd) {
+                    long samples = (intervalEnd - intervalStart) * channelCount;
+                    listener.onLevel(framePeak / FULL_SCALE, (float) Math.sqrt(frameSquares / samples) / FULL_SCALE);
+                    framePeak = 0;
+                    frameSquares = 0;
+                    intervalStart = intervalEnd;
+                    intervalEnd = endOfInterval(++interval);
+                }
+            }
+        }
+
+        intervalPeak = framePeak;
+        intervalSquares = frameSquares;
+        int count = end - pcm.position();
+        blockPeak = Math.min(1f, peak / FULL_SCALE);
+        blockRms = count == 0 ? 0f : (float) Math.sqrt(squares / count) / FULL_SCALE;
+    }
+
+    public void reset() {
+        blockPeak = 0f;
+        blockRms = 0f;
+        frames = 0;
+        interval = 0;
+        intervalStart = 0;
+        intervalEnd = endOfInterval(0);
+        intervalPeak = 0;
+        intervalSquares = 0;
+    }
+
+    private long endOfInterval(long index) {
+        return ((index + 1) * intervalMillis * sampleRate + 999) / 1000;
+    }
+}
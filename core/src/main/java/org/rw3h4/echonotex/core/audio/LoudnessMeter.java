@@ -0,0 +1,266 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Measures how loud a recording sounds, the way ITU-R BS.1770 / EBU R128 do it,
+ * so notes can be played back at a matching level. Samples are K-weighted (a
+ * high shelf and a high-pass, roughly how the ear weighs frequencies) and
+ * averaged over 400 ms blocks every 100 ms. Integrated loudness is the mean of
+ * the blocks that pass two gates: an absolute one at -70 LUFS, then one 10 LU
+ * below the loudness of everything above the first, so pauses don't drag the
+ * figure down. True peak is the highest sample after 4x oversampling, which
+ * catches the overs that appear between samples once the audio is converted
+ * back to analogue (or resampled, or gained up).
+ * <p>
+ * Streams: feed PCM with {@link #accept} as it's decoded, then {@link #finish}.
+ * Blocks go into a histogram with 0.1 LU bins instead of a list, so memory
+ * stays the same however long the recording is. Not thread safe.
+ */
+public final class LoudnessMeter {
+
+    /** What a recording with nothing above the absolute gate measures as. */
+    public static final double SILENCE_LUFS = -70;
+
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final double BLOCK_OFFSET = -0.691;
+    private static final int HOPS_PER_BLOCK = 4;
+
+    // Histogram of block loudness from the absolute gate up; full scale is about +3
+    private static final double BIN_LU = 0.1;
+    private static final int BINS = (int) ((10 - SILENCE_LUFS) / BIN_LU);
+
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    private static final double[][] PHASES = interpolationPhases();
+    // Most an interpolated sample can exceed the largest sample in its window by
+    private static final double MAX_OVERSHOOT = maxOvershoot();
+
+    private final int channelCount;
+    private final int hopFrames;
+
+    // K-weighting: stage 1 high shelf, stage 2 high-pass; b0..a2 then per channel state
+    private final double sb0, sb1, sb2, sa1, sa2;
+    private final double ha1, ha2;
+    private final double[] shelfState;
+    private final double[] passState;
+
+    // Hops of 100 ms: energy of each of the last four, and of the one being filled
+    private final double[] hopEnergy = new double[HOPS_PER_BLOCK];
+    private int hopsSeen;
+    private double energy;
+    private int hopSamples;
+    private int channel;
+
+    private final long[] binCounts = new long[BINS];
+    private final double[] binEnergy = new double[BINS];
+
+    // Last samples of each channel, twice over so a window never wraps
+    private final double[] history;
+    private int historyPos;
+    // Per channel: how many more samples the window holds one that could set a new peak
+    private final int[] hot;
+    private int samplePeak;
+    private double truePeak;
+
+    private boolean finished;
+
+    public LoudnessMeter(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad PCM format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.channelCount = channelCount;
+        this.hopFrames = Math.max(1, sampleRate / 10);
+
+        // Coefficients from BS.1770's 48 kHz filters, redone for this rate
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        sb0 = (vh + vb * k / q + k * k) / a0;
+        sb1 = 2 * (k * k - vh) / a0;
+        sb2 = (vh - vb * k / q + k * k) / a0;
+        sa1 = 2 * (k * k - 1) / a0;
+        sa2 = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        ha1 = 2 * (k * k - 1) / a0;
+        ha2 = (1 - k / q + k * k) / a0;
+
+        shelfState = new double[channelCount * 2];
+        passState = new double[channelCount * 2];
+        history = new double[channelCount * TAPS_PER_PHASE * 2];
+        hot = new int[channelCount];
+    }
+
+    /** Consumes interleaved samples from the buffer's position to its limit. */
+    public void accept(ShortBuffer pcm) {
+        if (finished) throw new IllegalStateException("Already finished");
+        while (pcm.hasRemaining()) {
+            int sample = pcm.get();
+            int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > samplePeak) samplePeak = magnitude;
+
+            double x = sample / 32768.0;
+            weigh(x);
+            oversample(x);
+
+            if (++channel < channelCount) continue;
+            channel = 0;
+            historyPos = historyPos == TAPS_PER_PHASE - 1 ? 0 : historyPos + 1;
+            if (++hopSamples == hopFrames) endHop();
+        }
+    }
+
+    /** Counts a last short block if the recording was too short for a whole one. */
+    public void finish() {
+        if (finished) return;
+        finished = true;
+        if (hopsSeen < HOPS_PER_BLOCK && (hopsSeen > 0 || hopSamples > 0)) {
+            double total = energy;
+            for (int i = 0; i < hopsSeen; i++) total += hopEnergy[i];
+            addBlock(total / ((long) hopsSeen * hopFrames + hopSamples));
+        }
+    }
+
+    /** Gated loudness of everything so far, in LUFS; {@link #SILENCE_LUFS} if nothing passed the gate. */
+    public double getIntegratedLufs() {
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            count += binCounts[i];
+            sum += binEnergy[i];
+        }
+        if (count == 0) return SILENCE_LUFS;
+
+        double threshold = loudness(sum / count) + RELATIVE_GATE_LU;
+        int first = Math.max(0, binOf(threshold));
+        count = 0;
+        sum = 0;
+        for (int i = first; i < BINS; i++) {
+            count += binCounts[i];
+            sum += binEnergy[i];
+        }
+        return count == 0 ? SILENCE_LUFS : Math.max(SILENCE_LUFS, loudness(sum / count));
+    }
+
+    /** Highest oversampled level, in dB relative to full scale; negative infinity for digital silence. */
+    public double getTruePeakDbtp() {
+        // The interpolator can undershoot a lone full-scale sample; never report below the sample peak
+        double peak = Math.max(truePeak, samplePeak / 32768.0);
+        return 20 * Math.log10(peak);
+    }
+
+    /**
+     * Gain in dB that brings a recording measured at {@code lufs} to
+     * {@code targetLufs}, held within {@code maxCutDb} and {@code maxBoostDb} and
+     * cut back so its true peak stays at or below {@code ceilingDbtp}.
+     */
+    public static float normalizationGainDb(double lufs, double truePeakDbtp, double targetLufs,
+                                            double maxCutDb, double maxBoostDb, double ceilingDbtp) {
+        double gain = Math.max(-maxCutDb, Math.min(maxBoostDb, targetLufs - lufs));
+        if (truePeakDbtp + gain > ceilingDbtp) gain = Math.max(-maxCutDb, ceilingDbtp - truePeakDbtp);
+        return (float) gain;
+    }
+
+    private void weigh(double x) {
+        int s = channel * 2;
+        // Transposed direct form II, one biquad after the other
+        double shelved = sb0 * x + shelfState[s];
+        shelfState[s] = sb1 * x - sa1 * shelved + shelfState[s + 1];
+        shelfState[s + 1] = sb2 * x - sa2 * shelved;
+
+        double passed = shelved + passState[s];
+        passState[s] = -2 * shelved - ha1 * passed + passState[s + 1];
+        passState[s + 1] = shelved - ha2 * passed;
+
+        energy += passed * passed;
+    }
+
+    private void oversample(double x) {
+        int base = channel * TAPS_PER_PHASE * 2;
+        history[base + historyPos] = x;
+        history[base + historyPos + TAPS_PER_PHASE] = x;
+        // Most of the time nothing in the window is loud enough to beat the peak so
+        // far, even with the worst overshoot, and the interpolation can be skipped
+        if ((x < 0 ? -x : x) * MAX_OVERSHOOT > truePeak) {
+            hot[channel] = TAPS_PER_PHASE;
+        } else if (hot[channel] == 0) {
+            return;
+        }
+        hot[channel]--;
+        // Newest sample last: the window is historyPos + 1 .. historyPos + TAPS_PER_PHASE
+        int start = base + historyPos + 1;
+        double peak = truePeak;
+        for (double[] phase : PHASES) {
+            double y = 0;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                y += phase[t] * history[start + t];
+            }
+            if (y < 0) y = -y;
+            if (y > peak) peak = y;
+        }
+        truePeak = peak;
+    }
+
+    private void endHop() {
+        hopEnergy[hopsSeen % HOPS_PER_BLOCK] = energy;
+        hopsSeen++;
+        energy = 0;
+        hopSamples = 0;
+        if (hopsSeen < HOPS_PER_BLOCK) return;
+        double total = 0;
+        for (double e : hopEnergy) total += e;
+        addBlock(total / ((long) HOPS_PER_BLOCK * hopFrames));
+    }
+
+    private void addBlock(double meanSquare) {
+        int bin = binOf(loudness(meanSquare));
+        if (bin < 0) return;
+        bin = Math.min(bin, BINS - 1);
+        binCounts[bin]++;
+        binEnergy[bin] += meanSquare;
+    }
+
+    private static double loudness(double meanSquare) {
+        return BLOCK_OFFSET + 10 * Math.log10(meanSquare);
+    }
+
+    private static int binOf(double lufs) {
+        if (!(lufs >= SILENCE_LUFS)) return -1;
+        return (int) ((lufs - SILENCE_LUFS) / BIN_LU);
+    }
+
+    /** Windowed-sinc low-pass at the original Nyquist, split into one filter per output phase. */
+    private static double[][] interpolationPhases() {
+        int length = OVERSAMPLING * TAPS_PER_PHASE;
+        double center = (length - 1) / 2.0;
+        double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+        for (int n = 0; n < length; n++) {
+            double t = (n - center) / OVERSAMPLING;
+            double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+            double window = 0.5 + 0.5 * Math.cos(Math.PI * (n - center) / (center + 1));
+            // Taps run oldest sample first, so reverse them within each phase
+            phases[n % OVERSAMPLING][TAPS_PER_PHASE - 1 - n / OVERSAMPLING] = sinc * window;
+        }
+        for (double[] phase : phases) {
+            double sum = 0;
+            for (double tap : phase) sum += tap;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) phase[t] /= sum;
+        }
+        return phases;
+    }
+
+    private static double maxOvershoot() {
+        double max = 0;
+        for (double[] phase : PHASES) {
+            double sum = 0;
+            for (double tap : phase) sum += Math.abs(tap);
+            max = Math.max(max, sum);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,60 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Turns the background down between phrases. The gate opens as soon as a
+ * block's RMS passes the open threshold. It only closes after the level has
+ * stayed below a lower threshold for a hold time, so word endings and short
+ * breaths aren't chopped. Closed means attenuated rather than muted, which
+ * sounds less like the line went dead. Level changes are ramped across a block.
+ */
+public final class NoiseGate {
+
+    private static final float OPEN_RMS = Pcm.dbToLinear(-45f);
+    private static final float CLOSE_RMS = Pcm.dbToLinear(-50f);
+    private static final float CLOSED_GAIN = Pcm.dbToLinear(-20f);
+    private static final int HOLD_MILLIS = 200;
+
+    private final int channelCount;
+    private final long holdFrames;
+    private boolean open = true;
+    private long quietFrames;
+    private float gain = 1f;
+
+    public NoiseGate(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad PCM format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.channelCount = channelCount;
+        this.holdFrames = (long) sampleRate * HOLD_MILLIS / 1000;
+    }
+
+    public boolean isOpen() { return open; }
+
+    /** Gates the samples between the buffer's position and limit, in place. */
+    public void process(ShortBuffer pcm) {
+        int frames = (pcm.limit() - pcm.position()) / channelCount;
+        if (frames == 0) return;
+
+        float rms = Pcm.rms(pcm);
+        if (rms >= OPEN_RMS) {
+            open = true;
+            quietFrames = 0;
+        } else if (rms < CLOSE_RMS) {
+            quietFrames += frames;
+            if (quietFrames >= holdFrames) open = false;
+        }
+
+        float target = open ? 1f : CLOSED_GAIN;
+        if (target == 1f && gain == 1f) return;
+        Pcm.applyRamp(pcm, channelCount, gain, target);
+        gain = target;
+    }
+
+    public void reset() {
+        open = true;
+        quietFrames = 0;
+        gain = 1f;
+    }
+}
@@ -0,0 +1,54 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+
+/** Small helpers for 16-bit PCM shared by the capture stages. */
+final class Pcm {
+
+    static final float FULL_SCALE = 32767f;
+
+    private Pcm() {
+    }
+
+    /** Rounds to the nearest sample value, saturating instead of wrapping. */
+    static short clamp(float value) {
+        if (value >= 32767f) return Short.MAX_VALUE;
+        if (value <= -32768f) return Short.MIN_VALUE;
+        return (short) Math.round(value);
+    }
+
+    /** RMS of the samples between position and limit, 0..1 of full scale. */
+    static float rms(ShortBuffer pcm) {
+        int end = pcm.limit();
+        int start = pcm.position();
+        if (end <= start) return 0f;
+        long squares = 0;
+        for (int i = start; i < end; i++) {
+            int sample = pcm.get(i);
+            squares += sample * sample;
+        }
+        return (float) Math.sqrt((double) squares / (end - start)) / FULL_SCALE;
+    }
+
+    /** Multiplies the samples by a gain that moves linearly from one value to another across them. */
+    static void applyRamp(ShortBuffer pcm, int channelCount, float from, float to) {
+        int start = pcm.position();
+        int end = pcm.limit();
+        int frames = (end - start) / channelCount;
+        if (frames == 0) return;
+        float step = (to - from) / frames;
+        float gain = from;
+        int channel = 0;
+        for (int i = start; i < end; i++) {
+            pcm.put(i, clamp(pcm.get(i) * gain));
+            if (++channel == channelCount) {
+                channel = 0;
+                gain += step;
+            }
+        }
+    }
+
+    static float dbToLinear(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+}
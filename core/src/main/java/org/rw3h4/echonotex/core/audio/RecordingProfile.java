@@ -0,0 +1,80 @@
+package org.rw3h4.echonotex.core.audio;
+
+/**
+ * The capture formats a voice note can be recorded in. All are mono AAC-LC in
+ * .m4a, so they play, remux and join the same way; they differ in how much of
+ * the spectrum they keep and how many bits they spend on it.
+ * <p>
+ * Sizes scale with the bitrate and capture CPU (metering, waveform, any
+ * processing on the PCM) with the sample rate. Per minute of audio:
+ * <pre>
+ *   profile    format              nominal size   device size   device encode   LevelMeter (JVM)
+ *   SPEECH     16 kHz, 32 kbps     248 KB         -             -               3.8 ms
+ *   STANDARD   44.1 kHz, 64 kbps   501 KB         -             -               11.1 ms
+ *   HIGH       48 kHz, 128 kbps    983 KB         -             -               12.9 ms
+ * </pre>
+ * The nominal sizes are {@link #estimatedBytesPerMinute()}, worked out from the
+ * bitrate. The last column is RecordingProfileBenchmark in the jmh source set on
+ * a desktop JVM; it times the capture thread's metering only, not the encoder.
+ * <p>
+ * The device columns are blank because they haven't been measured yet. The
+ * instrumented RecordingProfileSizeTest fills them: it encodes one fixed minute
+ * in every profile and in the old fixed format (44.1 kHz at 96 kbps, 741 KB
+ * nominal) with the device's AAC encoder, and logs a row per profile in this
+ * layout.
+ * <p>
+ * {@link #DEFAULT} is SPEECH, for now on the nominal figures: a third of the
+ * old format's size, and a third of STANDARD's metering work. Speech has next
+ * to nothing above the 8 kHz a 16 kHz capture keeps, so the saving costs no
+ * intelligibility. Revisit it if the device figures disagree.
+ */
+public enum RecordingProfile {
+
+    SPEECH("speech", 16_000, 32_000),
+    STANDARD("standard", 44_100, 64_000),
+    HIGH("high", 48_000, 128_000);
+
+    public static final RecordingProfile DEFAULT = SPEECH;
+
+    // AAC codes 1024 frames per access unit
+    private static final int FRAMES_PER_AAC_UNIT = 1024;
+    // What the MP4 sample tables spend per access unit: size, time and offset entries
+    private static final int CONTAINER_BYTES_PER_UNIT = 8;
+
+    private final String id;
+    private final int sampleRate;
+    private final int bitRate;
+
+    RecordingProfile(String id, int sampleRate, int bitRate) {
+        this.id = id;
+        this.sampleRate = sampleRate;
+        this.bitRate = bitRate;
+    }
+
+    /** Stable name to store with a note; unlike {@link #name()} it survives renaming the constant. */
+    public String getId() { return id; }
+
+    public int getSampleRate() { return sampleRate; }
+
+    public int getChannelCount() { return 1; }
+
+    public int getBitRate() { return bitRate; }
+
+    /**
+     * Nominal size of a minute of audio on disk: the bitrate plus the MP4 sample
+     * tables. Worked out, not measured; RecordingProfileSizeTest measures it on a device.
+     */
+    public long estimatedBytesPerMinute() {
+        double unitsPerSecond = (double) sampleRate / FRAMES_PER_AAC_UNIT;
+        return Math.round(60 * (bitRate / 8.0 + unitsPerSecond * CONTAINER_BYTES_PER_UNIT));
+    }
+
+    /** The profile stored as {@code id}, or null for notes recorded before profiles existed. */
+    public static RecordingProfile fromId(String id) {
+        if (id == null) return null;
+        for (RecordingProfile profile : values()) {
+            if (profile.id.equals(id)) return profile;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,179 @@
+package org.rw3h4.echonotex.core.audio;
+
+import org.rw3h4.echonotex.core.waveform.WaveformPeaks;
+
+import java.util.Arrays;
+
+/**
+ * Which parts of an original recording survive in an edited copy, and so how
+ * times in one map to times in the other. The kept parts are segments of the
+ * original timeline, in order and not overlapping, played back to back.
+ * Anything that was indexed against the original (a transcript, a bookmark)
+ * can be found in the trimmed audio and back. Times are microseconds.
+ */
+public final class TimeMap {
+
+    private static final byte MAGIC_0 = 'T';
+    private static final byte MAGIC_1 = 'M';
+    public static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 2 + 1 + 8 + 4;
+
+    private final long originalDurationUs;
+    private final long[] originalStarts;
+    private final long[] originalEnds;
+    // Where each segment starts in the trimmed audio; one extra entry holds the total
+    private final long[] trimmedStarts;
+
+    private TimeMap(long originalDurationUs, long[] originalStarts, long[] originalEnds) {
+        this.originalDurationUs = originalDurationUs;
+        this.originalStarts = originalStarts;
+        this.originalEnds = originalEnds;
+        trimmedStarts = new long[originalStarts.length + 1];
+        for (int i = 0; i < originalStarts.length; i++) {
+            trimmedStarts[i + 1] = trimmedStarts[i] + originalEnds[i] - originalStarts[i];
+        }
+    }
+
+    /** Collects kept segments in order; touching segments are merged. */
+    public static final class Builder {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int count;
+
+        public Builder add(long originalStartUs, long originalEndUs) {
+            if (originalEndUs <= originalStartUs) return this;
+            if (count > 0 && originalStartUs < ends[count - 1]) {
+                throw new IllegalArgumentException("Segment at " + originalStartUs + " us overlaps the one before");
+            }
+            if (count > 0 && originalStartUs == ends[count - 1]) {
+                ends[count - 1] = originalEndUs;
+                return this;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = originalStartUs;
+            ends[count] = originalEndUs;
+            count++;
+            return this;
+        }
+
+        public TimeMap build(long originalDurationUs) {
+            if (count > 0 && ends[count - 1] > originalDurationUs) {
+                throw new IllegalArgumentException("Segments run past the end of the recording");
+            }
+            return new TimeMap(originalDurationUs, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+        }
+    }
+
+    /** A map that keeps everything. */
+    public static TimeMap identity(long durationUs) {
+        return new Builder().add(0, durationUs).build(durationUs);
+    }
+
+    public int getSegmentCount() { return originalStarts.length; }
+
+    public long getOriginalStartUs(int segment) { return originalStarts[segment]; }
+
+    public long getOriginalEndUs(int segment) { return originalEnds[segment]; }
+
+    public long getOriginalDurationUs() { return originalDurationUs; }
+
+    public long getTrimmedDurationUs() { return trimmedStarts[originalStarts.length]; }
+
+    public long getRemovedUs() { return originalDurationUs - getTrimmedDurationUs(); }
+
+    /** Where a moment of the trimmed audio was in the original. */
+    public long toOriginalUs(long trimmedUs) {
+        int count = originalStarts.length;
+        if (count == 0) return 0;
+        if (trimmedUs <= 0) return originalStarts[0];
+        if (trimmedUs >= getTrimmedDurationUs()) return originalEnds[count - 1];
+        // Last segment starting at or before trimmedUs
+        int segment = Arrays.binarySearch(trimmedStarts, 0, count, trimmedUs);
+        if (segment < 0) segment = -segment - 2;
+        return originalStarts[segment] + trimmedUs - trimmedStarts[segment];
+    }
+
+    /**
+     * Where a moment of the original ended up in the trimmed audio. A moment that
+     * was cut maps to the cut point, where the audio after it now starts.
+     */
+    public long toTrimmedUs(long originalUs) {
+        int segment = Arrays.binarySearch(originalStarts, originalUs);
+        if (segment < 0) segment = -segment - 2;
+        if (segment < 0) return 0;
+        if (originalUs >= originalEnds[segment]) return trimmedStarts[segment + 1];
+        return trimmedStarts[segment] + originalUs - originalStarts[segment];
+    }
+
+    /** The waveform of the trimmed audio, taken from the original's. */
+    public WaveformPeaks trim(WaveformPeaks peaks) {
+        int interval = peaks.getSampleIntervalMillis();
+        long intervalUs = interval * 1000L;
+        WaveformPeaks.Builder trimmed = new WaveformPeaks.Builder(interval);
+        long samples = (getTrimmedDurationUs() + intervalUs - 1) / intervalUs;
+        for (long i = 0; i < samples; i++) {
+            int source = (int) Math.min(toOriginalUs(i * intervalUs) / intervalUs, peaks.getSampleCount() - 1L);
+            if (source < 0) break;
+            trimmed.addRange(peaks.getMin(source), peaks.getMax(source));
+        }
+        return trimmed.build();
+    }
+
+    public byte[] toBytes() {
+        int count = originalStarts.length;
+        byte[] out = new byte[HEADER_SIZE + count * 16];
+        out[0] = MAGIC_0;
+        out[1] = MAGIC_1;
+        out[2] = FORMAT_VERSION;
+        putLong(out, 3, originalDurationUs);
+        putInt(out, 11, count);
+        for (int i = 0; i < count; i++) {
+            putLong(out, HEADER_SIZE + i * 16, originalStarts[i]);
+            putLong(out, HEADER_SIZE + i * 16 + 8, originalEnds[i]);
+        }
+        return out;
+    }
+
+    /** @throws IllegalArgumentException if {@code data} isn't a time map this version can read */
+    public static TimeMap fromBytes(byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+            throw new IllegalArgumentException("Not a time map");
+        }
+        if (data[2] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported time map version " + data[2]);
+        }
+        int count = getInt(data, 11);
+        if (count < 0 || data.length != HEADER_SIZE + (long) count * 16) {
+            throw new IllegalArgumentException("Truncated time map");
+        }
+        Builder builder = new Builder();
+        for (int i = 0; i < count; i++) {
+            builder.add(getLong(data, HEADER_SIZE + i * 16), getLong(data, HEADER_SIZE + i * 16 + 8));
+        }
+        return builder.build(getLong(data, 3));
+    }
+
+    private static void putInt(byte[] out, int pos, int value) {
+        out[pos] = (byte) (value >>> 24);
+        out[pos + 1] = (byte) (value >>> 16);
+        out[pos + 2] = (byte) (value >>> 8);
+        out[pos + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] out, int pos, long value) {
+        putInt(out, pos, (int) (value >>> 32));
+        putInt(out, pos + 4, (int) value);
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+                | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] data, int pos) {
+        return (long) getInt(data, pos) << 32 | (getInt(data, pos + 4) & 0xFFFFFFFFL);
+    }
+}
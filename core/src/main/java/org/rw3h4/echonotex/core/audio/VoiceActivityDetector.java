@@ -0,0 +1,143 @@
+package org.rw3h4.echonotex.core.audio;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the long silences in a recording so they can be cut. Audio is judged in
+ * 20 ms frames by energy against a noise floor that follows the quietest recent
+ * frames, so a hum or a noisy room doesn't count as speech. Speech holds on for
+ * a moment after it stops, and only pauses longer than a second are cut, each
+ * leaving a little silence either side so words aren't clipped and the gaps
+ * still sound natural.
+ * <p>
+ * Streams: feed PCM with {@link #accept} as it's decoded, then {@link #finish}.
+ * Keeps a few counters plus the list of cuts, and allocates nothing else.
+ * Not thread safe.
+ */
+public final class VoiceActivityDetector {
+
+    private static final int FRAME_MILLIS = 20;
+    // Speech is this far above the noise floor...
+    private static final double SPEECH_MARGIN_DB = 12;
+    // ...and never quieter than this, however still the room
+    private static final double MIN_SPEECH_DB = -60;
+    // The floor drops to any quieter frame at once but rises only 1 dB a second
+    private static final double FLOOR_RISE_DB_PER_FRAME = FRAME_MILLIS / 1000.0;
+    private static final int HANGOVER_MILLIS = 300;
+    private static final int MIN_SILENCE_MILLIS = 1000;
+    // Silence left either side of a cut
+    private static final int PADDING_MILLIS = 200;
+
+    private final int channelCount;
+    private final long sampleRate;
+    private final int frameLength;
+    private final int hangoverFrames;
+    private final long minSilenceFrames;
+    private final long paddingFrames;
+
+    // Frame being measured
+    private int frameSamples;
+    private long frameSquares;
+    private int channel;
+
+    private long frames;
+    private double noiseFloorDb = Double.NaN;
+    private int hangover;
+    private boolean heardSpeech;
+    // Start of the current silent run, or -1 while speaking; in sample frames
+    private long silenceStart = 0;
+
+    // Cut spans in sample frames, as (start, end) pairs
+    private long[] cuts = new long[32];
+    private int cutCount;
+
+    public VoiceActivityDetector(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad PCM format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.frameLength = sampleRate * FRAME_MILLIS / 1000;
+        this.hangoverFrames = HANGOVER_MILLIS / FRAME_MILLIS;
+        this.minSilenceFrames = (long) sampleRate * MIN_SILENCE_MILLIS / 1000;
+        this.paddingFrames = (long) sampleRate * PADDING_MILLIS / 1000;
+    }
+
+    /** Consumes interleaved samples from the buffer's position to its limit. */
+    public void accept(ShortBuffer pcm) {
+        while (pcm.hasRemaining()) {
+            int sample = pcm.get();
+            frameSquares += sample * sample;
+            if (++channel < channelCount) continue;
+            channel = 0;
+            if (++frameSamples == frameLength) {
+                endFrame();
+            }
+        }
+    }
+
+    /**
+     * Ends the analysis and returns the parts of the recording to keep. If there
+     * was no speech at all nothing is cut; an empty note is still the user's note.
+     */
+    public TimeMap finish() {
+        frames += frameSamples;
+        long totalUs = toMicros(frames);
+        if (!heardSpeech) return TimeMap.identity(totalUs);
+        if (silenceStart >= 0 && frames - silenceStart >= minSilenceFrames) {
+            addCut(silenceStart + paddingFrames, frames);
+        }
+
+        TimeMap.Builder kept = new TimeMap.Builder();
+        long from = 0;
+        for (int i = 0; i < cutCount; i++) {
+            kept.add(toMicros(from), toMicros(cuts[i * 2]));
+            from = cuts[i * 2 + 1];
+        }
+        kept.add(toMicros(from), totalUs);
+        return kept.build(totalUs);
+    }
+
+    private void endFrame() {
+        double meanSquare = frameSquares / ((double) frameSamples * channelCount);
+        double db = 10 * Math.log10(meanSquare / (32768.0 * 32768.0) + 1e-12);
+        long frameStart = frames;
+        frames += frameSamples;
+        frameSamples = 0;
+        frameSquares = 0;
+
+        noiseFloorDb = Double.isNaN(noiseFloorDb) ? db : Math.min(db, noiseFloorDb + FLOOR_RISE_DB_PER_FRAME);
+        boolean speech = db > MIN_SPEECH_DB && db > noiseFloorDb + SPEECH_MARGIN_DB;
+
+        if (speech) {
+            hangover = hangoverFrames;
+            if (silenceStart >= 0) {
+                long length = frameStart - silenceStart;
+                if (length >= minSilenceFrames) {
+                    // Leading silence has nothing before it to pad
+                    long cutStart = heardSpeech ? silenceStart + paddingFrames : silenceStart;
+                    addCut(cutStart, frameStart - paddingFrames);
+                }
+                silenceStart = -1;
+            }
+            heardSpeech = true;
+        } else if (hangover > 0) {
+            hangover--;
+        } else if (silenceStart < 0) {
+            silenceStart = frameStart;
+        }
+    }
+
+    private void addCut(long start, long end) {
+        if (end <= start) return;
+        if (cutCount * 2 == cuts.length) cuts = Arrays.copyOf(cuts, cuts.length * 2);
+        cuts[cutCount * 2] = start;
+        cuts[cutCount * 2 + 1] = end;
+        cutCount++;
+    }
+
+    private long toMicros(long sampleFrames) {
+        return sampleFrames * 1_000_000L / sampleRate;
+    }
+}
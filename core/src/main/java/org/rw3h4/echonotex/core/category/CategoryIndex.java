@@ -0,0 +1,74 @@
+package org.rw3h4.echonotex.core.category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Lookup from category id to category name, used to attach a category name to
+ * every note in the list. Ids are kept in a sorted int[] so lookups don't box.
+ */
+public final class CategoryIndex {
+
+    public static final String DEFAULT_NAME = "None";
+
+    private final int[] ids;
+    private final String[] names;
+
+    private CategoryIndex(int[] ids, String[] names) {
+        this.ids = ids;
+        this.names = names;
+    }
+
+    public static <C> CategoryIndex of(List<C> categories, ToIntFunction<C> idOf,
+                                       Function<C, String> nameOf) {
+        int size = categories.size();
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            // id in the high bits, original position in the low bits, so one sort orders both
+            packed[i] = ((long) idOf.applyAsInt(categories.get(i)) << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        int[] ids = new int[size];
+        String[] names = new String[size];
+        int count = 0;
+        for (long entry : packed) {
+            int id = (int) (entry >> 32);
+            String name = nameOf.apply(categories.get((int) entry));
+            if (count > 0 && ids[count - 1] == id) {
+                // Same behaviour as filling a HashMap in order: the last one wins
+                names[count - 1] = name;
+            } else {
+                ids[count] = id;
+                names[count] = name;
+                count++;
+            }
+        }
+        return new CategoryIndex(Arrays.copyOf(ids, count), Arrays.copyOf(names, count));
+    }
+
+    public String nameOf(int categoryId) {
+        int index = Arrays.binarySearch(ids, categoryId);
+        return index >= 0 ? names[index] : DEFAULT_NAME;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Pairs every note with its category name, keeping the order of {@code notes}.
+     */
+    public <N, R> List<R> join(List<N> notes, ToIntFunction<N> categoryIdOf,
+                               BiFunction<N, String, R> combiner) {
+        List<R> result = new ArrayList<>(notes.size());
+        for (N note : notes) {
+            result.add(combiner.apply(note, nameOf(categoryIdOf.applyAsInt(note))));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,237 @@
+package org.rw3h4.echonotex.core.editor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered sequence of blocks kept in an implicit treap (a rope over blocks),
+ * so inserting, removing, indexing and finding the position of a block are all
+ * O(log n) instead of copying the whole list on every edit.
+ * <p>
+ * Callers hold on to the {@link Node} returned by {@link #insert} and use it as
+ * a stable handle; its index is recomputed on demand by walking up the tree.
+ * Not thread safe.
+ */
+public final class BlockRope<T> {
+
+    /** Told about every structural change, with the index it happened at. */
+    public interface Listener<T> {
+        void onInserted(int index, T value);
+
+        void onRemoved(int index, T value);
+    }
+
+    public static final class Node<T> {
+        private final T value;
+        private final int priority;
+        private Node<T> left;
+        private Node<T> right;
+        private Node<T> parent;
+        private int size = 1;
+        // Null once the node has been removed
+        private BlockRope<T> owner;
+
+        private Node(T value, int priority, BlockRope<T> owner) {
+            this.value = value;
+            this.priority = priority;
+            this.owner = owner;
+        }
+
+        public T getValue() { return value; }
+    }
+
+    private Node<T> root;
+    private Listener<T> listener;
+    // xorshift state for node priorities; fixed seed keeps runs reproducible
+    private int seed = 0x2545F491;
+
+    // split() results, kept in fields so a split doesn't allocate
+    private Node<T> splitLeft;
+    private Node<T> splitRight;
+
+    public void setListener(Listener<T> listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Node<T> get(int index) {
+        checkIndex(index, size());
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /** Position of {@code node}, or -1 if it isn't in this rope (any more). */
+    public int indexOf(Node<T> node) {
+        if (node == null || node.owner != this) return -1;
+        int index = size(node.left);
+        for (Node<T> child = node, parent = node.parent; parent != null; child = parent, parent = parent.parent) {
+            if (parent.right == child) {
+                index += size(parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    public Node<T> insert(int index, T value) {
+        checkIndex(index, size() + 1);
+        Node<T> node = new Node<>(value, nextPriority(), this);
+        split(root, index);
+        Node<T> right = splitRight;
+        root = merge(merge(splitLeft, node), right);
+        root.parent = null;
+        if (listener != null) listener.onInserted(index, value);
+        return node;
+    }
+
+    public Node<T> add(T value) {
+        return insert(size(), value);
+    }
+
+    public T remove(int index) {
+        Node<T> node = get(index);
+        detach(node);
+        if (listener != null) listener.onRemoved(index, node.value);
+        return node.value;
+    }
+
+    public boolean remove(Node<T> node) {
+        int index = indexOf(node);
+        if (index == -1) return false;
+        detach(node);
+        if (listener != null) listener.onRemoved(index, node.value);
+        return true;
+    }
+
+    /** Empties the rope without notifying the listener. */
+    public void clear() {
+        // Walk the whole tree so stale handles stop resolving to an index
+        for (Node<T> node : nodes()) {
+            node.owner = null;
+        }
+        root = null;
+    }
+
+    public List<T> toList() {
+        List<Node<T>> nodes = nodes();
+        List<T> values = new ArrayList<>(nodes.size());
+        for (Node<T> node : nodes) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    // In-order traversal without recursion, the tree can be deep on unlucky seeds
+    private List<Node<T>> nodes() {
+        List<Node<T>> nodes = new ArrayList<>(size());
+        List<Node<T>> stack = new ArrayList<>();
+        Node<T> node = root;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.add(node);
+                node = node.left;
+            }
+            node = stack.remove(stack.size() - 1);
+            nodes.add(node);
+            node = node.right;
+        }
+        return nodes;
+    }
+
+    // Replaces the node with the merge of its children, then fixes sizes on the way up
+    private void detach(Node<T> node) {
+        Node<T> merged = merge(node.left, node.right);
+        Node<T> parent = node.parent;
+        if (merged != null) merged.parent = parent;
+        if (parent == null) {
+            root = merged;
+        } else if (parent.left == node) {
+            parent.left = merged;
+        } else {
+            parent.right = merged;
+        }
+        for (Node<T> ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size--;
+        }
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.size = 1;
+        node.owner = null;
+    }
+
+    // Splits t into splitLeft (the first count nodes) and splitRight (the rest)
+    private void split(Node<T> t, int count) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        int leftSize = size(t.left);
+        if (leftSize < count) {
+            split(t.right, count - leftSize - 1);
+            t.right = splitLeft;
+            if (splitLeft != null) splitLeft.parent = t;
+            t.size = 1 + leftSize + size(t.right);
+            t.parent = null;
+            splitLeft = t;
+        } else {
+            split(t.left, count);
+            t.left = splitRight;
+            if (splitRight != null) splitRight.parent = t;
+            t.size = 1 + size(t.left) + size(t.right);
+            t.parent = null;
+            splitRight = t;
+        }
+    }
+
+    private Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.right.parent = a;
+            a.size = 1 + size(a.left) + size(a.right);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.left.parent = b;
+        b.size = 1 + size(b.left) + size(b.right);
+        return b;
+    }
+
+    private int nextPriority() {
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return x;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+}
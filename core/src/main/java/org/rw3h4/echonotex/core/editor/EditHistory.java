@@ -0,0 +1,180 @@
+package org.rw3h4.echonotex.core.editor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo/redo stacks of small, reversible edits. Edits recorded close together
+ * (typing) are folded into one step, several edits can be grouped into a
+ * transaction, and the oldest steps are dropped once the history holds more
+ * than {@code maxWeight} chars or {@code maxSteps} steps.
+ * Not thread safe.
+ */
+public final class EditHistory {
+
+    public interface Edit {
+        void undo();
+
+        void redo();
+
+        /** Rough number of chars this edit keeps alive. */
+        int weight();
+
+        /**
+         * Folds {@code next} into this edit so both undo together. Returns false
+         * if they can't be combined, and then {@code next} becomes its own step.
+         */
+        default boolean absorb(Edit next) {
+            return false;
+        }
+    }
+
+    private static final class Step {
+        final List<Edit> edits = new ArrayList<>(1);
+        int weight;
+        long lastRecordedAt;
+
+        void add(Edit edit) {
+            edits.add(edit);
+            weight += edit.weight();
+        }
+    }
+
+    private final int maxWeight;
+    private final int maxSteps;
+    private final long coalesceWindowMillis;
+
+    // Oldest step first, so eviction takes from the head
+    private final ArrayDeque<Step> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Step> redoStack = new ArrayDeque<>();
+    private int totalWeight;
+
+    private int transactionDepth;
+    private Step openTransaction;
+    // The step new edits may still be folded into, null after undo/redo or a transaction
+    private Step coalescing;
+    private boolean applying;
+
+    public EditHistory(int maxWeight, int maxSteps, long coalesceWindowMillis) {
+        this.maxWeight = maxWeight;
+        this.maxSteps = maxSteps;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /** True while an undo or redo is running; edits recorded meanwhile are ignored. */
+    public boolean isApplying() {
+        return applying;
+    }
+
+    public void beginTransaction() {
+        if (transactionDepth++ == 0) {
+            openTransaction = new Step();
+        }
+    }
+
+    public void endTransaction() {
+        if (transactionDepth == 0) throw new IllegalStateException("No open transaction");
+        if (--transactionDepth == 0) {
+            Step step = openTransaction;
+            openTransaction = null;
+            if (!step.edits.isEmpty()) push(step);
+            coalescing = null;
+        }
+    }
+
+    public void record(Edit edit, long nowMillis) {
+        if (applying) return;
+        redoStack.clear();
+
+        if (openTransaction != null) {
+            openTransaction.add(edit);
+            return;
+        }
+
+        Step step = coalescing;
+        if (step != null && nowMillis - step.lastRecordedAt <= coalesceWindowMillis) {
+            Edit last = step.edits.get(step.edits.size() - 1);
+            int before = last.weight();
+            if (last.absorb(edit)) {
+                int delta = last.weight() - before;
+                step.weight += delta;
+                totalWeight += delta;
+                step.lastRecordedAt = nowMillis;
+                trim();
+                return;
+            }
+        }
+
+        step = new Step();
+        step.add(edit);
+        step.lastRecordedAt = nowMillis;
+        push(step);
+        coalescing = step;
+    }
+
+    public boolean undo() {
+        Step step = undoStack.pollLast();
+        if (step == null) return false;
+        totalWeight -= step.weight;
+        applying = true;
+        try {
+            for (int i = step.edits.size() - 1; i >= 0; i--) {
+                step.edits.get(i).undo();
+            }
+        } finally {
+            applying = false;
+        }
+        redoStack.addLast(step);
+        coalescing = null;
+        return true;
+    }
+
+    public boolean redo() {
+        Step step = redoStack.pollLast();
+        if (step == null) return false;
+        applying = true;
+        try {
+            for (Edit edit : step.edits) {
+                edit.redo();
+            }
+        } finally {
+            applying = false;
+        }
+        undoStack.addLast(step);
+        totalWeight += step.weight;
+        coalescing = null;
+        trim();
+        return true;
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        totalWeight = 0;
+        coalescing = null;
+    }
+
+    private void push(Step step) {
+        undoStack.addLast(step);
+        totalWeight += step.weight;
+        trim();
+    }
+
+    // Drops the oldest steps, but always keeps the newest one so the last edit can be undone
+    private void trim() {
+        while (undoStack.size() > 1 && (totalWeight > maxWeight || undoStack.size() > maxSteps)) {
+            Step evicted = undoStack.pollFirst();
+            totalWeight -= evicted.weight;
+            if (evicted == coalescing) coalescing = null;
+        }
+    }
+}
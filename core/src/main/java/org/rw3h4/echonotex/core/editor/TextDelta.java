@@ -0,0 +1,99 @@
+package org.rw3h4.echonotex.core.editor;
+
+import java.util.Objects;
+
+/**
+ * A single replacement inside one block's text: {@code removed} at {@code offset}
+ * became {@code inserted}. Only the changed characters are kept, so an undo entry
+ * for a keystroke is a few chars whatever the size of the block.
+ */
+public final class TextDelta {
+    private final int offset;
+    private final String removed;
+    private final String inserted;
+
+    public TextDelta(int offset, String removed, String inserted) {
+        this.offset = offset;
+        this.removed = Objects.requireNonNull(removed);
+        this.inserted = Objects.requireNonNull(inserted);
+    }
+
+    /** The delta turning {@code before} into {@code after}, or null if they're equal. */
+    public static TextDelta between(CharSequence before, CharSequence after) {
+        int beforeLength = before.length();
+        int afterLength = after.length();
+        int limit = Math.min(beforeLength, afterLength);
+
+        int prefix = 0;
+        while (prefix < limit && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == beforeLength && prefix == afterLength) return null;
+
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && before.charAt(beforeLength - 1 - suffix) == after.charAt(afterLength - 1 - suffix)) {
+            suffix++;
+        }
+        return new TextDelta(prefix,
+                before.subSequence(prefix, beforeLength - suffix).toString(),
+                after.subSequence(prefix, afterLength - suffix).toString());
+    }
+
+    public int getOffset() { return offset; }
+
+    public String getRemoved() { return removed; }
+
+    public String getInserted() { return inserted; }
+
+    public String applyTo(String text) {
+        return text.substring(0, offset) + inserted + text.substring(offset + removed.length());
+    }
+
+    public String revert(String text) {
+        return text.substring(0, offset) + removed + text.substring(offset + inserted.length());
+    }
+
+    /** Chars kept alive by this delta, for history size limits. */
+    public int weight() {
+        return removed.length() + inserted.length();
+    }
+
+    /**
+     * This delta followed by {@code next} as one delta, or null when {@code next}
+     * doesn't continue right where this one left off (typing on or backspacing).
+     */
+    public TextDelta then(TextDelta next) {
+        int end = offset + inserted.length();
+        if (next.offset == end) {
+            return new TextDelta(offset, removed + next.removed, inserted + next.inserted);
+        }
+        if (next.inserted.isEmpty() && next.offset + next.removed.length() == end) {
+            if (next.offset >= offset) {
+                return new TextDelta(offset, removed, inserted.substring(0, next.offset - offset));
+            }
+            // Backspaced past everything this delta inserted
+            return new TextDelta(next.offset, next.removed.substring(0, offset - next.offset) + removed, "");
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TextDelta delta = (TextDelta) o;
+        return offset == delta.offset && removed.equals(delta.removed) && inserted.equals(delta.inserted);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, removed, inserted);
+    }
+
+    @Override
+    public String toString() {
+        return "TextDelta{" + "offset=" + offset + ", removed='" + removed + '\''
+                + ", inserted='" + inserted + '\'' + '}';
+    }
+}
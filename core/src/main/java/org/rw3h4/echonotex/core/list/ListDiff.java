@@ -0,0 +1,224 @@
+package org.rw3h4.echonotex.core.list;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keyed list diff. {@link #diff} only counts what changed, which is enough to
+ * decide whether a new list is worth publishing at all. {@link #patch} works out
+ * the steps too, for a copy of the list that can't just be replaced, like a
+ * player's queue.
+ */
+public final class ListDiff {
+
+    private ListDiff() {
+    }
+
+    public static final class Result {
+        public static final Result NONE = new Result(0, 0, 0, 0);
+
+        private final int inserted;
+        private final int removed;
+        private final int changed;
+        private final int moved;
+
+        Result(int inserted, int removed, int changed, int moved) {
+            this.inserted = inserted;
+            this.removed = removed;
+            this.changed = changed;
+            this.moved = moved;
+        }
+
+        public int getInserted() { return inserted; }
+
+        public int getRemoved() { return removed; }
+
+        public int getChanged() { return changed; }
+
+        public int getMoved() { return moved; }
+
+        public boolean isEmpty() {
+            return inserted == 0 && removed == 0 && changed == 0 && moved == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "inserted=" + inserted + ", removed=" + removed
+                    + ", changed=" + changed + ", moved=" + moved + '}';
+        }
+    }
+
+    /**
+     * Steps that turn one list into another when applied in the order given.
+     * Positions are in the list as it stands at that step, the way
+     * {@code List.remove}, {@code add} and {@code set} count them.
+     */
+    public interface Patch {
+        void remove(int position);
+
+        /** Takes the item out of {@code from} and puts it back so it ends up at {@code to}. */
+        void move(int from, int to);
+
+        /** Inserts the new list's item at {@code newPosition}. */
+        void insert(int position, int newPosition);
+
+        /** The item at {@code position}, already in its final place, is now the new list's item there. */
+        void change(int position);
+    }
+
+    public static <T> Result diff(List<T> oldList, List<T> newList, ToLongFunction<T> keyOf,
+                                  BiPredicate<T, T> sameContents) {
+        if (oldList == newList) return Result.NONE;
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+
+        // Fast path: most updates keep every item in place
+        if (oldSize == newSize) {
+            int changed = 0;
+            boolean aligned = true;
+            for (int i = 0; i < oldSize; i++) {
+                T oldItem = oldList.get(i);
+                T newItem = newList.get(i);
+                if (keyOf.applyAsLong(oldItem) != keyOf.applyAsLong(newItem)) {
+                    aligned = false;
+                    break;
+                }
+                if (!sameContents.test(oldItem, newItem)) changed++;
+            }
+            if (aligned) return changed == 0 ? Result.NONE : new Result(0, 0, changed, 0);
+        }
+
+        Map<Long, Integer> oldPositions = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(keyOf.applyAsLong(oldList.get(i)), i);
+        }
+
+        // Old positions of the items that survived, in new-list order
+        int[] retained = new int[newSize];
+        int retainedCount = 0;
+        int inserted = 0;
+        int changed = 0;
+        for (int i = 0; i < newSize; i++) {
+            T newItem = newList.get(i);
+            Integer oldPosition = oldPositions.get(keyOf.applyAsLong(newItem));
+            if (oldPosition == null) {
+                inserted++;
+            } else {
+                retained[retainedCount++] = oldPosition;
+                if (!sameContents.test(oldList.get(oldPosition), newItem)) changed++;
+            }
+        }
+        // Keys are expected to be unique; if the new list repeats one don't report negative removals
+        int removed = Math.max(0, oldSize - retainedCount);
+        // Whatever is not on the longest increasing run of old positions had to move
+        int moved = retainedCount - longestIncreasingRun(retained, retainedCount);
+        return new Result(inserted, removed, changed, moved);
+    }
+
+    /**
+     * Sends {@code patch} the removals, moves, inserts and changes that turn
+     * {@code oldList} into {@code newList}. Items on the longest run that's already
+     * in order stay where they are, so it takes as few moves as there can be;
+     * nothing is touched at all for items that only moved because others did.
+     */
+    public static <T> void patch(List<T> oldList, List<T> newList, ToLongFunction<T> keyOf,
+                                 BiPredicate<T, T> sameContents, Patch patch) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+        Map<Long, Integer> newPositions = new HashMap<>(newSize * 2);
+        for (int i = 0; i < newSize; i++) {
+            newPositions.put(keyOf.applyAsLong(newList.get(i)), i);
+        }
+
+        // Keys as the target of the patch has them, step by step
+        List<Long> work = new ArrayList<>(oldSize);
+        for (T item : oldList) work.add(keyOf.applyAsLong(item));
+        int[] oldPositions = new int[newSize];
+        Arrays.fill(oldPositions, -1);
+        // From the back, so the positions still to come don't shift
+        for (int i = oldSize - 1; i >= 0; i--) {
+            Integer newPosition = newPositions.get(work.get(i));
+            if (newPosition == null || oldPositions[newPosition] >= 0) {
+                patch.remove(i);
+                work.remove(i);
+            } else {
+                oldPositions[newPosition] = i;
+            }
+        }
+
+        // New positions of the survivors, in their current order
+        int[] retained = new int[work.size()];
+        for (int i = 0; i < retained.length; i++) retained[i] = newPositions.get(work.get(i));
+        boolean[] stays = new boolean[newSize];
+        markIncreasingRun(retained, stays);
+
+        // Back to front, each item that isn't staying goes in just ahead of the one
+        // that follows it in the new list, which is already where it belongs
+        for (int i = newSize - 1; i >= 0; i--) {
+            if (stays[i]) continue;
+            Long key = keyOf.applyAsLong(newList.get(i));
+            int before = i + 1 < newSize ? work.indexOf(keyOf.applyAsLong(newList.get(i + 1))) : work.size();
+            if (oldPositions[i] < 0) {
+                work.add(before, key);
+                patch.insert(before, i);
+            } else {
+                int from = work.indexOf(key);
+                int to = from < before ? before - 1 : before;
+                if (from != to) {
+                    work.remove(from);
+                    work.add(to, key);
+                    patch.move(from, to);
+                }
+            }
+        }
+
+        for (int i = 0; i < newSize; i++) {
+            if (oldPositions[i] >= 0 && !sameContents.test(oldList.get(oldPositions[i]), newList.get(i))) {
+                patch.change(i);
+            }
+        }
+    }
+
+    // Patience sorting, O(n log n)
+    private static int longestIncreasingRun(int[] values, int count) {
+        int[] tails = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int position = Arrays.binarySearch(tails, 0, length, values[i]);
+            if (position < 0) position = -(position + 1);
+            tails[position] = values[i];
+            if (position == length) length++;
+        }
+        return length;
+    }
+
+    // As above, keeping back links to mark which values make up one longest run
+    private static void markIncreasingRun(int[] values, boolean[] marks) {
+        int count = values.length;
+        if (count == 0) return;
+        // tails[k]: index of the smallest value that ends an increasing run of length k + 1
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) low = middle + 1;
+                else high = middle;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+        for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+            marks[values[i]] = true;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of a single content block, stored one row per block
+ * so that opening a note is a straight decode and editing a block only rewrites
+ * that block.
+ * <pre>
+ *   byte     format version (currently 1)
+ *   byte     block type
+ *   TEXT:    varint utf8 length, utf8 bytes,
+ *            varint span count, then per span: varint start, varint length, byte style
+ *   IMAGE:   varint utf8 length, utf8 uri bytes, 4 byte size fraction (float bits, big endian)
+ * </pre>
+ * Type ids 3 and 4 are reserved for checklist items and inline audio.
+ */
+public final class BlockCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    static final int TYPE_TEXT = 1;
+    static final int TYPE_IMAGE = 2;
+
+    private BlockCodec() {
+    }
+
+    public static byte[] encode(ContentBlock block) {
+        if (block instanceof ContentBlock.Text) {
+            ContentBlock.Text text = (ContentBlock.Text) block;
+            byte[] utf8 = text.getText().getBytes(StandardCharsets.UTF_8);
+            int spanCount = text.getSpanCount();
+            // Worst case: 5 byte varints everywhere
+            Writer writer = new Writer(2 + 5 + utf8.length + 5 + spanCount * 11);
+            writer.writeByte(FORMAT_VERSION);
+            writer.writeByte(TYPE_TEXT);
+            writer.writeBytes(utf8);
+            writer.writeVarint(spanCount);
+            for (int i = 0; i < spanCount; i++) {
+                int start = text.getSpanStart(i);
+                writer.writeVarint(start);
+                writer.writeVarint(text.getSpanEnd(i) - start);
+                writer.writeByte(text.getSpanStyle(i));
+            }
+            return writer.toByteArray();
+        } else if (block instanceof ContentBlock.Image) {
+            ContentBlock.Image image = (ContentBlock.Image) block;
+            byte[] utf8 = image.getUri().getBytes(StandardCharsets.UTF_8);
+            Writer writer = new Writer(2 + 5 + utf8.length + 4);
+            writer.writeByte(FORMAT_VERSION);
+            writer.writeByte(TYPE_IMAGE);
+            writer.writeBytes(utf8);
+            writer.writeInt(Float.floatToIntBits(image.getSizeFraction()));
+            return writer.toByteArray();
+        }
+        throw new IllegalArgumentException("Unsupported block " + block);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is corrupt, or was written by
+     *                                  a newer format version this build doesn't know
+     */
+    public static ContentBlock decode(byte[] data) {
+        Reader reader = new Reader(data);
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported block format version " + version);
+        }
+        int type = reader.readByte();
+        switch (type) {
+            case TYPE_TEXT: {
+                String text = reader.readString();
+                int spanCount = reader.readVarint();
+                // Every span takes at least three bytes; a count the data can't hold is corrupt
+                if (spanCount < 0 || spanCount > reader.remaining() / 3) {
+                    throw new IllegalArgumentException("Bad span count " + spanCount);
+                }
+                int[] spans = new int[spanCount * 3];
+                for (int i = 0; i < spans.length; i += 3) {
+                    int start = reader.readVarint();
+                    int end = start + reader.readVarint();
+                    if (start < 0 || end < start || end > text.length()) {
+                        throw new IllegalArgumentException("Span " + start + ".." + end + " outside the text");
+                    }
+                    spans[i] = start;
+                    spans[i + 1] = end;
+                    spans[i + 2] = reader.readByte();
+                }
+                return new ContentBlock.Text(text, spans);
+            }
+            case TYPE_IMAGE: {
+                String uri = reader.readString();
+                float sizeFraction = Float.intBitsToFloat(reader.readInt());
+                return new ContentBlock.Image(uri, sizeFraction);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown block type " + type);
+        }
+    }
+
+    private static final class Writer {
+        private final byte[] buffer;
+        private int pos;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            buffer[pos++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[pos++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeInt(int value) {
+            buffer[pos++] = (byte) (value >>> 24);
+            buffer[pos++] = (byte) (value >>> 16);
+            buffer[pos++] = (byte) (value >>> 8);
+            buffer[pos++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, pos);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            require(1);
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            int length = readVarint();
+            require(length);
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        int readInt() {
+            require(4);
+            int value = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                    | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            pos += 4;
+            return value;
+        }
+
+        int remaining() {
+            return data.length - pos;
+        }
+
+        private void require(int count) {
+            if (count < 0 || pos + count > data.length) {
+                throw new IllegalArgumentException("Truncated block data");
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A single block of a note body: either a run of text or an inline image.
+ * This is the Android-free counterpart of the editor's EditContentPart and the
+ * reader's NoteContentPart, so the parsing code can live (and be benchmarked) here.
+ */
+public abstract class ContentBlock {
+
+    private ContentBlock() {
+    }
+
+    public static final class Text extends ContentBlock {
+        public static final int STYLE_BOLD = 1;
+        public static final int STYLE_ITALIC = 1 << 1;
+        public static final int STYLE_UNDERLINE = 1 << 2;
+
+        private static final int[] NO_SPANS = new int[0];
+
+        private final String text;
+        // Packed (start, end, style) triples, char offsets into text
+        private final int[] spans;
+
+        public Text(String text) {
+            this(text, NO_SPANS);
+        }
+
+        /**
+         * @param spans packed (start, end, style) triples; style is a mask of the
+         *              STYLE_ constants. The array is not copied.
+         */
+        public Text(String text, int[] spans) {
+            this.text = Objects.requireNonNull(text);
+            if (spans.length % 3 != 0) {
+                throw new IllegalArgumentException("spans must be (start, end, style) triples");
+            }
+            this.spans = spans;
+        }
+
+        public String getText() { return text; }
+
+        public int getSpanCount() { return spans.length / 3; }
+
+        public int getSpanStart(int index) { return spans[index * 3]; }
+
+        public int getSpanEnd(int index) { return spans[index * 3 + 1]; }
+
+        public int getSpanStyle(int index) { return spans[index * 3 + 2]; }
+
+        /** The part of this block between {@code start} and {@code end}, spans clipped to it. */
+        public Text slice(int start, int end) {
+            if (start == 0 && end == text.length()) return this;
+            if (spans.length == 0) return new Text(text.substring(start, end));
+
+            int[] sliced = new int[spans.length];
+            int count = 0;
+            for (int i = 0; i < spans.length; i += 3) {
+                int spanStart = Math.max(spans[i], start);
+                int spanEnd = Math.min(spans[i + 1], end);
+                if (spanStart < spanEnd) {
+                    sliced[count++] = spanStart - start;
+                    sliced[count++] = spanEnd - start;
+                    sliced[count++] = spans[i + 2];
+                }
+            }
+            return new Text(text.substring(start, end), Arrays.copyOf(sliced, count));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Text other = (Text) o;
+            return text.equals(other.text) && Arrays.equals(spans, other.spans);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * text.hashCode() + Arrays.hashCode(spans);
+        }
+
+        @Override
+        public String toString() {
+            return "Text{" + "text='" + text + '\'' + ", spans=" + Arrays.toString(spans) + '}';
+        }
+    }
+
+    public static final class Image extends ContentBlock {
+        private final String uri;
+        // Fraction of the available width the image is drawn at (0..1]
+        private final float sizeFraction;
+
+        public Image(String uri, float sizeFraction) {
+            this.uri = Objects.requireNonNull(uri);
+            this.sizeFraction = sizeFraction;
+        }
+
+        public String getUri() { return uri; }
+
+        public float getSizeFraction() { return sizeFraction; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Image image = (Image) o;
+            return Float.compare(sizeFraction, image.sizeFraction) == 0 && uri.equals(image.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, sizeFraction);
+        }
+
+        @Override
+        public String toString() {
+            return "Image{" + "uri='" + uri + '\'' + ", sizeFraction=" + sizeFraction + '}';
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns the HTML stored in notes.note_content into content blocks.
+ * <p>
+ * This is a single forward pass over the string: no DOM and no regex. It only
+ * understands what NoteHtmlSerializer writes (p, br, img) plus enough of the
+ * rest of HTML to stay sane on notes that came from somewhere else: div acts
+ * like p, b/strong, i/em and u become text spans, other tags are dropped but
+ * their text is kept, comments/script/style are skipped and character
+ * references are decoded.
+ * <p>
+ * The editor and the reader share the same blocks, they only differ in the
+ * invariants they need on top (see {@link #parseForEditing} and {@link #parseForReading}).
+ */
+public final class NoteHtmlParser {
+
+    private final String html;
+    private final int length;
+    private int pos;
+
+    private final List<ContentBlock> blocks = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private boolean paragraphOpen;
+
+    // How many b/i/u tags are open, indexed by style bit (counts, so nesting the
+    // same tag works), and the style run in progress
+    private final int[] styleDepth = new int[3];
+    private int runStart;
+    private int runStyle;
+    private int[] spans = new int[12];
+    private int spanLength;
+
+    // Attributes of the tag being read; only img needs them
+    private String src;
+    private String style;
+    // Whether the tag being read ran into the end of the input before its '>'
+    private boolean truncated;
+
+    private NoteHtmlParser(String html) {
+        this.html = html;
+        this.length = html.length();
+    }
+
+    /**
+     * Parses a note body for the editor. Always returns at least one block and
+     * always ends with a text block so there's somewhere to put the cursor.
+     */
+    public static List<ContentBlock> parseForEditing(String html) {
+        List<ContentBlock> blocks = (html == null || html.isBlank())
+                ? new ArrayList<>(1) : parse(html);
+        if (blocks.isEmpty() || blocks.get(blocks.size() - 1) instanceof ContentBlock.Image) {
+            blocks.add(new ContentBlock.Text(""));
+        }
+        return blocks;
+    }
+
+    /**
+     * Parses a note body for read-only display: one text block per paragraph,
+     * blank paragraphs left out.
+     */
+    public static List<ContentBlock> parseForReading(String html) {
+        if (html == null || html.isEmpty()) return Collections.emptyList();
+
+        List<ContentBlock> blocks = parse(html);
+        List<ContentBlock> visible = new ArrayList<>(blocks.size());
+        for (ContentBlock block : blocks) {
+            if (block instanceof ContentBlock.Text && ((ContentBlock.Text) block).getText().isBlank()) {
+                continue;
+            }
+            visible.add(block);
+        }
+        return visible;
+    }
+
+    static List<ContentBlock> parse(String html) {
+        NoteHtmlParser parser = new NoteHtmlParser(html);
+        parser.run();
+        return parser.blocks;
+    }
+
+    private void run() {
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '<') {
+                readMarkup();
+            } else if (c == '&') {
+                pos = decodeReference(html, pos, length, text);
+            } else {
+                readText();
+            }
+        }
+        flush(paragraphOpen);
+    }
+
+    private void readText() {
+        int start = pos;
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '<' || c == '&') break;
+            if (c == '\n' || c == '\r' || c == '\t') {
+                // Source line breaks are formatting, only <br> is a real newline
+                text.append(html, start, pos).append(' ');
+                start = pos + 1;
+            }
+            pos++;
+        }
+        text.append(html, start, pos);
+    }
+
+    private void readMarkup() {
+        if (html.startsWith("<!--", pos)) {
+            int end = html.indexOf("-->", pos + 4);
+            pos = end < 0 ? length : end + 3;
+            return;
+        }
+        if (pos + 1 < length && (html.charAt(pos + 1) == '!' || html.charAt(pos + 1) == '?')) {
+            // Doctype or processing instruction
+            int end = html.indexOf('>', pos + 2);
+            pos = end < 0 ? length : end + 1;
+            return;
+        }
+
+        boolean closing = pos + 1 < length && html.charAt(pos + 1) == '/';
+        int nameStart = pos + (closing ? 2 : 1);
+        int nameEnd = nameStart;
+        while (nameEnd < length && isNameChar(html.charAt(nameEnd))) nameEnd++;
+
+        if (nameEnd == nameStart) {
+            // Not a tag ("a < b" in a hand-written note), keep the character
+            text.append('<');
+            pos++;
+            return;
+        }
+
+        src = null;
+        style = null;
+        pos = readAttributes(nameEnd, !closing && regionIs(nameStart, nameEnd, "img"));
+        // A note cut off mid-tag: what the tag would have been isn't known, so drop it
+        if (truncated) return;
+
+        if (regionIs(nameStart, nameEnd, "p") || regionIs(nameStart, nameEnd, "div")) {
+            flush(paragraphOpen);
+            paragraphOpen = !closing;
+        } else if (regionIs(nameStart, nameEnd, "b") || regionIs(nameStart, nameEnd, "strong")) {
+            changeStyle(ContentBlock.Text.STYLE_BOLD, closing);
+        } else if (regionIs(nameStart, nameEnd, "i") || regionIs(nameStart, nameEnd, "em")) {
+            changeStyle(ContentBlock.Text.STYLE_ITALIC, closing);
+        } else if (regionIs(nameStart, nameEnd, "u")) {
+            changeStyle(ContentBlock.Text.STYLE_UNDERLINE, closing);
+        } else if (closing) {
+            return;
+        } else if (regionIs(nameStart, nameEnd, "br")) {
+            text.append('\n');
+        } else if (regionIs(nameStart, nameEnd, "img")) {
+            if (src != null && !src.isEmpty()) {
+                // Text before the image is its own block; the paragraph carries on after it
+                flush(false);
+                blocks.add(new ContentBlock.Image(src, widthFraction(style)));
+            }
+        } else if (regionIs(nameStart, nameEnd, "script") || regionIs(nameStart, nameEnd, "style")) {
+            skipRawText(nameStart, nameEnd);
+        }
+    }
+
+    /**
+     * Skips to the end of the tag, honouring quotes. Returns the index after '>',
+     * or the end of the input if there isn't one.
+     */
+    private int readAttributes(int from, boolean keep) {
+        truncated = false;
+        int i = from;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') return i + 1;
+            if (!isNameChar(c)) {
+                i++;
+                continue;
+            }
+
+            int attrStart = i;
+            while (i < length && isNameChar(html.charAt(i))) i++;
+            int attrEnd = i;
+            while (i < length && html.charAt(i) == ' ') i++;
+            if (i >= length || html.charAt(i) != '=') continue;
+            i++;
+            while (i < length && html.charAt(i) == ' ') i++;
+            if (i >= length) break;
+
+            int valueStart;
+            int valueEnd;
+            char quote = html.charAt(i);
+            if (quote == '"' || quote == '\'') {
+                valueStart = i + 1;
+                valueEnd = html.indexOf(quote, valueStart);
+                if (valueEnd < 0) valueEnd = length;
+                i = Math.min(valueEnd + 1, length);
+            } else {
+                valueStart = i;
+                while (i < length && html.charAt(i) != '>' && !Character.isWhitespace(html.charAt(i))) i++;
+                valueEnd = i;
+            }
+
+            if (keep) {
+                if (regionIs(attrStart, attrEnd, "src")) {
+                    src = decode(html, valueStart, valueEnd);
+                } else if (regionIs(attrStart, attrEnd, "style")) {
+                    style = html.substring(valueStart, valueEnd);
+                }
+            }
+        }
+        truncated = true;
+        return length;
+    }
+
+    private void skipRawText(int nameStart, int nameEnd) {
+        int nameLength = nameEnd - nameStart;
+        while (pos < length) {
+            int close = html.indexOf("</", pos);
+            if (close < 0) {
+                pos = length;
+                return;
+            }
+            if (html.regionMatches(true, close + 2, html, nameStart, nameLength)) {
+                pos = readAttributes(close + 2 + nameLength, false);
+                return;
+            }
+            pos = close + 2;
+        }
+    }
+
+    private void changeStyle(int style, boolean closing) {
+        endRun();
+        int index = Integer.numberOfTrailingZeros(style);
+        styleDepth[index] = closing ? Math.max(0, styleDepth[index] - 1) : styleDepth[index] + 1;
+        runStyle = 0;
+        for (int i = 0; i < styleDepth.length; i++) {
+            if (styleDepth[i] > 0) runStyle |= 1 << i;
+        }
+    }
+
+    /** Records the text since the last style change as a span, if it was styled. */
+    private void endRun() {
+        int end = text.length();
+        if (runStyle != 0 && end > runStart) {
+            if (spanLength + 3 > spans.length) spans = Arrays.copyOf(spans, spans.length * 2);
+            spans[spanLength++] = runStart;
+            spans[spanLength++] = end;
+            spans[spanLength++] = runStyle;
+        }
+        runStart = end;
+    }
+
+    private void flush(boolean keepEmpty) {
+        endRun();
+        if (keepEmpty || !isBlank(text)) {
+            int[] blockSpans = spanLength == 0 ? new int[0] : Arrays.copyOf(spans, spanLength);
+            blocks.add(new ContentBlock.Text(text.toString(), blockSpans));
+        }
+        text.setLength(0);
+        spanLength = 0;
+        runStart = 0;
+    }
+
+    private boolean regionIs(int start, int end, String name) {
+        return end - start == name.length() && html.regionMatches(true, start, name, 0, name.length());
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == ':' || c == '_';
+    }
+
+    private static boolean isBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isWhitespace(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads "width: NN%" out of an inline style. Whitespace after the colon is
+     * optional; the serializer doesn't write any.
+     */
+    static float widthFraction(String style) {
+        if (style == null) return 1.0f;
+        int from = 0;
+        while (true) {
+            int index = style.indexOf("width", from);
+            if (index < 0) return 1.0f;
+            from = index + 5;
+            // Skip max-width, min-width and friends
+            if (index > 0 && (isNameChar(style.charAt(index - 1)))) continue;
+
+            int i = from;
+            while (i < style.length() && style.charAt(i) == ' ') i++;
+            if (i >= style.length() || style.charAt(i) != ':') continue;
+            i++;
+            while (i < style.length() && style.charAt(i) == ' ') i++;
+            int numberStart = i;
+            while (i < style.length() && (Character.isDigit(style.charAt(i)) || style.charAt(i) == '.')) i++;
+            if (i == numberStart || i >= style.length() || style.charAt(i) != '%') continue;
+            try {
+                return Float.parseFloat(style.substring(numberStart, i)) / 100f;
+            } catch (NumberFormatException e) {
+                return 1.0f;
+            }
+        }
+    }
+
+    private static String decode(String s, int start, int end) {
+        int amp = s.indexOf('&', start);
+        if (amp < 0 || amp >= end) return s.substring(start, end);
+
+        StringBuilder out = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '&') {
+                i = decodeReference(s, i, end, out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Decodes the character reference starting at {@code amp} into {@code out} and
+     * returns the index after it. Anything unrecognised is kept as a literal '&'.
+     */
+    static int decodeReference(String s, int amp, int end, StringBuilder out) {
+        int semicolon = -1;
+        int limit = Math.min(end, amp + 10);
+        for (int i = amp + 1; i < limit; i++) {
+            if (s.charAt(i) == ';') {
+                semicolon = i;
+                break;
+            }
+        }
+        if (semicolon < 0) {
+            out.append('&');
+            return amp + 1;
+        }
+
+        int nameStart = amp + 1;
+        int codePoint = -1;
+        if (s.charAt(nameStart) == '#') {
+            try {
+                boolean hex = nameStart + 1 < semicolon
+                        && (s.charAt(nameStart + 1) == 'x' || s.charAt(nameStart + 1) == 'X');
+                codePoint = hex
+                        ? Integer.parseInt(s.substring(nameStart + 2, semicolon), 16)
+                        : Integer.parseInt(s.substring(nameStart + 1, semicolon));
+            } catch (NumberFormatException ignored) {
+                codePoint = -1;
+            }
+            if (!Character.isValidCodePoint(codePoint)) codePoint = -1;
+        } else {
+            switch (s.substring(nameStart, semicolon)) {
+                case "amp": codePoint = '&'; break;
+                case "lt": codePoint = '<'; break;
+                case "gt": codePoint = '>'; break;
+                case "quot": codePoint = '"'; break;
+                case "apos": codePoint = '\''; break;
+                case "nbsp": codePoint = '\u00A0'; break;
+                default: break;
+            }
+        }
+
+        if (codePoint < 0) {
+            out.append('&');
+            return amp + 1;
+        }
+        out.appendCodePoint(codePoint);
+        return semicolon + 1;
+    }
+}
@@ -0,0 +1,161 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes content blocks out as the HTML format stored in notes.note_content.
+ * Text is escaped, so whatever the user typed comes back unchanged through
+ * {@link NoteHtmlParser}, and text spans become b/i/u tags.
+ * <p>
+ * The output is produced by running the same writer twice: once without a
+ * buffer to get the exact length, then into a char[] of that size, so nothing
+ * is ever regrown on very long notes.
+ */
+public final class NoteHtmlSerializer {
+
+    private static final String P_OPEN = "<p>";
+    private static final String P_CLOSE = "</p>";
+    private static final String BR = "<br>";
+    private static final String IMG_OPEN = "<img src=\"";
+    private static final String IMG_STYLE = "\" style=\"width:";
+    private static final String IMG_CLOSE = "%; height:auto;\" />";
+
+    // Indexed by style bit, in the order tags are opened
+    private static final String[] STYLE_OPEN = {"<b>", "<i>", "<u>"};
+    private static final String[] STYLE_CLOSE = {"</b>", "</i>", "</u>"};
+
+    // Indexed by char; null means the char is written as-is
+    private static final String[] TEXT_ESCAPES = new String['>' + 1];
+    private static final String[] ATTRIBUTE_ESCAPES = new String['>' + 1];
+
+    static {
+        TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = "&gt;";
+        TEXT_ESCAPES['\n'] = BR;
+        ATTRIBUTE_ESCAPES['"'] = "&quot;";
+    }
+
+    private NoteHtmlSerializer() {
+    }
+
+    public static String serialize(List<ContentBlock> blocks) {
+        char[] out = new char[write(null, blocks)];
+        int length = write(out, blocks);
+        return new String(out, 0, length);
+    }
+
+    /** Exact length of {@link #serialize} output. */
+    static int measure(List<ContentBlock> blocks) {
+        return write(null, blocks);
+    }
+
+    /**
+     * Writes the blocks into {@code out} and returns the length written. With a
+     * null {@code out} nothing is written, only counted.
+     */
+    private static int write(char[] out, List<ContentBlock> blocks) {
+        int pos = 0;
+        for (int i = 0, size = blocks.size(); i < size; i++) {
+            ContentBlock block = blocks.get(i);
+            if (block instanceof ContentBlock.Text) {
+                ContentBlock.Text text = (ContentBlock.Text) block;
+                if (!text.getText().isBlank()) {
+                    pos = put(out, pos, P_OPEN);
+                    pos = putStyledText(out, pos, text);
+                    pos = put(out, pos, P_CLOSE);
+                }
+            } else if (block instanceof ContentBlock.Image) {
+                ContentBlock.Image image = (ContentBlock.Image) block;
+                pos = put(out, pos, IMG_OPEN);
+                pos = putEscaped(out, pos, image.getUri(), 0, image.getUri().length(), ATTRIBUTE_ESCAPES);
+                pos = put(out, pos, IMG_STYLE);
+                pos = put(out, pos, Integer.toString((int) (image.getSizeFraction() * 100)));
+                pos = put(out, pos, IMG_CLOSE);
+            }
+        }
+        return pos;
+    }
+
+    private static int putStyledText(char[] out, int pos, ContentBlock.Text block) {
+        String text = block.getText();
+        int spanCount = block.getSpanCount();
+        if (spanCount == 0) {
+            return putEscaped(out, pos, text, 0, text.length(), TEXT_ESCAPES);
+        }
+
+        // Cut the text wherever a span starts or ends; each piece has a single style.
+        // Tags are always opened in bit order, so on a style change only the tags
+        // from the first differing bit up need closing and reopening.
+        int[] cuts = new int[spanCount * 2 + 2];
+        int cutCount = 0;
+        cuts[cutCount++] = 0;
+        cuts[cutCount++] = text.length();
+        for (int s = 0; s < spanCount; s++) {
+            cuts[cutCount++] = clamp(block.getSpanStart(s), text.length());
+            cuts[cutCount++] = clamp(block.getSpanEnd(s), text.length());
+        }
+        Arrays.sort(cuts, 0, cutCount);
+
+        int openStyle = 0;
+        for (int c = 0; c + 1 < cutCount; c++) {
+            int start = cuts[c];
+            int end = cuts[c + 1];
+            if (start == end) continue;
+
+            int style = 0;
+            for (int s = 0; s < spanCount; s++) {
+                if (block.getSpanStart(s) <= start && block.getSpanEnd(s) >= end) {
+                    style |= block.getSpanStyle(s);
+                }
+            }
+            if (style != openStyle) {
+                int firstDiffering = Integer.numberOfTrailingZeros(style ^ openStyle);
+                pos = closeTags(out, pos, openStyle, firstDiffering);
+                pos = openTags(out, pos, style, firstDiffering);
+                openStyle = style;
+            }
+            pos = putEscaped(out, pos, text, start, end, TEXT_ESCAPES);
+        }
+        return closeTags(out, pos, openStyle, 0);
+    }
+
+    private static int openTags(char[] out, int pos, int style, int fromBit) {
+        for (int bit = fromBit; bit < STYLE_OPEN.length; bit++) {
+            if ((style & (1 << bit)) != 0) pos = put(out, pos, STYLE_OPEN[bit]);
+        }
+        return pos;
+    }
+
+    private static int closeTags(char[] out, int pos, int style, int downToBit) {
+        for (int bit = STYLE_CLOSE.length - 1; bit >= downToBit; bit--) {
+            if ((style & (1 << bit)) != 0) pos = put(out, pos, STYLE_CLOSE[bit]);
+        }
+        return pos;
+    }
+
+    private static int clamp(int offset, int length) {
+        return Math.max(0, Math.min(offset, length));
+    }
+
+    private static int put(char[] out, int pos, String s) {
+        if (out != null) s.getChars(0, s.length(), out, pos);
+        return pos + s.length();
+    }
+
+    private static int putEscaped(char[] out, int pos, String s, int start, int end, String[] escapes) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            // Everything that needs escaping sorts at or below '>', so most text skips the lookup
+            String replacement = c > '>' ? null : escapes[c];
+            if (replacement != null) {
+                pos = put(out, pos, replacement);
+            } else {
+                if (out != null) out[pos] = c;
+                pos++;
+            }
+        }
+        return pos;
+    }
+}
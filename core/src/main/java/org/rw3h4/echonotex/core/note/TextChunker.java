@@ -0,0 +1,65 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits long text blocks into chunks small enough to be separate items in a
+ * lazy list, so a huge paragraph doesn't have to be measured and laid out in one go.
+ */
+public final class TextChunker {
+
+    private TextChunker() {
+    }
+
+    /**
+     * Returns the blocks with text trimmed, blank text dropped and every text block
+     * cut down to at most {@code maxChars}; spans are clipped to their chunk. Cuts go at a line break if there's one
+     * in the second half of the window, otherwise at the last space, otherwise anywhere.
+     */
+    public static List<ContentBlock> chunk(List<ContentBlock> blocks, int maxChars) {
+        if (maxChars < 2) throw new IllegalArgumentException("maxChars must be at least 2");
+
+        List<ContentBlock> chunks = new ArrayList<>(blocks.size());
+        for (ContentBlock block : blocks) {
+            if (!(block instanceof ContentBlock.Text)) {
+                chunks.add(block);
+                continue;
+            }
+            ContentBlock.Text textBlock = (ContentBlock.Text) block;
+            String text = textBlock.getText();
+            int start = skipWhitespace(text, 0);
+            int end = text.length();
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+
+            while (end - start > maxChars) {
+                int cut = cutPoint(text, start, start + maxChars);
+                addTrimmed(chunks, textBlock, start, cut);
+                start = skipWhitespace(text, cut);
+            }
+            addTrimmed(chunks, textBlock, start, end);
+        }
+        return chunks;
+    }
+
+    private static int cutPoint(String text, int start, int limit) {
+        int floor = start + (limit - start) / 2;
+        int newline = text.lastIndexOf('\n', limit);
+        if (newline > floor) return newline;
+        int space = text.lastIndexOf(' ', limit);
+        if (space > start) return space;
+        // Don't split a surrogate pair
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    private static void addTrimmed(List<ContentBlock> chunks, ContentBlock.Text block, int start, int end) {
+        String text = block.getText();
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (end > start) chunks.add(block.slice(start, end));
+    }
+
+    private static int skipWhitespace(String text, int from) {
+        while (from < text.length() && Character.isWhitespace(text.charAt(from))) from++;
+        return from;
+    }
+}
@@ -0,0 +1,107 @@
+package org.rw3h4.echonotex.core.note;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dictated transcript as it grows: the segments the recognizer has settled on,
+ * plus the one it's still revising. Settling a segment or replacing the partial
+ * costs the length of that text alone, however long the session has run; one
+ * string grown by concatenation copies everything said so far every time.
+ * <p>
+ * Settled segments are only ever added to, so a reader that has seen the first
+ * {@code n} can trust they're unchanged until {@link #clear()}.
+ */
+public final class TranscriptBuffer {
+
+    private static final String SEPARATOR = " ";
+
+    private final List<String> segments = new ArrayList<>();
+    private String partial = "";
+    // Characters in the settled segments, to size the one copy toText() makes
+    private long settledLength;
+
+    public int getSegmentCount() { return segments.size(); }
+
+    public String getSegment(int index) { return segments.get(index); }
+
+    /** What the recognizer currently thinks is being said; empty between utterances. */
+    public String getPartial() { return partial; }
+
+    public boolean isEmpty() {
+        return segments.isEmpty() && partial.isEmpty();
+    }
+
+    public void setPartial(String text) {
+        partial = text.trim();
+    }
+
+    /**
+     * Settles {@code text}, a final result, as the next segment and drops the
+     * partial. Only a blank text adds nothing; saying the same thing twice is
+     * two segments.
+     *
+     * @return whether a segment was added
+     */
+    public boolean commit(String text) {
+        partial = "";
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) return false;
+        segments.add(trimmed);
+        settledLength += trimmed.length();
+        return true;
+    }
+
+    /**
+     * Settles the partial, for when the recognizer gives up without a final
+     * result. A partial whose words the last segment already ends with adds
+     * nothing: it's a stale repeat of what was just settled.
+     *
+     * @return whether a segment was added
+     */
+    public boolean commitPartial() {
+        String text = partial;
+        partial = "";
+        if (text.isEmpty()) return false;
+        if (!segments.isEmpty() && endsWithWords(segments.get(segments.size() - 1), text)) return false;
+        return commit(text);
+    }
+
+    // Whether the last words of segment are the words of text; "one" is not how "alone" ends
+    private static boolean endsWithWords(String segment, String text) {
+        String[] tail = text.split("\\s+");
+        String[] words = segment.split("\\s+");
+        if (tail.length > words.length) return false;
+        for (int i = 1; i <= tail.length; i++) {
+            if (!tail[tail.length - i].equals(words[words.length - i])) return false;
+        }
+        return true;
+    }
+
+    /** Puts back segments from a checkpoint, after any already here. */
+    public void restore(List<String> saved) {
+        for (String segment : saved) commit(segment);
+    }
+
+    public void clear() {
+        segments.clear();
+        partial = "";
+        settledLength = 0;
+    }
+
+    /** The whole transcript, partial included, as one string. Copies it all, so call it once at the end. */
+    public String toText() {
+        int count = segments.size();
+        long capacity = settledLength + partial.length() + (long) count * SEPARATOR.length();
+        StringBuilder text = new StringBuilder((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        for (int i = 0; i < count; i++) {
+            if (i > 0) text.append(SEPARATOR);
+            text.append(segments.get(i));
+        }
+        if (!partial.isEmpty()) {
+            if (count > 0) text.append(SEPARATOR);
+            text.append(partial);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package org.rw3h4.echonotex.core.waveform;
+
+/**
+ * Fixed-capacity history of amplitudes in a primitive array. Once full, each new
+ * sample overwrites the oldest one, so memory and per-sample cost stay the same
+ * however long a recording runs. Not thread safe.
+ */
+public final class AmplitudeRingBuffer {
+    private final float[] samples;
+    private final int mask;
+    // Total samples ever added; doubles as a version stamp for the UI
+    private long written;
+
+    /** @param capacity rounded up to a power of two */
+    public AmplitudeRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        samples = new float[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    public int size() {
+        return (int) Math.min(written, samples.length);
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    public void add(float amplitude) {
+        samples[(int) (written & mask)] = amplitude;
+        written++;
+    }
+
+    public void clear() {
+        written = 0;
+    }
+
+    /** The sample {@code age} steps back from the newest (0 is the newest). */
+    public float getLatest(int age) {
+        if (age < 0 || age >= size()) {
+            throw new IndexOutOfBoundsException("age " + age + ", size " + size());
+        }
+        return samples[(int) ((written - 1 - age) & mask)];
+    }
+
+    /**
+     * Reduces the newest samples to min/max pairs, {@code samplesPerBucket} samples
+     * per bucket, oldest bucket first. Buckets are aligned to the total sample
+     * count rather than the newest sample so bars don't flicker as the window
+     * scrolls, which means a partly filled newest bucket is left out.
+     *
+     * @param mins may be null when only the peaks are needed
+     * @return the number of buckets written, at most {@code maxBuckets}
+     */
+    public int readMinMax(float[] mins, float[] maxs, int maxBuckets, int samplesPerBucket) {
+        if (samplesPerBucket <= 0) throw new IllegalArgumentException("samplesPerBucket must be positive");
+        long complete = written / samplesPerBucket;
+        long oldestAvailable = written - size();
+        // Buckets whose first sample hasn't been overwritten yet
+        long firstBucket = (oldestAvailable + samplesPerBucket - 1) / samplesPerBucket;
+        int count = (int) Math.min(maxBuckets, complete - firstBucket);
+        if (count <= 0) return 0;
+
+        long start = (complete - count) * samplesPerBucket;
+        for (int b = 0; b < count; b++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int s = 0; s < samplesPerBucket; s++) {
+                float sample = samples[(int) ((start + s) & mask)];
+                if (sample < min) min = sample;
+                if (sample > max) max = sample;
+            }
+            if (mins != null) mins[b] = min;
+            maxs[b] = max;
+            start += samplesPerBucket;
+        }
+        return count;
+    }
+}
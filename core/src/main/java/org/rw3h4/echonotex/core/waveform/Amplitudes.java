@@ -0,0 +1,27 @@
+package org.rw3h4.echonotex.core.waveform;
+
+/**
+ * Helpers for turning raw recorder amplitudes into bar heights.
+ */
+public final class Amplitudes {
+
+    /** Largest value MediaRecorder.getMaxAmplitude() (a 16-bit sample) can report. */
+    public static final float MAX_AMPLITUDE = 32767f;
+
+    private Amplitudes() {
+    }
+
+    /** Maps a raw amplitude onto 0..1. */
+    public static float normalize(float amplitude) {
+        float normalized = amplitude / MAX_AMPLITUDE;
+        if (normalized < 0f) return 0f;
+        return Math.min(normalized, 1f);
+    }
+
+    /** Bulk version of {@link #normalize(float)}; {@code dst} may be {@code src}. */
+    public static void normalize(float[] src, float[] dst, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = normalize(src[i]);
+        }
+    }
+}
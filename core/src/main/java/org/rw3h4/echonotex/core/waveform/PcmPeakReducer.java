@@ -0,0 +1,71 @@
+package org.rw3h4.echonotex.core.waveform;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Turns decoded 16-bit PCM into one peak per interval for a {@link WaveformPeaks.Builder},
+ * the same 0..1 peak the recorder samples, so extracted and recorded summaries
+ * look alike. Keeps only a few counters, so memory doesn't grow with the file.
+ */
+public final class PcmPeakReducer {
+    private final WaveformPeaks.Builder builder;
+    private final int channelCount;
+    private final long sampleRate;
+    private final long intervalMillis;
+
+    private long frames;
+    private long bucket;
+    private long bucketEnd;
+    private int peak;
+
+    public PcmPeakReducer(WaveformPeaks.Builder builder, int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad PCM format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.builder = builder;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.intervalMillis = builder.getIntervalMillis();
+        this.bucketEnd = endOfBucket(0);
+    }
+
+    /** Consumes interleaved samples from the buffer's position to its limit. */
+    public void accept(ShortBuffer pcm) {
+        int channel = 0;
+        int framePeak = peak;
+        while (pcm.hasRemaining()) {
+            int sample = pcm.get();
+            // abs(-32768) doesn't fit a short but does fit the int
+            int magnitude = sample < 0 ? -sample : sample;
+            if (magnitude > framePeak) framePeak = magnitude;
+            if (++channel == channelCount) {
+                channel = 0;
+                if (++frames == bucketEnd) {
+                    builder.add(framePeak / Amplitudes.MAX_AMPLITUDE);
+                    framePeak = 0;
+                    bucketEnd = endOfBucket(++bucket);
+                }
+            }
+        }
+        peak = framePeak;
+    }
+
+    /** Frames to drop before the first {@link #accept} call, for a resumed extraction. */
+    public static long framesBefore(long timeMicros, int sampleRate) {
+        return timeMicros * sampleRate / 1_000_000L;
+    }
+
+    /** Emits the last, partly filled interval. */
+    public void finish() {
+        if (frames > endOfBucket(bucket - 1)) {
+            builder.add(peak / Amplitudes.MAX_AMPLITUDE);
+            peak = 0;
+            bucketEnd = endOfBucket(++bucket);
+        }
+    }
+
+    // Exact frame boundaries, so rates like 22050 Hz don't drift over a long file
+    private long endOfBucket(long index) {
+        return index < 0 ? 0 : ((index + 1) * intervalMillis * sampleRate + 999) / 1000;
+    }
+}
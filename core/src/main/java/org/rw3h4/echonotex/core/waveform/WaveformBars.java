@@ -0,0 +1,79 @@
+package org.rw3h4.echonotex.core.waveform;
+
+/**
+ * Bar geometry for a scrolling recording waveform, shared by WaveformView and the
+ * Compose VoiceWaveform. The newest audio is drawn against the right edge and
+ * older audio runs to the left; each bar is centred vertically and never shorter
+ * than it is wide. Once the history holds more samples than fit across, each bar
+ * is the loudest of a run of them, so the whole history stays in view.
+ * <p>
+ * All bars are laid out in one pass into a packed (left, top, right, bottom)
+ * array that's reused between frames, so drawing a frame allocates nothing
+ * unless the view gets wider. Not thread safe; call from the draw thread.
+ */
+public final class WaveformBars {
+    private final float barWidth;
+    private final float barGap;
+
+    private float[] peaks = new float[0];
+    private float[] rects = new float[0];
+    private int barCount;
+
+    public WaveformBars(float barWidth, float barGap) {
+        this.barWidth = barWidth;
+        this.barGap = barGap;
+    }
+
+    public float getBarWidth() { return barWidth; }
+
+    public float getCornerRadius() { return barWidth / 2f; }
+
+    public int getBarCount() { return barCount; }
+
+    public float getLeft(int bar) { return rects[bar * 4]; }
+
+    public float getTop(int bar) { return rects[bar * 4 + 1]; }
+
+    public float getRight(int bar) { return rects[bar * 4 + 2]; }
+
+    public float getBottom(int bar) { return rects[bar * 4 + 3]; }
+
+    /**
+     * Lays out the history in as many bars as fit in {@code width}.
+     * Bar 0 is the newest, at the right edge.
+     *
+     * @return the number of bars laid out
+     */
+    public int layout(AmplitudeRingBuffer source, float width, float height) {
+        int maxBars = Math.min((int) (width / (barWidth + barGap)), source.capacity());
+        if (maxBars <= 0) {
+            barCount = 0;
+            return 0;
+        }
+        if (peaks.length < maxBars) {
+            peaks = new float[maxBars];
+            rects = new float[maxBars * 4];
+        }
+
+        // Runs double as the history grows, so bars only regroup when it doubles
+        // rather than shifting on every sample
+        int samplesPerBucket = 1;
+        while ((long) samplesPerBucket * maxBars < source.size()) samplesPerBucket <<= 1;
+
+        // readMinMax hands back oldest first, bars are numbered newest first
+        int count = source.readMinMax(null, peaks, maxBars, samplesPerBucket);
+        float right = width;
+        for (int bar = 0; bar < count; bar++) {
+            float barHeight = Math.max(barWidth, peaks[count - 1 - bar] * height);
+            float top = (height - barHeight) / 2f;
+            int i = bar * 4;
+            rects[i] = right - barWidth;
+            rects[i + 1] = top;
+            rects[i + 2] = right;
+            rects[i + 3] = top + barHeight;
+            right -= barWidth + barGap;
+        }
+        barCount = count;
+        return count;
+    }
+}
@@ -0,0 +1,264 @@
+package org.rw3h4.echonotex.core.waveform;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A waveform summary for a whole recording, stored as a pyramid of min/max
+ * levels. Level 0 holds one bucket per amplitude sample, and each level above it
+ * halves the bucket count. Drawing picks the coarsest level that still has at
+ * least one bucket per pixel, so any width or zoom costs O(pixels) however long
+ * the recording is.
+ * <p>
+ * Amplitudes are 0..1 and quantised to a byte each; an hour of 100 ms samples
+ * comes to about 140 KB with every level included.
+ */
+public final class WaveformPeaks {
+
+    private static final byte MAGIC_0 = 'W';
+    private static final byte MAGIC_1 = 'P';
+    public static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 2 + 1 + 4 + 4 + 1;
+
+    private final int sampleIntervalMillis;
+    private final int sampleCount;
+    // levels[k] holds interleaved (min, max) bytes, one pair per bucket of 2^k samples
+    private final byte[][] levels;
+
+    private WaveformPeaks(int sampleIntervalMillis, int sampleCount, byte[][] levels) {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        this.sampleCount = sampleCount;
+        this.levels = levels;
+    }
+
+    /** Collects samples as they arrive; the pyramid is built once at the end. */
+    public static final class Builder {
+        private final int sampleIntervalMillis;
+        private byte[] base = new byte[256];
+        private int count;
+
+        public Builder(int sampleIntervalMillis) {
+            if (sampleIntervalMillis <= 0) throw new IllegalArgumentException("sampleIntervalMillis must be positive");
+            this.sampleIntervalMillis = sampleIntervalMillis;
+        }
+
+        /** A builder that carries on after {@code partial}, to resume an interrupted extraction. */
+        public static Builder resume(WaveformPeaks partial) {
+            Builder builder = new Builder(partial.sampleIntervalMillis);
+            builder.base = Arrays.copyOf(partial.levels[0], Math.max(builder.base.length, partial.levels[0].length));
+            builder.count = partial.sampleCount;
+            return builder;
+        }
+
+        public void add(float amplitude) {
+            addRange(amplitude, amplitude);
+        }
+
+        /** Adds one sample that already summarises a span, like a decoded audio block. */
+        public void addRange(float min, float max) {
+            if (count * 2 == base.length) {
+                base = Arrays.copyOf(base, base.length * 2);
+            }
+            base[count * 2] = quantize(min);
+            base[count * 2 + 1] = quantize(max);
+            count++;
+        }
+
+        public int getIntervalMillis() {
+            return sampleIntervalMillis;
+        }
+
+        public int getSampleCount() {
+            return count;
+        }
+
+        public void clear() {
+            count = 0;
+        }
+
+        public WaveformPeaks build() {
+            int levelCount = 1;
+            for (int buckets = count; buckets > 1; buckets = (buckets + 1) / 2) {
+                levelCount++;
+            }
+            byte[][] levels = new byte[levelCount][];
+            levels[0] = Arrays.copyOf(base, count * 2);
+            for (int k = 1; k < levelCount; k++) {
+                levels[k] = reduce(levels[k - 1]);
+            }
+            return new WaveformPeaks(sampleIntervalMillis, count, levels);
+        }
+
+        // Halves a level, a trailing odd bucket carries up on its own
+        private static byte[] reduce(byte[] level) {
+            int buckets = level.length / 2;
+            byte[] reduced = new byte[((buckets + 1) / 2) * 2];
+            for (int i = 0, j = 0; i < buckets; i += 2, j += 2) {
+                int min = level[i * 2] & 0xFF;
+                int max = level[i * 2 + 1] & 0xFF;
+                if (i + 1 < buckets) {
+                    min = Math.min(min, level[i * 2 + 2] & 0xFF);
+                    max = Math.max(max, level[i * 2 + 3] & 0xFF);
+                }
+                reduced[j] = (byte) min;
+                reduced[j + 1] = (byte) max;
+            }
+            return reduced;
+        }
+    }
+
+    public int getSampleIntervalMillis() { return sampleIntervalMillis; }
+
+    public int getSampleCount() { return sampleCount; }
+
+    public int getLevelCount() { return levels.length; }
+
+    public long getDurationMillis() {
+        return (long) sampleCount * sampleIntervalMillis;
+    }
+
+    /** Lowest level of one sample, 0..1. */
+    public float getMin(int sample) { return (levels[0][sample * 2] & 0xFF) / 255f; }
+
+    /** Highest level of one sample, 0..1. */
+    public float getMax(int sample) { return (levels[0][sample * 2 + 1] & 0xFF) / 255f; }
+
+    /**
+     * Fills {@code pixels} columns covering {@code startFraction..endFraction} of
+     * the recording with the min and max amplitude under each column.
+     *
+     * @param mins may be null when only the peaks are drawn
+     * @return the number of columns written; 0 if there's nothing to draw
+     */
+    public int render(float[] mins, float[] maxs, int pixels, float startFraction, float endFraction) {
+        if (pixels <= 0 || sampleCount == 0 || endFraction <= startFraction) return 0;
+        double start = Math.max(0f, startFraction) * sampleCount;
+        double end = Math.min(1f, endFraction) * sampleCount;
+        double samplesPerPixel = (end - start) / pixels;
+
+        // Coarsest level whose buckets are no wider than a pixel
+        int level = 0;
+        while (level + 1 < levels.length && (1 << (level + 1)) <= samplesPerPixel) {
+            level++;
+        }
+        byte[] buckets = levels[level];
+        int bucketCount = buckets.length / 2;
+
+        for (int x = 0; x < pixels; x++) {
+            int first = (int) ((start + x * samplesPerPixel) / (1 << level));
+            int last = (int) Math.ceil((start + (x + 1) * samplesPerPixel) / (1 << level));
+            first = Math.min(first, bucketCount - 1);
+            last = Math.max(first + 1, Math.min(last, bucketCount));
+
+            int min = 255;
+            int max = 0;
+            for (int b = first; b < last; b++) {
+                min = Math.min(min, buckets[b * 2] & 0xFF);
+                max = Math.max(max, buckets[b * 2 + 1] & 0xFF);
+            }
+            if (mins != null) mins[x] = min / 255f;
+            maxs[x] = max / 255f;
+        }
+        return pixels;
+    }
+
+    /**
+     * The waveform of recordings joined end to end, from each one's own. Each part
+     * is cut or padded to its audio's real duration so the parts line up with the
+     * joined audio, and resampled to the first part's interval if it differs.
+     *
+     * @param durationsUs how long each part's audio is, in the same order
+     */
+    public static WaveformPeaks concat(List<WaveformPeaks> parts, long[] durationsUs) {
+        if (parts.isEmpty() || parts.size() != durationsUs.length) {
+            throw new IllegalArgumentException("Need one duration per part");
+        }
+        int interval = parts.get(0).sampleIntervalMillis;
+        long intervalUs = interval * 1000L;
+        Builder joined = new Builder(interval);
+        // Where the joined audio has got to, so rounding doesn't drift across parts
+        long endUs = 0;
+        for (int p = 0; p < parts.size(); p++) {
+            WaveformPeaks part = parts.get(p);
+            long startUs = endUs;
+            endUs += durationsUs[p];
+            long first = (startUs + intervalUs - 1) / intervalUs;
+            long last = (endUs + intervalUs - 1) / intervalUs;
+            long partIntervalUs = part.sampleIntervalMillis * 1000L;
+            for (long i = first; i < last; i++) {
+                long source = (i * intervalUs - startUs) / partIntervalUs;
+                if (source < part.sampleCount) {
+                    joined.addRange(part.getMin((int) source), part.getMax((int) source));
+                } else {
+                    // The summary stopped short of the audio; the little that's missing reads as quiet
+                    joined.add(0f);
+                }
+            }
+        }
+        return joined.build();
+    }
+
+    public byte[] toBytes() {
+        int size = HEADER_SIZE;
+        for (byte[] level : levels) size += level.length;
+        byte[] out = new byte[size];
+        out[0] = MAGIC_0;
+        out[1] = MAGIC_1;
+        out[2] = FORMAT_VERSION;
+        putInt(out, 3, sampleIntervalMillis);
+        putInt(out, 7, sampleCount);
+        out[11] = (byte) levels.length;
+        int pos = HEADER_SIZE;
+        for (byte[] level : levels) {
+            System.arraycopy(level, 0, out, pos, level.length);
+            pos += level.length;
+        }
+        return out;
+    }
+
+    /** @throws IllegalArgumentException if {@code data} isn't a peaks file this version can read */
+    public static WaveformPeaks fromBytes(byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+            throw new IllegalArgumentException("Not a waveform peaks file");
+        }
+        if (data[2] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported waveform peaks version " + data[2]);
+        }
+        int sampleIntervalMillis = getInt(data, 3);
+        int sampleCount = getInt(data, 7);
+        int levelCount = data[11] & 0xFF;
+        if (sampleIntervalMillis <= 0 || sampleCount < 0 || levelCount == 0) {
+            throw new IllegalArgumentException("Corrupt waveform peaks header");
+        }
+
+        byte[][] levels = new byte[levelCount][];
+        int pos = HEADER_SIZE;
+        int buckets = sampleCount;
+        for (int k = 0; k < levelCount; k++) {
+            int length = buckets * 2;
+            if (pos + length > data.length) throw new IllegalArgumentException("Truncated waveform peaks");
+            levels[k] = Arrays.copyOfRange(data, pos, pos + length);
+            pos += length;
+            buckets = (buckets + 1) / 2;
+        }
+        return new WaveformPeaks(sampleIntervalMillis, sampleCount, levels);
+    }
+
+    private static byte quantize(float amplitude) {
+        if (!(amplitude > 0f)) return 0;
+        if (amplitude >= 1f) return (byte) 255;
+        return (byte) Math.round(amplitude * 255f);
+    }
+
+    private static void putInt(byte[] out, int pos, int value) {
+        out[pos] = (byte) (value >>> 24);
+        out[pos + 1] = (byte) (value >>> 16);
+        out[pos + 2] = (byte) (value >>> 8);
+        out[pos + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+                | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+    }
+}
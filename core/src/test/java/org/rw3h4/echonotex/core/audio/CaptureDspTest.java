@@ -0,0 +1,227 @@
+package org.rw3h4.echonotex.core.audio;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CaptureDspTest {
+
+    private static final int RATE = 16_000;
+    private static final int BLOCK = RATE / 50;
+    // A quarter of a 20 ms block
+    private static final long BUDGET_NANOS = 5_000_000;
+
+    /** Charges each block {@link #blockNanos} of processing time. */
+    private static final class FakeClock {
+        long now;
+        long blockNanos;
+
+        long read() {
+            return now += blockNanos;
+        }
+    }
+
+    private final FakeClock clock = new FakeClock();
+    private final CaptureStats stats = new CaptureStats();
+    private final CaptureDsp dsp = new CaptureDsp(RATE, 1, stats, clock::read);
+
+    private static short[] sine(double hz, double amplitude, int millis) {
+        short[] pcm = new short[RATE * millis / 1000];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * hz * i / RATE));
+        }
+        return pcm;
+    }
+
+    /** Runs {@code pcm} through the chain in 20 ms blocks, in place. */
+    private void process(short[] pcm) {
+        for (int offset = 0; offset < pcm.length; offset += BLOCK) {
+            dsp.process(ShortBuffer.wrap(pcm, offset, Math.min(BLOCK, pcm.length - offset)));
+        }
+    }
+
+    private static float rms(short[] pcm, int fromMillis) {
+        int from = RATE * fromMillis / 1000;
+        return Pcm.rms(ShortBuffer.wrap(pcm, from, pcm.length - from));
+    }
+
+    private static float db(float linear) {
+        return (float) (20 * Math.log10(linear));
+    }
+
+    @Test
+    public void highPass_removesDc() {
+        dsp.setHighPassEnabled(true);
+        short[] pcm = new short[RATE];
+        Arrays.fill(pcm, (short) 8_000);
+        process(pcm);
+
+        // Settled well inside the first 100 ms
+        assertTrue(rms(pcm, 500) * 32767 < 1);
+    }
+
+    @Test
+    public void highPass_cutsRumbleAndKeepsVoice() {
+        dsp.setHighPassEnabled(true);
+        short[] rumble = sine(20, 0.3, 1_000);
+        process(rumble);
+        short[] voice = sine(1_000, 0.3, 1_000);
+        process(voice);
+
+        // Two octaves below 80 Hz is about -24 dB for a second-order filter
+        float reference = rms(sine(1_000, 0.3, 1_000), 500);
+        assertEquals(-24f, db(rms(rumble, 500) / reference), 1.5f);
+        assertEquals(0f, db(rms(voice, 500) / reference), 0.5f);
+    }
+
+    @Test
+    public void gain_bringsQuietSpeechUpToTarget() {
+        dsp.setGainEnabled(true);
+        // -40 dBFS RMS: 20 dB short of the target, which takes a little over 3 s at 6 dB/s
+        short[] pcm = sine(300, 0.01 * Math.sqrt(2), 5_000);
+        process(pcm);
+
+        assertEquals(-20f, db(rms(pcm, 4_500)), 0.5f);
+    }
+
+    @Test
+    public void gain_bringsLoudSpeechDownToTarget() {
+        dsp.setGainEnabled(true);
+        // -9 dBFS RMS: comes down within a few blocks, without clipping on the way
+        short[] pcm = sine(300, 0.5, 1_000);
+        process(pcm);
+
+        assertEquals(-20f, db(rms(pcm, 200)), 0.5f);
+    }
+
+    @Test
+    public void gain_neverCutsBelowItsFloor() {
+        dsp.setGainEnabled(true);
+        // Full-scale square wave at 0 dBFS would need -20 dB; the floor is -12 dB
+        short[] pcm = new short[RATE];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) ((i / 40) % 2 == 0 ? 32767 : -32767);
+        process(pcm);
+
+        assertEquals(-12f, db(rms(pcm, 500)), 0.5f);
+    }
+
+    @Test
+    public void gain_leavesRoomNoiseAlone() {
+        dsp.setGainEnabled(true);
+        short[] noise = new short[RATE * 3];
+        Random random = new Random(42);
+        // Around -60 dBFS, below what counts as speech
+        for (int i = 0; i < noise.length; i++) noise[i] = (short) Math.round(random.nextGaussian() * 33);
+        short[] before = noise.clone();
+        process(noise);
+
+        assertArrayEquals(before, noise);
+    }
+
+    @Test
+    public void gate_closesAfterHoldBelowThreshold() {
+        dsp.setGateEnabled(true);
+        short[] noise = new short[RATE];
+        Random random = new Random(7);
+        for (int i = 0; i < noise.length; i++) noise[i] = (short) Math.round(random.nextGaussian() * 33);
+        short[] before = noise.clone();
+        process(noise);
+
+        // Untouched well inside the 200 ms hold, then 20 dB down
+        int held = RATE / 10;
+        assertArrayEquals(Arrays.copyOf(before, held), Arrays.copyOf(noise, held));
+        assertEquals(-20f, db(rms(noise, 300) / rms(before, 300)), 0.5f);
+
+        // A word opens it again at once, ramping up across the first block
+        short[] word = sine(300, 0.1, 200);
+        short[] original = word.clone();
+        process(word);
+        assertArrayEquals(Arrays.copyOfRange(original, BLOCK, word.length),
+                Arrays.copyOfRange(word, BLOCK, word.length));
+    }
+
+    @Test
+    public void gate_staysOpenAboveThreshold() {
+        dsp.setGateEnabled(true);
+        // -40 dBFS RMS, between nothing and normal speech
+        short[] pcm = sine(300, 0.01 * Math.sqrt(2), 1_000);
+        short[] before = pcm.clone();
+        process(pcm);
+
+        assertArrayEquals(before, pcm);
+    }
+
+    @Test
+    public void overBudget_bypassesAfterARunOfBlocks() {
+        dsp.setHighPassEnabled(true);
+        clock.blockNanos = BUDGET_NANOS + 1;
+        for (int i = 0; i < 9; i++) process(sine(1_000, 0.1, 20));
+        assertFalse(stats.isDspBypassed());
+        process(sine(1_000, 0.1, 20));
+        assertTrue(stats.isDspBypassed());
+        assertEquals(1, stats.getDspBypasses());
+        assertEquals(10, stats.getDspOverBudget());
+
+        // Audio now comes through as captured
+        short[] dc = new short[BLOCK];
+        Arrays.fill(dc, (short) 8_000);
+        short[] before = dc.clone();
+        process(dc);
+        assertArrayEquals(before, dc);
+        assertEquals(10, stats.getDspBlocks());
+    }
+
+    @Test
+    public void overBudget_oneSlowBlockDoesNotBypass() {
+        dsp.setHighPassEnabled(true);
+        for (int i = 0; i < 30; i++) {
+            clock.blockNanos = i % 9 == 8 ? BUDGET_NANOS / 2 : BUDGET_NANOS * 2;
+            process(sine(1_000, 0.1, 20));
+        }
+        assertFalse(stats.isDspBypassed());
+        assertEquals(0, stats.getDspBypasses());
+    }
+
+    @Test
+    public void bypass_releasesOnceARetryIsUnderBudget() {
+        dsp.setHighPassEnabled(true);
+        clock.blockNanos = BUDGET_NANOS * 2;
+        process(sine(1_000, 0.1, 200));
+        assertTrue(stats.isDspBypassed());
+
+        // Still slow: the retry about a second later keeps it off
+        process(sine(1_000, 0.1, 1_000));
+        assertTrue(stats.isDspBypassed());
+        assertEquals(11, stats.getDspBlocks());
+
+        // Fast again: on at the next retry, and from then on every block
+        clock.blockNanos = BUDGET_NANOS / 2;
+        process(sine(1_000, 0.1, 980));
+        assertTrue(stats.isDspBypassed());
+        process(sine(1_000, 0.1, 20));
+        assertFalse(stats.isDspBypassed());
+        assertEquals(12, stats.getDspBlocks());
+
+        short[] dc = new short[RATE / 2];
+        Arrays.fill(dc, (short) 8_000);
+        process(dc);
+        assertEquals(37, stats.getDspBlocks());
+        assertTrue(rms(dc, 400) * 32767 < 1);
+        assertEquals(1, stats.getDspBypasses());
+    }
+
+    @Test
+    public void noStages_costNothing() {
+        short[] pcm = sine(50, 0.5, 200);
+        short[] before = pcm.clone();
+        process(pcm);
+
+        assertArrayEquals(before, pcm);
+        assertEquals(0, stats.getDspBlocks());
+        assertFalse(dsp.isAnyEnabled());
+    }
+}
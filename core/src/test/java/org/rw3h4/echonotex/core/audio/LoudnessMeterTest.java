@@ -0,0 +1,133 @@
+package org.rw3h4.echonotex.core.audio;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class LoudnessMeterTest {
+
+    private static short[] sine(int rate, double hz, double amplitude, double phase, int millis) {
+        short[] pcm = new short[rate * millis / 1000];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * hz * i / rate + phase));
+        }
+        return pcm;
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts) length += part.length;
+        short[] all = new short[length];
+        int pos = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, all, pos, part.length);
+            pos += part.length;
+        }
+        return all;
+    }
+
+    private static LoudnessMeter measure(int rate, short[] pcm) {
+        LoudnessMeter meter = new LoudnessMeter(rate, 1);
+        meter.accept(ShortBuffer.wrap(pcm));
+        meter.finish();
+        return meter;
+    }
+
+    @Test
+    public void tone_measuresAsBs1770Says() {
+        // A 997 Hz sine peaking at -20 dBFS is -23 LUFS in one channel, give or
+        // take K-weighting's +0.7 dB at 1 kHz that the -0.691 offset cancels
+        for (int rate : new int[]{16_000, 44_100, 48_000}) {
+            double lufs = measure(rate, sine(rate, 997, 0.1, 0, 5000)).getIntegratedLufs();
+            assertEquals("at " + rate + " Hz", -23.0, lufs, 0.2);
+        }
+    }
+
+    @Test
+    public void absoluteGate_ignoresSilence() {
+        int rate = 48_000;
+        double tone = measure(rate, sine(rate, 997, 0.1, 0, 5000)).getIntegratedLufs();
+        double withPauses = measure(rate, concat(new short[rate * 5], sine(rate, 997, 0.1, 0, 5000),
+                new short[rate * 5])).getIntegratedLufs();
+        // Ungated, two thirds silence would pull it down nearly 5 LU; only the few
+        // blocks straddling the edges are partly quiet and still count
+        assertEquals(tone, withPauses, 0.5);
+    }
+
+    @Test
+    public void relativeGate_ignoresQuietPassages() {
+        int rate = 48_000;
+        // 30 dB down is under the gate 10 LU below everything above -70
+        double lufs = measure(rate, concat(sine(rate, 997, 0.1, 0, 5000),
+                sine(rate, 997, 0.1 / 31.6, 0, 5000))).getIntegratedLufs();
+        assertEquals(-23.0, lufs, 0.2);
+    }
+
+    @Test
+    public void silence_isSilenceLufs() {
+        LoudnessMeter meter = measure(16_000, new short[16_000]);
+        assertEquals(LoudnessMeter.SILENCE_LUFS, meter.getIntegratedLufs(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, meter.getTruePeakDbtp(), 0);
+    }
+
+    @Test
+    public void shortRecording_stillMeasured() {
+        int rate = 48_000;
+        double lufs = measure(rate, sine(rate, 997, 0.1, 0, 250)).getIntegratedLufs();
+        assertEquals(-23.0, lufs, 0.5);
+    }
+
+    @Test
+    public void truePeak_findsOversBetweenSamples() {
+        // A quarter of the rate, 45 degrees out: every sample is at 0.707 of the
+        // real peak, which sits halfway between them
+        int rate = 48_000;
+        LoudnessMeter meter = measure(rate, sine(rate, rate / 4.0, 0.5, Math.PI / 4, 1000));
+        double samplePeakDb = 20 * Math.log10(0.5 * Math.sqrt(0.5));
+        assertEquals(20 * Math.log10(0.5), meter.getTruePeakDbtp(), 0.5);
+        assertTrue(meter.getTruePeakDbtp() > samplePeakDb + 2);
+    }
+
+    @Test
+    public void truePeak_neverBelowSamplePeak() {
+        short[] click = new short[4800];
+        click[2400] = Short.MAX_VALUE;
+        LoudnessMeter meter = measure(48_000, click);
+        assertTrue(meter.getTruePeakDbtp() >= 20 * Math.log10(32767 / 32768.0));
+    }
+
+    @Test
+    public void result_doesNotDependOnHowPcmIsFed() {
+        int rate = 44_100;
+        short[] pcm = concat(sine(rate, 440, 0.3, 0, 1500), sine(rate, 3000, 0.05, 0, 1500));
+        LoudnessMeter whole = measure(rate, pcm);
+        LoudnessMeter pieces = new LoudnessMeter(rate, 1);
+        for (int offset = 0; offset < pcm.length; offset += 777) {
+            pieces.accept(ShortBuffer.wrap(pcm, offset, Math.min(777, pcm.length - offset)));
+        }
+        pieces.finish();
+        assertEquals(whole.getIntegratedLufs(), pieces.getIntegratedLufs(), 1e-9);
+        assertEquals(whole.getTruePeakDbtp(), pieces.getTruePeakDbtp(), 1e-9);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void accept_afterFinish() {
+        LoudnessMeter meter = new LoudnessMeter(16_000, 1);
+        meter.finish();
+        meter.accept(ShortBuffer.wrap(new short[16]));
+    }
+
+    @Test
+    public void normalizationGain() {
+        // Quiet note boosted to the target
+        assertEquals(7f, LoudnessMeter.normalizationGainDb(-23, -10, -16, 10, 12, -1), 1e-6f);
+        // Boost held to its limit
+        assertEquals(12f, LoudnessMeter.normalizationGainDb(-40, -30, -16, 10, 12, -1), 1e-6f);
+        // Loud note cut, but never more than the cut limit
+        assertEquals(-10f, LoudnessMeter.normalizationGainDb(-2, 0, -16, 10, 12, -1), 1e-6f);
+        // Boost pulled back so the true peak stays under the ceiling
+        assertEquals(3f, LoudnessMeter.normalizationGainDb(-23, -4, -16, 10, 12, -1), 1e-6f);
+    }
+}
@@ -0,0 +1,99 @@
+package org.rw3h4.echonotex.core.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TimeMapTest {
+
+    // Keeps 0-2 s and 5-6 s of a 10 s recording
+    private static TimeMap twoSegments() {
+        return new TimeMap.Builder()
+                .add(0, 1_000_000)
+                .add(1_000_000, 2_000_000)
+                .add(5_000_000, 6_000_000)
+                .build(10_000_000);
+    }
+
+    @Test
+    public void builder_mergesTouchingSegments() {
+        TimeMap map = twoSegments();
+        assertEquals(2, map.getSegmentCount());
+        assertEquals(2_000_000, map.getOriginalEndUs(0));
+        assertEquals(3_000_000, map.getTrimmedDurationUs());
+        assertEquals(7_000_000, map.getRemovedUs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_rejectsOverlap() {
+        new TimeMap.Builder().add(0, 2_000_000).add(1_000_000, 3_000_000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_rejectsSegmentsPastTheEnd() {
+        new TimeMap.Builder().add(0, 2_000_000).build(1_000_000);
+    }
+
+    @Test
+    public void mapsBothWays() {
+        TimeMap map = twoSegments();
+        assertEquals(1_500_000, map.toOriginalUs(1_500_000));
+        assertEquals(5_250_000, map.toOriginalUs(2_250_000));
+        assertEquals(2_250_000, map.toTrimmedUs(5_250_000));
+        // The boundary between segments is the start of the later one
+        assertEquals(5_000_000, map.toOriginalUs(2_000_000));
+
+        for (long trimmedUs = 0; trimmedUs < map.getTrimmedDurationUs(); trimmedUs += 125_000) {
+            assertEquals(trimmedUs, map.toTrimmedUs(map.toOriginalUs(trimmedUs)));
+        }
+    }
+
+    @Test
+    public void cutMoments_mapToTheCutPoint() {
+        TimeMap map = twoSegments();
+        assertEquals(2_000_000, map.toTrimmedUs(3_000_000));
+        assertEquals(3_000_000, map.toTrimmedUs(9_000_000));
+
+        TimeMap leadingCut = new TimeMap.Builder().add(1_000_000, 2_000_000).build(2_000_000);
+        assertEquals(0, leadingCut.toTrimmedUs(500_000));
+    }
+
+    @Test
+    public void clampsOutOfRangeTimes() {
+        TimeMap map = twoSegments();
+        assertEquals(0, map.toOriginalUs(-1));
+        assertEquals(6_000_000, map.toOriginalUs(60_000_000));
+        assertEquals(0, TimeMap.identity(0).toOriginalUs(0));
+    }
+
+    @Test
+    public void bytes_roundTrip() {
+        TimeMap map = twoSegments();
+        TimeMap read = TimeMap.fromBytes(map.toBytes());
+        assertEquals(map.getOriginalDurationUs(), read.getOriginalDurationUs());
+        assertEquals(map.getSegmentCount(), read.getSegmentCount());
+        for (int i = 0; i < map.getSegmentCount(); i++) {
+            assertEquals(map.getOriginalStartUs(i), read.getOriginalStartUs(i));
+            assertEquals(map.getOriginalEndUs(i), read.getOriginalEndUs(i));
+        }
+    }
+
+    @Test
+    public void bytes_rejectsWhatItCantRead() {
+        byte[] data = twoSegments().toBytes();
+        byte[] newer = data.clone();
+        newer[2] = TimeMap.FORMAT_VERSION + 1;
+        byte[] truncated = Arrays.copyOf(data, data.length - 1);
+        byte[] notAMap = new byte[data.length];
+
+        for (byte[] bad : new byte[][]{newer, truncated, notAMap, new byte[0]}) {
+            try {
+                TimeMap.fromBytes(bad);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
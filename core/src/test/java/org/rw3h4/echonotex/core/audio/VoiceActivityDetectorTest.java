@@ -0,0 +1,104 @@
+package org.rw3h4.echonotex.core.audio;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int RATE = 16_000;
+
+    /** Builds a clip from alternating runs of room noise and a loud tone, lengths in ms. */
+    private static short[] clip(int... noiseThenToneMillis) {
+        int total = 0;
+        for (int millis : noiseThenToneMillis) total += millis;
+        short[] pcm = new short[RATE * total / 1000];
+        Random random = new Random(3);
+        int i = 0;
+        for (int run = 0; run < noiseThenToneMillis.length; run++) {
+            int end = i + RATE * noiseThenToneMillis[run] / 1000;
+            for (; i < end; i++) {
+                double noise = random.nextGaussian() * 20;
+                double tone = run % 2 == 1 ? 8_000 * Math.sin(2 * Math.PI * 220 * i / RATE) : 0;
+                pcm[i] = (short) (noise + tone);
+            }
+        }
+        return pcm;
+    }
+
+    private static TimeMap detect(short[] pcm, int chunk) {
+        VoiceActivityDetector detector = new VoiceActivityDetector(RATE, 1);
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            detector.accept(ShortBuffer.wrap(pcm, offset, Math.min(chunk, pcm.length - offset)));
+        }
+        return detector.finish();
+    }
+
+    @Test
+    public void longPause_isCutLeavingPadding() {
+        // Speech 0.5-1.5 s and 4.5-5.5 s; the hangover holds speech until 1.8 s
+        TimeMap map = detect(clip(500, 1000, 3000, 1000, 300), 4096);
+        assertEquals(2, map.getSegmentCount());
+        assertEquals(0, map.getOriginalStartUs(0));
+        assertEquals(2_000_000, map.getOriginalEndUs(0));
+        assertEquals(4_300_000, map.getOriginalStartUs(1));
+        assertEquals(5_800_000, map.getOriginalEndUs(1));
+    }
+
+    @Test
+    public void shortPause_isKept() {
+        TimeMap map = detect(clip(500, 1000, 1000, 1000, 300), 4096);
+        assertEquals(1, map.getSegmentCount());
+        assertEquals(0, map.getRemovedUs());
+    }
+
+    @Test
+    public void trailingSilence_isCutAfterPadding() {
+        TimeMap map = detect(clip(500, 1000, 2000), 4096);
+        assertEquals(1, map.getSegmentCount());
+        assertEquals(2_000_000, map.getTrimmedDurationUs());
+        assertEquals(3_500_000, map.getOriginalDurationUs());
+    }
+
+    @Test
+    public void longLeadIn_isCutUpToThePadding() {
+        TimeMap map = detect(clip(2000, 1000, 300), 4096);
+        assertEquals(1_800_000, map.getOriginalStartUs(0));
+        assertEquals(3_300_000, map.getOriginalEndUs(0));
+    }
+
+    @Test
+    public void noSpeech_cutsNothing() {
+        TimeMap map = detect(clip(5000), 4096);
+        assertEquals(0, map.getRemovedUs());
+        assertEquals(5_000_000, map.getTrimmedDurationUs());
+    }
+
+    @Test
+    public void result_doesNotDependOnHowPcmIsFed() {
+        short[] pcm = clip(500, 1000, 3000, 1000, 2000);
+        TimeMap whole = detect(pcm, pcm.length);
+        TimeMap odd = detect(pcm, 333);
+        assertSameMap(whole, odd);
+    }
+
+    @Test
+    public void stereo_matchesMono() {
+        short[] mono = clip(500, 1000, 3000, 1000, 300);
+        short[] stereo = new short[mono.length * 2];
+        for (int i = 0; i < mono.length; i++) {
+            stereo[i * 2] = mono[i];
+            stereo[i * 2 + 1] = mono[i];
+        }
+        VoiceActivityDetector detector = new VoiceActivityDetector(RATE, 2);
+        detector.accept(ShortBuffer.wrap(stereo));
+        assertSameMap(detect(mono, 4096), detector.finish());
+    }
+
+    private static void assertSameMap(TimeMap expected, TimeMap actual) {
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+}
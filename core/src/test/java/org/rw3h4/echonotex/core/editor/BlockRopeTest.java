@@ -0,0 +1,118 @@
+package org.rw3h4.echonotex.core.editor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockRopeTest {
+
+    @Test
+    public void randomEdits_matchAList() {
+        BlockRope<Integer> rope = new BlockRope<>();
+        List<Integer> expected = new ArrayList<>();
+        List<BlockRope.Node<Integer>> handles = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int step = 0; step < 5_000; step++) {
+            int op = random.nextInt(3);
+            if (op < 2 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                handles.add(index, rope.insert(index, step));
+                expected.add(index, step);
+            } else if (random.nextBoolean()) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), rope.remove(index));
+                handles.remove(index);
+            } else {
+                int index = random.nextInt(expected.size());
+                assertTrue(rope.remove(handles.remove(index)));
+                expected.remove(index);
+            }
+
+            assertEquals(expected.size(), rope.size());
+            if (!expected.isEmpty()) {
+                int probe = random.nextInt(expected.size());
+                assertEquals(expected.get(probe), rope.get(probe).getValue());
+                assertEquals(probe, rope.indexOf(handles.get(probe)));
+            }
+        }
+        assertEquals(expected, rope.toList());
+    }
+
+    @Test
+    public void removedHandles_stopResolving() {
+        BlockRope<String> rope = new BlockRope<>();
+        BlockRope.Node<String> a = rope.add("a");
+        BlockRope.Node<String> b = rope.add("b");
+        BlockRope.Node<String> c = rope.add("c");
+
+        assertTrue(rope.remove(b));
+        assertEquals(-1, rope.indexOf(b));
+        assertFalse(rope.remove(b));
+        assertEquals(1, rope.indexOf(c));
+
+        rope.clear();
+        assertTrue(rope.isEmpty());
+        assertEquals(-1, rope.indexOf(a));
+        assertEquals(-1, rope.indexOf(c));
+    }
+
+    @Test
+    public void handles_belongToTheirOwnRope() {
+        BlockRope<String> first = new BlockRope<>();
+        BlockRope<String> second = new BlockRope<>();
+        BlockRope.Node<String> node = first.add("x");
+        second.add("y");
+
+        assertEquals(-1, second.indexOf(node));
+        assertFalse(second.remove(node));
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    public void listener_hearsIndices() {
+        BlockRope<String> rope = new BlockRope<>();
+        List<String> events = new ArrayList<>();
+        rope.setListener(new BlockRope.Listener<String>() {
+            @Override
+            public void onInserted(int index, String value) {
+                events.add("+" + index + value);
+            }
+
+            @Override
+            public void onRemoved(int index, String value) {
+                events.add("-" + index + value);
+            }
+        });
+
+        rope.add("a");
+        BlockRope.Node<String> b = rope.add("b");
+        rope.insert(0, "c");
+        rope.remove(b);
+        rope.remove(0);
+        rope.clear();
+        assertEquals(Arrays.asList("+0a", "+1b", "+0c", "-2b", "-0c"), events);
+    }
+
+    @Test
+    public void outOfRange_throws() {
+        BlockRope<String> rope = new BlockRope<>();
+        rope.add("only");
+        try {
+            rope.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            rope.insert(2, "past the end");
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        assertEquals(Arrays.asList("only"), rope.toList());
+    }
+}
@@ -0,0 +1,232 @@
+package org.rw3h4.echonotex.core.editor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EditHistoryTest {
+
+    /** A document that's one string, edited through deltas the way the editor does. */
+    private static final class Document {
+        String text = "";
+
+        final class Typed implements EditHistory.Edit {
+            TextDelta delta;
+
+            Typed(TextDelta delta) {
+                this.delta = delta;
+            }
+
+            @Override
+            public void undo() {
+                text = delta.revert(text);
+            }
+
+            @Override
+            public void redo() {
+                text = delta.applyTo(text);
+            }
+
+            @Override
+            public int weight() {
+                return delta.weight();
+            }
+
+            @Override
+            public boolean absorb(EditHistory.Edit next) {
+                TextDelta merged = delta.then(((Typed) next).delta);
+                if (merged == null) return false;
+                delta = merged;
+                return true;
+            }
+        }
+
+        void edit(EditHistory history, String after, long nowMillis) {
+            TextDelta delta = TextDelta.between(text, after);
+            text = after;
+            history.record(new Typed(delta), nowMillis);
+        }
+    }
+
+    @Test
+    public void typing_coalescesWithinTheWindow() {
+        EditHistory history = new EditHistory(1000, 100, 500);
+        Document doc = new Document();
+        doc.edit(history, "h", 0);
+        doc.edit(history, "he", 400);
+        doc.edit(history, "hey", 800);
+        // Too long after the last keystroke, so a new step
+        doc.edit(history, "hey!", 1400);
+
+        assertTrue(history.undo());
+        assertEquals("hey", doc.text);
+        assertTrue(history.undo());
+        assertEquals("", doc.text);
+        assertFalse(history.undo());
+
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertEquals("hey!", doc.text);
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    public void backspacing_foldsIntoTheTyping() {
+        EditHistory history = new EditHistory(1000, 100, 500);
+        Document doc = new Document();
+        doc.text = "say ";
+        doc.edit(history, "say hi", 0);
+        doc.edit(history, "say h", 100);
+        doc.edit(history, "say", 200);
+
+        history.undo();
+        assertEquals("say ", doc.text);
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void nonAdjacentEdits_doNotCoalesce() {
+        EditHistory history = new EditHistory(1000, 100, 500);
+        Document doc = new Document();
+        doc.text = "one two";
+        doc.edit(history, "one two!", 0);
+        doc.edit(history, "One two!", 10);
+
+        history.undo();
+        assertEquals("one two!", doc.text);
+    }
+
+    @Test
+    public void undo_stopsCoalescing() {
+        EditHistory history = new EditHistory(1000, 100, 500);
+        Document doc = new Document();
+        doc.edit(history, "a", 0);
+        doc.edit(history, "ab", 10);
+        history.undo();
+        doc.edit(history, "c", 20);
+        // Recording after an undo drops what could have been redone
+        assertFalse(history.canRedo());
+        doc.edit(history, "cd", 30);
+
+        history.undo();
+        assertEquals("", doc.text);
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void transaction_undoesAsOneStep() {
+        EditHistory history = new EditHistory(1000, 100, 0);
+        Document doc = new Document();
+        history.beginTransaction();
+        doc.edit(history, "a", 0);
+        history.beginTransaction();
+        doc.edit(history, "a b", 1000);
+        history.endTransaction();
+        doc.edit(history, "a b c", 2000);
+        history.endTransaction();
+
+        history.undo();
+        assertEquals("", doc.text);
+        history.redo();
+        assertEquals("a b c", doc.text);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endTransaction_withoutBegin() {
+        new EditHistory(1000, 100, 0).endTransaction();
+    }
+
+    @Test
+    public void evicts_oldestStepsOverTheStepLimit() {
+        EditHistory history = new EditHistory(1000, 3, 0);
+        Document doc = new Document();
+        for (int i = 1; i <= 5; i++) {
+            doc.edit(history, doc.text + i, i * 1000L);
+        }
+
+        int undone = 0;
+        while (history.undo()) undone++;
+        assertEquals(3, undone);
+        assertEquals("12", doc.text);
+    }
+
+    @Test
+    public void evicts_oldestStepsOverTheWeightLimit() {
+        EditHistory history = new EditHistory(10, 100, 0);
+        Document doc = new Document();
+        doc.edit(history, "aaaaaa", 0);
+        doc.edit(history, "aaaaaabbbbbb", 1000);
+
+        assertTrue(history.undo());
+        assertEquals("aaaaaa", doc.text);
+        assertFalse(history.undo());
+    }
+
+    @Test
+    public void evicts_neverTheNewestStep() {
+        EditHistory history = new EditHistory(4, 100, 0);
+        Document doc = new Document();
+        doc.edit(history, "far too long for the limit", 0);
+
+        assertTrue(history.undo());
+        assertEquals("", doc.text);
+    }
+
+    @Test
+    public void coalescing_growsTheWeightTowardsEviction() {
+        EditHistory history = new EditHistory(5, 100, 1000);
+        Document doc = new Document();
+        doc.edit(history, "ab", 0);
+        doc.edit(history, "abc", 2000);
+        doc.edit(history, "abcdef", 2100);
+
+        // The second step grew to 4 chars, so together they're over the limit
+        assertTrue(history.undo());
+        assertEquals("ab", doc.text);
+        assertFalse(history.undo());
+    }
+
+    @Test
+    public void editsRecordedWhileApplying_areIgnored() {
+        EditHistory history = new EditHistory(1000, 100, 0);
+        EditHistory.Edit echo = new EditHistory.Edit() {
+            @Override
+            public void undo() {
+                assertTrue(history.isApplying());
+                history.record(this, 0);
+            }
+
+            @Override
+            public void redo() {
+            }
+
+            @Override
+            public int weight() {
+                return 1;
+            }
+        };
+        history.record(echo, 0);
+        history.undo();
+        assertFalse(history.canUndo());
+        assertTrue(history.canRedo());
+    }
+
+    @Test
+    public void textDelta_betweenApplyAndRevert() {
+        TextDelta delta = TextDelta.between("the cat sat", "the dog sat");
+        assertEquals(new TextDelta(4, "cat", "dog"), delta);
+        assertEquals("the dog sat", delta.applyTo("the cat sat"));
+        assertEquals("the cat sat", delta.revert("the dog sat"));
+        assertNull(TextDelta.between("same", "same"));
+        assertEquals(new TextDelta(2, "", "a"), TextDelta.between("aa", "aaa"));
+    }
+
+    @Test
+    public void textDelta_then() {
+        TextDelta typed = new TextDelta(3, "", "ab");
+        assertEquals(new TextDelta(3, "", "abc"), typed.then(new TextDelta(5, "", "c")));
+        assertEquals(new TextDelta(3, "", "a"), typed.then(new TextDelta(4, "b", "")));
+        assertEquals(new TextDelta(2, "x", ""), typed.then(new TextDelta(2, "xab", "")));
+        assertNull(typed.then(new TextDelta(0, "", "z")));
+    }
+}
@@ -0,0 +1,204 @@
+package org.rw3h4.echonotex.core.list;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ListDiffTest {
+
+    private static final class Item {
+        final long id;
+        final String contents;
+
+        Item(long id, String contents) {
+            this.id = id;
+            this.contents = contents;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) return false;
+            Item other = (Item) o;
+            return id == other.id && contents.equals(other.contents);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, contents);
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + contents;
+        }
+    }
+
+    /** Applies each step to a copy of the old list, the way a player's queue would, and logs it. */
+    private static final class Applier implements ListDiff.Patch {
+        final List<Item> list;
+        final List<Item> newList;
+        final List<String> steps = new ArrayList<>();
+
+        Applier(List<Item> oldList, List<Item> newList) {
+            this.list = new ArrayList<>(oldList);
+            this.newList = newList;
+        }
+
+        @Override
+        public void remove(int position) {
+            steps.add("remove " + position);
+            list.remove(position);
+        }
+
+        @Override
+        public void move(int from, int to) {
+            steps.add("move " + from + " " + to);
+            list.add(to, list.remove(from));
+        }
+
+        @Override
+        public void insert(int position, int newPosition) {
+            steps.add("insert " + position + " " + newPosition);
+            list.add(position, newList.get(newPosition));
+        }
+
+        @Override
+        public void change(int position) {
+            steps.add("change " + position);
+            list.set(position, newList.get(position));
+        }
+
+        long count(String step) {
+            return steps.stream().filter(s -> s.startsWith(step)).count();
+        }
+    }
+
+    private static List<Item> items(long... ids) {
+        List<Item> items = new ArrayList<>();
+        for (long id : ids) items.add(new Item(id, "v"));
+        return items;
+    }
+
+    private static Applier patch(List<Item> oldList, List<Item> newList) {
+        Applier applier = new Applier(oldList, newList);
+        ListDiff.patch(oldList, newList, item -> item.id, Item::equals, applier);
+        assertEquals(newList, applier.list);
+        return applier;
+    }
+
+    private static ListDiff.Result diff(List<Item> oldList, List<Item> newList) {
+        return ListDiff.diff(oldList, newList, item -> item.id, Item::equals);
+    }
+
+    @Test
+    public void sameList_doesNothing() {
+        List<Item> list = items(1, 2, 3);
+        assertTrue(patch(list, items(1, 2, 3)).steps.isEmpty());
+        assertTrue(diff(list, items(1, 2, 3)).isEmpty());
+    }
+
+    @Test
+    public void oneItemMoved_isOneMove() {
+        Applier applier = patch(items(1, 2, 3, 4), items(1, 3, 4, 2));
+        assertEquals(Collections.singletonList("move 1 3"), applier.steps);
+        assertEquals(1, diff(items(1, 2, 3, 4), items(1, 3, 4, 2)).getMoved());
+    }
+
+    @Test
+    public void inserts_goInWithoutMovingAnything() {
+        Applier applier = patch(items(1, 3), items(0, 1, 2, 3, 4));
+        assertEquals(3, applier.count("insert"));
+        assertEquals(3, applier.steps.size());
+        assertEquals(3, diff(items(1, 3), items(0, 1, 2, 3, 4)).getInserted());
+    }
+
+    @Test
+    public void removals_goBackToFront() {
+        Applier applier = patch(items(1, 2, 3, 4), items(2, 4));
+        assertEquals(Arrays.asList("remove 2", "remove 0"), applier.steps);
+        assertEquals(2, diff(items(1, 2, 3, 4), items(2, 4)).getRemoved());
+    }
+
+    @Test
+    public void reversal_movesAllButOne() {
+        Applier applier = patch(items(1, 2, 3, 4, 5), items(5, 4, 3, 2, 1));
+        assertEquals(4, applier.count("move"));
+        assertEquals(4, applier.steps.size());
+        assertEquals(4, diff(items(1, 2, 3, 4, 5), items(5, 4, 3, 2, 1)).getMoved());
+    }
+
+    @Test
+    public void changedContents_inPlace() {
+        List<Item> newList = items(1, 2, 3);
+        newList.set(1, new Item(2, "edited"));
+        assertEquals(Collections.singletonList("change 1"), patch(items(1, 2, 3), newList).steps);
+        assertEquals(1, diff(items(1, 2, 3), newList).getChanged());
+    }
+
+    @Test
+    public void steps_comeRemovalsFirstAndChangesLast() {
+        List<Item> oldList = items(1, 2, 3, 4, 5, 6);
+        List<Item> newList = items(7, 6, 2, 4, 1, 8);
+        newList.set(3, new Item(4, "edited"));
+        newList.set(4, new Item(1, "edited"));
+        Applier applier = patch(oldList, newList);
+
+        int lastRemove = -1;
+        int firstReorder = Integer.MAX_VALUE;
+        int lastReorder = -1;
+        int firstChange = Integer.MAX_VALUE;
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < applier.steps.size(); i++) {
+            String step = applier.steps.get(i);
+            if (step.startsWith("remove")) {
+                lastRemove = i;
+            } else if (step.startsWith("change")) {
+                firstChange = Math.min(firstChange, i);
+                changed.add(Integer.parseInt(step.substring("change ".length())));
+            } else {
+                firstReorder = Math.min(firstReorder, i);
+                lastReorder = i;
+            }
+        }
+        assertTrue(applier.steps.toString(), lastRemove < firstReorder);
+        assertTrue(applier.steps.toString(), lastReorder < firstChange);
+        // Changes name final positions, so they come in order once everything is in place
+        assertEquals(Arrays.asList(3, 4), changed);
+        assertEquals(2, applier.count("remove"));
+        assertEquals(2, applier.count("insert"));
+    }
+
+    @Test
+    public void randomEdits_matchTheNewListInTheFewestMoves() {
+        Random random = new Random(46);
+        for (int round = 0; round < 2_000; round++) {
+            int oldSize = random.nextInt(12);
+            List<Item> oldList = new ArrayList<>();
+            for (int i = 0; i < oldSize; i++) oldList.add(new Item(i, "v"));
+
+            List<Item> newList = new ArrayList<>();
+            for (Item item : oldList) {
+                if (random.nextInt(4) == 0) continue;
+                newList.add(random.nextInt(5) == 0 ? new Item(item.id, "edited") : item);
+            }
+            int inserts = random.nextInt(4);
+            for (int i = 0; i < inserts; i++) newList.add(new Item(100 + i, "new"));
+            Collections.shuffle(newList, random);
+
+            Applier applier = patch(oldList, newList);
+            ListDiff.Result result = diff(oldList, newList);
+            String message = oldList + " -> " + newList + ": " + applier.steps;
+            assertEquals(message, result.getRemoved(), applier.count("remove"));
+            assertEquals(message, result.getInserted(), applier.count("insert"));
+            assertEquals(message, result.getChanged(), applier.count("change"));
+            assertEquals(message, result.getMoved(), applier.count("move"));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.rw3h4.echonotex.core.note;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlockCodecTest {
+
+    private static ContentBlock roundTrip(ContentBlock block) {
+        return BlockCodec.decode(BlockCodec.encode(block));
+    }
+
+    @Test
+    public void text_roundTripsWithSpans() {
+        ContentBlock.Text block = new ContentBlock.Text("Hello \u00E9\u4E16\u754C \uD83D\uDE00\nnext line",
+                new int[]{0, 5, ContentBlock.Text.STYLE_BOLD, 3, 14, ContentBlock.Text.STYLE_ITALIC
+                        | ContentBlock.Text.STYLE_UNDERLINE});
+        assertEquals(block, roundTrip(block));
+    }
+
+    @Test
+    public void text_emptyAndLong() {
+        assertEquals(new ContentBlock.Text(""), roundTrip(new ContentBlock.Text("")));
+
+        char[] chars = new char[200_000];
+        Arrays.fill(chars, 'x');
+        ContentBlock.Text longBlock = new ContentBlock.Text(new String(chars),
+                new int[]{150_000, 199_999, ContentBlock.Text.STYLE_BOLD});
+        assertEquals(longBlock, roundTrip(longBlock));
+    }
+
+    @Test
+    public void image_roundTrips() {
+        ContentBlock.Image image = new ContentBlock.Image("content://media/external/images/1?x=\"1\"", 0.35f);
+        assertEquals(image, roundTrip(image));
+    }
+
+    @Test
+    public void encode_startsWithVersionAndType() {
+        byte[] data = BlockCodec.encode(new ContentBlock.Text("a"));
+        assertEquals(BlockCodec.FORMAT_VERSION, data[0]);
+        assertEquals(BlockCodec.TYPE_TEXT, data[1]);
+    }
+
+    @Test
+    public void decode_rejectsUnknownVersion() {
+        byte[] data = BlockCodec.encode(new ContentBlock.Text("from the future"));
+        data[0] = (byte) (BlockCodec.FORMAT_VERSION + 1);
+        try {
+            BlockCodec.decode(data);
+            fail("Decoded a block from an unknown format version");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void decode_rejectsUnknownType() {
+        byte[] data = BlockCodec.encode(new ContentBlock.Text("checklist"));
+        data[1] = 3;
+        try {
+            BlockCodec.decode(data);
+            fail("Decoded a reserved block type");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("type"));
+        }
+    }
+
+    @Test
+    public void decode_rejectsSpanCountsTheDataCantHold() {
+        byte[][] counts = {
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, // Integer.MAX_VALUE
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}, // -1
+                {(byte) 0xE8, 0x07, 0, 1, 1},                               // 1000, then one span
+        };
+        for (byte[] count : counts) {
+            byte[] data = new byte[4 + count.length];
+            data[0] = BlockCodec.FORMAT_VERSION;
+            data[1] = BlockCodec.TYPE_TEXT;
+            data[2] = 1;
+            data[3] = 'a';
+            System.arraycopy(count, 0, data, 4, count.length);
+            try {
+                BlockCodec.decode(data);
+                fail("Decoded " + Arrays.toString(count) + " spans");
+            } catch (IllegalArgumentException expected) {
+                // Not NegativeArraySizeException or OutOfMemoryError
+            }
+        }
+    }
+
+    @Test
+    public void decode_rejectsSpansOutsideTheText() {
+        byte[] data = BlockCodec.encode(new ContentBlock.Text("abc", new int[]{1, 3, ContentBlock.Text.STYLE_BOLD}));
+        // The span's length, just before its style byte: 1..3 becomes 1..5
+        data[data.length - 2] = 4;
+        try {
+            BlockCodec.decode(data);
+            fail("Decoded a span past the end of the text");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void decode_rejectsTruncatedData() {
+        byte[] data = BlockCodec.encode(new ContentBlock.Text("cut short", new int[]{0, 3, 1}));
+        for (int length = 0; length < data.length; length++) {
+            try {
+                BlockCodec.decode(Arrays.copyOf(data, length));
+                fail("Decoded " + length + " of " + data.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+                // Every prefix is missing something
+            }
+        }
+    }
+}
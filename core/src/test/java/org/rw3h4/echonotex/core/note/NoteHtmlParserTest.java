@@ -0,0 +1,137 @@
+package org.rw3h4.echonotex.core.note;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NoteHtmlParserTest {
+
+    private static final int BOLD = ContentBlock.Text.STYLE_BOLD;
+    private static final int ITALIC = ContentBlock.Text.STYLE_ITALIC;
+    private static final int UNDERLINE = ContentBlock.Text.STYLE_UNDERLINE;
+
+    /** Parses, writes the blocks back out and parses that, which has to give the same blocks. */
+    private static List<ContentBlock> assertRoundTrips(String html) {
+        List<ContentBlock> parsed = NoteHtmlParser.parseForEditing(html);
+        String written = NoteHtmlSerializer.serialize(parsed);
+        assertEquals(parsed, NoteHtmlParser.parseForEditing(written));
+        assertEquals(written.length(), NoteHtmlSerializer.measure(parsed));
+        return parsed;
+    }
+
+    private static ContentBlock.Text text(String text, int... spans) {
+        return new ContentBlock.Text(text, spans);
+    }
+
+    @Test
+    public void roundTrip_plainParagraphs() {
+        List<ContentBlock> blocks = assertRoundTrips("<p>First</p><p>Second line<br>and its second half</p>");
+        assertEquals(Arrays.asList(text("First"), text("Second line\nand its second half")), blocks);
+    }
+
+    @Test
+    public void roundTrip_escapedCharacters() {
+        List<ContentBlock> blocks = assertRoundTrips("<p>a &amp; b &lt; c &gt; d &amp;amp;</p>");
+        assertEquals(text("a & b < c > d &amp;"), blocks.get(0));
+    }
+
+    @Test
+    public void serialize_escapesWhatWasTyped() {
+        List<ContentBlock> blocks = Arrays.asList(text("<b>not bold</b> & <br>\nnext"));
+        String html = NoteHtmlSerializer.serialize(blocks);
+        assertEquals("<p>&lt;b&gt;not bold&lt;/b&gt; &amp; &lt;br&gt;<br>next</p>", html);
+        assertEquals(blocks, NoteHtmlParser.parseForEditing(html));
+    }
+
+    @Test
+    public void roundTrip_nestedAndOverlappingSpans() {
+        List<ContentBlock> blocks = assertRoundTrips("<p><b>bo<i>th</i></b><i> it</i> <u>under</u></p>");
+        assertEquals(text("both it under", 0, 2, BOLD, 2, 4, BOLD | ITALIC, 4, 7, ITALIC, 8, 13, UNDERLINE),
+                blocks.get(0));
+    }
+
+    @Test
+    public void serialize_overlappingSpansReopenOnlyWhatChanged() {
+        List<ContentBlock> blocks = Arrays.asList(text("hello world", 0, 5, BOLD, 3, 11, ITALIC));
+        assertEquals("<p><b>hel<i>lo</i></b><i> world</i></p>", NoteHtmlSerializer.serialize(blocks));
+    }
+
+    @Test
+    public void roundTrip_imagesSplitParagraphs() {
+        List<ContentBlock> blocks = assertRoundTrips(
+                "<p>Before<img src=\"content://img?a=1&amp;b=&quot;2&quot;\" style=\"width:50%; height:auto;\" />after</p>");
+        assertEquals(Arrays.asList(
+                text("Before"),
+                new ContentBlock.Image("content://img?a=1&b=\"2\"", 0.5f),
+                text("after")), blocks);
+    }
+
+    @Test
+    public void parseForEditing_alwaysEndsWithText() {
+        assertEquals(Arrays.asList(text("")), NoteHtmlParser.parseForEditing(null));
+        assertEquals(Arrays.asList(text("")), NoteHtmlParser.parseForEditing("  "));
+
+        List<ContentBlock> blocks = NoteHtmlParser.parseForEditing("<img src=\"x\" />");
+        assertEquals(2, blocks.size());
+        assertEquals(text(""), blocks.get(1));
+    }
+
+    @Test
+    public void malformed_strayAngleBracketIsText() {
+        assertEquals(text("a < b and c <= d"), assertRoundTrips("<p>a < b and c <= d</p>").get(0));
+    }
+
+    @Test
+    public void malformed_unclosedTagsStillKeepTheText() {
+        assertEquals(Arrays.asList(text("unclosed bold", 9, 13, BOLD)),
+                assertRoundTrips("<p>unclosed <b>bold"));
+        assertEquals(Arrays.asList(text("extra close")), assertRoundTrips("<p>extra</b></i> close</p></p>"));
+    }
+
+    @Test
+    public void malformed_truncatedMarkupIsDropped() {
+        assertEquals(Arrays.asList(text("kept")), assertRoundTrips("<p>kept</p><img src=\"never-closed"));
+        assertEquals(Arrays.asList(text("kept")), assertRoundTrips("<p>kept</p><!-- never closed <p>gone</p>"));
+    }
+
+    @Test
+    public void malformed_unknownReferencesStayLiteral() {
+        assertEquals(text("caf&eacute; & co &#xZZ; &"),
+                assertRoundTrips("<p>caf&eacute; & co &#xZZ; &</p>").get(0));
+    }
+
+    @Test
+    public void legacy_divsStrongEmAndReferences() {
+        String html = "<!DOCTYPE html><html><head><title>t</title><style>p { color: red; }</style>"
+                + "<script>if (a < b) alert('x');</script></head><body>"
+                + "<div>One</div>\n<div><strong>Two</strong> <em>three</em>&nbsp;caf&#233; &#xE9;</div>"
+                + "<span class=\"x\">loose</span></body></html>";
+        assertEquals(Arrays.asList(
+                text("t"),
+                text("One"),
+                text("Two three\u00A0caf\u00E9 \u00E9", 0, 3, BOLD, 4, 9, ITALIC),
+                text("loose")), assertRoundTrips(html));
+    }
+
+    @Test
+    public void legacy_sourceLineBreaksAreSpaces() {
+        assertEquals(text("one two three"), NoteHtmlParser.parseForEditing("<p>one\ntwo\tthree</p>").get(0));
+    }
+
+    @Test
+    public void legacy_imageWidths() {
+        assertEquals(0.4f, NoteHtmlParser.widthFraction("width: 40%; height:auto;"), 0f);
+        assertEquals(0.75f, NoteHtmlParser.widthFraction("max-width:100%;width:75%"), 0f);
+        assertEquals(1.0f, NoteHtmlParser.widthFraction("width:300px"), 0f);
+        assertEquals(1.0f, NoteHtmlParser.widthFraction(null), 0f);
+    }
+
+    @Test
+    public void parseForReading_dropsBlankParagraphs() {
+        assertEquals(Arrays.asList(text("a"), text("b")),
+                NoteHtmlParser.parseForReading("<p>a</p><p> </p><p></p><p>b</p>"));
+    }
+}
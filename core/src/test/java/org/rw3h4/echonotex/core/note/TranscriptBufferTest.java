@@ -0,0 +1,71 @@
+package org.rw3h4.echonotex.core.note;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TranscriptBufferTest {
+
+    @Test
+    public void finalResults_areAlwaysKept() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        assertTrue(transcript.commit("yes"));
+        // Said twice, or a final that happens to end the last one: both are real
+        assertTrue(transcript.commit("yes"));
+        assertTrue(transcript.commit("I said yes"));
+        assertTrue(transcript.commit("said yes"));
+        assertEquals("yes yes I said yes said yes", transcript.toText());
+    }
+
+    @Test
+    public void blankFinal_addsNothing() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        transcript.setPartial("half");
+        assertFalse(transcript.commit("  "));
+        assertEquals(0, transcript.getSegmentCount());
+        assertEquals("", transcript.getPartial());
+    }
+
+    @Test
+    public void commitPartial_settlesIt() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        transcript.commit("first");
+        transcript.setPartial(" and then ");
+        assertTrue(transcript.commitPartial());
+        assertEquals("and then", transcript.getSegment(1));
+        assertEquals("", transcript.getPartial());
+        assertFalse(transcript.commitPartial());
+    }
+
+    @Test
+    public void commitPartial_dropsAStaleRepeat() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        transcript.commit("meet me at two");
+        transcript.setPartial("at  two");
+        assertFalse(transcript.commitPartial());
+        assertEquals(1, transcript.getSegmentCount());
+        assertEquals("", transcript.getPartial());
+    }
+
+    @Test
+    public void commitPartial_comparesWholeWords() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        transcript.commit("all alone");
+        transcript.setPartial("one");
+        assertTrue(transcript.commitPartial());
+        transcript.setPartial("and all alone");
+        assertTrue(transcript.commitPartial());
+        assertEquals(3, transcript.getSegmentCount());
+    }
+
+    @Test
+    public void restore_keepsEverySegment() {
+        TranscriptBuffer transcript = new TranscriptBuffer();
+        transcript.restore(Arrays.asList("again", "again", "", "and again"));
+        assertEquals(3, transcript.getSegmentCount());
+        transcript.setPartial("more");
+        assertEquals("again again and again more", transcript.toText());
+    }
+}
@@ -0,0 +1,112 @@
+package org.rw3h4.echonotex.core.waveform;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AmplitudeRingBufferTest {
+
+    private static AmplitudeRingBuffer filled(int capacity, float... samples) {
+        AmplitudeRingBuffer ring = new AmplitudeRingBuffer(capacity);
+        for (float sample : samples) ring.add(sample);
+        return ring;
+    }
+
+    private static AmplitudeRingBuffer counting(int capacity, int count) {
+        AmplitudeRingBuffer ring = new AmplitudeRingBuffer(capacity);
+        for (int i = 0; i < count; i++) ring.add(i);
+        return ring;
+    }
+
+    @Test
+    public void capacity_roundsUpToAPowerOfTwo() {
+        assertEquals(128, new AmplitudeRingBuffer(100).capacity());
+        assertEquals(64, new AmplitudeRingBuffer(64).capacity());
+        assertEquals(1, new AmplitudeRingBuffer(1).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePositive() {
+        new AmplitudeRingBuffer(0);
+    }
+
+    @Test
+    public void wrapsAround_keepingTheNewest() {
+        AmplitudeRingBuffer ring = counting(4, 6);
+        assertEquals(4, ring.size());
+        assertEquals(6, ring.getWrittenCount());
+        assertEquals(5f, ring.getLatest(0), 0f);
+        assertEquals(2f, ring.getLatest(3), 0f);
+        try {
+            ring.getLatest(4);
+            fail("Read a sample that was overwritten");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void clear_emptiesIt() {
+        AmplitudeRingBuffer ring = counting(4, 3);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.readMinMax(null, new float[4], 4, 1));
+    }
+
+    @Test
+    public void readMinMax_bucketsOldestFirst() {
+        AmplitudeRingBuffer ring = filled(8, 3, 1, 4, 1, 5, 9, 2, 6);
+        float[] mins = new float[4];
+        float[] maxs = new float[4];
+        assertEquals(4, ring.readMinMax(mins, maxs, 4, 2));
+        assertArrayEquals(new float[]{1, 1, 5, 2}, mins, 0f);
+        assertArrayEquals(new float[]{3, 4, 9, 6}, maxs, 0f);
+    }
+
+    @Test
+    public void readMinMax_leavesOutThePartlyFilledNewestBucket() {
+        float[] maxs = new float[8];
+        assertEquals(3, counting(16, 11).readMinMax(null, maxs, 8, 3));
+        assertArrayEquals(new float[]{2, 5, 8}, Arrays.copyOf(maxs, 3), 0f);
+    }
+
+    @Test
+    public void readMinMax_onlyBucketsWhoseSamplesAreAllStillThere() {
+        // 0..8 written into 4: 5..8 are left, so the bucket 4-5 is gone and 6-7 is all there is
+        float[] mins = new float[4];
+        float[] maxs = new float[4];
+        assertEquals(1, counting(4, 9).readMinMax(mins, maxs, 4, 2));
+        assertEquals(6f, mins[0], 0f);
+        assertEquals(7f, maxs[0], 0f);
+
+        // Across the wrap: 6..13 in a ring of 8
+        assertEquals(4, counting(8, 14).readMinMax(mins, maxs, 4, 2));
+        assertArrayEquals(new float[]{6, 8, 10, 12}, mins, 0f);
+        assertArrayEquals(new float[]{7, 9, 11, 13}, maxs, 0f);
+    }
+
+    @Test
+    public void readMinMax_returnsTheNewestWhenThereAreMoreThanAsked() {
+        float[] maxs = new float[2];
+        assertEquals(2, counting(8, 8).readMinMax(null, maxs, 2, 1));
+        assertArrayEquals(new float[]{6, 7}, maxs, 0f);
+    }
+
+    @Test
+    public void readMinMax_bucketsStayPutAsSamplesArrive() {
+        AmplitudeRingBuffer ring = counting(64, 20);
+        float[] before = new float[4];
+        ring.readMinMax(null, before, 4, 4);
+        // Not enough for a new bucket yet, so nothing moves
+        ring.add(100);
+        float[] after = new float[4];
+        ring.readMinMax(null, after, 4, 4);
+        assertArrayEquals(before, after, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readMinMax_rejectsEmptyBuckets() {
+        counting(4, 4).readMinMax(null, new float[4], 4, 0);
+    }
+}
@@ -0,0 +1,46 @@
+package org.rw3h4.echonotex.core.waveform;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaveformBarsTest {
+
+    private static AmplitudeRingBuffer tenths(int count) {
+        AmplitudeRingBuffer ring = new AmplitudeRingBuffer(64);
+        for (int i = 1; i <= count; i++) ring.add(i / 10f);
+        return ring;
+    }
+
+    @Test
+    public void shortHistory_isOneBarPerSample() {
+        WaveformBars bars = new WaveformBars(1, 1);
+        // Room for 4 bars, 3 samples
+        assertEquals(3, bars.layout(tenths(3), 8, 100));
+        assertEquals(30f, bars.getBottom(0) - bars.getTop(0), 1e-4f);
+        assertEquals(10f, bars.getBottom(2) - bars.getTop(2), 1e-4f);
+    }
+
+    @Test
+    public void longHistory_isDownsampledToTheLoudestOfEachRun() {
+        WaveformBars bars = new WaveformBars(1, 1);
+        // 10 samples, room for 4 bars: runs of 4, and the newest 2 wait for their run to fill
+        assertEquals(2, bars.layout(tenths(10), 8, 100));
+        assertEquals(7f, bars.getLeft(0), 0f);
+        assertEquals(8f, bars.getRight(0), 0f);
+        assertEquals(10f, bars.getTop(0), 1e-4f);
+        assertEquals(90f, bars.getBottom(0), 1e-4f);
+        assertEquals(5f, bars.getLeft(1), 0f);
+        assertEquals(40f, bars.getBottom(1) - bars.getTop(1), 1e-4f);
+    }
+
+    @Test
+    public void quietBars_areNoShorterThanTheyAreWide() {
+        AmplitudeRingBuffer ring = new AmplitudeRingBuffer(4);
+        ring.add(0f);
+        WaveformBars bars = new WaveformBars(6, 2);
+        assertEquals(1, bars.layout(ring, 100, 100));
+        assertEquals(6f, bars.getBottom(0) - bars.getTop(0), 0f);
+        assertEquals(0, bars.layout(ring, 5, 100));
+    }
+}
@@ -22,4 +22,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "EchoNote"
 include(":app")
+include(":core")
  
\ No newline at end of file